@@ -0,0 +1,89 @@
+package com.revolut.akalikin.benchmark;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.data.offheap.OffHeapStore;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.operation.WriteOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of creating new accounts, into a store starting empty at every iteration.
+ * The allocation per operation includes the account ID built by the benchmark itself.
+ *
+ * Run: java -jar target/benchmarks.jar AccountCreationBenchmark -prof gc -t 4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AccountCreationBenchmark {
+
+    /**
+     * More than the accounts created in an iteration of a second.
+     */
+    private static final int OFF_HEAP_CAPACITY = 1 << 24;
+
+    @Param({"in-memory", "off-heap"})
+    public String store;
+
+    private final AtomicInteger threads = new AtomicInteger();
+    private Store accountStore;
+    private WriteOperation writeOperation;
+
+    /**
+     * Source of the account IDs of a benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Ids {
+
+        private String prefix;
+        private int next;
+
+        @Setup
+        public void setup(AccountCreationBenchmark benchmark) {
+            prefix = "account-" + benchmark.threads.getAndIncrement() + "-";
+        }
+
+        String next() {
+            return prefix + next++;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        accountStore = "off-heap".equals(store) ? new OffHeapStore(OFF_HEAP_CAPACITY) : new InMemoryStore();
+        writeOperation = new WriteOperation(accountStore, new AccountLockHolder());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        if (accountStore instanceof OffHeapStore) {
+            ((OffHeapStore) accountStore).close();
+        }
+    }
+
+    @Benchmark
+    public Account create(Ids ids) throws Throwable {
+        return writeOperation.createAccount(ids.next(), Optional.of(100L));
+    }
+}
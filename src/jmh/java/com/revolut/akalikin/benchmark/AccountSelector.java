@@ -0,0 +1,97 @@
+package com.revolut.akalikin.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the accounts of the benchmark operations, by their index.
+ * Stateless once built, so a single selector is shared by all the benchmark threads.
+ */
+abstract class AccountSelector {
+
+    static final String UNIFORM = "uniform";
+    static final String ZIPFIAN = "zipfian";
+
+    final int accountCount;
+
+    private AccountSelector(int accountCount) {
+        this.accountCount = accountCount;
+    }
+
+    static AccountSelector of(String distribution, int accountCount) {
+        switch (distribution) {
+            case UNIFORM:
+                return new Uniform(accountCount);
+            case ZIPFIAN:
+                return new Zipfian(accountCount, 0.99);
+            default:
+                throw new IllegalArgumentException("Unknown distribution: " + distribution);
+        }
+    }
+
+    abstract int next(ThreadLocalRandom random);
+
+    /**
+     * Picks a different account than the given one.
+     */
+    int nextOther(ThreadLocalRandom random, int account) {
+        int other = next(random);
+        return other != account ? other : (account + 1) % accountCount;
+    }
+
+    private static final class Uniform extends AccountSelector {
+
+        Uniform(int accountCount) {
+            super(accountCount);
+        }
+
+        @Override
+        int next(ThreadLocalRandom random) {
+            return random.nextInt(accountCount);
+        }
+    }
+
+    /**
+     * Zipfian distribution, the account 0 being the most popular, as generated by YCSB
+     * (Gray et al., "Quickly generating billion-record synthetic databases").
+     * Sampled into a table up front, so that picking an account costs as little as with the uniform distribution.
+     */
+    private static final class Zipfian extends AccountSelector {
+
+        private static final int SAMPLES = 1 << 20;
+
+        private final int[] samples = new int[SAMPLES];
+
+        Zipfian(int accountCount, double theta) {
+            super(accountCount);
+            double zetaN = zeta(accountCount, theta);
+            double alpha = 1.0 / (1.0 - theta);
+            double eta = (1 - Math.pow(2.0 / accountCount, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+            double secondThreshold = 1.0 + Math.pow(0.5, theta);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < SAMPLES; i++) {
+                double u = random.nextDouble();
+                double uz = u * zetaN;
+                if (uz < 1.0) {
+                    samples[i] = 0;
+                } else if (uz < secondThreshold) {
+                    samples[i] = 1;
+                } else {
+                    samples[i] = Math.min(accountCount - 1, (int) (accountCount * Math.pow(eta * u - eta + 1, alpha)));
+                }
+            }
+        }
+
+        @Override
+        int next(ThreadLocalRandom random) {
+            return samples[random.nextInt(SAMPLES)];
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.revolut.akalikin.benchmark;
+
+import com.revolut.akalikin.controller.binary.BinaryProtocol;
+import com.revolut.akalikin.controller.binary.BinaryTransferClient;
+import com.revolut.akalikin.launcher.AccountTransferServiceLauncher;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of transfers through the whole service in-process, over the REST API and over the binary protocol,
+ * one request at a time per connection, and pipelined on the binary protocol.
+ *
+ *   java -jar target/benchmarks.jar BinaryProtocolBenchmark -t 4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinaryProtocolBenchmark {
+
+    private static final int HTTP_PORT = 8080;
+    private static final int BINARY_PORT = 8081;
+    private static final int ACCOUNTS = 1000;
+    private static final long BALANCE = Long.MAX_VALUE / ACCOUNTS;
+    private static final int PIPELINE = 64;
+
+    private final String[] accountIds = new String[ACCOUNTS];
+    private HttpServer server;
+
+    /**
+     * Connections of a benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Connections {
+
+        HttpConnection http;
+        BinaryTransferClient binary;
+
+        @Setup
+        public void setup() throws IOException {
+            http = new HttpConnection("localhost", HTTP_PORT);
+            binary = new BinaryTransferClient(new InetSocketAddress("localhost", BINARY_PORT));
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            http.close();
+            binary.close();
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        System.setProperty(AccountTransferServiceLauncher.BINARY_PORT_PROPERTY, Integer.toString(BINARY_PORT));
+        server = AccountTransferServiceLauncher.startServer();
+        try (BinaryTransferClient client = new BinaryTransferClient(new InetSocketAddress("localhost", BINARY_PORT))) {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accountIds[i] = "binary-benchmark-" + i;
+                client.create(accountIds[i], BALANCE);
+            }
+            for (int i = 0; i < ACCOUNTS; i++) {
+                check(client.receive(), client);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.shutdownNow();
+    }
+
+    @Benchmark
+    public int restTransfer(Connections connections) throws IOException {
+        int from = randomAccount();
+        int status = connections.http.request("PATCH",
+                "/v1/accounts/from/" + accountIds[from] + "/to/" + accountIds[otherAccount(from)], "1");
+        if (status != 200) {
+            throw new IllegalStateException("Transfer failed: " + status + " " + connections.http.body());
+        }
+        return status;
+    }
+
+    @Benchmark
+    public byte binaryTransfer(Connections connections) throws IOException {
+        int from = randomAccount();
+        connections.binary.transfer(accountIds[from], accountIds[otherAccount(from)], 1L);
+        return check(connections.binary.receive(), connections.binary);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public byte binaryPipelinedTransfers(Connections connections) throws IOException {
+        for (int i = 0; i < PIPELINE; i++) {
+            int from = randomAccount();
+            connections.binary.transfer(accountIds[from], accountIds[otherAccount(from)], 1L);
+        }
+        byte status = BinaryProtocol.OK;
+        for (int i = 0; i < PIPELINE; i++) {
+            status = check(connections.binary.receive(), connections.binary);
+        }
+        return status;
+    }
+
+    private static int randomAccount() {
+        return ThreadLocalRandom.current().nextInt(ACCOUNTS);
+    }
+
+    private static int otherAccount(int account) {
+        int other = ThreadLocalRandom.current().nextInt(ACCOUNTS - 1);
+        return other >= account ? other + 1 : other;
+    }
+
+    private static byte check(byte status, BinaryTransferClient client) {
+        if (status != BinaryProtocol.OK) {
+            throw new IllegalStateException("Request failed: " + status + " " + client.getMessage());
+        }
+        return status;
+    }
+}
@@ -0,0 +1,246 @@
+package com.revolut.akalikin.benchmark;
+
+import com.owlike.genson.Genson;
+import com.revolut.akalikin.cluster.Cluster;
+import com.revolut.akalikin.launcher.AccountTransferServiceLauncher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput of transfers against partitioned clusters of growing size, every node a separate JVM on this host.
+ *
+ * For every cluster size, starts the nodes on consecutive ports, creates the accounts on their owners, then sends
+ * transfers between random accounts for a fixed time, as fast as the connections get responses, each one to the node
+ * owning its debited account, as a client routing with the same {@link Cluster} would; with N nodes, about (N-1)/N
+ * of the transfers cross nodes. Finally checks that the balances of all the accounts of all the nodes, including
+ * the internal accounts of the transfers in flight, still sum up to the money created.
+ *
+ *   java -cp target/benchmarks.jar com.revolut.akalikin.benchmark.ClusterScaling --nodes=1,2,4,8 --duration=20
+ *
+ * Options: --nodes (cluster sizes), --duration (seconds of transfers), --warmup (seconds of transfers not
+ * recorded), --accounts, --connections, --port (port of the first node), --heap (maximum heap of every node).
+ * The nodes share the cores of the host, so the numbers show the cost of the cross-node protocol, and scale with
+ * the nodes only as far as the host has cores to give them.
+ */
+public final class ClusterScaling {
+
+    private static final Genson GENSON = new Genson();
+    private static final long BALANCE = 1_000_000;
+    private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final Pattern PENDING_NONE = Pattern.compile("(?m)^cluster_pending 0$");
+
+    private final Cluster cluster;
+    private final String[] accountIds;
+
+    private ClusterScaling(Cluster cluster, int accountCount) {
+        this.cluster = cluster;
+        this.accountIds = new String[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accountIds[i] = "scaling-" + i;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        int duration = Integer.parseInt(options.getOrDefault("duration", "20"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        int accountCount = Integer.parseInt(options.getOrDefault("accounts", "10000"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "32"));
+        int port = Integer.parseInt(options.getOrDefault("port", "9100"));
+        String heap = options.getOrDefault("heap", "256m");
+
+        List<String> results = new ArrayList<>();
+        for (String size : options.getOrDefault("nodes", "1,2,4,8").split(",")) {
+            int nodeCount = Integer.parseInt(size.trim());
+            List<URI> nodes = new ArrayList<>();
+            for (int i = 0; i < nodeCount; i++) {
+                nodes.add(URI.create("http://localhost:" + (port + i) + "/"));
+            }
+            List<Process> processes = startNodes(nodes, heap);
+            try {
+                ClusterScaling scaling = new ClusterScaling(new Cluster(nodes, 0), accountCount);
+                scaling.createAccounts();
+                if (warmup > 0) {
+                    scaling.transfers(connections, warmup);
+                }
+                Map<Integer, Long> statuses = scaling.transfers(connections, duration);
+                long transfers = statuses.values().stream().mapToLong(Long::longValue).sum();
+                long total = scaling.totalBalance();
+                String result = String.format("%d nodes: %.0f transfers/s, statuses %s, money %s",
+                        nodeCount, (double) transfers / duration, statuses,
+                        total == BALANCE * accountCount ? "conserved" : "NOT conserved: " + total);
+                System.out.println(result);
+                results.add(result);
+            } finally {
+                for (Process process : processes) {
+                    process.destroy();
+                    process.waitFor();
+                }
+            }
+        }
+        System.out.println();
+        results.forEach(System.out::println);
+    }
+
+    /**
+     * Starts a JVM per node, with the class path of this one, and waits until they all serve requests.
+     * The output of node i goes to cluster-node-i.log in the temporary directory.
+     */
+    private static List<Process> startNodes(List<URI> nodes, String heap) throws IOException, InterruptedException {
+        StringBuilder nodeList = new StringBuilder();
+        for (URI node : nodes) {
+            nodeList.append(nodeList.length() == 0 ? "" : ",").append(node);
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            File log = new File(System.getProperty("java.io.tmpdir"), "cluster-node-" + i + ".log");
+            processes.add(new ProcessBuilder(java, "-Xmx" + heap,
+                    "-D" + AccountTransferServiceLauncher.CLUSTER_NODES_PROPERTY + "=" + nodeList,
+                    "-D" + AccountTransferServiceLauncher.CLUSTER_NODE_PROPERTY + "=" + i,
+                    "-cp", System.getProperty("java.class.path"), AccountTransferServiceLauncher.class.getName())
+                    .redirectErrorStream(true).redirectOutput(log).start());
+        }
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        for (int i = 0; i < nodes.size(); i++) {
+            while (true) {
+                try (HttpConnection connection = connect(nodes.get(i))) {
+                    if (connection.request("GET", "/v1/metrics", null) == 200) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    // not started yet
+                }
+                if (System.currentTimeMillis() > deadline || !processes.get(i).isAlive()) {
+                    processes.forEach(Process::destroy);
+                    throw new IllegalStateException("Node " + i + " didn't start, see its log");
+                }
+                Thread.sleep(100);
+            }
+        }
+        return processes;
+    }
+
+    private void createAccounts() throws IOException {
+        Map<Integer, HttpConnection> connections = new HashMap<>();
+        try {
+            for (String accountId : accountIds) {
+                int status = connection(connections, accountId)
+                        .request("POST", "/v1/accounts/" + accountId, Long.toString(BALANCE));
+                if (status != 201) {
+                    throw new IllegalStateException("Can't create account " + accountId + ": " + status);
+                }
+            }
+        } finally {
+            connections.values().forEach(HttpConnection::close);
+        }
+    }
+
+    /**
+     * Sends transfers between random accounts from every connection until the time is up.
+     *
+     * @return number of responses by status
+     */
+    private Map<Integer, Long> transfers(int connectionCount, int seconds) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Map<Integer, Long>> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connectionCount; i++) {
+            Map<Integer, Long> statuses = new TreeMap<>();
+            results.add(statuses);
+            Thread thread = new Thread(() -> {
+                Map<Integer, HttpConnection> connections = new HashMap<>();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    int from = random.nextInt(accountIds.length);
+                    int to = random.nextInt(accountIds.length - 1);
+                    if (to >= from) {
+                        to++;
+                    }
+                    int status;
+                    try {
+                        status = connection(connections, accountIds[from]).request("PATCH",
+                                "/v1/accounts/from/" + accountIds[from] + "/to/" + accountIds[to], "1");
+                    } catch (IOException e) {
+                        status = -1;
+                    }
+                    statuses.merge(status, 1L, Long::sum);
+                }
+                connections.values().forEach(HttpConnection::close);
+            }, "scaling-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        running.set(false);
+        Map<Integer, Long> total = new TreeMap<>();
+        for (int i = 0; i < threads.size(); i++) {
+            threads.get(i).join();
+            results.get(i).forEach((status, count) -> total.merge(status, count, Long::sum));
+        }
+        return total;
+    }
+
+    /**
+     * @return sum of the balances of all the accounts of all the nodes, once no transfer is pending
+     */
+    @SuppressWarnings("unchecked")
+    private long totalBalance() throws IOException, InterruptedException {
+        long total = 0;
+        for (int node = 0; node < cluster.size(); node++) {
+            try (HttpConnection connection = connect(cluster.getNode(node))) {
+                awaitNoPending(connection);
+                if (connection.request("GET", "/v1/accounts", null) != 200) {
+                    throw new IllegalStateException("Can't list the accounts of node " + node);
+                }
+                for (Map<String, Object> account : (List<Map<String, Object>>) GENSON.deserialize(connection.body(), List.class)) {
+                    total += ((Number) account.get("balance")).longValue();
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Reads the gauge in the text format, whose labelled names, unlike those of the JSON report, need no escaping.
+     */
+    private static void awaitNoPending(HttpConnection connection) throws IOException, InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            connection.request("GET", "/v1/metrics", null, "text/plain");
+            if (PENDING_NONE.matcher(connection.body()).find()) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private HttpConnection connection(Map<Integer, HttpConnection> connections, String accountId) {
+        return connections.computeIfAbsent(cluster.ownerOf(accountId), node -> connect(cluster.getNode(node)));
+    }
+
+    private static HttpConnection connect(URI node) {
+        return new HttpConnection(node.getHost(), node.getPort());
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --option=value: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,116 @@
+package com.revolut.akalikin.benchmark;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.data.jdbc.JdbcStore;
+import com.revolut.akalikin.data.journal.JournalingStore;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.operation.TransferOperation;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Transfers per second with the accounts in memory only, journaled, and in an embedded H2 database in file mode,
+ * with the locking engine. The reads are served from memory by all three stores, so only the writes are compared.
+ *
+ * Run: java -jar target/benchmarks.jar DurableStoreBenchmark (-jvmArgs -Djava.io.tmpdir=/path/on/the/disk/to/test)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class DurableStoreBenchmark {
+
+    private static final long BALANCE = Long.MAX_VALUE / 4;
+
+    @Param({"in-memory", "journal", "jdbc"})
+    public String store;
+
+    @Param({"10000"})
+    public int accountCount;
+
+    @Param({"8"})
+    public int connections;
+
+    private String[] accountIds;
+    private Store accountStore;
+    private Path directory;
+    private JournalingStore journalingStore;
+    private JdbcConnectionPool pool;
+    private TransferOperation transferOperation;
+
+    @Setup
+    public void setup() throws Throwable {
+        directory = Files.createTempDirectory("store-benchmark");
+        switch (store) {
+            case "in-memory":
+                accountStore = new InMemoryStore();
+                break;
+            case "journal":
+                journalingStore = new JournalingStore(new InMemoryStore(), directory.resolve("journal"));
+                accountStore = journalingStore;
+                break;
+            case "jdbc":
+                pool = JdbcConnectionPool.create("jdbc:h2:file:" + directory.resolve("accounts").toAbsolutePath(), "sa", "");
+                pool.setMaxConnections(connections);
+                accountStore = new JdbcStore(new InMemoryStore(), pool);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown store: " + store);
+        }
+        accountIds = new String[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accountIds[i] = "account-" + i;
+            accountStore.storeAccount(new Account(accountIds[i], BALANCE));
+        }
+        transferOperation = new TransferOperation(accountStore, new AccountLockHolder());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (journalingStore != null) {
+            journalingStore.close();
+        }
+        if (pool != null) {
+            pool.dispose();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void transfer() throws Throwable {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(accountCount);
+        int to = random.nextInt(accountCount - 1);
+        if (to >= from) {
+            to++;
+        }
+        transferOperation.executeMoneyTransfer(accountIds[from], accountIds[to], 1L);
+    }
+}
@@ -0,0 +1,113 @@
+package com.revolut.akalikin.benchmark;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.data.journal.JournalingStore;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.operation.OptimisticTransferOperation;
+import com.revolut.akalikin.operation.TransferEngine;
+import com.revolut.akalikin.operation.TransferOperation;
+import com.revolut.akalikin.operation.netting.NettingTransferOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers per second when every transfer is to or from the same hot account, as for a merchant account,
+ * with and without netting the transfers of the hot account, and with optimistic transfers that conflict on it.
+ * With the journal on, the locking engine holds the lock of the hot account during every fsync, while netting
+ * shares it between the transfers of a batch, and the optimistic engine holds the version only while appending.
+ *
+ * Run: java -jar target/benchmarks.jar HotAccountBenchmark (-jvmArgs -Djava.io.tmpdir=/path/on/the/disk/to/test)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(1)
+public class HotAccountBenchmark {
+
+    private static final long BALANCE = Long.MAX_VALUE / 4;
+    private static final String HOT_ACCOUNT_ID = "hot";
+
+    @Param({"locking", "optimistic", "netting"})
+    public String engine;
+
+    @Param({"false", "true"})
+    public boolean durable;
+
+    @Param({"10000"})
+    public int accountCount;
+
+    private String[] accountIds;
+    private Store store;
+    private Path directory;
+    private TransferEngine transferEngine;
+
+    @Setup
+    public void setup() throws Throwable {
+        directory = Files.createTempDirectory("hot-account-benchmark");
+        store = durable ? new JournalingStore(new InMemoryStore(), directory) : new InMemoryStore();
+        store.storeAccount(new Account(HOT_ACCOUNT_ID, BALANCE));
+        accountIds = new String[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accountIds[i] = "account-" + i;
+            store.storeAccount(new Account(accountIds[i], BALANCE));
+        }
+        AccountLockHolder lockHolder = new AccountLockHolder();
+        switch (engine) {
+            case "netting":
+                transferEngine = new NettingTransferOperation(store, lockHolder);
+                break;
+            case "optimistic":
+                transferEngine = new OptimisticTransferOperation(store, lockHolder);
+                break;
+            default:
+                transferEngine = new TransferOperation(store, lockHolder);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (store instanceof JournalingStore) {
+            ((JournalingStore) store).close();
+        }
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void transfer() throws Throwable {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String other = accountIds[random.nextInt(accountCount)];
+        if (random.nextBoolean()) {
+            transferEngine.executeMoneyTransfer(HOT_ACCOUNT_ID, other, 1L);
+        } else {
+            transferEngine.executeMoneyTransfer(other, HOT_ACCOUNT_ID, 1L);
+        }
+    }
+}
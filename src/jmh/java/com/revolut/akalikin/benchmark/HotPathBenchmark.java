@@ -0,0 +1,157 @@
+package com.revolut.akalikin.benchmark;
+
+import com.revolut.akalikin.cluster.Cluster;
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.data.history.TransactionHistory;
+import com.revolut.akalikin.data.offheap.OffHeapStore;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.operation.ReadOperation;
+import com.revolut.akalikin.operation.TransferEngine;
+import com.revolut.akalikin.operation.TransferOperation;
+import com.revolut.akalikin.operation.TwoStepTransferOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the request hot path, below the HTTP layer: transfers, account reads, and a mix of both,
+ * with the accounts picked uniformly or following a Zipfian distribution. Rejected transfers measure the cost
+ * of the insufficient funds failure.
+ *
+ * The locking transfer on the in-memory store allocates nothing: gc.alloc.rate.norm of transfer is 0 B/op.
+ * The engines allocate a view per account on the off-heap store, which directTransfer avoids.
+ *
+ * Run with the allocation per operation: java -jar target/benchmarks.jar HotPathBenchmark -prof gc -t 4
+ * or over all the thread counts: java -cp target/benchmarks.jar com.revolut.akalikin.benchmark.HotPathRunner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotPathBenchmark {
+
+    private static final long BALANCE = Long.MAX_VALUE / 4;
+    private static final Long REJECTED_AMOUNT = Long.MAX_VALUE;
+
+    @Param({AccountSelector.UNIFORM, AccountSelector.ZIPFIAN})
+    public String distribution;
+
+    @Param({"10000", "1000000"})
+    public int accountCount;
+
+    @Param({"in-memory", "off-heap"})
+    public String store;
+
+    @Param({"locking"})
+    public String engine;
+
+    /**
+     * Share of the transfers in the mixed workload, the rest being account reads.
+     */
+    @State(Scope.Benchmark)
+    public static class Mix {
+
+        @Param({"10", "50"})
+        public int writePercent;
+    }
+
+    private String[] accountIds;
+    private AccountSelector selector;
+    private Store accountStore;
+    private TransferEngine transferEngine;
+    private ReadOperation readOperation;
+
+    @Setup
+    public void setup() throws Throwable {
+        accountStore = "off-heap".equals(store) ? new OffHeapStore(accountCount) : new InMemoryStore();
+        accountIds = new String[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accountIds[i] = "account-" + i;
+            accountStore.storeAccount(new Account(accountIds[i], BALANCE));
+        }
+        selector = AccountSelector.of(distribution, accountCount);
+        transferEngine = "two-step".equals(engine)
+                ? new TwoStepTransferOperation(accountStore)
+                : new TransferOperation(accountStore, new AccountLockHolder());
+        readOperation = new ReadOperation(accountStore, new TransactionHistory(),
+                Cluster.single(URI.create("http://localhost:8080/")));
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (accountStore instanceof OffHeapStore) {
+            ((OffHeapStore) accountStore).close();
+        }
+    }
+
+    @Benchmark
+    public void transfer() throws Throwable {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = selector.next(random);
+        transferEngine.executeMoneyTransfer(accountIds[from], accountIds[selector.nextOther(random, from)], 1L);
+    }
+
+    /**
+     * The change of the balances alone, below the engines: through the allocation-free API of the off-heap store,
+     * or on the accounts of the in-memory store.
+     */
+    @Benchmark
+    public boolean directTransfer() throws Throwable {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = selector.next(random);
+        String fromId = accountIds[from];
+        String toId = accountIds[selector.nextOther(random, from)];
+        if (accountStore instanceof OffHeapStore) {
+            return ((OffHeapStore) accountStore).transfer(fromId, toId, 1L);
+        }
+        return Account.transfer(accountStore.getAccount(fromId), accountStore.getAccount(toId), 1L);
+    }
+
+    @Benchmark
+    public Throwable rejectedTransfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = selector.next(random);
+        try {
+            transferEngine.executeMoneyTransfer(accountIds[from], accountIds[selector.nextOther(random, from)],
+                    REJECTED_AMOUNT);
+            throw new IllegalStateException("Transfer of more than the balance accepted");
+        } catch (PermanentException | TransientException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Account read() throws Throwable {
+        return readOperation.readAccount(accountIds[selector.next(ThreadLocalRandom.current())]);
+    }
+
+    @Benchmark
+    public Account mixed(Mix mix) throws Throwable {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int account = selector.next(random);
+        if (random.nextInt(100) < mix.writePercent) {
+            transferEngine.executeMoneyTransfer(accountIds[account], accountIds[selector.nextOther(random, account)], 1L);
+            return null;
+        }
+        return readOperation.readAccount(accountIds[account]);
+    }
+}
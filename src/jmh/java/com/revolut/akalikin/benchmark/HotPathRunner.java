@@ -0,0 +1,50 @@
+package com.revolut.akalikin.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the hot path benchmarks with the GC profiler, for 1 thread, doubling up to twice the number of cores.
+ * Reports the throughput and the allocated bytes per operation (gc.alloc.rate.norm) of every run,
+ * and writes the results of each thread count to hot-path-threads-N.json.
+ *
+ * Run: java -cp target/benchmarks.jar com.revolut.akalikin.benchmark.HotPathRunner [JMH options, e.g. -p accountCount=10000]
+ */
+public final class HotPathRunner {
+
+    private HotPathRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        for (int threads : threadCounts(Runtime.getRuntime().availableProcessors() * 2)) {
+            new Runner(new OptionsBuilder()
+                    .parent(commandLine)
+                    .include(HotPathBenchmark.class.getSimpleName())
+                    .include(AccountCreationBenchmark.class.getSimpleName())
+                    .addProfiler(GCProfiler.class)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("hot-path-threads-" + threads + ".json")
+                    .build())
+                    .run();
+        }
+    }
+
+    private static List<Integer> threadCounts(int max) {
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < max; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(max);
+        return counts;
+    }
+}
@@ -0,0 +1,169 @@
+package com.revolut.akalikin.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal HTTP/1.1 client over a single keep-alive connection, reconnecting when the server closes it.
+ * HttpURLConnection isn't used as it doesn't support PATCH.
+ */
+final class HttpConnection implements Closeable {
+
+    private static final int TIMEOUT = 30000;
+
+    private final String host;
+    private final int port;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    private Socket socket;
+    private InputStream input;
+    private OutputStream output;
+
+    HttpConnection(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Sends a request and reads the whole response.
+     *
+     * @param body JSON body of the request, or null
+     * @return status code of the response
+     */
+    int request(String method, String path, String body) throws IOException {
+        return request(method, path, body, "application/json");
+    }
+
+    /**
+     * Sends a request accepting the media type, and reads the whole response.
+     *
+     * @param body JSON body of the request, or null
+     * @return status code of the response
+     */
+    int request(String method, String path, String body, String accept) throws IOException {
+        if (socket == null) {
+            connect();
+        }
+        byte[] content = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        StringBuilder request = new StringBuilder(128)
+                .append(method).append(' ').append(path).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(host).append(':').append(port).append("\r\n")
+                .append("Accept: ").append(accept).append("\r\n");
+        if (body != null) {
+            request.append("Content-Type: application/json\r\n");
+        }
+        request.append("Content-Length: ").append(content.length).append("\r\n\r\n");
+        try {
+            output.write(request.toString().getBytes(StandardCharsets.US_ASCII));
+            output.write(content);
+            output.flush();
+            return readResponse();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return body of the last response
+     */
+    String body() {
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            socket = null;
+        }
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(TIMEOUT);
+        socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+        input = new BufferedInputStream(socket.getInputStream());
+        output = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    private int readResponse() throws IOException {
+        String statusLine = readLine();
+        int status = Integer.parseInt(statusLine.split(" ", 3)[1]);
+        int contentLength = -1;
+        boolean chunked = false;
+        boolean closing = false;
+        for (String header = readLine(); !header.isEmpty(); header = readLine()) {
+            int colon = header.indexOf(':');
+            String name = header.substring(0, colon).trim();
+            String value = header.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = Integer.parseInt(value);
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                chunked = value.equalsIgnoreCase("chunked");
+            } else if (name.equalsIgnoreCase("Connection")) {
+                closing = value.equalsIgnoreCase("close");
+            }
+        }
+
+        body.reset();
+        if (chunked) {
+            for (int size = Integer.parseInt(readLine().split(";")[0].trim(), 16); size > 0;
+                    size = Integer.parseInt(readLine().split(";")[0].trim(), 16)) {
+                readBody(size);
+                readLine();
+            }
+            while (!readLine().isEmpty()) {
+                // trailers
+            }
+        } else if (contentLength >= 0) {
+            readBody(contentLength);
+        } else {
+            closing = true;
+            for (int b = input.read(); b >= 0; b = input.read()) {
+                body.write(b);
+            }
+        }
+        if (closing) {
+            close();
+        }
+        return status;
+    }
+
+    private void readBody(int size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed in the middle of the response");
+            }
+            body.write(b);
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int b = input.read(); b != '\n'; b = input.read()) {
+            if (b < 0) {
+                throw new EOFException("Connection closed in the middle of the response");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+}
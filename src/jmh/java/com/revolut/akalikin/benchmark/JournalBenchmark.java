@@ -0,0 +1,89 @@
+package com.revolut.akalikin.benchmark;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.data.journal.JournalingStore;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.operation.TransferOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers per second with the journal on and off.
+ * Many threads are used on purpose: with the journal on, the transfers waiting on the same flush share its fsync.
+ *
+ * Run: java -jar target/benchmarks.jar JournalBenchmark (-jvmArgs -Djava.io.tmpdir=/path/on/the/disk/to/test)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(1)
+public class JournalBenchmark {
+
+    private static final long BALANCE = Long.MAX_VALUE / 4;
+
+    @Param({"false", "true"})
+    public boolean durable;
+
+    @Param({"10000"})
+    public int accountCount;
+
+    private String[] accountIds;
+    private Store store;
+    private Path directory;
+    private TransferOperation transferOperation;
+
+    @Setup
+    public void setup() throws Throwable {
+        directory = Files.createTempDirectory("journal-benchmark");
+        store = durable
+                ? new JournalingStore(new InMemoryStore(), directory.resolve("journal.log"))
+                : new InMemoryStore();
+        accountIds = new String[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accountIds[i] = "account-" + i;
+            store.storeAccount(new Account(accountIds[i], BALANCE));
+        }
+        transferOperation = new TransferOperation(store, new AccountLockHolder());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (store instanceof JournalingStore) {
+            ((JournalingStore) store).close();
+        }
+        Files.deleteIfExists(directory.resolve("journal.log"));
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void transfer() throws Throwable {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(accountCount);
+        int to = random.nextInt(accountCount - 1);
+        if (to >= from) {
+            to++;
+        }
+        transferOperation.executeMoneyTransfer(accountIds[from], accountIds[to], 1L);
+    }
+}
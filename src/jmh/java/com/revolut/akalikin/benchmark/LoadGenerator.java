@@ -0,0 +1,258 @@
+package com.revolut.akalikin.benchmark;
+
+import com.owlike.genson.Genson;
+import com.revolut.akalikin.launcher.AccountTransferServiceLauncher;
+import org.HdrHistogram.Histogram;
+import org.glassfish.grizzly.http.server.HttpServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongPredicate;
+
+/**
+ * End-to-end load test of the service over HTTP, through Grizzly, Jersey and Genson.
+ *
+ * Creates the accounts, then transfers random amounts between them, both at a fixed rate over keep-alive connections.
+ * The load is open-loop: every request has an intended start time on the schedule, and its latency is measured
+ * from that time rather than from when a connection was free to send it, so a stalled server is charged for
+ * the requests it delayed (no coordinated omission). Finally checks that no money was created or lost.
+ *
+ * Run against a server started in-process:
+ *   java -cp target/benchmarks.jar com.revolut.akalikin.benchmark.LoadGenerator --rate=2000 --duration=30
+ * or against a running one:
+ *   java -cp target/benchmarks.jar com.revolut.akalikin.benchmark.LoadGenerator --target=http://host:8080/
+ *
+ * Options: --target, --rate (requests per second), --duration (seconds of transfers), --warmup (seconds of
+ * transfers not recorded), --accounts, --balance (initial balance of every account), --connections,
+ * --hot (percentage of the transfers to or from a single hot account, whose latencies are reported separately).
+ *
+ * Contention on a hot account, with the journal on so that every transfer holds its lock for an fsync,
+ * compared between the request threads of the server:
+ *   java -Dstore.journal=/tmp/journal -Dserver.threads=platform|virtual -cp target/benchmarks.jar \
+ *       com.revolut.akalikin.benchmark.LoadGenerator --rate=2000 --hot=20
+ */
+public final class LoadGenerator {
+
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(1);
+    private static final Genson GENSON = new Genson();
+
+    private final URI target;
+    private final int connections;
+    private final int hotPercent;
+    private final long periodNanos;
+    private final String[] accountIds;
+
+    private LoadGenerator(URI target, int connections, int hotPercent, int rate, int accountCount) {
+        this.target = target;
+        this.connections = connections;
+        this.hotPercent = hotPercent;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        this.accountIds = new String[accountCount];
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        for (int i = 0; i < accountCount; i++) {
+            accountIds[i] = "load-" + run + "-" + i;
+        }
+    }
+
+    /**
+     * Request of a phase of the test, by its number in the schedule.
+     */
+    private interface Request {
+
+        int send(HttpConnection connection, long number) throws IOException;
+    }
+
+    /**
+     * Latencies and response statuses of a phase.
+     */
+    private static final class Result {
+
+        final Histogram latencies = new Histogram(HIGHEST_LATENCY, 3);
+        final Map<Integer, Long> statuses = new TreeMap<>();
+        long errors;
+
+        void add(Result other) {
+            latencies.add(other.latencies);
+            other.statuses.forEach((status, count) -> statuses.merge(status, count, Long::sum));
+            errors += other.errors;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        int rate = Integer.parseInt(options.getOrDefault("rate", "1000"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        int accountCount = Integer.parseInt(options.getOrDefault("accounts", "1000"));
+        long balance = Long.parseLong(options.getOrDefault("balance", "1000"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "64"));
+        int hot = Integer.parseInt(options.getOrDefault("hot", "0"));
+
+        HttpServer server = null;
+        String target = options.get("target");
+        if (target == null) {
+            server = AccountTransferServiceLauncher.startServer();
+            target = "http://localhost:8080/";
+        }
+        try {
+            LoadGenerator generator = new LoadGenerator(URI.create(target), connections, hot, rate, accountCount);
+            String createBody = Long.toString(balance);
+            report("create", generator.run(accountCount, (connection, number) ->
+                    connection.request("POST", "/v1/accounts/" + generator.accountIds[(int) number], createBody),
+                    number -> false)[0]);
+            if (warmup > 0) {
+                generator.transfers((long) warmup * rate);
+            }
+            Result[] transfers = generator.transfers((long) duration * rate);
+            if (hot > 0) {
+                report("transfer (other accounts)", transfers[0]);
+                report("transfer (hot account)", transfers[1]);
+                transfers[0].add(transfers[1]);
+            }
+            report("transfer", transfers[0]);
+            generator.checkConservation(balance * accountCount);
+        } finally {
+            if (server != null) {
+                server.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Account 0 is the hot one; the hot transfers alternate between from and to it, so that its balance holds.
+     * The other transfers are between the other accounts.
+     *
+     * @return results of the other transfers, and of the hot ones
+     */
+    private Result[] transfers(long count) throws InterruptedException {
+        LongPredicate hot = number -> number % 100 < hotPercent;
+        int first = hotPercent > 0 ? 1 : 0;
+        return run(count, (connection, number) -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int from = first + random.nextInt(accountIds.length - first);
+            int to = first + random.nextInt(accountIds.length - first - 1);
+            if (to >= from) {
+                to++;
+            }
+            if (hot.test(number)) {
+                if (number % 2 == 0) {
+                    from = 0;
+                } else {
+                    to = 0;
+                }
+            }
+            return connection.request("PATCH", "/v1/accounts/from/" + accountIds[from] + "/to/" + accountIds[to],
+                    Integer.toString(1 + random.nextInt(100)));
+        }, hot);
+    }
+
+    /**
+     * Sends the requests on schedule, from as many threads as there are connections.
+     *
+     * @param hot tells the requests to report separately
+     * @return results of the other requests, and of the ones to report separately
+     */
+    private Result[] run(long count, Request request, LongPredicate hot) throws InterruptedException {
+        AtomicLong next = new AtomicLong();
+        long startTimeStamp = System.currentTimeMillis();
+        long start = System.nanoTime();
+        List<Result[]> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Result[] threadResults = {new Result(), new Result()};
+            results.add(threadResults);
+            Thread thread = new Thread(() -> {
+                try (HttpConnection connection = connect()) {
+                    for (long number = next.getAndIncrement(); number < count; number = next.getAndIncrement()) {
+                        long intended = start + number * periodNanos;
+                        for (long wait = intended - System.nanoTime(); wait > 0; wait = intended - System.nanoTime()) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        Result result = threadResults[hot.test(number) ? 1 : 0];
+                        try {
+                            result.statuses.merge(request.send(connection, number), 1L, Long::sum);
+                        } catch (IOException e) {
+                            result.errors++;
+                        }
+                        result.latencies.recordValue(Math.min(System.nanoTime() - intended, HIGHEST_LATENCY));
+                    }
+                }
+            }, "load-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        Result[] total = {new Result(), new Result()};
+        for (int i = 0; i < threads.size(); i++) {
+            threads.get(i).join();
+            total[0].add(results.get(i)[0]);
+            total[1].add(results.get(i)[1]);
+        }
+        long endTimeStamp = System.currentTimeMillis();
+        for (Result result : total) {
+            result.latencies.setStartTimeStamp(startTimeStamp);
+            result.latencies.setEndTimeStamp(endTimeStamp);
+        }
+        return total;
+    }
+
+    private HttpConnection connect() {
+        return new HttpConnection(target.getHost(), target.getPort() < 0 ? 80 : target.getPort());
+    }
+
+    private void checkConservation(long expected) throws IOException {
+        long total = 0;
+        try (HttpConnection connection = connect()) {
+            for (String accountId : accountIds) {
+                int status = connection.request("GET", "/v1/accounts/" + accountId, null);
+                if (status != 200) {
+                    throw new IllegalStateException("Can't read account " + accountId + ": " + status);
+                }
+                long balance = ((Number) GENSON.deserialize(connection.body(), Map.class).get("balance")).longValue();
+                if (balance < 0) {
+                    throw new IllegalStateException("Negative balance of account " + accountId + ": " + balance);
+                }
+                total += balance;
+            }
+        }
+        if (total != expected) {
+            throw new IllegalStateException("Money not conserved: expected " + expected + ", found " + total);
+        }
+        System.out.printf("Money conserved: %d across %d accounts%n", total, accountIds.length);
+    }
+
+    private static void report(String phase, Result result) {
+        Histogram latencies = result.latencies;
+        long count = latencies.getTotalCount();
+        double seconds = (latencies.getEndTimeStamp() - latencies.getStartTimeStamp()) / 1000.0;
+        System.out.printf("%s: %d requests in %.1f s (%.0f/s), statuses %s, %d errors%n",
+                phase, count, seconds, count / seconds, result.statuses, result.errors);
+        System.out.printf("  latency ms: p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n",
+                millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(90)),
+                millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+                millis(latencies.getMaxValue()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --option=value: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+}
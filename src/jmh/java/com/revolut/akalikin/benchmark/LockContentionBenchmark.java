@@ -0,0 +1,70 @@
+package com.revolut.akalikin.benchmark;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.operation.TransferOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfer latency distribution under symmetric A to B / B to A traffic.
+ * The "oneWay" group is the baseline without opposite transfers; with ordered locking the p99 of
+ * the "symmetric" group should stay in the same range instead of jumping to the lock timeout.
+ *
+ * Run: java -jar target/benchmarks.jar LockContentionBenchmark
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LockContentionBenchmark {
+
+    private static final long BALANCE = Long.MAX_VALUE / 4;
+
+    private TransferOperation transferOperation;
+
+    @Setup
+    public void setup() throws Throwable {
+        Store store = new InMemoryStore();
+        store.storeAccount(new Account("a", BALANCE));
+        store.storeAccount(new Account("b", BALANCE));
+        transferOperation = new TransferOperation(store, new AccountLockHolder());
+    }
+
+    @Benchmark
+    @Group("symmetric")
+    @GroupThreads(2)
+    public void forward() throws Throwable {
+        transferOperation.executeMoneyTransfer("a", "b", 1L);
+    }
+
+    @Benchmark
+    @Group("symmetric")
+    @GroupThreads(2)
+    public void backward() throws Throwable {
+        transferOperation.executeMoneyTransfer("b", "a", 1L);
+    }
+
+    @Benchmark
+    @Group("oneWay")
+    @GroupThreads(4)
+    public void oneWay() throws Throwable {
+        transferOperation.executeMoneyTransfer("a", "b", 1L);
+    }
+}
@@ -0,0 +1,50 @@
+package com.revolut.akalikin.benchmark;
+
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Latency;
+import com.revolut.akalikin.metrics.Metrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording the metrics, all threads recording into the same counter and latency as on the hot path.
+ *
+ * Run: java -jar target/benchmarks.jar MetricsBenchmark -t 8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private final Counter counter = Metrics.counter("benchmark.counter");
+    private final Latency latency = Metrics.latency("benchmark.latency");
+
+    @Benchmark
+    public void counterIncrement() {
+        counter.increment();
+    }
+
+    @Benchmark
+    public void latencyRecordSince() {
+        latency.recordSince(System.nanoTime() - 150_000);
+    }
+
+    @Benchmark
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,87 @@
+package com.revolut.akalikin.benchmark;
+
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.journal.JournalingStore;
+import com.revolut.akalikin.model.Account;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Restart time of a journaled store: loading the snapshot of all the accounts, and replaying the journal tail.
+ *
+ * Run: java -jar target/benchmarks.jar RecoveryBenchmark (-p accountCount=10000000 -jvmArgs -Xmx8g)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RecoveryBenchmark {
+
+    @Param({"1000000"})
+    public int accountCount;
+
+    @Param({"1000"})
+    public int tailLength;
+
+    private Path directory;
+
+    @Setup
+    public void setup() throws Throwable {
+        directory = Files.createTempDirectory("recovery-benchmark");
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), directory)) {
+            // Many concurrent writers, to share the fsyncs of the journal
+            ExecutorService executorService = Executors.newFixedThreadPool(256);
+            for (int i = 0; i < accountCount; i++) {
+                String accountId = "account-" + i;
+                executorService.execute(() -> {
+                    try {
+                        store.storeAccount(new Account(accountId, 1000L));
+                    } catch (Throwable e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            }
+            executorService.shutdown();
+            executorService.awaitTermination(1, TimeUnit.HOURS);
+            store.snapshot();
+            for (int i = 0; i < tailLength; i++) {
+                store.storeAccount(new Account("tail-" + i, 1000L), true);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public JournalingStore recover() throws IOException {
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), directory)) {
+            return store;
+        }
+    }
+}
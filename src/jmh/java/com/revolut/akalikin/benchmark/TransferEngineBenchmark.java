@@ -0,0 +1,94 @@
+package com.revolut.akalikin.benchmark;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.operation.OptimisticTransferOperation;
+import com.revolut.akalikin.operation.TransferEngine;
+import com.revolut.akalikin.operation.TransferOperation;
+import com.revolut.akalikin.operation.TwoStepTransferOperation;
+import com.revolut.akalikin.operation.sharded.ShardedTransferOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the transfer engines with all cores transferring between thousands of unrelated accounts.
+ *
+ * Run: java -jar target/benchmarks.jar TransferEngineBenchmark -t 1 (and -t max for the scaling)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+@Fork(1)
+public class TransferEngineBenchmark {
+
+    private static final long BALANCE = Long.MAX_VALUE / 4;
+
+    @Param({"locking", "two-step", "optimistic", "sharded"})
+    public String engine;
+
+    @Param({"10000"})
+    public int accountCount;
+
+    private String[] accountIds;
+    private TransferEngine transferEngine;
+
+    @Setup
+    public void setup() throws Throwable {
+        Store store = new InMemoryStore();
+        accountIds = new String[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accountIds[i] = "account-" + i;
+            store.storeAccount(new Account(accountIds[i], BALANCE));
+        }
+        switch (engine) {
+            case "locking":
+                transferEngine = new TransferOperation(store, new AccountLockHolder());
+                break;
+            case "two-step":
+                transferEngine = new TwoStepTransferOperation(store);
+                break;
+            case "optimistic":
+                transferEngine = new OptimisticTransferOperation(store, new AccountLockHolder());
+                break;
+            default:
+                transferEngine = new ShardedTransferOperation(store);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (transferEngine instanceof AutoCloseable) {
+            ((AutoCloseable) transferEngine).close();
+        }
+    }
+
+    @Benchmark
+    public void transfer() throws Throwable {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(accountCount);
+        int to = random.nextInt(accountCount - 1);
+        if (to >= from) {
+            to++;
+        }
+        transferEngine.executeMoneyTransfer(accountIds[from], accountIds[to], 1L);
+    }
+}
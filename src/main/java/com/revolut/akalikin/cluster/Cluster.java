@@ -0,0 +1,88 @@
+package com.revolut.akalikin.cluster;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Nodes of a partitioned deployment, each one identified by the URI of its REST API, and the node owning
+ * every account, by {@link ConsistentHashRing consistent hashing} of the account IDs.
+ *
+ * A single-node cluster, the default, owns all the accounts. The IDs starting with {@link #INTERNAL_PREFIX} are
+ * reserved for the accounts the nodes keep the money in flight between them in, and are always local.
+ */
+public class Cluster {
+
+    public static final String INTERNAL_PREFIX = "~";
+
+    private final List<URI> nodes;
+    private final int self;
+    private final ConsistentHashRing ring;
+
+    /**
+     * Constructor.
+     *
+     * @param nodes base URIs of the REST APIs of the nodes, the same on every node
+     * @param self  number of this node in the list
+     */
+    public Cluster(List<URI> nodes, int self) {
+        if (self < 0 || self >= nodes.size()) {
+            throw new IllegalArgumentException("Node " + self + " is not one of the " + nodes.size() + " nodes");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.self = self;
+        List<String> names = new ArrayList<>(nodes.size());
+        for (URI node : nodes) {
+            names.add(node.getHost() + ":" + node.getPort());
+        }
+        this.ring = new ConsistentHashRing(names);
+    }
+
+    /**
+     * @return cluster of a single node, owning all the accounts
+     */
+    public static Cluster single(URI endpoint) {
+        return new Cluster(Collections.singletonList(endpoint), 0);
+    }
+
+    public boolean isPartitioned() {
+        return nodes.size() > 1;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return number of this node
+     */
+    public int getSelf() {
+        return self;
+    }
+
+    /**
+     * @return base URI of the REST API of the node
+     */
+    public URI getNode(int node) {
+        return nodes.get(node);
+    }
+
+    /**
+     * @return number of the node owning the account
+     */
+    public int ownerOf(String accountId) {
+        if (nodes.size() == 1 || isInternal(accountId)) {
+            return self;
+        }
+        return ring.nodeFor(accountId);
+    }
+
+    public boolean isLocal(String accountId) {
+        return ownerOf(accountId) == self;
+    }
+
+    public static boolean isInternal(String accountId) {
+        return accountId != null && accountId.startsWith(INTERNAL_PREFIX);
+    }
+}
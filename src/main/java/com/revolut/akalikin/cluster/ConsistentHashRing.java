@@ -0,0 +1,66 @@
+package com.revolut.akalikin.cluster;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hashing of keys onto nodes.
+ *
+ * Every node is hashed onto a ring at {@link #VIRTUAL_NODES} points, and a key belongs to the node of the first point
+ * at or after its own hash, wrapping around. The many points of every node spread the keys evenly, and adding
+ * or removing a node only moves the keys between its points and the previous ones, about 1/N of all the keys.
+ * Since the points are derived from the names of the nodes, every process configured with the same names agrees
+ * on the owner of every key, whatever order it lists them in.
+ */
+public final class ConsistentHashRing {
+
+    static final int VIRTUAL_NODES = 128;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * Constructor.
+     *
+     * @param nodes distinct names of the nodes, by node number
+     */
+    public ConsistentHashRing(List<String> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one node");
+        }
+        long[][] ring = new long[nodes.size() * VIRTUAL_NODES][];
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int point = 0; point < VIRTUAL_NODES; point++) {
+                ring[node * VIRTUAL_NODES + point] = new long[]{hash(nodes.get(node) + "#" + point), node};
+            }
+        }
+        Arrays.sort(ring, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.points = new long[ring.length];
+        this.owners = new int[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            points[i] = ring[i][0];
+            owners[i] = (int) ring[i][1];
+        }
+    }
+
+    /**
+     * @return number of the node owning the key
+     */
+    public int nodeFor(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    private static long hash(String key) {
+        return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+}
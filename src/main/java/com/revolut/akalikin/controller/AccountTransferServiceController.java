@@ -1,29 +1,61 @@
 package com.revolut.akalikin.controller;
 
 import com.google.inject.Inject;
+import com.owlike.genson.Genson;
+import com.revolut.akalikin.cluster.Cluster;
 import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountBusyException;
+import com.revolut.akalikin.exception.AccountIdMalformedException;
 import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountLockNotAcquiredException;
 import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.AccountOnOtherNodeException;
+import com.revolut.akalikin.exception.BatchNotSupportedException;
+import com.revolut.akalikin.exception.EngineStoppedException;
 import com.revolut.akalikin.exception.InvalidRequestException;
+import com.revolut.akalikin.exception.NodeUnavailableException;
 import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.ServiceOverloadedException;
+import com.revolut.akalikin.exception.SnapshotNotPagedException;
+import com.revolut.akalikin.exception.SnapshotUnavailableException;
+import com.revolut.akalikin.exception.TransferPendingException;
 import com.revolut.akalikin.exception.TransientException;
 import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.BalanceSnapshot;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.model.TransferResult;
+import com.revolut.akalikin.operation.BatchTransferOperation;
+import com.revolut.akalikin.operation.ImportOperation;
 import com.revolut.akalikin.operation.ReadOperation;
-import com.revolut.akalikin.operation.TransferOperation;
+import com.revolut.akalikin.operation.TransferEngine;
 import com.revolut.akalikin.operation.WriteOperation;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.PATCH;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.util.Collection;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+import static javax.ws.rs.core.Response.Status.ACCEPTED;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.Status.CREATED;
@@ -31,39 +63,205 @@ import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 import static javax.ws.rs.core.Response.Status.OK;
 import static javax.ws.rs.core.Response.Status.PRECONDITION_FAILED;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
 
 /**
  * Controller for the available APIs.
- * Very useful additions would be Logging, such as request logging;
- * and Metrics for response counts, operation latencies etc.
+ * Request counts and latencies of every endpoint are recorded by the {@link com.revolut.akalikin.metrics.MetricsResourceFilterFactory}
+ * and exposed by the {@link MetricsController}; request logging would be a useful addition.
+ *
+ * In a partitioned {@link Cluster}, the requests for an account owned by another node are redirected to it,
+ * transfers by their debited account, and the listings only have the accounts of this node, without the internal
+ * accounts of its transfers to the other nodes.
  */
 @Path("v1")
 public class AccountTransferServiceController {
 
-    private final TransferOperation transferOperation;
+    public static final String NDJSON = "application/x-ndjson";
+
+    public static final String CSV = "text/csv";
+
+    /**
+     * Header with the idempotency key of a transfer or a batch: retries sent with the same key get the outcome of
+     * the first request, and never move the money again.
+     */
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    /**
+     * Header of the responses to the transfers and batches that failed with a server error, and may or may not have
+     * been applied, with the value {@link #OUTCOME_UNKNOWN}; the retries with the same idempotency key get it too.
+     */
+    public static final String OUTCOME = "Transfer-Outcome";
+
+    public static final String OUTCOME_UNKNOWN = "unknown";
+
+    /**
+     * Header of the consistent listings, with the ISO-8601 instant of their balances, which may be shortly before
+     * the listing was requested when it shares the instant of a listing still being read.
+     */
+    public static final String SNAPSHOT_TIME = "Snapshot-Time";
+
+    /**
+     * Status of the transfers rejected while too many transfers of one of their accounts are in flight;
+     * JAX-RS 1.1 doesn't define it.
+     */
+    public static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Status of the batches sent while the transfer engine doesn't support them; JAX-RS 1.1 doesn't define it.
+     */
+    public static final int NOT_IMPLEMENTED = 501;
+
+    /**
+     * Seconds after which the transfers rejected with {@link #TOO_MANY_REQUESTS} or 503 may be retried.
+     */
+    static final String RETRY_AFTER_SECONDS = "1";
+
+    private static final IdempotencyCache.Outcome TRANSFERRED = new IdempotencyCache.Outcome(OK.getStatusCode(), null);
+
+    private static final Genson GENSON = new Genson();
+
+    private final TransferEngine transferEngine;
     private final ReadOperation readOperation;
     private final WriteOperation writeOperation;
+    private final BatchTransferOperation batchTransferOperation;
+    private final IdempotencyCache idempotencyCache;
+    private final Cluster cluster;
+    private final ImportOperation importOperation;
 
     @Inject
-    public AccountTransferServiceController(
-            ReadOperation readOperation, TransferOperation transferOperation, WriteOperation writeOperation) {
+    public AccountTransferServiceController(ReadOperation readOperation, TransferEngine transferEngine,
+            WriteOperation writeOperation, BatchTransferOperation batchTransferOperation,
+            IdempotencyCache idempotencyCache, Cluster cluster, ImportOperation importOperation) {
         this.readOperation = readOperation;
-        this.transferOperation = transferOperation;
+        this.transferEngine = transferEngine;
         this.writeOperation = writeOperation;
+        this.batchTransferOperation = batchTransferOperation;
+        this.idempotencyCache = idempotencyCache;
+        this.cluster = cluster;
+        this.importOperation = importOperation;
     }
 
+    /**
+     * Lists all the accounts, or a page of them when a limit or a cursor is given.
+     * A consistent listing has the balances of a single instant, and isn't paged.
+     */
     @GET
     @Path("accounts")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAccounts() {
-        Collection<Account> accounts = readOperation.readAccounts();
-        return response(OK, accounts);
+    public Response getAccounts(@QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor,
+            @QueryParam("consistent") boolean consistent) {
+        if (limit == null && cursor == null && !consistent) {
+            return response(OK, readOperation.readAccounts());
+        }
+        try {
+            if (consistent) {
+                if (limit != null || cursor != null) {
+                    throw new SnapshotNotPagedException();
+                }
+                try (BalanceSnapshot snapshot = readOperation.openSnapshot()) {
+                    return Response.ok(readOperation.readAccounts(snapshot))
+                            .header(SNAPSHOT_TIME, snapshot.getInstant().toString()).build();
+                }
+            }
+            return response(OK, readOperation.readAccounts(cursor, limit));
+        } catch (InvalidRequestException e) {
+            return response(BAD_REQUEST, e.toString());
+        } catch (SnapshotUnavailableException e) {
+            return response(outcome(SERVICE_UNAVAILABLE, e.toString()));
+        } catch (Exception e) {
+            return response(INTERNAL_SERVER_ERROR, e.toString());
+        }
+    }
+
+    /**
+     * Streams all the accounts as newline-delimited JSON, written as the store is walked.
+     * A consistent stream has the balances of the instant it started.
+     */
+    @GET
+    @Path("accounts")
+    @Produces(NDJSON)
+    public Response streamAccounts(@QueryParam("consistent") boolean consistent) {
+        BalanceSnapshot snapshot;
+        try {
+            // Opened before the response, for its instant, and closed once written, which the response always is
+            snapshot = consistent ? readOperation.openSnapshot() : null;
+        } catch (SnapshotUnavailableException e) {
+            return response(outcome(SERVICE_UNAVAILABLE, e.toString()));
+        }
+        StreamingOutput output = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            Consumer<Account> consumer = account -> {
+                try {
+                    writer.write(GENSON.serialize(account));
+                    writer.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            try {
+                if (snapshot != null) {
+                    readOperation.streamAccounts(snapshot, consumer);
+                } else {
+                    readOperation.streamAccounts(consumer);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                if (snapshot != null) {
+                    snapshot.close();
+                }
+            }
+            writer.flush();
+        };
+        if (snapshot != null) {
+            return Response.ok(output).header(SNAPSHOT_TIME, snapshot.getInstant().toString()).build();
+        }
+        return response(OK, output);
+    }
+
+    /**
+     * Creates the accounts of a newline-delimited JSON stream, in the format of {@link #streamAccounts},
+     * parsed as it's received. The accounts that already exist and the invalid rows are skipped,
+     * and counted in the summary; in a partitioned cluster, so are the accounts of the other nodes.
+     */
+    @POST
+    @Path("accounts")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(NDJSON)
+    public Response importAccounts(InputStream input) {
+        return importAccounts(input, ImportOperation.Format.NDJSON);
+    }
+
+    /**
+     * Creates the accounts of a CSV stream of accountId,balance rows, as {@link #importAccounts(InputStream)} does.
+     */
+    @POST
+    @Path("accounts")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(CSV)
+    public Response importCsvAccounts(InputStream input) {
+        return importAccounts(input, ImportOperation.Format.CSV);
+    }
+
+    private Response importAccounts(InputStream input, ImportOperation.Format format) {
+        try {
+            return response(OK, importOperation.importAccounts(input, format));
+        } catch (IOException e) {
+            return response(BAD_REQUEST, e.toString());
+        } catch (Exception e) {
+            return response(INTERNAL_SERVER_ERROR, e.toString());
+        }
     }
 
     @GET
     @Path("accounts/{id}")
     @Produces(MediaType.APPLICATION_JSON)
     public Response getAccount(@PathParam("id") String id) {
+        URI owner = otherOwner(id);
+        if (owner != null) {
+            return redirect(UriBuilder.fromUri(owner).path("v1/accounts/{id}"), id);
+        }
         try {
             Account account = readOperation.readAccount(id);
             return response(OK, account);
@@ -76,11 +274,48 @@ public class AccountTransferServiceController {
         }
     }
 
+    /**
+     * Lists the transactions of an account, newest first, a page at a time.
+     */
+    @GET
+    @Path("accounts/{id}/transactions")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getTransactions(@PathParam("id") String id, @QueryParam("limit") Integer limit,
+            @QueryParam("cursor") String cursor) {
+        URI owner = otherOwner(id);
+        if (owner != null) {
+            UriBuilder location = UriBuilder.fromUri(owner).path("v1/accounts/{id}/transactions");
+            if (limit != null) {
+                location.queryParam("limit", limit);
+            }
+            if (cursor != null) {
+                location.queryParam("cursor", cursor);
+            }
+            return redirect(location, id);
+        }
+        try {
+            return response(OK, readOperation.readTransactions(id, cursor, limit));
+        } catch (AccountNotFoundException e) {
+            return response(NOT_FOUND, e.toString());
+        } catch (InvalidRequestException e) {
+            return response(BAD_REQUEST, e.toString());
+        } catch (Exception e) {
+            return response(INTERNAL_SERVER_ERROR, e.toString());
+        }
+    }
+
     @POST
     @Path("accounts/{id}")
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     public Response createAccount(@PathParam("id") String id, Long initialBalance) {
+        URI owner = otherOwner(id);
+        if (owner != null) {
+            return redirect(UriBuilder.fromUri(owner).path("v1/accounts/{id}"), id);
+        }
+        if (cluster.isPartitioned() && Cluster.isInternal(id)) {
+            return response(BAD_REQUEST, new AccountIdMalformedException(id).toString());
+        }
         try {
             Account createdAccount = writeOperation.createAccount(id, Optional.ofNullable(initialBalance));
             return response(CREATED, createdAccount);
@@ -95,21 +330,145 @@ public class AccountTransferServiceController {
     @Path("accounts/from/{from}/to/{to}")
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response transfer(@PathParam("from") String fromId, @PathParam("to") String toId, Long amount) {
+    public Response transfer(@PathParam("from") String fromId, @PathParam("to") String toId,
+            @HeaderParam(IDEMPOTENCY_KEY) String idempotencyKey, Long amount) {
+        URI owner = otherOwner(fromId);
+        if (owner != null) {
+            return redirect(UriBuilder.fromUri(owner).path("v1/accounts/from/{from}/to/{to}"), fromId, toId);
+        }
+        IdempotencyCache.Outcome outcome;
+        if (idempotencyKey == null) {
+            outcome = executeTransfer(fromId, toId, amount);
+        } else {
+            try {
+                outcome = idempotencyCache.execute(idempotencyKey, new Object[]{fromId, toId, amount},
+                        () -> executeTransfer(fromId, toId, amount));
+            } catch (InvalidRequestException e) {
+                return response(BAD_REQUEST, e.toString());
+            }
+        }
+        return response(outcome);
+    }
+
+    private IdempotencyCache.Outcome executeTransfer(String fromId, String toId, Long amount) {
         try {
-            transferOperation.executeMoneyTransfer(fromId, toId, amount);
-            return response(OK, null);
+            transferEngine.executeMoneyTransfer(fromId, toId, amount);
+            return TRANSFERRED;
+        } catch (TransferPendingException e) {
+            // Debited, and credited as soon as the node of the receiver confirms it
+            return outcome(ACCEPTED, e.toString());
         } catch (AccountNotFoundException e) {
-            return response(NOT_FOUND, e.toString());
+            return outcome(NOT_FOUND, e.toString());
         } catch (AccountInsufficientFundsException e) {
             // Not a true Precondition failed response,
             // as it's not in response to a condition specified in the request
-            return response(PRECONDITION_FAILED, e.toString());
+            return outcome(PRECONDITION_FAILED, e.toString());
         } catch (InvalidRequestException e) {
-            return response(BAD_REQUEST, e.toString());
+            return outcome(BAD_REQUEST, e.toString());
+        } catch (AccountBusyException e) {
+            return new IdempotencyCache.Outcome(TOO_MANY_REQUESTS, e.toString());
+        } catch (ServiceOverloadedException | AccountLockNotAcquiredException | NodeUnavailableException
+                | EngineStoppedException e) {
+            return outcome(SERVICE_UNAVAILABLE, e.toString());
         } catch (TransientException | PermanentException | Exception e) {
-            return response(INTERNAL_SERVER_ERROR, e.toString());
+            return outcome(INTERNAL_SERVER_ERROR, e.toString());
+        }
+    }
+
+    @POST
+    @Path("transfers/batch")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response transferBatch(@HeaderParam(IDEMPOTENCY_KEY) String idempotencyKey, List<TransferRequest> transfers) {
+        IdempotencyCache.Outcome outcome;
+        if (idempotencyKey == null || transfers == null) {
+            outcome = executeBatch(transfers);
+        } else {
+            Object[] request = new Object[1 + 3 * transfers.size()];
+            request[0] = "batch";
+            for (int i = 0; i < transfers.size(); i++) {
+                TransferRequest transfer = transfers.get(i);
+                if (transfer != null) {
+                    request[1 + 3 * i] = transfer.getFrom();
+                    request[2 + 3 * i] = transfer.getTo();
+                    request[3 + 3 * i] = transfer.getAmount();
+                }
+            }
+            try {
+                outcome = idempotencyCache.execute(idempotencyKey, request, () -> executeBatch(transfers));
+            } catch (InvalidRequestException e) {
+                return response(BAD_REQUEST, e.toString());
+            }
+        }
+        return response(outcome);
+    }
+
+    private IdempotencyCache.Outcome executeBatch(List<TransferRequest> transfers) {
+        try {
+            if (cluster.isPartitioned() && transfers != null) {
+                // A batch is atomic, so all its accounts must be on this node
+                for (TransferRequest transfer : transfers) {
+                    if (transfer != null) {
+                        requireLocal(transfer.getFrom());
+                        requireLocal(transfer.getTo());
+                    }
+                }
+            }
+            List<TransferResult> results = transferEngine.executeMoneyTransfers(batchTransferOperation, transfers);
+            return outcome(OK, results);
+        } catch (BatchNotSupportedException e) {
+            return new IdempotencyCache.Outcome(NOT_IMPLEMENTED, e.toString());
+        } catch (InvalidRequestException e) {
+            return outcome(BAD_REQUEST, e.toString());
+        } catch (AccountBusyException e) {
+            return new IdempotencyCache.Outcome(TOO_MANY_REQUESTS, e.toString());
+        } catch (ServiceOverloadedException | AccountLockNotAcquiredException e) {
+            return outcome(SERVICE_UNAVAILABLE, e.toString());
+        } catch (TransientException | PermanentException | Exception e) {
+            return outcome(INTERNAL_SERVER_ERROR, e.toString());
+        }
+    }
+
+    /**
+     * @return base URI of the node owning the account, or null if it's this one
+     */
+    private URI otherOwner(String accountId) {
+        if (accountId == null || !cluster.isPartitioned()) {
+            return null;
         }
+        int owner = cluster.ownerOf(accountId);
+        return owner == cluster.getSelf() ? null : cluster.getNode(owner);
+    }
+
+    private void requireLocal(String accountId) throws InvalidRequestException {
+        if (Cluster.isInternal(accountId)) {
+            throw new AccountIdMalformedException(accountId);
+        }
+        URI owner = otherOwner(accountId);
+        if (owner != null) {
+            throw new AccountOnOtherNodeException(accountId, owner);
+        }
+    }
+
+    private static Response redirect(UriBuilder location, Object... values) {
+        return Response.temporaryRedirect(location.build(values)).build();
+    }
+
+    private static IdempotencyCache.Outcome outcome(Response.Status status, Object entity) {
+        return new IdempotencyCache.Outcome(status.getStatusCode(), entity);
+    }
+
+    private static Response response(IdempotencyCache.Outcome outcome) {
+        Response.ResponseBuilder responseBuilder = Response.status(outcome.getStatus());
+        if (outcome.getEntity() != null) {
+            responseBuilder.entity(outcome.getEntity());
+        }
+        if (outcome.getStatus() == TOO_MANY_REQUESTS || outcome.getStatus() == SERVICE_UNAVAILABLE.getStatusCode()) {
+            responseBuilder.header("Retry-After", RETRY_AFTER_SECONDS);
+        } else if (outcome.getStatus() == INTERNAL_SERVER_ERROR.getStatusCode()) {
+            responseBuilder.header(OUTCOME, OUTCOME_UNKNOWN);
+        }
+        return responseBuilder.build();
     }
 
     private Response response(Response.Status status, Object entity) {
@@ -0,0 +1,70 @@
+package com.revolut.akalikin.controller;
+
+import com.google.inject.Inject;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.CreditConflictException;
+import com.revolut.akalikin.exception.InvalidRequestException;
+import com.revolut.akalikin.model.CreditRequest;
+import com.revolut.akalikin.operation.partitioned.CreditOperation;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.OK;
+
+/**
+ * Controller for the requests between the nodes of a partitioned cluster, used by the
+ * {@link com.revolut.akalikin.operation.partitioned.HttpNodeClient}; not part of the public API.
+ */
+@Path("v1/internal")
+public class ClusterController {
+
+    private final CreditOperation creditOperation;
+
+    @Inject
+    public ClusterController(CreditOperation creditOperation) {
+        this.creditOperation = creditOperation;
+    }
+
+    /**
+     * Credits a transfer debited on another node. A conflict returns the balance of the mirror of the slot.
+     */
+    @POST
+    @Path("credits")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response credit(CreditRequest request) {
+        try {
+            creditOperation.credit(request);
+            return Response.status(OK).build();
+        } catch (AccountNotFoundException e) {
+            return Response.status(NOT_FOUND).entity(e.toString()).build();
+        } catch (CreditConflictException e) {
+            return Response.status(CONFLICT).entity(e.getBalance()).build();
+        } catch (InvalidRequestException e) {
+            return Response.status(BAD_REQUEST).entity(e.toString()).build();
+        } catch (Exception e) {
+            return Response.status(INTERNAL_SERVER_ERROR).entity(e.toString()).build();
+        }
+    }
+
+    /**
+     * Reads the balance of the mirror of a slot of another node.
+     */
+    @GET
+    @Path("mirrors/{source}/{slot}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMirrorBalance(@PathParam("source") int source, @PathParam("slot") int slot) {
+        return Response.status(OK).entity(creditOperation.readMirrorBalance(source, slot)).build();
+    }
+}
@@ -0,0 +1,189 @@
+package com.revolut.akalikin.controller;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.revolut.akalikin.exception.IdempotencyKeyReusedException;
+import com.revolut.akalikin.exception.InvalidRequestException;
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Metrics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Outcomes of the requests sent with an idempotency key, so that a retried request gets the outcome of the original
+ * one instead of being executed again.
+ *
+ * Bounded in size, least recently used entries evicted first, and every entry expires a fixed time after it was
+ * written. To keep the entries small, about 170 bytes each, the keys are held as 128-bit hashes rather than as
+ * strings, the requests as 64-bit fingerprints, and successful outcomes, the common case, share a single instance.
+ * Only the rejections known to happen before anything is changed, a 429 or a 503 under load or after a lock timeout,
+ * are forgotten, so that the request may be retried. A server error may happen after the money moved, so it is kept,
+ * and its retries get it again, marked as of unknown outcome, rather than moving the money a second time.
+ * A retry arriving while the original request is still executing waits for its outcome.
+ */
+@Singleton
+public class IdempotencyCache {
+
+    /**
+     * System property with the maximum number of remembered keys.
+     */
+    public static final String SIZE_PROPERTY = "idempotency.cache.size";
+
+    /**
+     * System property with the seconds a key is remembered for.
+     */
+    public static final String TTL_PROPERTY = "idempotency.cache.ttl";
+
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private static final long DEFAULT_SIZE = 1_000_000;
+    private static final long DEFAULT_TTL = TimeUnit.DAYS.toSeconds(1);
+
+    private static final Counter HITS = Metrics.counter("idempotency.lookups", "result", "hit");
+    private static final Counter MISSES = Metrics.counter("idempotency.lookups", "result", "miss");
+
+    /**
+     * Outcome of a request: the status and the entity of its response.
+     */
+    public static final class Outcome {
+
+        private final int status;
+        private final Object entity;
+
+        public Outcome(int status, Object entity) {
+            this.status = status;
+            this.entity = entity;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public Object getEntity() {
+            return entity;
+        }
+
+        /**
+         * @return whether the request was rejected before anything was changed, and may be executed again
+         */
+        private boolean isRejection() {
+            return status == AccountTransferServiceController.TOO_MANY_REQUESTS || status == 503;
+        }
+    }
+
+    private static final class Key {
+
+        private final long high;
+        private final long low;
+
+        private Key(byte[] hash) {
+            ByteBuffer buffer = ByteBuffer.wrap(hash);
+            this.high = buffer.getLong();
+            this.low = buffer.getLong();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).high == high && ((Key) obj).low == low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) low;
+        }
+    }
+
+    private static final class Entry {
+
+        private final long fingerprint;
+        private final CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+
+        private Entry(long fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private final Cache<Key, Entry> entries;
+
+    @Inject
+    public IdempotencyCache() {
+        this(Long.getLong(SIZE_PROPERTY, DEFAULT_SIZE), Long.getLong(TTL_PROPERTY, DEFAULT_TTL), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maximumSize maximum number of remembered keys
+     * @param ttl         time a key is remembered for
+     */
+    public IdempotencyCache(long maximumSize, long ttl, TimeUnit unit) {
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl, unit)
+                .build();
+        Metrics.gauge("idempotency.cache.size", entries::size);
+        Metrics.gauge("idempotency.cache.hit_rate", () -> {
+            long hits = HITS.get();
+            long lookups = hits + MISSES.get();
+            return lookups == 0 ? Double.NaN : (double) hits / lookups;
+        });
+    }
+
+    /**
+     * Executes the request, unless it was already executed with the same key.
+     *
+     * @param idempotencyKey key chosen by the client, the same for all the retries of the request
+     * @param request        parts of the request, all of them the same in its retries
+     * @param execution      executes the request
+     * @return outcome of the first execution of the request with the key
+     * @throws InvalidRequestException if the key is too long, or was used for a different request
+     */
+    public Outcome execute(String idempotencyKey, Object[] request, Supplier<Outcome> execution) throws InvalidRequestException {
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new InvalidRequestException("idempotency key longer than " + MAX_KEY_LENGTH + " characters");
+        }
+        Key key = new Key(Hashing.murmur3_128().hashString(idempotencyKey, StandardCharsets.UTF_8).asBytes());
+        long fingerprint = fingerprint(request);
+        Entry entry = new Entry(fingerprint);
+        Entry existing = entries.asMap().putIfAbsent(key, entry);
+        if (existing != null) {
+            if (existing.fingerprint != fingerprint) {
+                throw new IdempotencyKeyReusedException(idempotencyKey);
+            }
+            HITS.increment();
+            return existing.outcome.join();
+        }
+        MISSES.increment();
+        Outcome outcome = null;
+        try {
+            outcome = execution.get();
+            return outcome;
+        } finally {
+            if (outcome == null) {
+                // Failed at any point of its execution
+                outcome = new Outcome(500, "Request failed");
+            }
+            if (outcome.isRejection()) {
+                entries.asMap().remove(key, entry);
+            }
+            entry.outcome.complete(outcome);
+        }
+    }
+
+    private static long fingerprint(Object[] request) {
+        StringBuilder canonical = new StringBuilder();
+        for (Object part : request) {
+            // Length-prefixed, so that no two different requests have the same canonical form
+            String value = String.valueOf(part);
+            canonical.append(value.length()).append(':').append(value);
+        }
+        return Hashing.murmur3_128().hashString(canonical, StandardCharsets.UTF_8).asLong();
+    }
+}
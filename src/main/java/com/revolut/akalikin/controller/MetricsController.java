@@ -0,0 +1,33 @@
+package com.revolut.akalikin.controller;
+
+import com.revolut.akalikin.metrics.Metrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import static javax.ws.rs.core.Response.Status.OK;
+
+/**
+ * Controller exposing the metrics of the service, as JSON or in the Prometheus text format.
+ */
+@Path("v1/metrics")
+public class MetricsController {
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMetrics() {
+        return Response.status(OK).entity(Metrics.report()).build();
+    }
+
+    /**
+     * Lower quality than JSON, so that clients accepting any media type get JSON.
+     */
+    @GET
+    @Produces(MediaType.TEXT_PLAIN + ";qs=0.5")
+    public Response getMetricsText() {
+        return Response.status(OK).entity(Metrics.text()).build();
+    }
+}
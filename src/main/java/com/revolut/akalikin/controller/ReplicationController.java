@@ -0,0 +1,32 @@
+package com.revolut.akalikin.controller;
+
+import com.google.inject.Inject;
+import com.revolut.akalikin.data.replication.Replication;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import static javax.ws.rs.core.Response.Status.OK;
+
+/**
+ * Controller exposing the progress of the replication of the node, including the lag of a follower.
+ */
+@Path("v1/replication")
+public class ReplicationController {
+
+    private final Replication replication;
+
+    @Inject
+    public ReplicationController(Replication replication) {
+        this.replication = replication;
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getStatus() {
+        return Response.status(OK).entity(replication.getStatus()).build();
+    }
+}
@@ -0,0 +1,116 @@
+package com.revolut.akalikin.controller;
+
+import com.revolut.akalikin.data.replication.Replication;
+import com.sun.jersey.api.model.AbstractMethod;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.sun.jersey.spi.container.ResourceFilter;
+import com.sun.jersey.spi.container.ResourceFilterFactory;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+import java.util.List;
+
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.FORBIDDEN;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+
+/**
+ * Applies the {@link Replication} of the node to the endpoints.
+ *
+ * Every response carries the sequence of the node in {@link #SEQUENCE_HEADER}: on the primary, after a write,
+ * the sequence the write is replicated at, or earlier. A read with that sequence in {@link #MIN_SEQUENCE_HEADER}
+ * waits until the node has applied it, so a client reads its own writes from any follower, or gets a 503
+ * if the follower doesn't catch up in time. A follower rejects the writes with a 403.
+ */
+public class ReplicationResourceFilterFactory implements ResourceFilterFactory {
+
+    public static final String SEQUENCE_HEADER = "Replication-Sequence";
+    public static final String MIN_SEQUENCE_HEADER = "Min-Replication-Sequence";
+
+    private final Replication replication;
+    private final long waitMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param replication replication of the node
+     * @param waitMillis  maximum milliseconds a read waits for its minimum sequence
+     */
+    public ReplicationResourceFilterFactory(Replication replication, long waitMillis) {
+        this.replication = replication;
+        this.waitMillis = waitMillis;
+    }
+
+    @Override
+    public List<ResourceFilter> create(AbstractMethod method) {
+        if (!(method instanceof AbstractResourceMethod) || method.getResource().getPath() == null) {
+            // Resources added by Jersey, such as the WADL one, have no path
+            return null;
+        }
+        boolean read = HttpMethod.GET.equals(((AbstractResourceMethod) method).getHttpMethod());
+        return Collections.singletonList(new SequenceFilter(read));
+    }
+
+    private final class SequenceFilter implements ResourceFilter, ContainerRequestFilter, ContainerResponseFilter {
+
+        private final boolean read;
+
+        SequenceFilter(boolean read) {
+            this.read = read;
+        }
+
+        @Override
+        public ContainerRequestFilter getRequestFilter() {
+            return this;
+        }
+
+        @Override
+        public ContainerResponseFilter getResponseFilter() {
+            return this;
+        }
+
+        @Override
+        public ContainerRequest filter(ContainerRequest request) {
+            if (!read) {
+                if (replication.isFollower()) {
+                    throw new WebApplicationException(Response.status(FORBIDDEN)
+                            .entity("This node is a read-only follower, send the writes to the primary").build());
+                }
+                return request;
+            }
+            String header = request.getHeaderValue(MIN_SEQUENCE_HEADER);
+            if (header == null) {
+                return request;
+            }
+            long sequence;
+            try {
+                sequence = Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                throw new WebApplicationException(Response.status(BAD_REQUEST)
+                        .entity("Malformed " + MIN_SEQUENCE_HEADER + ": " + header).build());
+            }
+            try {
+                if (replication.awaitSequence(sequence, waitMillis)) {
+                    return request;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new WebApplicationException(Response.status(SERVICE_UNAVAILABLE).header("Retry-After", 1)
+                    .header(SEQUENCE_HEADER, replication.getSequence())
+                    .entity("Sequence " + sequence + " not replicated yet, at " + replication.getSequence()).build());
+        }
+
+        @Override
+        public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+            response.getHttpHeaders().putSingle(SEQUENCE_HEADER, replication.getSequence());
+            return response;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.revolut.akalikin.controller.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary protocol of the {@link BinaryTransferServer}, for high-volume internal callers.
+ *
+ * Every message is a frame: [int length of the rest of the frame][body], big-endian, with the strings as
+ * [unsigned short length][UTF-8 bytes]. Request bodies are [byte operation][arguments]:
+ * - CREATE:   [account ID][long initial balance]
+ * - GET:      [account ID]
+ * - TRANSFER: [from account ID][to account ID][long amount]
+ * Response bodies are [byte status][result]:
+ * - OK:       [long balance] for CREATE and GET, nothing for TRANSFER
+ * - failures: [message], the one the REST API returns for the same failure, cut to {@link #MAX_MESSAGE_LENGTH} bytes
+ * A transfer rejected under load, BUSY or OVERLOADED, may be retried after a second, as after a 429 or a 503
+ * of the REST API.
+ *
+ * A connection may pipeline requests without waiting for their responses, which come back in the same order.
+ * A malformed frame closes the connection.
+ */
+public final class BinaryProtocol {
+
+    public static final byte CREATE = 1;
+    public static final byte GET = 2;
+    public static final byte TRANSFER = 3;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte INSUFFICIENT_FUNDS = 2;
+    public static final byte INVALID_REQUEST = 3;
+    public static final byte ALREADY_EXISTS = 4;
+    public static final byte FAILED = 5;
+    public static final byte BUSY = 6;
+    public static final byte OVERLOADED = 7;
+
+    static final String[] OPERATIONS = {null, "create", "get", "transfer"};
+    static final String[] STATUSES = {"ok", "not_found", "insufficient_funds", "invalid_request", "already_exists", "failed",
+            "busy", "overloaded"};
+
+    /**
+     * Size of the buffers of a connection, on both sides, and so the maximum size of a frame.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int MAX_FRAME_LENGTH = BUFFER_SIZE - 4;
+    static final int MAX_MESSAGE_LENGTH = 1024;
+    static final int MAX_RESPONSE_SIZE = 4 + 1 + 2 + MAX_MESSAGE_LENGTH;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * @return the UTF-8 encoding of the string
+     * @throws IllegalArgumentException if it's too long for the protocol
+     */
+    static byte[] encode(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    static void putString(ByteBuffer buffer, byte[] bytes, int length) {
+        buffer.putShort((short) length);
+        buffer.put(bytes, 0, length);
+    }
+
+    /**
+     * Thrown when a frame doesn't hold a request, as its operation is unknown.
+     */
+    static final class MalformedFrameException extends RuntimeException {
+
+        MalformedFrameException(String message) {
+            super(message);
+        }
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param buffer buffer in read mode, starting at a frame
+     * @return length of the frame, if it's complete in the buffer, 0 if it isn't, -1 if the length is invalid
+     */
+    static int completeFrame(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
+            return 0;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length < 1 || length > MAX_FRAME_LENGTH) {
+            return -1;
+        }
+        return buffer.remaining() >= 4 + length ? length : 0;
+    }
+}
@@ -0,0 +1,152 @@
+package com.revolut.akalikin.controller.binary;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.BUFFER_SIZE;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.CREATE;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.GET;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.OK;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.TRANSFER;
+
+/**
+ * Client of the {@link BinaryTransferServer}, over a single connection.
+ *
+ * Requests are buffered until a response is received or {@link #flush()} is called, so they can be pipelined:
+ * send several requests, then receive their responses, in the same order. The server stops reading while
+ * its responses can't be written, so the requests sent before receiving should fit in a few buffers.
+ * Not thread-safe.
+ */
+public class BinaryTransferClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private long balance;
+    private String message;
+
+    public BinaryTransferClient(InetSocketAddress address) throws IOException {
+        this.channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        in.limit(0);
+    }
+
+    /**
+     * Sends a request to create an account.
+     */
+    public void create(String accountId, long initialBalance) throws IOException {
+        byte[] id = BinaryProtocol.encode(accountId);
+        request(CREATE, 2 + id.length + 8);
+        BinaryProtocol.putString(out, id, id.length);
+        out.putLong(initialBalance);
+    }
+
+    /**
+     * Sends a request to read the balance of an account.
+     */
+    public void get(String accountId) throws IOException {
+        byte[] id = BinaryProtocol.encode(accountId);
+        request(GET, 2 + id.length);
+        BinaryProtocol.putString(out, id, id.length);
+    }
+
+    /**
+     * Sends a request to transfer money between two accounts.
+     */
+    public void transfer(String fromId, String toId, long amount) throws IOException {
+        byte[] from = BinaryProtocol.encode(fromId);
+        byte[] to = BinaryProtocol.encode(toId);
+        request(TRANSFER, 2 + from.length + 2 + to.length + 8);
+        BinaryProtocol.putString(out, from, from.length);
+        BinaryProtocol.putString(out, to, to.length);
+        out.putLong(amount);
+    }
+
+    /**
+     * Sends the buffered requests.
+     */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Sends the buffered requests, and receives the response of the oldest request without one.
+     *
+     * @return status of the response, see {@link BinaryProtocol}
+     */
+    public byte receive() throws IOException {
+        flush();
+        fill(4);
+        int length = in.getInt();
+        if (length < 1 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Malformed response of " + length + " bytes");
+        }
+        fill(length);
+        byte status = in.get();
+        if (status == OK) {
+            message = null;
+            if (length > 1) {
+                balance = in.getLong();
+            }
+        } else {
+            message = BinaryProtocol.getString(in);
+        }
+        return status;
+    }
+
+    /**
+     * @return balance of the account, from the last response received to a create or a get request
+     */
+    public long getBalance() {
+        return balance;
+    }
+
+    /**
+     * @return message of the last response received, if it was a failure, null otherwise
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void request(byte operation, int argumentsLength) throws IOException {
+        int length = 1 + argumentsLength;
+        if (length > BinaryProtocol.MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Request too large: " + length + " bytes");
+        }
+        if (out.remaining() < 4 + length) {
+            flush();
+        }
+        out.putInt(length).put(operation);
+    }
+
+    /**
+     * Reads until the given number of bytes are available in the input buffer.
+     */
+    private void fill(int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return;
+        }
+        in.compact();
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                throw new EOFException("Connection closed by the server");
+            }
+        }
+        in.flip();
+    }
+}
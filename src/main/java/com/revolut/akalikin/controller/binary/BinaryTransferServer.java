@@ -0,0 +1,432 @@
+package com.revolut.akalikin.controller.binary;
+
+import com.google.inject.Inject;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountBusyException;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountLockNotAcquiredException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.EngineStoppedException;
+import com.revolut.akalikin.exception.InvalidRequestException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.ServiceOverloadedException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Latency;
+import com.revolut.akalikin.metrics.Metrics;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.operation.ReadOperation;
+import com.revolut.akalikin.operation.TransferEngine;
+import com.revolut.akalikin.operation.WriteOperation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.ALREADY_EXISTS;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.BUFFER_SIZE;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.BUSY;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.CREATE;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.FAILED;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.GET;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.INSUFFICIENT_FUNDS;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.INVALID_REQUEST;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.MAX_MESSAGE_LENGTH;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.MAX_RESPONSE_SIZE;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.NOT_FOUND;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.OK;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.OPERATIONS;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.OVERLOADED;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.STATUSES;
+import static com.revolut.akalikin.controller.binary.BinaryProtocol.TRANSFER;
+
+/**
+ * Listener of the {@link BinaryProtocol}, running the requests through the same operations as the REST API.
+ *
+ * A single selector thread accepts the connections and does all their I/O, into two pooled direct buffers
+ * per connection. Once a complete request has arrived, the connection is handed to a worker thread, which runs
+ * all the complete requests in its input buffer in order, writing their responses into its output buffer,
+ * and hands it back to the selector thread to write them. Neither thread reads nor writes the buffers
+ * of a connection while the other one holds it, so the buffers need no locking, and the operations,
+ * which may wait for account locks or the journal, never block the I/O of the other connections.
+ *
+ * Records the latency and the response statuses of every operation, as "binary.latency" and "binary.requests",
+ * and counts the failures of the selector or of the listening socket as "binary.errors". A failure of an operation
+ * is a {@link BinaryProtocol#FAILED} response, and only a malformed request closes its connection.
+ */
+public class BinaryTransferServer implements Closeable {
+
+    private static final int MAX_POOLED_BUFFERS = 1024;
+
+    private static final Latency[] LATENCIES = new Latency[OPERATIONS.length];
+    private static final Counter[][] REQUESTS = new Counter[OPERATIONS.length][STATUSES.length];
+    private static final Counter ERRORS = Metrics.counter("binary.errors");
+
+    static {
+        for (int operation = CREATE; operation <= TRANSFER; operation++) {
+            LATENCIES[operation] = Metrics.latency("binary.latency", "operation", OPERATIONS[operation]);
+            for (int status = 0; status < STATUSES.length; status++) {
+                REQUESTS[operation][status] = Metrics.counter("binary.requests",
+                        "operation", OPERATIONS[operation], "status", STATUSES[status]);
+            }
+        }
+    }
+
+    private final ReadOperation readOperation;
+    private final WriteOperation writeOperation;
+    private final TransferEngine transferEngine;
+
+    private final BufferPool buffers = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final Queue<Connection> processed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ExecutorService workers;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    @Inject
+    public BinaryTransferServer(ReadOperation readOperation, WriteOperation writeOperation,
+            TransferEngine transferEngine) {
+        this.readOperation = readOperation;
+        this.writeOperation = writeOperation;
+        this.transferEngine = transferEngine;
+    }
+
+    /**
+     * Starts listening.
+     *
+     * @param address       address to listen on, with port 0 for any free port
+     * @param workerThreads number of threads running the requests
+     */
+    public synchronized void start(InetSocketAddress address, int workerThreads) throws IOException {
+        if (running) {
+            throw new IllegalStateException("Already started");
+        }
+        selector = Selector.open();
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            selector.close();
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            throw e;
+        }
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "binary-worker-" + workerCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        selectorThread = new Thread(this::selectLoop, "binary-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * @return port listened on, once started
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return number of open connections
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Stops listening and closes the connections, after the requests being run complete.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                close((Connection) key.attachment());
+            }
+        }
+        closeQuietly(serverChannel);
+        closeQuietly(selector);
+    }
+
+    private void selectLoop() {
+        while (running) {
+            try {
+                selector.select();
+                for (Connection connection = processed.poll(); connection != null; connection = processed.poll()) {
+                    resume(connection);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read((Connection) key.attachment());
+                    } else if (key.isWritable()) {
+                        write((Connection) key.attachment());
+                    }
+                }
+            } catch (IOException e) {
+                // Failure of the selector or of the listening socket, the connections fail on their own
+                ERRORS.increment();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel, buffers.acquire(), buffers.acquire());
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connectionCount.incrementAndGet();
+    }
+
+    private void read(Connection connection) {
+        try {
+            if (connection.channel.read(connection.in) < 0) {
+                close(connection);
+                return;
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        dispatchOrRead(connection);
+    }
+
+    /**
+     * Writes the pending responses, then goes on with the requests.
+     */
+    private void write(Connection connection) {
+        ByteBuffer out = connection.out;
+        out.flip();
+        try {
+            connection.channel.write(out);
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        out.compact();
+        if (out.position() > 0) {
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            dispatchOrRead(connection);
+        }
+    }
+
+    /**
+     * Hands the connection to a worker if a complete request has arrived, or waits for more of it otherwise.
+     */
+    private void dispatchOrRead(Connection connection) {
+        ByteBuffer in = connection.in;
+        in.flip();
+        int frame = BinaryProtocol.completeFrame(in);
+        in.compact();
+        if (frame < 0) {
+            close(connection);
+        } else if (frame == 0) {
+            connection.key.interestOps(SelectionKey.OP_READ);
+        } else {
+            connection.key.interestOps(0);
+            workers.execute(() -> process(connection));
+        }
+    }
+
+    private void resume(Connection connection) {
+        if (connection.malformed) {
+            close(connection);
+        } else {
+            write(connection);
+        }
+    }
+
+    private void close(Connection connection) {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        connection.key.cancel();
+        closeQuietly(connection.channel);
+        buffers.release(connection.in);
+        buffers.release(connection.out);
+        connectionCount.decrementAndGet();
+    }
+
+    /**
+     * Runs the complete requests of the connection, as long as their responses fit, on a worker thread.
+     */
+    private void process(Connection connection) {
+        ByteBuffer in = connection.in;
+        ByteBuffer out = connection.out;
+        in.flip();
+        boolean processedAll = false;
+        try {
+            int frame;
+            while (out.remaining() >= MAX_RESPONSE_SIZE && (frame = BinaryProtocol.completeFrame(in)) > 0) {
+                int end = in.position() + 4 + frame;
+                int limit = in.limit();
+                in.position(in.position() + 4).limit(end);
+                handle(in, out);
+                in.limit(limit).position(end);
+            }
+            processedAll = BinaryProtocol.completeFrame(in) >= 0;
+        } catch (BufferUnderflowException | BinaryProtocol.MalformedFrameException e) {
+            // Truncated arguments, unknown operation
+        } finally {
+            // Handed back even if a request failed unexpectedly, to be closed
+            connection.malformed = !processedAll;
+            in.compact();
+            processed.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    private void handle(ByteBuffer in, ByteBuffer out) {
+        byte operation = in.get();
+        long start = System.nanoTime();
+        byte status;
+        switch (operation) {
+            case CREATE:
+                status = create(BinaryProtocol.getString(in), in.getLong(), out);
+                break;
+            case GET:
+                status = get(BinaryProtocol.getString(in), out);
+                break;
+            case TRANSFER:
+                status = transfer(BinaryProtocol.getString(in), BinaryProtocol.getString(in), in.getLong(), out);
+                break;
+            default:
+                throw new BinaryProtocol.MalformedFrameException("Unknown operation: " + operation);
+        }
+        LATENCIES[operation].recordSince(start);
+        REQUESTS[operation][status].increment();
+    }
+
+    private byte create(String accountId, long initialBalance, ByteBuffer out) {
+        try {
+            Account account = writeOperation.createAccount(accountId, Optional.of(initialBalance));
+            return ok(out, account.getBalance());
+        } catch (AccountAlreadyExistsException e) {
+            return failure(out, ALREADY_EXISTS, e);
+        } catch (InvalidRequestException e) {
+            return failure(out, INVALID_REQUEST, e);
+        } catch (TransientException | PermanentException | RuntimeException e) {
+            return failure(out, FAILED, e);
+        }
+    }
+
+    private byte get(String accountId, ByteBuffer out) {
+        try {
+            return ok(out, readOperation.readAccount(accountId).getBalance());
+        } catch (AccountNotFoundException e) {
+            return failure(out, NOT_FOUND, e);
+        } catch (InvalidRequestException e) {
+            return failure(out, INVALID_REQUEST, e);
+        } catch (RuntimeException e) {
+            return failure(out, FAILED, e);
+        }
+    }
+
+    private byte transfer(String fromId, String toId, long amount, ByteBuffer out) {
+        try {
+            transferEngine.executeMoneyTransfer(fromId, toId, amount);
+            out.putInt(1).put(OK);
+            return OK;
+        } catch (AccountNotFoundException e) {
+            return failure(out, NOT_FOUND, e);
+        } catch (AccountInsufficientFundsException e) {
+            return failure(out, INSUFFICIENT_FUNDS, e);
+        } catch (InvalidRequestException e) {
+            return failure(out, INVALID_REQUEST, e);
+        } catch (AccountBusyException e) {
+            return failure(out, BUSY, e);
+        } catch (ServiceOverloadedException | AccountLockNotAcquiredException | EngineStoppedException e) {
+            return failure(out, OVERLOADED, e);
+        } catch (TransientException | PermanentException | RuntimeException e) {
+            return failure(out, FAILED, e);
+        }
+    }
+
+    private static byte ok(ByteBuffer out, long balance) {
+        out.putInt(1 + 8).put(OK).putLong(balance);
+        return OK;
+    }
+
+    private static byte failure(ByteBuffer out, byte status, Throwable failure) {
+        byte[] message = failure.toString().getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(message.length, MAX_MESSAGE_LENGTH);
+        out.putInt(1 + 2 + length).put(status);
+        BinaryProtocol.putString(out, message, length);
+        return status;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * State of a connection, owned by the selector thread, or by a worker while it runs the requests.
+     */
+    private static final class Connection {
+
+        private final SocketChannel channel;
+        private final ByteBuffer in;
+        private final ByteBuffer out;
+        private SelectionKey key;
+        private boolean malformed;
+
+        Connection(SocketChannel channel, ByteBuffer in, ByteBuffer out) {
+            this.channel = channel;
+            this.in = in;
+            this.out = out;
+        }
+    }
+}
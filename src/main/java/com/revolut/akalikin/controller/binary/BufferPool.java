@@ -0,0 +1,51 @@
+package com.revolut.akalikin.controller.binary;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of direct buffers of a single size, so that connections coming and going neither allocate native memory
+ * nor leave it to the garbage collector to free. Used by the selector thread only.
+ */
+final class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> pooled = new ArrayDeque<>();
+
+    /**
+     * Constructor.
+     *
+     * @param bufferSize size of the buffers
+     * @param maxPooled  maximum number of buffers kept for reuse; more are left to the garbage collector
+     */
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return a cleared buffer, reused if one is available
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = pooled.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. It must not be used by the caller afterwards.
+     */
+    void release(ByteBuffer buffer) {
+        if (pooled.size() < maxPooled) {
+            buffer.clear();
+            pooled.push(buffer);
+        }
+    }
+
+    /**
+     * @return number of buffers available for reuse
+     */
+    int size() {
+        return pooled.size();
+    }
+}
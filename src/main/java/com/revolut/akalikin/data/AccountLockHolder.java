@@ -3,37 +3,219 @@ package com.revolut.akalikin.data;
 import com.google.inject.Singleton;
 import com.revolut.akalikin.exception.AccountLockNotAcquiredException;
 import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Latency;
+import com.revolut.akalikin.metrics.Metrics;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Lock manager for the account write operations.
+ * Account IDs are hashed onto a fixed number of lock stripes, so the memory used for locking doesn't grow
+ * with the number of accounts ever seen, and there are no idle entries to reclaim.
+ *
+ * Locks for several accounts are always taken in ascending stripe order, which makes opposite transfers
+ * (A to B and B to A) deadlock-free. Every stripe records the thread that owns it,
+ * so releasing a lock that wasn't acquired by the calling thread is a no-op.
+ *
+ * Locking one or two accounts, as the transfers do, allocates nothing.
+ */
 @Singleton
 public class AccountLockHolder {
 
+    private static final Latency LOCK_WAIT = Metrics.latency("lock.wait");
+    private static final Counter LOCK_TIMEOUTS = Metrics.counter("lock.timeouts");
+
     private static final Long TIMEOUT = 5000L;
+    private static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+    private static final int DEFAULT_STRIPES = 4096;
 
-    private final ConcurrentHashMap<String, Semaphore> accountLocks;
+    private final Stripe[] stripes;
+    private final int mask;
 
     public AccountLockHolder() {
-        this.accountLocks = new ConcurrentHashMap<>();
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stripeCount number of lock stripes, rounded up to the next power of two
+     */
+    public AccountLockHolder(int stripeCount) {
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
     }
 
     public void acquireLock(String accountId) throws TransientException {
-        accountLocks.putIfAbsent(accountId, new Semaphore(1));
+        long start = System.nanoTime();
         try {
-            if (!accountLocks.get(accountId).tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS)) {
+            if (!tryAcquire(stripeIndex(accountId), start + TIMEOUT_NANOS)) {
+                LOCK_TIMEOUTS.increment();
                 throw new AccountLockNotAcquiredException(accountId);
             }
         } catch (InterruptedException e) {
             throw new AccountLockNotAcquiredException(accountId, e);
         }
+        LOCK_WAIT.recordSince(start);
+    }
+
+    /**
+     * Acquires the locks of the two accounts of a transfer in the global stripe order, without allocating.
+     * Either both locks are acquired, or none of them are held when the exception is thrown.
+     *
+     * @throws AccountLockNotAcquiredException if any of the locks couldn't be acquired in time
+     */
+    public void acquireLocks(String firstAccountId, String secondAccountId) throws TransientException {
+        int firstStripe = stripeIndex(firstAccountId);
+        int secondStripe = stripeIndex(secondAccountId);
+        int lower = Math.min(firstStripe, secondStripe);
+        int upper = Math.max(firstStripe, secondStripe);
+        String waitingFor = lower == firstStripe ? firstAccountId : secondAccountId;
+        long start = System.nanoTime();
+        long deadline = start + TIMEOUT_NANOS;
+        boolean lowerHeld = false;
+        try {
+            if (!tryAcquire(lower, deadline)) {
+                LOCK_TIMEOUTS.increment();
+                throw new AccountLockNotAcquiredException(waitingFor);
+            }
+            lowerHeld = true;
+            waitingFor = lower == firstStripe ? secondAccountId : firstAccountId;
+            if (upper != lower && !tryAcquire(upper, deadline)) {
+                release(lower);
+                LOCK_TIMEOUTS.increment();
+                throw new AccountLockNotAcquiredException(waitingFor);
+            }
+        } catch (InterruptedException e) {
+            if (lowerHeld) {
+                release(lower);
+            }
+            throw new AccountLockNotAcquiredException(waitingFor, e);
+        }
+        LOCK_WAIT.recordSince(start);
+    }
+
+    /**
+     * Acquires the locks for all the given accounts in the global stripe order.
+     * Either all the locks are acquired, or none of them are held when the exception is thrown.
+     *
+     * @param accountIds accounts to lock
+     * @throws AccountLockNotAcquiredException if any of the locks couldn't be acquired in time
+     */
+    public void acquireLocks(String... accountIds) throws TransientException {
+        int[] order = stripeOrder(accountIds);
+        long start = System.nanoTime();
+        long deadline = start + TIMEOUT_NANOS;
+        for (int i = 0; i < order.length; i++) {
+            try {
+                if (!tryAcquire(order[i], deadline)) {
+                    release(order, i);
+                    LOCK_TIMEOUTS.increment();
+                    throw new AccountLockNotAcquiredException(accountFor(order[i], accountIds));
+                }
+            } catch (InterruptedException e) {
+                release(order, i);
+                throw new AccountLockNotAcquiredException(accountFor(order[i], accountIds), e);
+            }
+        }
+        LOCK_WAIT.recordSince(start);
     }
 
     public void releaseLock(String accountId) {
-        accountLocks.computeIfPresent(accountId, (id, lock) -> {
-            lock.release();
-            return lock;
-        });
+        release(stripeIndex(accountId));
+    }
+
+    /**
+     * Releases the locks of the two accounts of a transfer that are held by the calling thread, without allocating.
+     */
+    public void releaseLocks(String firstAccountId, String secondAccountId) {
+        int firstStripe = stripeIndex(firstAccountId);
+        int secondStripe = stripeIndex(secondAccountId);
+        release(Math.max(firstStripe, secondStripe));
+        if (firstStripe != secondStripe) {
+            release(Math.min(firstStripe, secondStripe));
+        }
+    }
+
+    /**
+     * Releases the locks of the given accounts that are held by the calling thread.
+     *
+     * @param accountIds accounts to unlock
+     */
+    public void releaseLocks(String... accountIds) {
+        int[] order = stripeOrder(accountIds);
+        release(order, order.length);
+    }
+
+    private boolean tryAcquire(int stripeIndex, long deadline) throws InterruptedException {
+        Stripe stripe = stripes[stripeIndex];
+        if (!stripe.semaphore.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        stripe.owner = Thread.currentThread();
+        return true;
+    }
+
+    private void release(int[] order, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            release(order[i]);
+        }
+    }
+
+    private void release(int stripeIndex) {
+        Stripe stripe = stripes[stripeIndex];
+        if (stripe.owner == Thread.currentThread()) {
+            stripe.owner = null;
+            stripe.semaphore.release();
+        }
+    }
+
+    /**
+     * @return distinct stripe indexes of the given accounts, in ascending order
+     */
+    private int[] stripeOrder(String[] accountIds) {
+        int[] order = new int[accountIds.length];
+        for (int i = 0; i < accountIds.length; i++) {
+            order[i] = stripeIndex(accountIds[i]);
+        }
+        Arrays.sort(order);
+        int distinct = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (i == 0 || order[i] != order[distinct - 1]) {
+                order[distinct++] = order[i];
+            }
+        }
+        return distinct == order.length ? order : Arrays.copyOf(order, distinct);
+    }
+
+    private int stripeIndex(String accountId) {
+        int hash = accountId.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private String accountFor(int stripeIndex, String[] accountIds) {
+        for (String accountId : accountIds) {
+            if (stripeIndex(accountId) == stripeIndex) {
+                return accountId;
+            }
+        }
+        return null;
+    }
+
+    private static final class Stripe {
+
+        private final Semaphore semaphore = new Semaphore(1);
+
+        private volatile Thread owner;
     }
 }
@@ -5,10 +5,12 @@ import com.google.inject.Singleton;
 import com.revolut.akalikin.exception.AccountAlreadyExistsException;
 import com.revolut.akalikin.exception.AccountNotFoundException;
 import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
 
 /**
  * In-memory store for the account details.
@@ -18,39 +20,192 @@ import java.util.concurrent.ConcurrentHashMap;
  * and used an in-memory map instead of an in-memory database,
  * but to my judgement an in-memory database would only help with account locking and atomic transactions
  * but increase the complexity of the task.
+ *
+ * Every account gets a dense handle, the number of its creation, and is kept in chunks of an array by handle,
+ * which also gives the stable positions for walking the accounts. The account IDs are resolved to handles
+ * by an open-addressing hash table with linear probing, at most half full, each slot holding
+ * [hash of the account ID][handle + 1], or 0 when empty; a lookup is a single probe sequence,
+ * and the table costs a fraction of the entries of a hash map.
+ *
+ * Lookups are lock-free. Accounts are inserted under a lock, the table being replaced by a larger one
+ * when it fills up, and are never removed.
  */
 @Singleton
 public class InMemoryStore implements Store {
 
-    private final Map<String, Account> accounts;
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int INITIAL_SLOTS = 1 << 10;
 
-    public InMemoryStore() {
-        this.accounts = new ConcurrentHashMap<>();
-    }
+    private final Object appendLock = new Object();
+    private volatile Account[][] chunks = new Account[0][];
+    private volatile int count;
+    private volatile AtomicLongArray index = new AtomicLongArray(INITIAL_SLOTS);
 
     @Override
     public List<Account> getAccounts() {
-        return ImmutableList.copyOf(accounts.values());
+        ImmutableList.Builder<Account> accounts = ImmutableList.builder();
+        forEachAccount(0, Integer.MAX_VALUE, accounts::add);
+        return accounts.build();
+    }
+
+    @Override
+    public long forEachAccount(long position, int limit, Consumer<Account> consumer) {
+        int count = this.count;
+        Account[][] chunks = this.chunks;
+        int walked = 0;
+        for (; position < count && walked < limit; position++, walked++) {
+            consumer.accept(account(chunks, (int) position));
+        }
+        return position < count ? position : -1;
+    }
+
+    /**
+     * @return number of stored accounts
+     */
+    public int size() {
+        return count;
     }
 
     @Override
     public Account getAccount(String accountId) throws AccountNotFoundException {
-        if (accounts.containsKey(accountId)) {
-            return accounts.get(accountId);
+        int handle = find(index, accountId, hash(accountId));
+        if (handle < 0) {
+            throw new AccountNotFoundException(accountId);
         }
-        throw new AccountNotFoundException(accountId);
+        return account(chunks, handle);
     }
 
     @Override
     public void storeAccount(Account account, boolean update) throws AccountAlreadyExistsException {
-        if (!update && accounts.containsKey(account.getAccountId())) {
-            throw new AccountAlreadyExistsException(account.getAccountId());
+        String accountId = account.getAccountId();
+        int hash = hash(accountId);
+        synchronized (appendLock) {
+            int handle = find(index, accountId, hash);
+            if (handle >= 0) {
+                if (!update) {
+                    throw new AccountAlreadyExistsException(accountId);
+                }
+                chunks[handle >> CHUNK_SHIFT][handle & (CHUNK_SIZE - 1)] = account;
+                // Publishes the replaced account to the lookups
+                count = count;
+                return;
+            }
+            append(account, hash);
         }
-        accounts.put(account.getAccountId(), account);
     }
 
     @Override
     public void storeAccount(Account account) throws AccountAlreadyExistsException {
         storeAccount(account, false);
     }
+
+    /**
+     * Takes the lock once for all the accounts.
+     */
+    @Override
+    public void storeAccounts(List<Account> accounts, Consumer<Account> duplicates) {
+        synchronized (appendLock) {
+            for (Account account : accounts) {
+                int hash = hash(account.getAccountId());
+                if (find(index, account.getAccountId(), hash) >= 0) {
+                    duplicates.accept(account);
+                } else {
+                    append(account, hash);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void storeTransfer(Account from, Account to, long amount) {
+        // Nothing to do, the balances of the stored accounts are changed in place
+    }
+
+    @Override
+    public void storeDebitedTransfer(Account from, Account to, long amount) {
+        // Nothing to do, the balances of the stored accounts are changed in place
+    }
+
+    @Override
+    public boolean storeTransfer(Account from, long fromVersion, Account to, long toVersion, long amount) {
+        if (!Account.beginChanges(from, fromVersion, to, toVersion)) {
+            return false;
+        }
+        Account.commitChanges(from, -amount, to, amount);
+        return true;
+    }
+
+    @Override
+    public void storeTransfers(List<TransferRequest> transfers) {
+        // Nothing to do, the balances of the stored accounts are changed in place
+    }
+
+    private void append(Account account, int hash) {
+        int handle = count;
+        Account[][] chunks = this.chunks;
+        if (handle >> CHUNK_SHIFT == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = new Account[CHUNK_SIZE];
+            this.chunks = chunks;
+        }
+        chunks[handle >> CHUNK_SHIFT][handle & (CHUNK_SIZE - 1)] = account;
+        AtomicLongArray index = this.index;
+        if ((handle + 1) * 2L > index.length()) {
+            index = grow(index);
+            this.index = index;
+        }
+        // Publishes the account to the lookups, after it's in its chunk
+        insert(index, hash, handle);
+        // Publishes the account to the walks
+        count = handle + 1;
+    }
+
+    /**
+     * @return the handle of the account, or -1 if it isn't stored
+     */
+    private int find(AtomicLongArray index, String accountId, int hash) {
+        int mask = index.length() - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = index.get(slot);
+            if (entry == 0) {
+                return -1;
+            }
+            if ((int) (entry >>> 32) == hash) {
+                int handle = (int) entry - 1;
+                if (account(chunks, handle).getAccountId().equals(accountId)) {
+                    return handle;
+                }
+            }
+        }
+    }
+
+    private AtomicLongArray grow(AtomicLongArray index) {
+        AtomicLongArray grown = new AtomicLongArray(index.length() * 2);
+        for (int slot = 0; slot < index.length(); slot++) {
+            long entry = index.get(slot);
+            if (entry != 0) {
+                insert(grown, (int) (entry >>> 32), (int) entry - 1);
+            }
+        }
+        return grown;
+    }
+
+    private static void insert(AtomicLongArray index, int hash, int handle) {
+        int mask = index.length() - 1;
+        int slot = hash & mask;
+        while (index.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index.set(slot, (long) hash << 32 | (handle + 1L));
+    }
+
+    private static Account account(Account[][] chunks, int handle) {
+        return chunks[handle >> CHUNK_SHIFT][handle & (CHUNK_SIZE - 1)];
+    }
+
+    private static int hash(String accountId) {
+        int h = accountId.hashCode();
+        return h ^ (h >>> 16);
+    }
 }
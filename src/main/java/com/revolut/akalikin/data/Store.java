@@ -3,17 +3,85 @@ package com.revolut.akalikin.data;
 import com.revolut.akalikin.exception.AccountAlreadyExistsException;
 import com.revolut.akalikin.exception.AccountNotFoundException;
 import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 
 public interface Store {
 
     public List<Account> getAccounts();
 
+    /**
+     * Walks the accounts in an order that is stable across calls, so that a walk can be resumed later
+     * without copying the accounts. Accounts created during a walk may be missed, but none is walked twice.
+     *
+     * @param position where to start: 0 for the first account, or a position returned by a previous walk
+     * @param limit    maximum number of accounts to walk
+     * @param consumer receives the accounts
+     * @return position to resume the walk from, or -1 if all the accounts were walked
+     */
+    public long forEachAccount(long position, int limit, Consumer<Account> consumer);
+
     public Account getAccount(String accountId) throws AccountNotFoundException;
 
     public void storeAccount(Account account, boolean update) throws AccountAlreadyExistsException;
 
     public void storeAccount(Account account) throws AccountAlreadyExistsException;
+
+    /**
+     * Persists new accounts as one unit, skipping the ones whose ID is already stored.
+     *
+     * @param accounts   accounts to create
+     * @param duplicates receives the accounts skipped because their ID was already stored
+     */
+    public void storeAccounts(List<Account> accounts, Consumer<Account> duplicates);
+
+    /**
+     * Persists a transfer that has already been applied to the balances of both accounts.
+     * If the transfer can't be persisted, it's reverted from both balances before the exception is thrown,
+     * unless it may have been persisted all the same, in which case it's kept, and the store refuses
+     * every later mutation.
+     *
+     * @param from   debited account
+     * @param to     credited account
+     * @param amount transferred amount
+     */
+    public void storeTransfer(Account from, Account to, long amount);
+
+    /**
+     * Persists a transfer that has been debited from the source account, but not credited to the target account yet,
+     * so that a transfer spending the credited money is always persisted after this one.
+     * Never changes the balances: the caller credits the target account once the transfer is persisted, and refunds
+     * the source account if it can't be. If it may have been persisted all the same, the store refuses every later
+     * mutation, as for {@link #storeTransfer(Account, Account, long)}.
+     *
+     * @param from   debited account
+     * @param to     account to credit
+     * @param amount transferred amount
+     */
+    public void storeDebitedTransfer(Account from, Account to, long amount);
+
+    /**
+     * Applies a transfer and persists it, only if neither account has changed since its version was read.
+     * Both accounts are held while the transfer is applied, see {@link Account#beginChanges}.
+     *
+     * @param from        account to debit
+     * @param fromVersion version of the debited account, read before its balance
+     * @param to          account to credit
+     * @param toVersion   version of the credited account
+     * @param amount      amount to transfer
+     * @return true if the transfer was applied, false if either account had changed, in which case nothing was
+     */
+    public boolean storeTransfer(Account from, long fromVersion, Account to, long toVersion, long amount);
+
+    /**
+     * Persists several transfers that have already been applied, as one unit.
+     * If they can't be persisted, they're all reverted from the balances before the exception is thrown,
+     * unless they may have been persisted, as for {@link #storeTransfer(Account, Account, long)}.
+     *
+     * @param transfers applied transfers, in the order they were applied
+     */
+    public void storeTransfers(List<TransferRequest> transfers);
 }
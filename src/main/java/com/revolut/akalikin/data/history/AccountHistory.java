@@ -0,0 +1,200 @@
+package com.revolut.akalikin.data.history;
+
+import com.revolut.akalikin.exception.InvalidCursorException;
+import com.revolut.akalikin.model.Transaction;
+import com.revolut.akalikin.model.TransactionPage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Append-only log of the transfer legs of one account.
+ *
+ * Every entry is [varint milliseconds since the previous entry][zigzag varint amount][varint number of the other
+ * account][byte length of the entry], typically 5 to 8 bytes. The trailing length lets the log be read backwards
+ * from its end, newest first, and the time of an entry is the time of the entry after it minus that entry's delta,
+ * so a page is read in time proportional to its size wherever it starts. Times never go backwards in the log:
+ * an entry is never older than the previous one, even if the clock is.
+ *
+ * The log is kept in pages of {@link #PAGE_SIZE} bytes, except the first one, which grows from a few bytes to a page,
+ * so that accounts with few transfers stay small and appending to a long log never copies it.
+ */
+final class AccountHistory {
+
+    private static final int PAGE_SHIFT = 12;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int INITIAL_SIZE = 32;
+    private static final int CURSOR_BYTES = Integer.BYTES + 2 * Long.BYTES;
+
+    private final String accountId;
+    private final int number;
+
+    private byte[][] pages = new byte[1][];
+    private long size;
+    private long lastTime;
+
+    /**
+     * Constructor.
+     *
+     * @param accountId ID of the account
+     * @param number    number of the account, by which the other logs refer to it
+     */
+    AccountHistory(String accountId, int number) {
+        this.accountId = accountId;
+        this.number = number;
+    }
+
+    String getAccountId() {
+        return accountId;
+    }
+
+    int getNumber() {
+        return number;
+    }
+
+    /**
+     * Appends an entry.
+     *
+     * @param time         milliseconds since the epoch
+     * @param amount       change of the balance
+     * @param counterparty number of the other account
+     * @return size of the entry in bytes
+     */
+    synchronized int append(long time, long amount, int counterparty) {
+        long entryTime = Math.max(time, lastTime);
+        long start = size;
+        writeVarint(entryTime - lastTime);
+        writeVarint((amount << 1) ^ (amount >> 63));
+        writeVarint(counterparty);
+        int length = (int) (size - start + 1);
+        write((byte) length);
+        lastTime = entryTime;
+        return length;
+    }
+
+    /**
+     * Reads a page of the log, newest first.
+     *
+     * @param cursor     cursor returned with the previous page, or null for the newest page
+     * @param limit      maximum number of entries in the page
+     * @param accountIds IDs of the other accounts, by number
+     * @throws InvalidCursorException if the cursor wasn't returned by this log
+     */
+    synchronized TransactionPage read(String cursor, int limit, IntFunction<String> accountIds)
+            throws InvalidCursorException {
+        long end = size;
+        long time = lastTime;
+        if (cursor != null) {
+            ByteBuffer position = decodeCursor(cursor);
+            end = position.getLong();
+            time = position.getLong();
+        }
+        List<Transaction> transactions = new ArrayList<>(Math.min(limit, 64));
+        while (end > 0 && transactions.size() < limit) {
+            int length = byteAt(end - 1);
+            long start = end - length;
+            if (length < 4 || start < 0) {
+                throw new InvalidCursorException(cursor);
+            }
+            long delta = varintAt(start, end);
+            long position = start + varintLength(delta);
+            long zigzag = varintAt(position, end);
+            position += varintLength(zigzag);
+            long counterparty = varintAt(position, end);
+            if (position + varintLength(counterparty) != end - 1) {
+                // Only a cursor that isn't at the end of an entry can get there
+                throw new InvalidCursorException(cursor);
+            }
+            long amount = (zigzag >>> 1) ^ -(zigzag & 1);
+            transactions.add(new Transaction(time, accountIds.apply((int) counterparty), amount));
+            time -= delta;
+            end = start;
+        }
+        return new TransactionPage(transactions, end > 0 ? encodeCursor(end, time) : null);
+    }
+
+    /**
+     * @return size of the log in bytes, including the unused end of its last page
+     */
+    synchronized long getAllocatedBytes() {
+        long bytes = 0;
+        for (byte[] page : pages) {
+            bytes += page == null ? 0 : page.length;
+        }
+        return bytes;
+    }
+
+    private String encodeCursor(long end, long time) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(ByteBuffer.allocate(CURSOR_BYTES).putInt(number).putLong(end).putLong(time).array());
+    }
+
+    /**
+     * @return the end and the time in the cursor
+     */
+    private ByteBuffer decodeCursor(String cursor) throws InvalidCursorException {
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+            if (bytes.length == CURSOR_BYTES) {
+                ByteBuffer position = ByteBuffer.wrap(bytes);
+                long end = position.getLong(Integer.BYTES);
+                if (position.getInt() == number && end > 0 && end <= size) {
+                    return position;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // reported below
+        }
+        throw new InvalidCursorException(cursor);
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            write((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        write((byte) value);
+    }
+
+    private void write(byte value) {
+        int page = (int) (size >>> PAGE_SHIFT);
+        int offset = (int) (size & (PAGE_SIZE - 1));
+        if (page == pages.length) {
+            pages = Arrays.copyOf(pages, pages.length * 2);
+        }
+        if (pages[page] == null) {
+            pages[page] = new byte[page == 0 ? INITIAL_SIZE : PAGE_SIZE];
+        } else if (offset == pages[page].length) {
+            pages[page] = Arrays.copyOf(pages[page], Math.min(offset * 2, PAGE_SIZE));
+        }
+        pages[page][offset] = value;
+        size++;
+    }
+
+    private int byteAt(long position) {
+        return pages[(int) (position >>> PAGE_SHIFT)][(int) (position & (PAGE_SIZE - 1))] & 0xFF;
+    }
+
+    /**
+     * @param end position the varint must end before
+     */
+    private long varintAt(long position, long end) {
+        long value = 0;
+        for (int shift = 0; position < end; shift += 7) {
+            int b = byteAt(position++);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    private static int varintLength(long value) {
+        return Math.max(1, (70 - Long.numberOfLeadingZeros(value)) / 7);
+    }
+}
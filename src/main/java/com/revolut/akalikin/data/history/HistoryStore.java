@@ -0,0 +1,90 @@
+package com.revolut.akalikin.data.history;
+
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Store decorator recording every persisted transfer in a {@link TransactionHistory}, once the delegate
+ * has persisted it. Failed transfers aren't persisted, so they aren't recorded.
+ */
+public class HistoryStore implements Store {
+
+    private final Store delegate;
+    private final TransactionHistory history;
+
+    /**
+     * Constructor.
+     *
+     * @param delegate store holding the accounts
+     * @param history  history to record the transfers in
+     */
+    public HistoryStore(Store delegate, TransactionHistory history) {
+        this.delegate = delegate;
+        this.history = history;
+    }
+
+    @Override
+    public List<Account> getAccounts() {
+        return delegate.getAccounts();
+    }
+
+    @Override
+    public long forEachAccount(long position, int limit, Consumer<Account> consumer) {
+        return delegate.forEachAccount(position, limit, consumer);
+    }
+
+    @Override
+    public Account getAccount(String accountId) throws AccountNotFoundException {
+        return delegate.getAccount(accountId);
+    }
+
+    @Override
+    public void storeAccount(Account account, boolean update) throws AccountAlreadyExistsException {
+        delegate.storeAccount(account, update);
+    }
+
+    @Override
+    public void storeAccount(Account account) throws AccountAlreadyExistsException {
+        delegate.storeAccount(account);
+    }
+
+    @Override
+    public void storeAccounts(List<Account> accounts, Consumer<Account> duplicates) {
+        delegate.storeAccounts(accounts, duplicates);
+    }
+
+    @Override
+    public void storeTransfer(Account from, Account to, long amount) {
+        delegate.storeTransfer(from, to, amount);
+        history.recordTransfer(from.getAccountId(), to.getAccountId(), amount);
+    }
+
+    @Override
+    public void storeDebitedTransfer(Account from, Account to, long amount) {
+        delegate.storeDebitedTransfer(from, to, amount);
+        history.recordTransfer(from.getAccountId(), to.getAccountId(), amount);
+    }
+
+    @Override
+    public boolean storeTransfer(Account from, long fromVersion, Account to, long toVersion, long amount) {
+        if (!delegate.storeTransfer(from, fromVersion, to, toVersion, amount)) {
+            return false;
+        }
+        history.recordTransfer(from.getAccountId(), to.getAccountId(), amount);
+        return true;
+    }
+
+    @Override
+    public void storeTransfers(List<TransferRequest> transfers) {
+        delegate.storeTransfers(transfers);
+        for (TransferRequest transfer : transfers) {
+            history.recordTransfer(transfer.getFrom(), transfer.getTo(), transfer.getAmount());
+        }
+    }
+}
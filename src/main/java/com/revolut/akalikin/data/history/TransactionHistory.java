@@ -0,0 +1,106 @@
+package com.revolut.akalikin.data.history;
+
+import com.revolut.akalikin.exception.InvalidCursorException;
+import com.revolut.akalikin.model.TransactionPage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transfer legs of every account since the start of the service, kept in memory: the debit of the sending account
+ * and the credit of the receiving one, with the time the transfer was persisted and the other account.
+ *
+ * Every account with a transfer has its own append-only {@link AccountHistory}, and a number, by which the entries
+ * of the other accounts refer to it instead of by its ID.
+ *
+ * Not durable, and unbounded: nothing is ever dropped, and nothing survives a restart.
+ */
+public class TransactionHistory {
+
+    private final ConcurrentHashMap<String, AccountHistory> histories = new ConcurrentHashMap<>();
+    private final LongAdder entryCount = new LongAdder();
+    private final LongAdder entryBytes = new LongAdder();
+
+    private final Object numberLock = new Object();
+    private volatile AccountHistory[] byNumber = new AccountHistory[16];
+    private int accountCount;
+
+    /**
+     * Records both legs of a transfer that has been persisted.
+     */
+    public void recordTransfer(String fromId, String toId, long amount) {
+        long time = System.currentTimeMillis();
+        AccountHistory from = history(fromId);
+        AccountHistory to = history(toId);
+        entryBytes.add(from.append(time, -amount, to.getNumber()) + to.append(time, amount, from.getNumber()));
+        entryCount.add(2);
+    }
+
+    /**
+     * Reads a page of the history of an account, newest first.
+     *
+     * @param cursor cursor returned with the previous page of the account, or null for the newest page
+     * @param limit  maximum number of transactions in the page
+     * @throws InvalidCursorException if the cursor is malformed, or of another account
+     */
+    public TransactionPage read(String accountId, String cursor, int limit) throws InvalidCursorException {
+        AccountHistory history = histories.get(accountId);
+        if (history == null) {
+            if (cursor != null) {
+                throw new InvalidCursorException(cursor);
+            }
+            return new TransactionPage(Collections.emptyList(), null);
+        }
+        return history.read(cursor, limit, number -> byNumber[number].getAccountId());
+    }
+
+    /**
+     * @return number of recorded legs
+     */
+    public long getEntryCount() {
+        return entryCount.sum();
+    }
+
+    /**
+     * @return average size of a recorded leg in bytes, not counting the unused ends of the pages
+     */
+    public double getBytesPerEntry() {
+        long count = entryCount.sum();
+        return count == 0 ? Double.NaN : (double) entryBytes.sum() / count;
+    }
+
+    /**
+     * @return bytes allocated for the logs of all the accounts
+     */
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (AccountHistory history : histories.values()) {
+            bytes += history.getAllocatedBytes();
+        }
+        return bytes;
+    }
+
+    private AccountHistory history(String accountId) {
+        AccountHistory history = histories.get(accountId);
+        return history != null ? history : histories.computeIfAbsent(accountId, this::newHistory);
+    }
+
+    /**
+     * Numbers the account. The entries referring to it are appended after, so their readers see it in
+     * {@link #byNumber} through the lock of the log they read.
+     */
+    private AccountHistory newHistory(String accountId) {
+        synchronized (numberLock) {
+            AccountHistory history = new AccountHistory(accountId, accountCount);
+            AccountHistory[] numbered = byNumber;
+            if (accountCount == numbered.length) {
+                numbered = Arrays.copyOf(numbered, numbered.length * 2);
+            }
+            numbered[accountCount++] = history;
+            byNumber = numbered;
+            return history;
+        }
+    }
+}
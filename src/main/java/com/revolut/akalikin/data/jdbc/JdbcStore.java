@@ -0,0 +1,342 @@
+package com.revolut.akalikin.data.jdbc;
+
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Store decorator persisting the accounts in a SQL database over JDBC, such as an embedded H2 in file mode,
+ * before returning. On construction the table of the accounts is created if missing, and its rows are loaded into
+ * the delegate, which keeps serving the reads and holding the balances the transfer engines change in place.
+ *
+ * Every transfer is written as one JDBC batch of relative updates, in a single transaction, on a connection of
+ * the pool. The updates add amounts rather than set balances, so concurrent transfers of an account may commit in
+ * any order; they are issued in the order of the account IDs, so that transactions waiting for each other's row locks
+ * never deadlock, although one may still wait for the row lock another holds until it commits. An account is inserted
+ * before it's added to the delegate, so no transfer updates it before its row exists, and a transfer is written
+ * before it's passed to the delegate, so the delegate never sees a transfer that isn't in the database.
+ * A failed write reverts the transfer from the balances and throws an {@link UncheckedIOException}, as a failed
+ * journal write does.
+ */
+public class JdbcStore implements Store {
+
+    static final String TABLE = "accounts";
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS " + TABLE
+            + " (id VARCHAR(65535) PRIMARY KEY, balance BIGINT NOT NULL)";
+    private static final String SELECT_SQL = "SELECT id, balance FROM " + TABLE;
+    private static final String INSERT_SQL = "INSERT INTO " + TABLE + " (id, balance) VALUES (?, ?)";
+    private static final String UPDATE_SQL = "UPDATE " + TABLE + " SET balance = ? WHERE id = ?";
+    private static final String ADD_SQL = "UPDATE " + TABLE + " SET balance = balance + ? WHERE id = ?";
+
+    /**
+     * SQLSTATE class of the integrity constraint violations, such as a duplicate key.
+     */
+    private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+    private final Store delegate;
+    private final DataSource dataSource;
+    private final long recoveryTime;
+
+    /**
+     * Constructor.
+     *
+     * @param delegate   store holding the accounts, expected to be empty
+     * @param dataSource pool of connections to the database, left open by the store
+     */
+    public JdbcStore(Store delegate, DataSource dataSource) throws SQLException {
+        this.delegate = delegate;
+        this.dataSource = dataSource;
+
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_TABLE_SQL);
+            try (ResultSet rows = statement.executeQuery(SELECT_SQL)) {
+                while (rows.next()) {
+                    try {
+                        delegate.storeAccount(new Account(rows.getString(1), rows.getLong(2)));
+                    } catch (AccountAlreadyExistsException e) {
+                        throw new IllegalStateException("Store is expected to be empty", e);
+                    }
+                }
+            }
+        }
+        this.recoveryTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * @return milliseconds it took to load the accounts on construction
+     */
+    public long getRecoveryTime() {
+        return recoveryTime;
+    }
+
+    @Override
+    public List<Account> getAccounts() {
+        return delegate.getAccounts();
+    }
+
+    @Override
+    public long forEachAccount(long position, int limit, Consumer<Account> consumer) {
+        return delegate.forEachAccount(position, limit, consumer);
+    }
+
+    @Override
+    public Account getAccount(String accountId) throws AccountNotFoundException {
+        return delegate.getAccount(accountId);
+    }
+
+    @Override
+    public void storeAccount(Account account, boolean update) throws AccountAlreadyExistsException {
+        try (Connection connection = dataSource.getConnection()) {
+            if (!update || !updateBalance(connection, account)) {
+                insert(connection, account);
+            }
+        } catch (SQLException e) {
+            if (isIntegrityViolation(e)) {
+                throw new AccountAlreadyExistsException(account.getAccountId());
+            }
+            throw failure("Can't store account " + account.getAccountId(), e);
+        }
+        delegate.storeAccount(account, update);
+    }
+
+    @Override
+    public void storeAccount(Account account) throws AccountAlreadyExistsException {
+        storeAccount(account, false);
+    }
+
+    /**
+     * Inserts all the rows as one batch, in a single transaction. If any of them exists, the transaction is rolled
+     * back and the rows are inserted one at a time instead, to tell the duplicates apart.
+     */
+    @Override
+    public void storeAccounts(List<Account> accounts, Consumer<Account> duplicates) {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        List<Account> inserted = accounts;
+        try (Connection connection = dataSource.getConnection()) {
+            if (!insertAll(connection, accounts)) {
+                inserted = new ArrayList<>(accounts.size());
+                for (Account account : accounts) {
+                    try {
+                        insert(connection, account);
+                        inserted.add(account);
+                    } catch (SQLException e) {
+                        if (!isIntegrityViolation(e)) {
+                            throw e;
+                        }
+                        duplicates.accept(account);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw failure("Can't store " + accounts.size() + " accounts", e);
+        }
+        delegate.storeAccounts(inserted, duplicates);
+    }
+
+    @Override
+    public void storeTransfer(Account from, Account to, long amount) {
+        try {
+            addTransfer(from.getAccountId(), to.getAccountId(), amount);
+        } catch (RuntimeException e) {
+            Account.change(new Account[]{from, to}, new long[]{amount, -amount});
+            throw e;
+        }
+        delegate.storeTransfer(from, to, amount);
+    }
+
+    @Override
+    public void storeDebitedTransfer(Account from, Account to, long amount) {
+        addTransfer(from.getAccountId(), to.getAccountId(), amount);
+        delegate.storeDebitedTransfer(from, to, amount);
+    }
+
+    /**
+     * The accounts are held while the database is written, so a failed write releases them unchanged instead of
+     * reverting balances that may have been spent meanwhile.
+     */
+    @Override
+    public boolean storeTransfer(Account from, long fromVersion, Account to, long toVersion, long amount) {
+        if (!Account.beginChanges(from, fromVersion, to, toVersion)) {
+            return false;
+        }
+        try {
+            addTransfer(from.getAccountId(), to.getAccountId(), amount);
+        } catch (RuntimeException e) {
+            from.cancelChange();
+            to.cancelChange();
+            throw e;
+        }
+        Account.commitChanges(from, -amount, to, amount);
+        delegate.storeTransfer(from, to, amount);
+        return true;
+    }
+
+    /**
+     * Writes the whole batch in a single transaction, with an update per account involved.
+     */
+    @Override
+    public void storeTransfers(List<TransferRequest> transfers) {
+        if (transfers.isEmpty()) {
+            return;
+        }
+        Map<String, Long> changes = new TreeMap<>();
+        for (TransferRequest transfer : transfers) {
+            changes.merge(transfer.getFrom(), -transfer.getAmount(), Long::sum);
+            changes.merge(transfer.getTo(), transfer.getAmount(), Long::sum);
+        }
+        String[] accountIds = changes.keySet().toArray(new String[changes.size()]);
+        long[] amounts = new long[accountIds.length];
+        for (int i = 0; i < accountIds.length; i++) {
+            amounts[i] = changes.get(accountIds[i]);
+        }
+        try {
+            addToBalances(accountIds, amounts);
+        } catch (RuntimeException e) {
+            revert(accountIds, amounts);
+            throw e;
+        }
+        delegate.storeTransfers(transfers);
+    }
+
+    /**
+     * Writes a transfer to the rows of both accounts, updated in the order of their IDs.
+     */
+    private void addTransfer(String fromId, String toId, long amount) {
+        if (fromId.compareTo(toId) < 0) {
+            addToBalances(new String[]{fromId, toId}, new long[]{-amount, amount});
+        } else {
+            addToBalances(new String[]{toId, fromId}, new long[]{amount, -amount});
+        }
+    }
+
+    /**
+     * Reverts the net changes of applied transfers as one change.
+     */
+    private void revert(String[] accountIds, long[] amounts) {
+        Account[] accounts = new Account[accountIds.length];
+        long[] reverted = new long[amounts.length];
+        for (int i = 0; i < accountIds.length; i++) {
+            try {
+                accounts[i] = delegate.getAccount(accountIds[i]);
+            } catch (AccountNotFoundException e) {
+                throw new IllegalStateException("Transfer of a missing account", e);
+            }
+            reverted[i] = -amounts[i];
+        }
+        Account.change(accounts, reverted);
+    }
+
+    /**
+     * @return true if the row of the account existed
+     */
+    private static boolean updateBalance(Connection connection, Account account) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(UPDATE_SQL)) {
+            statement.setLong(1, account.getBalance());
+            statement.setString(2, account.getAccountId());
+            return statement.executeUpdate() > 0;
+        }
+    }
+
+    private static void insert(Connection connection, Account account) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL)) {
+            statement.setString(1, account.getAccountId());
+            statement.setLong(2, account.getBalance());
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * @return false if any of the rows existed, in which case none was inserted
+     */
+    private static boolean insertAll(Connection connection, List<Account> accounts) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL)) {
+            for (Account account : accounts) {
+                statement.setString(1, account.getAccountId());
+                statement.setLong(2, account.getBalance());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            connection.rollback();
+            if (isIntegrityViolation(e)) {
+                return false;
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * @param accountIds IDs of the accounts, in the order the rows are locked in
+     * @param amounts    amounts to add to their balances
+     */
+    private void addToBalances(String[] accountIds, long[] amounts) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(ADD_SQL)) {
+                for (int i = 0; i < accountIds.length; i++) {
+                    if (amounts[i] != 0) {
+                        statement.setLong(1, amounts[i]);
+                        statement.setString(2, accountIds[i]);
+                        statement.addBatch();
+                    }
+                }
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw failure("Can't store the transfer between " + Arrays.toString(accountIds), e);
+        }
+    }
+
+    /**
+     * A failed batch may report the violation only in its chained exceptions.
+     */
+    private static boolean isIntegrityViolation(SQLException e) {
+        for (; e != null; e = e.getNextException()) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith(INTEGRITY_CONSTRAINT_VIOLATION)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static UncheckedIOException failure(String message, SQLException e) {
+        return new UncheckedIOException(message, new IOException(e));
+    }
+}
@@ -0,0 +1,366 @@
+package com.revolut.akalikin.data.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Append-only write-ahead log on a {@link FileChannel}, with group commit.
+ *
+ * Appends only copy the record into the active in-memory buffer. A single flusher thread swaps the active buffer
+ * with a spare one, writes it and forces it to disk, so all the records appended while the previous flush was running
+ * share a single fsync. Writers wait for the position of their record to become durable.
+ * A failed write or fsync fails the journal for good: the flusher stops, and every later append and wait throws,
+ * as the records of the failed flush may or may not be on the disk.
+ *
+ * The journal is a sequence of numbered segment files in a directory. {@link #rotate()} closes the current segment
+ * between two appends and continues in the next one, so that the closed segments can be compacted into a snapshot.
+ */
+public class Journal implements Closeable {
+
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Action performed under the append lock, right before the record is appended.
+     */
+    public interface Action<E extends Throwable> {
+
+        void run() throws E;
+    }
+
+    private final Path directory;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final Condition swapped = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final Thread flusher;
+
+    private FileChannel channel;
+    private long segment;
+    private boolean rotationRequested;
+    private ByteBuffer active = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long appendedPosition;
+    private long durablePosition;
+    private IOException failure;
+    private boolean running = true;
+
+    /**
+     * Opens the journal for appending, after replaying the intact records of its segments from the first one on.
+     * A torn record at the end of the last segment, left by a crash, is truncated.
+     *
+     * @param directory    directory of the segments, created if missing
+     * @param firstSegment first segment to replay; the earlier ones are ignored
+     * @param consumer     receives the replayed records, in order
+     * @throws IOException if a segment other than the last one is corrupt
+     */
+    Journal(Path directory, long firstSegment, Consumer<JournalRecord> consumer) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        List<Long> segments = segments(directory, firstSegment);
+        this.segment = segments.isEmpty() ? firstSegment : segments.get(segments.size() - 1);
+        for (long closed : segments.subList(0, Math.max(0, segments.size() - 1))) {
+            replay(directory, closed, consumer);
+        }
+        this.channel = FileChannel.open(segmentPath(directory, segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end;
+        try {
+            end = replay(channel, consumer);
+            channel.truncate(end);
+            channel.position(end);
+        } catch (RuntimeException | IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.flusher = new Thread(this::flushLoop, "journal-flusher-" + directory.getFileName());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Path of a segment of the journal.
+     */
+    static Path segmentPath(Path directory, long segment) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Replays a complete segment of the journal.
+     *
+     * @throws IOException if the segment is corrupt
+     */
+    static void replay(Path directory, long segment, Consumer<JournalRecord> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(directory, segment), StandardOpenOption.READ)) {
+            if (replay(channel, consumer) != channel.size()) {
+                throw new IOException("Journal segment " + segmentPath(directory, segment) + " is corrupt");
+            }
+        }
+    }
+
+    /**
+     * Lists the segments in the directory.
+     *
+     * @param from first segment to list
+     * @return numbers of the segments, in ascending order
+     */
+    static List<Long> segments(Path directory, long from) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long segment = Long.parseLong(
+                        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                if (segment >= from) {
+                    segments.add(segment);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return position to wait for, for the record to be durable
+     */
+    long append(JournalRecord record) {
+        return append(record, () -> { });
+    }
+
+    /**
+     * Runs the action and appends the record, atomically with respect to the other appends.
+     * Nothing is appended if the action throws. The space of the record is reserved before the action runs,
+     * so the append lock is held from the action to the append.
+     *
+     * @return position to wait for, for the record to be durable
+     */
+    <E extends Throwable> long append(JournalRecord record, Action<E> action) throws E {
+        lock.lock();
+        try {
+            awaitSpace(record.size());
+            action.run();
+            return write(record);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends several records atomically with respect to the other appends.
+     *
+     * @return position to wait for, for the records to be durable
+     */
+    long append(List<JournalRecord> records) {
+        int size = 0;
+        for (JournalRecord record : records) {
+            size += record.size();
+        }
+        lock.lock();
+        try {
+            if (size <= BUFFER_SIZE) {
+                // Not interleaved with other appends, unless the records don't fit in a buffer together
+                awaitSpace(size);
+            }
+            long position = appendedPosition;
+            for (JournalRecord record : records) {
+                position = write(record);
+            }
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until everything up to the position is forced to disk.
+     *
+     * @throws UncheckedIOException if the journal can't be written
+     */
+    void awaitDurable(long position) {
+        lock.lock();
+        try {
+            while (durablePosition < position && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Journal is not writable", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the current segment once everything appended to it is durable, and continues in the next one.
+     *
+     * @return number of the new segment; all the segments before it are complete
+     * @throws UncheckedIOException if the journal can't be written
+     */
+    long rotate() {
+        lock.lock();
+        try {
+            long next = segment + 1;
+            rotationRequested = true;
+            pending.signal();
+            while (segment < next && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Journal is not writable", failure);
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            running = false;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * Waits until the active buffer has room for the size, releasing the append lock meanwhile.
+     */
+    private void awaitSpace(int size) {
+        if (size > BUFFER_SIZE) {
+            throw new IllegalArgumentException("Journal record too large: " + size + " bytes");
+        }
+        while (active.remaining() < size && failure == null) {
+            // Waiting for the flusher to take the full buffer
+            swapped.awaitUninterruptibly();
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("Journal is not writable", failure);
+        }
+    }
+
+    private long write(JournalRecord record) {
+        int size = record.size();
+        awaitSpace(size);
+        record.writeTo(active);
+        appendedPosition += size;
+        pending.signal();
+        return appendedPosition;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer toWrite;
+            long position;
+            boolean rotation;
+            lock.lock();
+            try {
+                while (active.position() == 0 && !rotationRequested && running) {
+                    pending.awaitUninterruptibly();
+                }
+                if (active.position() == 0 && !rotationRequested) {
+                    return;
+                }
+                toWrite = active;
+                active = spare;
+                spare = null;
+                position = appendedPosition;
+                rotation = rotationRequested;
+                rotationRequested = false;
+                swapped.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            FileChannel next = null;
+            try {
+                toWrite.flip();
+                while (toWrite.hasRemaining()) {
+                    channel.write(toWrite);
+                }
+                channel.force(false);
+                if (rotation) {
+                    next = FileChannel.open(segmentPath(directory, segment + 1),
+                            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                    channel.close();
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            toWrite.clear();
+
+            lock.lock();
+            try {
+                spare = toWrite;
+                if (error != null) {
+                    failure = error;
+                    swapped.signalAll();
+                } else {
+                    durablePosition = position;
+                    if (next != null) {
+                        channel = next;
+                        segment++;
+                    }
+                }
+                flushed.signalAll();
+                if (failure != null) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static long replay(FileChannel channel, Consumer<JournalRecord> consumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long position = 0;
+        while (true) {
+            int read = channel.read(buffer, position + buffer.position());
+            buffer.flip();
+            int consumed = 0;
+            JournalRecord record;
+            while ((record = JournalRecord.readFrom(buffer)) != null) {
+                consumer.accept(record);
+                consumed = buffer.position();
+            }
+            position += consumed;
+            if (read <= 0 || (consumed == 0 && !buffer.hasRemaining())) {
+                return position;
+            }
+            if (consumed == 0 && buffer.limit() == buffer.capacity()) {
+                // Neither a complete record nor space for more: corrupt length
+                return position;
+            }
+            buffer.position(consumed);
+            buffer.compact();
+        }
+    }
+}
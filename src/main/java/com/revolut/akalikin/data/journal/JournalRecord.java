@@ -0,0 +1,137 @@
+package com.revolut.akalikin.data.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Single mutation in the journal.
+ * Framed as [payload length][CRC32 of the payload][payload], so that a record torn by a crash is detected on replay.
+ * Transfers are recorded as amounts rather than resulting balances: they commute, so concurrent transfers
+ * replay to the same balances whatever order they reached the journal in.
+ */
+final class JournalRecord {
+
+    static final byte CREATE = 1;
+    static final byte UPDATE = 2;
+    static final byte TRANSFER = 3;
+
+    static final int HEADER_SIZE = 8;
+
+    private final byte type;
+    private final byte[] accountId;
+    private final byte[] toAccountId;
+    private final long amount;
+
+    private JournalRecord(byte type, byte[] accountId, byte[] toAccountId, long amount) {
+        this.type = type;
+        this.accountId = accountId;
+        this.toAccountId = toAccountId;
+        this.amount = amount;
+    }
+
+    static JournalRecord create(String accountId, long balance) {
+        return new JournalRecord(CREATE, encode(accountId), null, balance);
+    }
+
+    static JournalRecord update(String accountId, long balance) {
+        return new JournalRecord(UPDATE, encode(accountId), null, balance);
+    }
+
+    static JournalRecord transfer(String fromId, String toId, long amount) {
+        return new JournalRecord(TRANSFER, encode(fromId), encode(toId), amount);
+    }
+
+    byte getType() {
+        return type;
+    }
+
+    String getAccountId() {
+        return new String(accountId, StandardCharsets.UTF_8);
+    }
+
+    String getToAccountId() {
+        return new String(toAccountId, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return balance of a created or updated account, amount of a transfer
+     */
+    long getAmount() {
+        return amount;
+    }
+
+    int size() {
+        return HEADER_SIZE + payloadSize();
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.putInt(payloadSize());
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putShort((short) accountId.length);
+        buffer.put(accountId);
+        if (type == TRANSFER) {
+            buffer.putShort((short) toAccountId.length);
+            buffer.put(toAccountId);
+        }
+        buffer.putLong(amount);
+        buffer.putInt(start + 4, checksum(buffer, start + HEADER_SIZE, buffer.position()));
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the record, or null if the buffer doesn't hold a complete, intact record
+     */
+    static JournalRecord readFrom(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int start = buffer.position();
+        int payloadSize = buffer.getInt(start);
+        int crc = buffer.getInt(start + 4);
+        if (payloadSize <= 0 || payloadSize > buffer.remaining() - HEADER_SIZE
+                || checksum(buffer, start + HEADER_SIZE, start + HEADER_SIZE + payloadSize) != crc) {
+            return null;
+        }
+        buffer.position(start + HEADER_SIZE);
+        byte type = buffer.get();
+        byte[] accountId = readId(buffer);
+        byte[] toAccountId = type == TRANSFER ? readId(buffer) : null;
+        long amount = buffer.getLong();
+        return new JournalRecord(type, accountId, toAccountId, amount);
+    }
+
+    private int payloadSize() {
+        int size = 1 + 2 + accountId.length + 8;
+        if (type == TRANSFER) {
+            size += 2 + toAccountId.length;
+        }
+        return size;
+    }
+
+    private static byte[] readId(ByteBuffer buffer) {
+        byte[] id = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(id);
+        return id;
+    }
+
+    private static byte[] encode(String accountId) {
+        byte[] bytes = accountId.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Account ID too long to be journaled: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    static int checksum(ByteBuffer buffer, int from, int to) {
+        ByteBuffer range = buffer.duplicate();
+        range.limit(to);
+        range.position(from);
+        CRC32 crc = new CRC32();
+        crc.update(range);
+        return (int) crc.getValue();
+    }
+}
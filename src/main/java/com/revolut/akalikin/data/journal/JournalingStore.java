@@ -0,0 +1,340 @@
+package com.revolut.akalikin.data.journal;
+
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Metrics;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Store decorator making every mutation durable in a write-ahead {@link Journal} before returning.
+ * On construction the latest snapshot and the journal written after it are loaded into the delegate,
+ * restoring the state from before the restart.
+ *
+ * Account creations are appended atomically with the change of the delegate, so a creation always precedes
+ * the transfers of the account in the journal. Concurrent writers share the fsyncs of the journal.
+ *
+ * A transfer whose record can't be appended is reverted, as the journal has failed before it. Once appended,
+ * a record whose sync fails may still reach the disk, so its transfer is kept in memory too, and the caller can't
+ * tell whether it happened. The failed journal then refuses every later mutation, until the store is recovered
+ * from the disk on restart.
+ *
+ * Snapshots are taken in the background without blocking the writers: the journal is rotated, and the previous
+ * snapshot and the closed segments are compacted into a new snapshot, after which they are deleted.
+ * The live accounts are never read by the snapshot, so it's exactly the state at the rotation.
+ */
+public class JournalingStore implements Store, Closeable {
+
+    private static final Counter SNAPSHOT_FAILURES = Metrics.counter("store.snapshot.failures");
+
+    private final Store delegate;
+    private final Path directory;
+    private final Journal journal;
+    private final long recoveryTime;
+    private final long snapshotInterval;
+    private final ScheduledExecutorService snapshotExecutor;
+    private volatile long snapshotTime = -1;
+
+    /**
+     * Constructor, for a store without periodic snapshots.
+     *
+     * @param delegate  store holding the accounts, expected to be empty
+     * @param directory directory of the journal and the snapshots, created if missing
+     */
+    public JournalingStore(Store delegate, Path directory) throws IOException {
+        this(delegate, directory, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param delegate         store holding the accounts, expected to be empty
+     * @param directory        directory of the journal and the snapshots, created if missing
+     * @param snapshotInterval seconds between the snapshots, 0 to take them only on {@link #snapshot()}
+     */
+    public JournalingStore(Store delegate, Path directory, long snapshotInterval) throws IOException {
+        this.delegate = delegate;
+        this.directory = directory;
+        this.snapshotInterval = snapshotInterval;
+
+        long start = System.nanoTime();
+        long snapshot = Snapshot.latest(directory);
+        if (snapshot >= 0) {
+            Snapshot.load(Snapshot.path(directory, snapshot), (accountId, balance) -> load(delegate, accountId, balance));
+        }
+        this.journal = new Journal(directory, Math.max(snapshot, 0), record -> replay(delegate, record));
+        this.recoveryTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        if (snapshotInterval > 0) {
+            this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-snapshot-" + directory.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotExecutor.scheduleWithFixedDelay(this::scheduledSnapshot,
+                    snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        } else {
+            this.snapshotExecutor = null;
+        }
+    }
+
+    /**
+     * @return milliseconds it took to load the snapshot and replay the journal on construction
+     */
+    public long getRecoveryTime() {
+        return recoveryTime;
+    }
+
+    /**
+     * @return seconds between the snapshots, 0 if they're only taken on {@link #snapshot()}
+     */
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * @return milliseconds it took to take the latest snapshot, -1 if none was taken since the construction
+     */
+    public long getSnapshotTime() {
+        return snapshotTime;
+    }
+
+    @Override
+    public List<Account> getAccounts() {
+        return delegate.getAccounts();
+    }
+
+    @Override
+    public long forEachAccount(long position, int limit, Consumer<Account> consumer) {
+        return delegate.forEachAccount(position, limit, consumer);
+    }
+
+    @Override
+    public Account getAccount(String accountId) throws AccountNotFoundException {
+        return delegate.getAccount(accountId);
+    }
+
+    @Override
+    public void storeAccount(Account account, boolean update) throws AccountAlreadyExistsException {
+        JournalRecord record = update
+                ? JournalRecord.update(account.getAccountId(), account.getBalance())
+                : JournalRecord.create(account.getAccountId(), account.getBalance());
+        journal.awaitDurable(journal.append(record, () -> delegate.storeAccount(account, update)));
+    }
+
+    @Override
+    public void storeAccount(Account account) throws AccountAlreadyExistsException {
+        storeAccount(account, false);
+    }
+
+    /**
+     * Waits once for all the records to be durable.
+     */
+    @Override
+    public void storeAccounts(List<Account> accounts, Consumer<Account> duplicates) {
+        long position = -1;
+        for (Account account : accounts) {
+            try {
+                position = journal.append(JournalRecord.create(account.getAccountId(), account.getBalance()),
+                        () -> delegate.storeAccount(account));
+            } catch (AccountAlreadyExistsException e) {
+                duplicates.accept(account);
+            }
+        }
+        if (position >= 0) {
+            journal.awaitDurable(position);
+        }
+    }
+
+    /**
+     * The record is durable before the delegate sees the transfer. If it can't be appended, the transfer is reverted.
+     */
+    @Override
+    public void storeTransfer(Account from, Account to, long amount) {
+        long position;
+        try {
+            position = journal.append(JournalRecord.transfer(from.getAccountId(), to.getAccountId(), amount));
+        } catch (RuntimeException e) {
+            Account.change(new Account[]{from, to}, new long[]{amount, -amount});
+            throw e;
+        }
+        journal.awaitDurable(position);
+        delegate.storeTransfer(from, to, amount);
+    }
+
+    @Override
+    public void storeDebitedTransfer(Account from, Account to, long amount) {
+        journal.awaitDurable(journal.append(JournalRecord.transfer(from.getAccountId(), to.getAccountId(), amount)));
+        delegate.storeDebitedTransfer(from, to, amount);
+    }
+
+    /**
+     * The record is appended while both accounts are held, so it precedes the record of any transfer
+     * that reads the changed balances.
+     */
+    @Override
+    public boolean storeTransfer(Account from, long fromVersion, Account to, long toVersion, long amount) {
+        if (!Account.beginChanges(from, fromVersion, to, toVersion)) {
+            return false;
+        }
+        long position;
+        try {
+            position = journal.append(JournalRecord.transfer(from.getAccountId(), to.getAccountId(), amount));
+        } catch (RuntimeException e) {
+            from.cancelChange();
+            to.cancelChange();
+            throw e;
+        }
+        Account.commitChanges(from, -amount, to, amount);
+        journal.awaitDurable(position);
+        delegate.storeTransfer(from, to, amount);
+        return true;
+    }
+
+    @Override
+    public void storeTransfers(List<TransferRequest> transfers) {
+        if (transfers.isEmpty()) {
+            return;
+        }
+        List<JournalRecord> records = new ArrayList<>(transfers.size());
+        for (TransferRequest transfer : transfers) {
+            records.add(JournalRecord.transfer(transfer.getFrom(), transfer.getTo(), transfer.getAmount()));
+        }
+        long position;
+        try {
+            position = journal.append(records);
+        } catch (RuntimeException e) {
+            revert(transfers);
+            throw e;
+        }
+        journal.awaitDurable(position);
+        delegate.storeTransfers(transfers);
+    }
+
+    /**
+     * Reverts the net changes of applied transfers as one change.
+     */
+    private void revert(List<TransferRequest> transfers) {
+        Map<String, Long> changes = new HashMap<>();
+        for (TransferRequest transfer : transfers) {
+            changes.merge(transfer.getFrom(), transfer.getAmount(), Long::sum);
+            changes.merge(transfer.getTo(), -transfer.getAmount(), Long::sum);
+        }
+        Account[] accounts = new Account[changes.size()];
+        long[] amounts = new long[changes.size()];
+        int i = 0;
+        for (Map.Entry<String, Long> change : changes.entrySet()) {
+            try {
+                accounts[i] = delegate.getAccount(change.getKey());
+            } catch (AccountNotFoundException e) {
+                throw new IllegalStateException("Transfer of a missing account", e);
+            }
+            amounts[i++] = change.getValue();
+        }
+        Account.change(accounts, amounts);
+    }
+
+    /**
+     * Takes a snapshot of the accounts, and deletes the journal segments and the snapshot it replaces.
+     * Doesn't block the writers, but holds a second copy of the accounts in memory while it runs, which is written
+     * to the snapshot without being copied again.
+     */
+    public synchronized void snapshot() throws IOException {
+        long start = System.nanoTime();
+        long segment = journal.rotate();
+        long previous = Snapshot.latest(directory);
+
+        InMemoryStore compacted = new InMemoryStore();
+        if (previous >= 0) {
+            Snapshot.load(Snapshot.path(directory, previous), (accountId, balance) -> load(compacted, accountId, balance));
+        }
+        for (long closed : Journal.segments(directory, Math.max(previous, 0))) {
+            if (closed >= segment) {
+                break;
+            }
+            Journal.replay(directory, closed, record -> replay(compacted, record));
+        }
+        Snapshot.write(Snapshot.path(directory, segment), compacted.size(), compacted);
+
+        if (previous >= 0) {
+            Files.deleteIfExists(Snapshot.path(directory, previous));
+        }
+        for (long closed : Journal.segments(directory, 0)) {
+            if (closed < segment) {
+                Files.deleteIfExists(Journal.segmentPath(directory, closed));
+            }
+        }
+        snapshotTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+            try {
+                snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        journal.close();
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException | UncheckedIOException e) {
+            // The journal is still complete, the next snapshot replays the segments this one didn't compact
+            SNAPSHOT_FAILURES.increment();
+        }
+    }
+
+    private static void load(Store store, String accountId, long balance) {
+        try {
+            store.storeAccount(new Account(accountId, balance));
+        } catch (AccountAlreadyExistsException e) {
+            throw new UncheckedIOException(new IOException("Snapshot is inconsistent", e));
+        }
+    }
+
+    private static void replay(Store store, JournalRecord record) {
+        try {
+            switch (record.getType()) {
+                case JournalRecord.CREATE:
+                    store.storeAccount(new Account(record.getAccountId(), record.getAmount()));
+                    break;
+                case JournalRecord.UPDATE:
+                    store.storeAccount(new Account(record.getAccountId(), record.getAmount()), true);
+                    break;
+                case JournalRecord.TRANSFER:
+                    Account from = store.getAccount(record.getAccountId());
+                    Account to = store.getAccount(record.getToAccountId());
+                    from.deductFunds(record.getAmount());
+                    to.addFunds(record.getAmount());
+                    store.storeTransfer(from, to, record.getAmount());
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown journal record type " + record.getType());
+            }
+        } catch (AccountAlreadyExistsException | AccountNotFoundException e) {
+            throw new UncheckedIOException(new IOException("Journal is inconsistent", e));
+        }
+    }
+}
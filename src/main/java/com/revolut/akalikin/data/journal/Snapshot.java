@@ -0,0 +1,179 @@
+package com.revolut.akalikin.data.journal;
+
+import com.revolut.akalikin.data.Store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * Binary snapshot of the balances of all the accounts, covering all the journal segments before its number.
+ *
+ * Layout: [magic][chunk count][offset of every chunk], followed by the chunks. Every chunk is framed like the journal
+ * records, as [payload length][CRC32 of the payload][payload], with the payload holding the number of accounts
+ * and then [account ID length][account ID][balance] for every account. The chunks are independent of each other,
+ * so they are read and checked in parallel.
+ */
+final class Snapshot {
+
+    static final int CHUNK_SIZE = 65536;
+
+    private static final int MAGIC = 0x534E4150;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+
+    /**
+     * Receives the accounts of a snapshot being loaded, from several threads at once.
+     */
+    interface Loader {
+
+        void load(String accountId, long balance);
+    }
+
+    private Snapshot() {
+    }
+
+    static Path path(Path directory, long segment) {
+        return directory.resolve(String.format("%s%016d%s", PREFIX, segment, SUFFIX));
+    }
+
+    /**
+     * @return number of the latest snapshot in the directory, or -1 if there's none
+     */
+    static long latest(Path directory) throws IOException {
+        long latest = -1;
+        if (!Files.isDirectory(directory)) {
+            return latest;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                latest = Math.max(latest, Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and atomically moves it in place once it's durable,
+     * so that a crash never leaves a partial snapshot behind. Walks the accounts a chunk at a time, without
+     * copying them.
+     *
+     * @param count    number of accounts of the store, which mustn't change while it's written
+     * @param accounts store of the accounts
+     */
+    static void write(Path file, int count, Store accounts) throws IOException {
+        int chunkCount = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(8 + chunkCount * 8);
+            header.putInt(MAGIC).putInt(chunkCount);
+            long offset = header.capacity();
+            channel.position(offset);
+
+            long position = 0;
+            ByteBuffer[] chunk = {ByteBuffer.allocate(1024 * 1024)};
+            int[] chunkAccounts = new int[1];
+            for (int i = 0; i < chunkCount; i++) {
+                header.putLong(offset);
+                chunk[0].clear();
+                chunk[0].position(JournalRecord.HEADER_SIZE + 4);
+                chunkAccounts[0] = 0;
+                position = accounts.forEachAccount(position, CHUNK_SIZE, account -> {
+                    byte[] accountId = account.getAccountId().getBytes(StandardCharsets.UTF_8);
+                    if (chunk[0].remaining() < 2 + accountId.length + 8) {
+                        chunk[0] = grow(chunk[0], 2 + accountId.length + 8);
+                    }
+                    chunk[0].putShort((short) accountId.length).put(accountId).putLong(account.getBalance());
+                    chunkAccounts[0]++;
+                });
+                ByteBuffer framed = chunk[0];
+                framed.putInt(JournalRecord.HEADER_SIZE, chunkAccounts[0]);
+                framed.putInt(0, framed.position() - JournalRecord.HEADER_SIZE);
+                framed.putInt(4, JournalRecord.checksum(framed, JournalRecord.HEADER_SIZE, framed.position()));
+                framed.flip();
+                while (framed.hasRemaining()) {
+                    offset += channel.write(framed);
+                }
+            }
+
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads the snapshot, reading its chunks in parallel.
+     *
+     * @return number of loaded accounts
+     * @throws IOException if the snapshot is corrupt
+     */
+    static long load(Path file, Loader loader) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, 8);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            int chunkCount = header.getInt();
+            ByteBuffer offsets = read(channel, 8, chunkCount * 8);
+            try {
+                return IntStream.range(0, chunkCount).parallel()
+                        .mapToLong(i -> loadChunk(channel, offsets.getLong(i * 8), loader))
+                        .sum();
+            } catch (UncheckedIOException e) {
+                throw new IOException("Snapshot " + file + " is corrupt", e.getCause());
+            }
+        }
+    }
+
+    private static long loadChunk(FileChannel channel, long offset, Loader loader) {
+        try {
+            ByteBuffer header = read(channel, offset, JournalRecord.HEADER_SIZE);
+            int payloadSize = header.getInt();
+            int crc = header.getInt();
+            ByteBuffer payload = read(channel, offset + JournalRecord.HEADER_SIZE, payloadSize);
+            if (JournalRecord.checksum(payload, 0, payloadSize) != crc) {
+                throw new IOException("Checksum mismatch in the chunk at " + offset);
+            }
+            int count = payload.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] accountId = new byte[payload.getShort() & 0xFFFF];
+                payload.get(accountId);
+                loader.load(new String(accountId, StandardCharsets.UTF_8), payload.getLong());
+            }
+            return count;
+        } catch (IOException | RuntimeException e) {
+            throw new UncheckedIOException(e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the snapshot at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        return grown.put(buffer);
+    }
+}
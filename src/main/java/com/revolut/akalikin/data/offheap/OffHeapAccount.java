@@ -0,0 +1,102 @@
+package com.revolut.akalikin.data.offheap;
+
+import com.revolut.akalikin.model.Account;
+
+import java.util.Objects;
+
+/**
+ * View of an account stored in an {@link OffHeapStore}.
+ * The balance, the version and the balance kept for the snapshots live in the native record of the account,
+ * and are changed there with the same protocol as on the heap.
+ * Valid only until the store is closed.
+ *
+ * The store also keeps cursors, views with no ID moved from record to record, to change the accounts without
+ * allocating; they never leave the store.
+ */
+public final class OffHeapAccount extends Account {
+
+    private long record;
+
+    OffHeapAccount(String accountId, long record) {
+        super(accountId, 0L);
+        this.record = record;
+    }
+
+    /**
+     * Cursor, to be moved to a record before use.
+     */
+    OffHeapAccount() {
+        this(null, 0L);
+    }
+
+    /**
+     * Moves the cursor to another record.
+     */
+    OffHeapAccount moveTo(long record) {
+        this.record = record;
+        return this;
+    }
+
+    /**
+     * Replaces the balance, as a change of the account.
+     */
+    void setBalance(long balance) {
+        beginChange();
+        commitChange(balance - balance());
+    }
+
+    @Override
+    protected long balance() {
+        return OffHeapMemory.getLongVolatile(record + OffHeapStore.BALANCE_OFFSET);
+    }
+
+    @Override
+    protected void putBalance(long balance) {
+        OffHeapMemory.putLongVolatile(record + OffHeapStore.BALANCE_OFFSET, balance);
+    }
+
+    @Override
+    protected long version() {
+        return OffHeapMemory.getLongVolatile(record + OffHeapStore.VERSION_OFFSET);
+    }
+
+    @Override
+    protected boolean casVersion(long expected, long updated) {
+        return OffHeapMemory.compareAndSwapLong(record + OffHeapStore.VERSION_OFFSET, expected, updated);
+    }
+
+    @Override
+    protected void putVersion(long version) {
+        OffHeapMemory.putLongVolatile(record + OffHeapStore.VERSION_OFFSET, version);
+    }
+
+    @Override
+    protected long changeEpoch() {
+        return OffHeapMemory.getLongVolatile(record + OffHeapStore.EPOCH_OFFSET);
+    }
+
+    @Override
+    protected void putChangeEpoch(long epoch) {
+        OffHeapMemory.putLongVolatile(record + OffHeapStore.EPOCH_OFFSET, epoch);
+    }
+
+    @Override
+    protected long previousBalance() {
+        return OffHeapMemory.getLongVolatile(record + OffHeapStore.PREVIOUS_BALANCE_OFFSET);
+    }
+
+    @Override
+    protected void putPreviousBalance(long balance) {
+        OffHeapMemory.putLongVolatile(record + OffHeapStore.PREVIOUS_BALANCE_OFFSET, balance);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) { return false; }
+        if (obj == this) { return true; }
+        if (obj.getClass() != getClass()) { return false; }
+        OffHeapAccount other = (OffHeapAccount) obj;
+        return Objects.equals(getAccountId(), other.getAccountId())
+                && balance() == other.balance();
+    }
+}
@@ -0,0 +1,89 @@
+package com.revolut.akalikin.data.offheap;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+
+/**
+ * Access to native memory outside of the Java heap, invisible to the garbage collector.
+ *
+ * Goes through sun.misc.Unsafe, the only way to reach native memory by address on Java 8. javac warns on every use
+ * of this internal API, and no annotation silences it, so the build compiles with -XDignore.symbol.file instead,
+ * see the compiler configuration in the pom.
+ */
+final class OffHeapMemory {
+
+    private static final Unsafe UNSAFE = unsafe();
+
+    private OffHeapMemory() {
+    }
+
+    /**
+     * Allocates zeroed native memory, to be released with {@link #free(long)}.
+     *
+     * @return address of the memory
+     */
+    static long allocate(long bytes) {
+        long address = UNSAFE.allocateMemory(bytes);
+        UNSAFE.setMemory(address, bytes, (byte) 0);
+        return address;
+    }
+
+    static void free(long address) {
+        UNSAFE.freeMemory(address);
+    }
+
+    static byte getByte(long address) {
+        return UNSAFE.getByte(address);
+    }
+
+    static void putByte(long address, byte value) {
+        UNSAFE.putByte(address, value);
+    }
+
+    static char getChar(long address) {
+        return UNSAFE.getChar(address);
+    }
+
+    static void putChar(long address, char value) {
+        UNSAFE.putChar(address, value);
+    }
+
+    static int getInt(long address) {
+        return UNSAFE.getInt(address);
+    }
+
+    static void putInt(long address, int value) {
+        UNSAFE.putInt(address, value);
+    }
+
+    static long getLong(long address) {
+        return UNSAFE.getLong(address);
+    }
+
+    static void putLong(long address, long value) {
+        UNSAFE.putLong(address, value);
+    }
+
+    static long getLongVolatile(long address) {
+        return UNSAFE.getLongVolatile(null, address);
+    }
+
+    static void putLongVolatile(long address, long value) {
+        UNSAFE.putLongVolatile(null, address, value);
+    }
+
+    static boolean compareAndSwapLong(long address, long expected, long updated) {
+        return UNSAFE.compareAndSwapLong(null, address, expected, updated);
+    }
+
+    private static Unsafe unsafe() {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
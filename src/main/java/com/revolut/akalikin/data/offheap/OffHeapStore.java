@@ -0,0 +1,348 @@
+package com.revolut.akalikin.data.offheap;
+
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.BalanceSnapshot;
+import com.revolut.akalikin.model.TransferRequest;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Store keeping the accounts in native memory, so that they cost neither heap nor garbage collection time.
+ *
+ * Three native areas, sized for a fixed capacity of accounts:
+ * - index: open-addressing hash table with linear probing, two to four times the capacity, each slot holding
+ *   [hash of the account ID][number of the record + 1], or 0 when empty
+ * - records: [balance][version][address of the account ID][epoch of the last change][balance it replaced],
+ *   one per account, see {@link Account}
+ * - account IDs: [length << 1 | latin1 flag][characters], one byte per character for Latin-1 IDs, two otherwise,
+ *   in pages allocated as they fill up
+ *
+ * Lookups are lock-free and compare the requested ID with the stored characters in place, without allocating.
+ * Accounts are inserted by publishing their complete record into an empty index slot with a compare-and-set,
+ * and are never removed, so slots never move.
+ *
+ * The {@link Account}s handed out by {@link #getAccount(String)} and {@link #forEachAccount} are new views of the
+ * records, as their callers keep them. {@link #getBalance(String)} and {@link #transfer(String, String, long)}
+ * read and change the records without allocating anything.
+ */
+public class OffHeapStore implements Store, Closeable {
+
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    static final long BALANCE_OFFSET = 0;
+    static final long VERSION_OFFSET = 8;
+    private static final long ID_OFFSET = 16;
+    static final long EPOCH_OFFSET = 24;
+    static final long PREVIOUS_BALANCE_OFFSET = 32;
+    private static final long RECORD_SIZE = 40;
+
+    private static final int PAGE_SHIFT = 26;
+    private static final long PAGE_SIZE = 1L << PAGE_SHIFT;
+
+    private final int capacity;
+    private final long indexMask;
+    private final long index;
+    private final long records;
+    private final AtomicInteger recordCount = new AtomicInteger();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final ThreadLocal<OffHeapAccount[]> cursors =
+            ThreadLocal.withInitial(() -> new OffHeapAccount[] {new OffHeapAccount(), new OffHeapAccount()});
+
+    private final Object idLock = new Object();
+    private volatile long[] idPages = new long[0];
+    private long idBytes;
+
+    /**
+     * Constructor, for up to {@link #DEFAULT_CAPACITY} accounts.
+     */
+    public OffHeapStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity maximum number of accounts
+     */
+    public OffHeapStore(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+        }
+        this.capacity = capacity;
+        long slots = Long.highestOneBit(capacity - 1L | 1L) << 2;
+        this.indexMask = slots - 1;
+        this.index = OffHeapMemory.allocate(slots * 8);
+        this.records = OffHeapMemory.allocate(capacity * RECORD_SIZE);
+    }
+
+    @Override
+    public List<Account> getAccounts() {
+        List<Account> accounts = new ArrayList<>(size());
+        forEachAccount(0, Integer.MAX_VALUE, accounts::add);
+        return accounts;
+    }
+
+    /**
+     * Walks the accounts in the order of their index slots, which never move.
+     */
+    @Override
+    public long forEachAccount(long position, int limit, Consumer<Account> consumer) {
+        int walked = 0;
+        for (; position <= indexMask && walked < limit; position++) {
+            long entry = OffHeapMemory.getLongVolatile(index + position * 8);
+            if (entry != 0) {
+                long record = record(entry);
+                consumer.accept(new OffHeapAccount(readId(OffHeapMemory.getLong(record + ID_OFFSET)), record));
+                walked++;
+            }
+        }
+        return position <= indexMask ? position : -1;
+    }
+
+    @Override
+    public Account getAccount(String accountId) throws AccountNotFoundException {
+        return new OffHeapAccount(accountId, find(accountId));
+    }
+
+    /**
+     * Reads the balance of an account, without allocating.
+     */
+    public long getBalance(String accountId) throws AccountNotFoundException {
+        return OffHeapMemory.getLongVolatile(find(accountId) + BALANCE_OFFSET);
+    }
+
+    /**
+     * Moves the amount between the accounts, as {@link Account#transfer(Account, Account, long)} does, without
+     * allocating. The balances are changed in place, past any store wrapping this one.
+     *
+     * @return true if the amount was moved, false if the balance of the debited account was insufficient
+     */
+    public boolean transfer(String fromId, String toId, long amount) throws AccountNotFoundException {
+        long from = find(fromId);
+        long to = find(toId);
+        if (from == to) {
+            throw new IllegalArgumentException("Transfer from an account to itself: " + fromId);
+        }
+        OffHeapAccount[] cursors = this.cursors.get();
+        return Account.transfer(cursors[0].moveTo(from), cursors[1].moveTo(to), amount);
+    }
+
+    @Override
+    public void storeAccount(Account account, boolean update) throws AccountAlreadyExistsException {
+        String accountId = account.getAccountId();
+        long balance = account.getBalance();
+        int hash = hash(accountId);
+        long record = 0;
+        for (long slot = hash & indexMask; ; slot = (slot + 1) & indexMask) {
+            long address = index + slot * 8;
+            long entry = OffHeapMemory.getLongVolatile(address);
+            if (entry == 0) {
+                if (record == 0) {
+                    record = newRecord(accountId, balance);
+                }
+                long published = (long) hash << 32 | ((record - records) / RECORD_SIZE + 1);
+                if (OffHeapMemory.compareAndSwapLong(address, 0, published)) {
+                    size.incrementAndGet();
+                    return;
+                }
+                // Lost the slot to a concurrent insertion, which may be of the same account;
+                // the record is kept for the next empty slot, or wasted if the account already exists
+                entry = OffHeapMemory.getLongVolatile(address);
+            }
+            if ((int) (entry >>> 32) == hash && idEquals(OffHeapMemory.getLong(record(entry) + ID_OFFSET), accountId)) {
+                if (!update) {
+                    throw new AccountAlreadyExistsException(accountId);
+                }
+                cursors.get()[0].moveTo(record(entry)).setBalance(balance);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void storeAccount(Account account) throws AccountAlreadyExistsException {
+        storeAccount(account, false);
+    }
+
+    @Override
+    public void storeAccounts(List<Account> accounts, Consumer<Account> duplicates) {
+        for (Account account : accounts) {
+            try {
+                storeAccount(account, false);
+            } catch (AccountAlreadyExistsException e) {
+                duplicates.accept(account);
+            }
+        }
+    }
+
+    @Override
+    public void storeTransfer(Account from, Account to, long amount) {
+        // Nothing to do, the balances of the stored accounts are changed in place
+    }
+
+    @Override
+    public void storeDebitedTransfer(Account from, Account to, long amount) {
+        // Nothing to do, the balances of the stored accounts are changed in place
+    }
+
+    @Override
+    public boolean storeTransfer(Account from, long fromVersion, Account to, long toVersion, long amount) {
+        if (!Account.beginChanges(from, fromVersion, to, toVersion)) {
+            return false;
+        }
+        Account.commitChanges(from, -amount, to, amount);
+        return true;
+    }
+
+    @Override
+    public void storeTransfers(List<TransferRequest> transfers) {
+        // Nothing to do, the balances of the stored accounts are changed in place
+    }
+
+    /**
+     * @return number of stored accounts
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return native memory used per stored account, including the share of the preallocated index and records
+     */
+    public double getBytesPerAccount() {
+        int size = size();
+        if (size == 0) {
+            return Double.NaN;
+        }
+        long bytes;
+        synchronized (idLock) {
+            bytes = (indexMask + 1) * 8 + capacity * RECORD_SIZE + idBytes;
+        }
+        return (double) bytes / size;
+    }
+
+    /**
+     * Releases the native memory. The store and its accounts must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        OffHeapMemory.free(index);
+        OffHeapMemory.free(records);
+        for (long page : idPages) {
+            OffHeapMemory.free(page);
+        }
+        idPages = new long[0];
+    }
+
+    /**
+     * @return address of the record of the account
+     */
+    private long find(String accountId) throws AccountNotFoundException {
+        int hash = hash(accountId);
+        for (long slot = hash & indexMask; ; slot = (slot + 1) & indexMask) {
+            long entry = OffHeapMemory.getLongVolatile(index + slot * 8);
+            if (entry == 0) {
+                throw new AccountNotFoundException(accountId);
+            }
+            if ((int) (entry >>> 32) == hash && idEquals(OffHeapMemory.getLong(record(entry) + ID_OFFSET), accountId)) {
+                return record(entry);
+            }
+        }
+    }
+
+    private long newRecord(String accountId, long balance) {
+        int number = recordCount.getAndIncrement();
+        if (number >= capacity) {
+            recordCount.decrementAndGet();
+            throw new IllegalStateException("Off-heap store is full, capacity: " + capacity);
+        }
+        long record = records + number * RECORD_SIZE;
+        OffHeapMemory.putLong(record + BALANCE_OFFSET, balance);
+        OffHeapMemory.putLong(record + VERSION_OFFSET, 0L);
+        OffHeapMemory.putLong(record + ID_OFFSET, writeId(accountId));
+        OffHeapMemory.putLong(record + EPOCH_OFFSET, BalanceSnapshot.currentEpoch());
+        OffHeapMemory.putLong(record + PREVIOUS_BALANCE_OFFSET, 0L);
+        return record;
+    }
+
+    private long writeId(String accountId) {
+        boolean latin1 = true;
+        for (int i = 0; i < accountId.length() && latin1; i++) {
+            latin1 = accountId.charAt(i) <= 0xFF;
+        }
+        long size = 4 + (latin1 ? 1L : 2L) * accountId.length();
+        if (size > PAGE_SIZE) {
+            throw new IllegalArgumentException("Account ID too long: " + accountId.length() + " characters");
+        }
+        long address;
+        synchronized (idLock) {
+            long[] pages = idPages;
+            long offset = idBytes & (PAGE_SIZE - 1);
+            if (pages.length == 0 || offset + size > PAGE_SIZE) {
+                pages = Arrays.copyOf(pages, pages.length + 1);
+                pages[pages.length - 1] = OffHeapMemory.allocate(PAGE_SIZE);
+                idPages = pages;
+                idBytes = (long) (pages.length - 1) << PAGE_SHIFT;
+                offset = 0;
+            }
+            address = pages[pages.length - 1] + offset;
+            idBytes += size;
+        }
+        OffHeapMemory.putInt(address, accountId.length() << 1 | (latin1 ? 1 : 0));
+        for (int i = 0; i < accountId.length(); i++) {
+            if (latin1) {
+                OffHeapMemory.putByte(address + 4 + i, (byte) accountId.charAt(i));
+            } else {
+                OffHeapMemory.putChar(address + 4 + 2L * i, accountId.charAt(i));
+            }
+        }
+        return address;
+    }
+
+    private static boolean idEquals(long address, String accountId) {
+        int header = OffHeapMemory.getInt(address);
+        if (header >>> 1 != accountId.length()) {
+            return false;
+        }
+        boolean latin1 = (header & 1) != 0;
+        for (int i = 0; i < accountId.length(); i++) {
+            char c = idChar(address, latin1, i);
+            if (c != accountId.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readId(long address) {
+        int header = OffHeapMemory.getInt(address);
+        char[] chars = new char[header >>> 1];
+        boolean latin1 = (header & 1) != 0;
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = idChar(address, latin1, i);
+        }
+        return new String(chars);
+    }
+
+    private static char idChar(long address, boolean latin1, int i) {
+        return latin1 ? (char) (OffHeapMemory.getByte(address + 4 + i) & 0xFF) : OffHeapMemory.getChar(address + 4 + 2L * i);
+    }
+
+    private long record(long entry) {
+        return records + ((entry & 0xFFFFFFFFL) - 1) * RECORD_SIZE;
+    }
+
+    private static int hash(String accountId) {
+        int h = accountId.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
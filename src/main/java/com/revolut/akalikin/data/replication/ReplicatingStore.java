@@ -0,0 +1,302 @@
+package com.revolut.akalikin.data.replication;
+
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Metrics;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.ReplicationStatus;
+import com.revolut.akalikin.model.TransferRequest;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Store decorator of a primary, publishing every mutation, with the next sequence number, to the {@link Feed feeds}
+ * of the followers connected to its {@link ReplicationServer}.
+ *
+ * The writers never wait for each other here: a mutation takes the next sequence number from a counter, and puts
+ * its record into a ring of the latest {@link #RING_SIZE} records, at the slot of its sequence, from which every feed
+ * takes the records in sequence order. A transfer is sequenced while its accounts are held, by the account locks
+ * or, for a versioned transfer, by their versions, so the mutations of an account are sequenced in the order they
+ * are applied, and its record carries the balances of both accounts after it. The two-step and sharded engines
+ * change an account outside of any hold, and can't be replicated.
+ *
+ * Keeps no copy of the balances: a follower starts from a walk of the accounts, taken while the mutations go on,
+ * then applies the mutations sequenced since the walk started. A balance walked may already include some of these,
+ * and is then set again by their records, so the follower is consistent once it has applied the mutations sequenced
+ * until the walk ended. Meant to decorate the store holding the accounts, below the journal, which then replays its
+ * recovery through it, and whose fsyncs are then never waited for while sequencing.
+ */
+public class ReplicatingStore implements Store, Replication {
+
+    /**
+     * Latest records kept for the feeds, beyond which a feed that hasn't taken a record misses it.
+     */
+    static final int RING_SIZE = 1 << 16;
+
+    /**
+     * Mutations buffered for a follower, beyond which it is disconnected, to connect again from a new snapshot.
+     */
+    static final int FEED_CAPACITY = 1 << 20;
+
+    static final Counter ERRORS = Metrics.counter("replication.errors");
+
+    private final Store delegate;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicReferenceArray<ReplicationRecord> ring = new AtomicReferenceArray<>(RING_SIZE);
+    private final List<Feed> feeds = new CopyOnWriteArrayList<>();
+    private volatile String lastError;
+
+    /**
+     * Mutations for a follower, after the sequence its snapshot starts from. Used by a single thread.
+     */
+    final class Feed {
+
+        final long sequence;
+        private final ArrayDeque<ReplicationRecord> records = new ArrayDeque<>();
+        private long next;
+        private boolean overflowed;
+        private volatile Thread waiting;
+
+        private Feed(long sequence) {
+            this.sequence = sequence;
+            this.next = sequence + 1;
+        }
+
+        /**
+         * Buffers the records put into the ring since the last call, in sequence order. The feed is overflowed
+         * when the ring has already overwritten the next record, or the buffer is full.
+         */
+        void take() {
+            while (!overflowed) {
+                ReplicationRecord record = ring.get(index(next));
+                if (record == null || record.getSequence() < next) {
+                    // Not put yet
+                    return;
+                }
+                if (record.getSequence() > next || records.size() == FEED_CAPACITY) {
+                    overflowed = true;
+                    return;
+                }
+                records.add(record);
+                next++;
+            }
+        }
+
+        /**
+         * @return the next buffered record, or null if there's none
+         */
+        ReplicationRecord poll() {
+            return records.poll();
+        }
+
+        boolean isEmpty() {
+            return records.isEmpty();
+        }
+
+        boolean isOverflowed() {
+            return overflowed;
+        }
+
+        /**
+         * Waits until the next record is put into the ring, at most for the timeout.
+         */
+        void await(long timeoutMillis) {
+            waiting = Thread.currentThread();
+            ReplicationRecord record = ring.get(index(next));
+            if (record == null || record.getSequence() < next) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+            }
+            waiting = null;
+        }
+    }
+
+    /**
+     * @param delegate store holding the accounts
+     */
+    public ReplicatingStore(Store delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public List<Account> getAccounts() {
+        return delegate.getAccounts();
+    }
+
+    @Override
+    public long forEachAccount(long position, int limit, Consumer<Account> consumer) {
+        return delegate.forEachAccount(position, limit, consumer);
+    }
+
+    @Override
+    public Account getAccount(String accountId) throws AccountNotFoundException {
+        return delegate.getAccount(accountId);
+    }
+
+    @Override
+    public void storeAccount(Account account, boolean update) throws AccountAlreadyExistsException {
+        delegate.storeAccount(account, update);
+        publish(update ? ReplicationRecord.UPDATE : ReplicationRecord.CREATE, account.getAccountId(), null,
+                account.getBalance(), 0, 0);
+    }
+
+    @Override
+    public void storeAccount(Account account) throws AccountAlreadyExistsException {
+        storeAccount(account, false);
+    }
+
+    @Override
+    public void storeAccounts(List<Account> accounts, Consumer<Account> duplicates) {
+        Set<Account> skipped = Collections.newSetFromMap(new IdentityHashMap<>());
+        delegate.storeAccounts(accounts, account -> {
+            skipped.add(account);
+            duplicates.accept(account);
+        });
+        for (Account account : accounts) {
+            if (!skipped.contains(account)) {
+                publish(ReplicationRecord.CREATE, account.getAccountId(), null, account.getBalance(), 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Called holding both accounts, by their locks.
+     */
+    @Override
+    public void storeTransfer(Account from, Account to, long amount) {
+        delegate.storeTransfer(from, to, amount);
+        publish(ReplicationRecord.TRANSFER, from.getAccountId(), to.getAccountId(), amount,
+                from.getBalance(), to.getBalance());
+    }
+
+    /**
+     * Publishes the balance of the target account with the credit the caller applies next.
+     */
+    @Override
+    public void storeDebitedTransfer(Account from, Account to, long amount) {
+        delegate.storeDebitedTransfer(from, to, amount);
+        publish(ReplicationRecord.TRANSFER, from.getAccountId(), to.getAccountId(), amount,
+                from.getBalance(), to.getBalance() + amount);
+    }
+
+    @Override
+    public boolean storeTransfer(Account from, long fromVersion, Account to, long toVersion, long amount) {
+        if (!Account.beginChanges(from, fromVersion, to, toVersion)) {
+            return false;
+        }
+        try {
+            publish(ReplicationRecord.TRANSFER, from.getAccountId(), to.getAccountId(), amount,
+                    from.getBalance() - amount, to.getBalance() + amount);
+        } catch (RuntimeException e) {
+            from.cancelChange();
+            to.cancelChange();
+            throw e;
+        }
+        Account.commitChanges(from, -amount, to, amount);
+        delegate.storeTransfer(from, to, amount);
+        return true;
+    }
+
+    /**
+     * Called holding all the accounts, by their locks. Every record carries the balances after all the transfers.
+     */
+    @Override
+    public void storeTransfers(List<TransferRequest> transfers) {
+        delegate.storeTransfers(transfers);
+        for (TransferRequest transfer : transfers) {
+            try {
+                publish(ReplicationRecord.TRANSFER, transfer.getFrom(), transfer.getTo(), transfer.getAmount(),
+                        delegate.getAccount(transfer.getFrom()).getBalance(),
+                        delegate.getAccount(transfer.getTo()).getBalance());
+            } catch (AccountNotFoundException e) {
+                throw new IllegalStateException("Transfer of a missing account", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isFollower() {
+        return false;
+    }
+
+    /**
+     * @return latest sequence taken by a mutation, whose record may still be being put into the ring
+     */
+    @Override
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    @Override
+    public boolean awaitSequence(long sequence, long timeoutMillis) {
+        return true;
+    }
+
+    @Override
+    public ReplicationStatus getStatus() {
+        long sequence = getSequence();
+        return new ReplicationStatus(ReplicationStatus.Role.PRIMARY, sequence, sequence, 0, feeds.size(), true,
+                lastError);
+    }
+
+    /**
+     * Records a failure of the {@link ReplicationServer} serving the followers, for the status and the metrics.
+     */
+    void reportError(Exception e) {
+        lastError = e.toString();
+        ERRORS.increment();
+    }
+
+    /**
+     * Starts a feed with the mutations after the latest sequence, all of which have already been applied to the
+     * balances, so a walk of the accounts started afterwards includes them.
+     */
+    Feed subscribe() {
+        Feed feed = new Feed(sequence.get());
+        feeds.add(feed);
+        return feed;
+    }
+
+    void unsubscribe(Feed feed) {
+        feeds.remove(feed);
+    }
+
+    /**
+     * Sequences the mutation, and puts it into the ring, waking up the feeds waiting for it.
+     */
+    private void publish(byte type, String accountId, String toAccountId, long amount, long balance, long toBalance) {
+        long sequence = this.sequence.incrementAndGet();
+        ReplicationRecord record = new ReplicationRecord(type, sequence, System.currentTimeMillis(),
+                accountId, toAccountId, amount, balance, toBalance);
+        int index = index(sequence);
+        ReplicationRecord previous;
+        do {
+            previous = ring.get(index);
+            if (previous != null && previous.getSequence() > sequence) {
+                // The ring went round while this writer was preempted, the feeds that still needed it overflow
+                return;
+            }
+        } while (!ring.compareAndSet(index, previous, record));
+        for (Feed feed : feeds) {
+            Thread waiting = feed.waiting;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+    }
+
+    private static int index(long sequence) {
+        return (int) sequence & (RING_SIZE - 1);
+    }
+}
@@ -0,0 +1,57 @@
+package com.revolut.akalikin.data.replication;
+
+import com.revolut.akalikin.model.ReplicationStatus;
+
+/**
+ * Role of this node in the replication of the accounts: a {@link ReplicatingStore primary}, a
+ * {@link ReplicationFollower follower} serving reads only, or neither.
+ *
+ * Every mutation of the primary gets the next sequence number. A client that has seen the sequence of the primary
+ * after its write reads its write from any follower that has applied that sequence.
+ */
+public interface Replication {
+
+    /**
+     * A node that neither replicates nor follows.
+     */
+    Replication NONE = new Replication() {
+        @Override
+        public boolean isFollower() {
+            return false;
+        }
+
+        @Override
+        public long getSequence() {
+            return 0;
+        }
+
+        @Override
+        public boolean awaitSequence(long sequence, long timeoutMillis) {
+            return true;
+        }
+
+        @Override
+        public ReplicationStatus getStatus() {
+            return new ReplicationStatus(ReplicationStatus.Role.STANDALONE, 0, 0, 0, 0, true, null);
+        }
+    };
+
+    /**
+     * @return true if this node only serves reads, of the accounts replicated from a primary
+     */
+    boolean isFollower();
+
+    /**
+     * @return sequence of the latest mutation published by the primary, or applied by the follower
+     */
+    long getSequence();
+
+    /**
+     * Waits until this node has applied the sequence; a primary has always applied all of its sequences.
+     *
+     * @return true if the sequence is applied, false if the time ran out first
+     */
+    boolean awaitSequence(long sequence, long timeoutMillis) throws InterruptedException;
+
+    ReplicationStatus getStatus();
+}
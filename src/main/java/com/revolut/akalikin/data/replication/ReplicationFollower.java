@@ -0,0 +1,276 @@
+package com.revolut.akalikin.data.replication;
+
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.ReplicationStatus;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Follower of a primary, applying the mutations streamed by its {@link ReplicationServer} in sequence order
+ * to its own store, through the store API, so that its decorators, such as the history, see them as well.
+ *
+ * On every connection the follower first overwrites its balances with the snapshot of the primary, then applies
+ * the mutations sequenced since the snapshot started, setting the balances of the accounts of a transfer to the ones
+ * after it. A balance of the snapshot may already include some of these mutations, so until the follower has applied
+ * the ones sequenced while the snapshot was taken, the sequence stays at the one of the previous connection,
+ * though some balances may already be newer. After a disconnection, or a gap in the sequences, it connects again
+ * every {@link #RECONNECT_MILLIS}, and reads keep serving the balances as of the latest sequence applied.
+ * The latest failure is kept for the status, and every failure is counted in the metrics.
+ */
+public class ReplicationFollower implements Replication, Closeable {
+
+    static final long RECONNECT_MILLIS = 1000;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = (int) (50 * ReplicationServer.HEARTBEAT_MILLIS);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Store store;
+    private final InetSocketAddress primary;
+    private final Object applied = new Object();
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private volatile long sequence;
+    private long received;
+    private long consistent;
+    private volatile long primarySequence;
+    private volatile long lagMillis;
+    private volatile long lastContact = System.currentTimeMillis();
+    private volatile boolean connected;
+    private volatile boolean closed;
+    private volatile String lastError;
+    private volatile Socket socket;
+    private Thread thread;
+
+    /**
+     * @param store   store to apply the mutations to, expected to hold only accounts of the same primary
+     * @param primary address of the {@link ReplicationServer} of the primary
+     */
+    public ReplicationFollower(Store store, InetSocketAddress primary) {
+        this.store = store;
+        this.primary = primary;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        thread = new Thread(this::followLoop, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public boolean isFollower() {
+        return true;
+    }
+
+    @Override
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public boolean awaitSequence(long sequence, long timeoutMillis) throws InterruptedException {
+        if (this.sequence >= sequence) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        waiters.incrementAndGet();
+        try {
+            synchronized (applied) {
+                while (this.sequence < sequence) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    applied.wait(remaining);
+                }
+                return true;
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Disconnected, the lag is the time since the last frame from the primary.
+     */
+    @Override
+    public ReplicationStatus getStatus() {
+        boolean connected = this.connected;
+        long lag = connected ? lagMillis : Math.max(lagMillis, System.currentTimeMillis() - lastContact);
+        return new ReplicationStatus(ReplicationStatus.Role.FOLLOWER, sequence, primarySequence, lag, 0, connected,
+                lastError);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Socket socket = this.socket;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+            Thread thread;
+            synchronized (this) {
+                thread = this.thread;
+            }
+            if (thread != null) {
+                thread.interrupt();
+                thread.join();
+            }
+        } catch (IOException e) {
+            reportError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void followLoop() {
+        while (!closed) {
+            try {
+                follow();
+            } catch (IOException e) {
+                if (!closed) {
+                    reportError(e);
+                }
+            }
+            connected = false;
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void reportError(IOException e) {
+        lastError = e.toString();
+        ReplicatingStore.ERRORS.increment();
+    }
+
+    private void follow() throws IOException {
+        try (Socket socket = new Socket()) {
+            this.socket = socket;
+            if (closed) {
+                return;
+            }
+            socket.connect(primary, CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            while (!closed) {
+                apply(ReplicationRecord.readFrom(in));
+            }
+        }
+    }
+
+    private void apply(ReplicationRecord record) throws IOException {
+        long now = System.currentTimeMillis();
+        lastContact = now;
+        try {
+            switch (record.getType()) {
+                case ReplicationRecord.ACCOUNT:
+                    overwrite(record.getAccountId(), record.getAmount());
+                    return;
+                case ReplicationRecord.SYNCED:
+                    received = record.getSequence();
+                    consistent = record.getAmount();
+                    primarySequence = record.getAmount();
+                    lagMillis = 0;
+                    connected = true;
+                    if (received >= consistent) {
+                        applied(received);
+                    }
+                    return;
+                case ReplicationRecord.HEARTBEAT:
+                    primarySequence = Math.max(primarySequence, record.getSequence());
+                    if (sequence >= record.getSequence()) {
+                        lagMillis = 0;
+                    }
+                    return;
+                default:
+                    break;
+            }
+            if (record.getSequence() != received + 1) {
+                throw new IOException("Expected sequence " + (received + 1) + ", got " + record.getSequence());
+            }
+            switch (record.getType()) {
+                case ReplicationRecord.CREATE:
+                    // An account that exists was created by the snapshot, or by a transfer sequenced before
+                    // its creation, both with a balance at least as recent
+                    account(record.getAccountId(), record.getAmount());
+                    break;
+                case ReplicationRecord.UPDATE:
+                    store.storeAccount(new Account(record.getAccountId(), record.getAmount()), true);
+                    break;
+                case ReplicationRecord.TRANSFER:
+                    Account from = account(record.getAccountId(), record.getBalance());
+                    Account to = account(record.getToAccountId(), record.getToBalance());
+                    // Nothing else changes the accounts of a follower
+                    Account.change(new Account[]{from, to}, new long[]{
+                            record.getBalance() - from.getBalance(), record.getToBalance() - to.getBalance()});
+                    store.storeTransfer(from, to, record.getAmount());
+                    break;
+                default:
+                    throw new IOException("Unexpected replication record type " + record.getType());
+            }
+        } catch (AccountAlreadyExistsException e) {
+            throw new IOException("Replica is inconsistent with the primary", e);
+        }
+        received = record.getSequence();
+        primarySequence = Math.max(primarySequence, received);
+        lagMillis = Math.max(0, now - record.getTime());
+        if (received >= consistent) {
+            applied(received);
+        }
+    }
+
+    /**
+     * Sets the balance of the account from the snapshot, in place if it exists.
+     */
+    private void overwrite(String accountId, long balance) throws AccountAlreadyExistsException {
+        Account account = account(accountId, balance);
+        long difference = balance - account.getBalance();
+        if (difference != 0) {
+            // Nothing else changes the accounts of a follower
+            Account.change(new Account[]{account}, new long[]{difference});
+        }
+    }
+
+    /**
+     * @return the account, created with the balance if it doesn't exist
+     */
+    private Account account(String accountId, long balance) throws AccountAlreadyExistsException {
+        try {
+            return store.getAccount(accountId);
+        } catch (AccountNotFoundException e) {
+            store.storeAccount(new Account(accountId, balance));
+        }
+        try {
+            // The store may keep its own copy
+            return store.getAccount(accountId);
+        } catch (AccountNotFoundException e) {
+            throw new IllegalStateException("Account just stored not found", e);
+        }
+    }
+
+    private void applied(long sequence) {
+        this.sequence = sequence;
+        if (waiters.get() > 0) {
+            synchronized (applied) {
+                applied.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.revolut.akalikin.data.replication;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Single frame of the replication stream from a primary to a follower.
+ *
+ * Every frame is [byte type][fields], big-endian, with the account IDs in modified UTF-8 as written by
+ * {@link DataOutput#writeUTF(String)}:
+ * - ACCOUNT:   [account ID][long balance], an account of the snapshot a follower starts from
+ * - SYNCED:    [long sequence][long consistent sequence], end of the snapshot: the mutations follow from the next
+ *              sequence, and the balances are consistent again once the consistent sequence is applied
+ * - CREATE:    [long sequence][long time][account ID][long balance]
+ * - UPDATE:    [long sequence][long time][account ID][long balance]
+ * - TRANSFER:  [long sequence][long time][from account ID][to account ID][long amount]
+ *              [long from balance][long to balance], with the balances of both accounts after the transfer
+ * - HEARTBEAT: [long sequence][long time], latest sequence of the primary at the time
+ * The time is the one the primary committed the mutation at, in milliseconds since the epoch.
+ */
+final class ReplicationRecord {
+
+    static final byte ACCOUNT = 1;
+    static final byte SYNCED = 2;
+    static final byte CREATE = 3;
+    static final byte UPDATE = 4;
+    static final byte TRANSFER = 5;
+    static final byte HEARTBEAT = 6;
+
+    private final byte type;
+    private final long sequence;
+    private final long time;
+    private final String accountId;
+    private final String toAccountId;
+    private final long amount;
+    private final long balance;
+    private final long toBalance;
+
+    ReplicationRecord(byte type, long sequence, long time, String accountId, String toAccountId, long amount) {
+        this(type, sequence, time, accountId, toAccountId, amount, 0, 0);
+    }
+
+    ReplicationRecord(byte type, long sequence, long time, String accountId, String toAccountId, long amount,
+                      long balance, long toBalance) {
+        this.type = type;
+        this.sequence = sequence;
+        this.time = time;
+        this.accountId = accountId;
+        this.toAccountId = toAccountId;
+        this.amount = amount;
+        this.balance = balance;
+        this.toBalance = toBalance;
+    }
+
+    byte getType() {
+        return type;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    String getAccountId() {
+        return accountId;
+    }
+
+    String getToAccountId() {
+        return toAccountId;
+    }
+
+    /**
+     * @return balance of an account, amount of a transfer, consistent sequence of the end of a snapshot
+     */
+    long getAmount() {
+        return amount;
+    }
+
+    /**
+     * @return balance of the debited account after a transfer
+     */
+    long getBalance() {
+        return balance;
+    }
+
+    /**
+     * @return balance of the credited account after a transfer
+     */
+    long getToBalance() {
+        return toBalance;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeByte(type);
+        switch (type) {
+            case ACCOUNT:
+                out.writeUTF(accountId);
+                out.writeLong(amount);
+                break;
+            case SYNCED:
+                out.writeLong(sequence);
+                out.writeLong(amount);
+                break;
+            case CREATE:
+            case UPDATE:
+                out.writeLong(sequence);
+                out.writeLong(time);
+                out.writeUTF(accountId);
+                out.writeLong(amount);
+                break;
+            case TRANSFER:
+                out.writeLong(sequence);
+                out.writeLong(time);
+                out.writeUTF(accountId);
+                out.writeUTF(toAccountId);
+                out.writeLong(amount);
+                out.writeLong(balance);
+                out.writeLong(toBalance);
+                break;
+            case HEARTBEAT:
+                out.writeLong(sequence);
+                out.writeLong(time);
+                break;
+            default:
+                throw new IllegalStateException("Unknown replication record type " + type);
+        }
+    }
+
+    static ReplicationRecord readFrom(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case ACCOUNT:
+                return new ReplicationRecord(type, 0, 0, in.readUTF(), null, in.readLong());
+            case SYNCED:
+                return new ReplicationRecord(type, in.readLong(), 0, null, null, in.readLong());
+            case CREATE:
+            case UPDATE:
+                return new ReplicationRecord(type, in.readLong(), in.readLong(), in.readUTF(), null, in.readLong());
+            case TRANSFER:
+                return new ReplicationRecord(type, in.readLong(), in.readLong(), in.readUTF(), in.readUTF(), in.readLong(),
+                        in.readLong(), in.readLong());
+            case HEARTBEAT:
+                return new ReplicationRecord(type, in.readLong(), in.readLong(), null, null, 0);
+            default:
+                throw new IOException("Unknown replication record type " + type);
+        }
+    }
+}
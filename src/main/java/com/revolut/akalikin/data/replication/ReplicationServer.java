@@ -0,0 +1,175 @@
+package com.revolut.akalikin.data.replication;
+
+import com.revolut.akalikin.model.Account;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Listener of the followers of a primary, streaming the mutations of its {@link ReplicatingStore} to them.
+ *
+ * Every follower gets a thread, which first sends a snapshot, walking the accounts while buffering the mutations
+ * of its feed, then the mutations of the feed as they are sequenced, flushing whenever the feed is empty,
+ * and a {@link ReplicationRecord#HEARTBEAT heartbeat} with the latest sequence at least every
+ * {@link #HEARTBEAT_MILLIS}. A follower whose feed overflowed is disconnected, and starts over from a new snapshot
+ * when it connects again. The failures to accept a follower are reported in the status of the store.
+ */
+public class ReplicationServer implements Closeable {
+
+    static final long HEARTBEAT_MILLIS = 100;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int WALK_CHUNK = 1024;
+
+    private final ReplicatingStore store;
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger senderCount = new AtomicInteger();
+
+    private ServerSocket serverSocket;
+    private Thread acceptorThread;
+
+    public ReplicationServer(ReplicatingStore store) {
+        this.store = store;
+    }
+
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Already started");
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(address);
+        acceptorThread = new Thread(this::acceptLoop, "replication-acceptor");
+        acceptorThread.setDaemon(true);
+        acceptorThread.start();
+    }
+
+    /**
+     * @return the port listened on, useful when started on port 0
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+            for (Socket follower : followers) {
+                follower.close();
+            }
+            acceptorThread.join();
+        } catch (IOException e) {
+            store.reportError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                followers.add(socket);
+                Thread sender = new Thread(() -> send(socket), "replication-sender-" + senderCount.incrementAndGet());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    store.reportError(e);
+                }
+            }
+        }
+    }
+
+    private void send(Socket socket) {
+        ReplicatingStore.Feed feed = store.subscribe();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE))) {
+            sendSnapshot(feed, out);
+            long lastHeartbeat = System.currentTimeMillis();
+            while (true) {
+                feed.take();
+                if (feed.isOverflowed()) {
+                    break;
+                }
+                if (feed.isEmpty()) {
+                    out.flush();
+                    feed.await(HEARTBEAT_MILLIS);
+                    feed.take();
+                }
+                ReplicationRecord record = feed.poll();
+                if (record != null) {
+                    record.writeTo(out);
+                }
+                long now = System.currentTimeMillis();
+                if (record == null || now - lastHeartbeat >= HEARTBEAT_MILLIS) {
+                    new ReplicationRecord(ReplicationRecord.HEARTBEAT, store.getSequence(), now, null, null, 0)
+                            .writeTo(out);
+                    lastHeartbeat = now;
+                }
+            }
+        } catch (IOException e) {
+            // The follower is gone, or the server closed
+        } finally {
+            store.unsubscribe(feed);
+            followers.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    /**
+     * Walks the accounts, buffering the records of the feed between the chunks, and ends the snapshot with the
+     * sequence it starts from and the latest one once walked.
+     */
+    private void sendSnapshot(ReplicatingStore.Feed feed, DataOutputStream out) throws IOException {
+        String[] accountIds = new String[WALK_CHUNK];
+        long[] balances = new long[WALK_CHUNK];
+        int[] count = new int[1];
+        long position = 0;
+        while (position >= 0 && !feed.isOverflowed()) {
+            count[0] = 0;
+            position = store.forEachAccount(position, WALK_CHUNK, account -> {
+                accountIds[count[0]] = account.getAccountId();
+                balances[count[0]++] = stableBalance(account);
+            });
+            for (int i = 0; i < count[0]; i++) {
+                new ReplicationRecord(ReplicationRecord.ACCOUNT, 0, 0, accountIds[i], null, balances[i]).writeTo(out);
+            }
+            feed.take();
+        }
+        new ReplicationRecord(ReplicationRecord.SYNCED, feed.sequence, 0, null, null, store.getSequence())
+                .writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Balance of the account once it isn't held, so that it includes the change of a versioned transfer
+     * sequenced before it was committed.
+     */
+    private static long stableBalance(Account account) {
+        while (true) {
+            long version = account.getVersion();
+            long balance = account.getBalance();
+            if ((version & 1) == 0 && account.getVersion() == version) {
+                return balance;
+            }
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when a transfer is rejected because too many transfers of one of its accounts are in flight
+ */
+public class AccountBusyException extends TransientException {
+
+    private static final String MESSAGE = "Too many transfers in flight for account %s";
+
+    private final String accountId;
+
+    public AccountBusyException(String accountId) {
+        super(null);
+        this.accountId = accountId;
+    }
+
+    @Override
+    protected String getDetail() {
+        return String.format(MESSAGE, accountId);
+    }
+}
@@ -7,7 +7,19 @@ public class AccountInsufficientFundsException extends PermanentException {
 
     public static final String MESSAGE = "Insufficient funds for account %s, available: %d, requested: %d";
 
-    public AccountInsufficientFundsException(String accountId, Long availableFunds, Long requestedAmount) {
-        super(String.format(MESSAGE, accountId, availableFunds, requestedAmount));
+    private final String accountId;
+    private final long availableFunds;
+    private final long requestedAmount;
+
+    public AccountInsufficientFundsException(String accountId, long availableFunds, long requestedAmount) {
+        super(null);
+        this.accountId = accountId;
+        this.availableFunds = availableFunds;
+        this.requestedAmount = requestedAmount;
+    }
+
+    @Override
+    protected String getDetail() {
+        return String.format(MESSAGE, accountId, availableFunds, requestedAmount);
     }
 }
@@ -7,11 +7,19 @@ public class AccountLockNotAcquiredException extends TransientException {
 
     private static final String MESSAGE = "Could not acquire lock for account %s";
 
+    private final String accountId;
+
     public AccountLockNotAcquiredException(String accountId) {
-        super(String.format(MESSAGE, accountId));
+        this(accountId, null);
     }
 
     public AccountLockNotAcquiredException(String accountId, Throwable cause) {
-        super(String.format(MESSAGE, accountId), cause);
+        super(null, cause);
+        this.accountId = accountId;
+    }
+
+    @Override
+    protected String getDetail() {
+        return String.format(MESSAGE, accountId);
     }
 }
@@ -5,9 +5,17 @@ package com.revolut.akalikin.exception;
  */
 public class AccountNotFoundException extends PermanentException {
 
-    private static String MESSAGE = "Account with id %s not found.";
+    private static final String MESSAGE = "Account with id %s not found.";
+
+    private final String accountId;
 
     public AccountNotFoundException(String accountId) {
-        super(String.format(MESSAGE, accountId));
+        super(null);
+        this.accountId = accountId;
+    }
+
+    @Override
+    protected String getDetail() {
+        return String.format(MESSAGE, accountId);
     }
 }
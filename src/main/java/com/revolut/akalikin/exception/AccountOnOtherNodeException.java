@@ -0,0 +1,25 @@
+package com.revolut.akalikin.exception;
+
+import java.net.URI;
+
+/**
+ * Exception thrown when a request for an account reaches a node of the cluster that doesn't own it
+ */
+public class AccountOnOtherNodeException extends InvalidRequestException {
+
+    public static final String MESSAGE = "Account %s is owned by the node at %s.";
+
+    private final URI owner;
+
+    public AccountOnOtherNodeException(String accountId, URI owner) {
+        super(String.format(MESSAGE, accountId, owner));
+        this.owner = owner;
+    }
+
+    /**
+     * @return base URI of the node owning the account
+     */
+    public URI getOwner() {
+        return owner;
+    }
+}
@@ -0,0 +1,13 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when a batch is sent to a transfer engine that must be the only writer of the balances.
+ */
+public class BatchNotSupportedException extends PermanentException {
+
+    public static final String MESSAGE = "Batches aren't supported by the %s transfer engine.";
+
+    public BatchNotSupportedException(String engine) {
+        super(String.format(MESSAGE, engine));
+    }
+}
@@ -0,0 +1,13 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when a batch contains more transfers than allowed.
+ */
+public class BatchTooLargeException extends InvalidRequestException {
+
+    public static final String MESSAGE = "Batch of %d transfers exceeds the limit of %d.";
+
+    public BatchTooLargeException(int size, int limit) {
+        super(String.format(MESSAGE, size, limit));
+    }
+}
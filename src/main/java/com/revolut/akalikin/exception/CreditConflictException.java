@@ -0,0 +1,33 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when a credit from another node of the cluster doesn't follow the previous credits
+ * of its sender: the sender and this node disagree on the money already moved between them.
+ */
+public class CreditConflictException extends PermanentException {
+
+    private static final String MESSAGE = "Balance of %s is %d, the credit expected %d";
+
+    private final String accountId;
+    private final long balance;
+    private final long expected;
+
+    public CreditConflictException(String accountId, long balance, long expected) {
+        super(null);
+        this.accountId = accountId;
+        this.balance = balance;
+        this.expected = expected;
+    }
+
+    /**
+     * @return balance of the account of the sender on this node
+     */
+    public long getBalance() {
+        return balance;
+    }
+
+    @Override
+    protected String getDetail() {
+        return String.format(MESSAGE, accountId, balance, expected);
+    }
+}
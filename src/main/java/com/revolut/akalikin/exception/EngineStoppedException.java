@@ -0,0 +1,21 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when a transfer is rejected, before anything was changed, because the transfer engine is stopping
+ */
+public class EngineStoppedException extends TransientException {
+
+    private static final String MESSAGE = "The %s transfer engine is stopped";
+
+    private final String engine;
+
+    public EngineStoppedException(String engine) {
+        super(null);
+        this.engine = engine;
+    }
+
+    @Override
+    protected String getDetail() {
+        return String.format(MESSAGE, engine);
+    }
+}
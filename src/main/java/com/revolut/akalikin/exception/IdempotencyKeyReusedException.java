@@ -0,0 +1,13 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when an idempotency key is sent again with a different request.
+ */
+public class IdempotencyKeyReusedException extends InvalidRequestException {
+
+    public static final String MESSAGE = "Idempotency key %s was already used for a different request.";
+
+    public IdempotencyKeyReusedException(String idempotencyKey) {
+        super(String.format(MESSAGE, idempotencyKey));
+    }
+}
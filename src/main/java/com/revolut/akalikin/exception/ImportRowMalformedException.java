@@ -0,0 +1,18 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when a row of a bulk import can't be parsed.
+ */
+public class ImportRowMalformedException extends InvalidRequestException {
+
+    public static final String MESSAGE = "Malformed import row encountered: %s.";
+
+    /**
+     * Length the row is shortened to in the message.
+     */
+    private static final int MAX_ROW_LENGTH = 100;
+
+    public ImportRowMalformedException(CharSequence row) {
+        super(String.format(MESSAGE, row.length() > MAX_ROW_LENGTH ? row.subSequence(0, MAX_ROW_LENGTH) + "..." : row));
+    }
+}
@@ -0,0 +1,13 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when the cursor of a page of accounts is malformed.
+ */
+public class InvalidCursorException extends InvalidRequestException {
+
+    public static final String MESSAGE = "Invalid cursor encountered: %s.";
+
+    public InvalidCursorException(String cursor) {
+        super(String.format(MESSAGE, cursor));
+    }
+}
@@ -0,0 +1,13 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when the requested number of accounts in a page is out of bounds.
+ */
+public class InvalidPageSizeException extends InvalidRequestException {
+
+    public static final String MESSAGE = "Page size %d is not between 1 and %d.";
+
+    public InvalidPageSizeException(int limit, int maxLimit) {
+        super(String.format(MESSAGE, limit, maxLimit));
+    }
+}
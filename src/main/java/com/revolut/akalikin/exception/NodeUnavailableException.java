@@ -0,0 +1,23 @@
+package com.revolut.akalikin.exception;
+
+import java.net.URI;
+
+/**
+ * Exception thrown when another node of the cluster can't be reached before anything was changed
+ */
+public class NodeUnavailableException extends TransientException {
+
+    private static final String MESSAGE = "Node at %s is unavailable";
+
+    private final URI node;
+
+    public NodeUnavailableException(URI node, Throwable cause) {
+        super(null, cause);
+        this.node = node;
+    }
+
+    @Override
+    protected String getDetail() {
+        return String.format(MESSAGE, node);
+    }
+}
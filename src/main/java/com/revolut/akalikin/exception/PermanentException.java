@@ -2,16 +2,34 @@ package com.revolut.akalikin.exception;
 
 /**
  * Type of exception signifying that it shouldn't be retried.
+ *
+ * Permanent faults are expected outcomes of the requests, such as insufficient funds, so they are cheap to throw:
+ * they don't capture a stack trace, and their message is only formatted when it's read.
  */
 public class PermanentException extends Throwable {
 
     public static final String MESSAGE = "A permanent fault encountered: %s";
 
+    private final String detail;
+
     public PermanentException(String message) {
         this(message, null);
     }
 
     public PermanentException(String message, Throwable cause) {
-        super(String.format(MESSAGE, message), cause);
+        super(null, cause, false, false);
+        this.detail = message;
+    }
+
+    /**
+     * @return description of the fault, overridden by the exceptions formatting it from their fields
+     */
+    protected String getDetail() {
+        return detail;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format(MESSAGE, getDetail());
     }
 }
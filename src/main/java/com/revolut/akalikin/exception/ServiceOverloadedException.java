@@ -0,0 +1,22 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when a transfer is rejected because the service already has as many transfers in flight
+ * as it can execute without queueing them
+ */
+public class ServiceOverloadedException extends TransientException {
+
+    private static final String MESSAGE = "Too many transfers in flight, limit is %d";
+
+    private final int limit;
+
+    public ServiceOverloadedException(int limit) {
+        super(null);
+        this.limit = limit;
+    }
+
+    @Override
+    protected String getDetail() {
+        return String.format(MESSAGE, limit);
+    }
+}
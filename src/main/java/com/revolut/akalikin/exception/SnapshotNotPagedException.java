@@ -0,0 +1,14 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when a consistent listing of the accounts is requested in pages,
+ * as the pages would be read at different instants.
+ */
+public class SnapshotNotPagedException extends InvalidRequestException {
+
+    public static final String MESSAGE = "Consistent listing of the accounts can't be paged.";
+
+    public SnapshotNotPagedException() {
+        super(MESSAGE);
+    }
+}
@@ -0,0 +1,24 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when a consistent listing can't start, as the listings still being read are too old to share
+ * their instant with it, and weren't closed in time for it to start a new one
+ */
+public class SnapshotUnavailableException extends TransientException {
+
+    private static final String MESSAGE = "Consistent listings older than %d ms still being read after %d ms";
+
+    private final long maxAge;
+    private final long maxWait;
+
+    public SnapshotUnavailableException(long maxAge, long maxWait) {
+        super(null);
+        this.maxAge = maxAge;
+        this.maxWait = maxWait;
+    }
+
+    @Override
+    protected String getDetail() {
+        return String.format(MESSAGE, maxAge, maxWait);
+    }
+}
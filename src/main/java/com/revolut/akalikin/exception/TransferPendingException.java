@@ -0,0 +1,26 @@
+package com.revolut.akalikin.exception;
+
+/**
+ * Exception thrown when a transfer to an account of another node is debited, but that node hasn't confirmed
+ * the credit yet. The credit is retried until it does, so the transfer must not be sent again.
+ */
+public class TransferPendingException extends TransientException {
+
+    private static final String MESSAGE = "Transfer of %d from %s to %s is debited, its credit is pending";
+
+    private final String fromId;
+    private final String toId;
+    private final long amount;
+
+    public TransferPendingException(String fromId, String toId, long amount, Throwable cause) {
+        super(null, cause);
+        this.fromId = fromId;
+        this.toId = toId;
+        this.amount = amount;
+    }
+
+    @Override
+    protected String getDetail() {
+        return String.format(MESSAGE, amount, fromId, toId);
+    }
+}
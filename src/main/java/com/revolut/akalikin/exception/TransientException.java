@@ -2,16 +2,34 @@ package com.revolut.akalikin.exception;
 
 /**
  * Transient exception that should be retried in real-life implementation.
+ *
+ * Like {@link PermanentException}, it doesn't capture a stack trace and formats its message only when it's read;
+ * the cause, if any, keeps its own stack trace.
  */
 public class TransientException extends Throwable {
 
     private static final String MESSAGE = "Transient exception occurred: %s ";
 
+    private final String detail;
+
     public TransientException(String message) {
         this(message, null);
     }
 
     public TransientException(String message, Throwable cause) {
-        super(String.format(MESSAGE, message), cause);
+        super(null, cause, false, false);
+        this.detail = message;
+    }
+
+    /**
+     * @return description of the fault, overridden by the exceptions formatting it from their fields
+     */
+    protected String getDetail() {
+        return detail;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format(MESSAGE, getDetail());
     }
 }
@@ -3,34 +3,556 @@ package com.revolut.akalikin.launcher;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import com.revolut.akalikin.cluster.Cluster;
+import com.revolut.akalikin.controller.ReplicationResourceFilterFactory;
+import com.revolut.akalikin.controller.binary.BinaryTransferServer;
 import com.revolut.akalikin.data.InMemoryStore;
 import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.data.history.HistoryStore;
+import com.revolut.akalikin.data.history.TransactionHistory;
+import com.revolut.akalikin.data.jdbc.JdbcStore;
+import com.revolut.akalikin.data.journal.JournalingStore;
+import com.revolut.akalikin.data.offheap.OffHeapStore;
+import com.revolut.akalikin.data.replication.ReplicatingStore;
+import com.revolut.akalikin.data.replication.Replication;
+import com.revolut.akalikin.data.replication.ReplicationFollower;
+import com.revolut.akalikin.data.replication.ReplicationServer;
+import com.revolut.akalikin.metrics.Metrics;
+import com.revolut.akalikin.metrics.MetricsResourceFilterFactory;
+import com.revolut.akalikin.operation.OptimisticTransferOperation;
+import com.revolut.akalikin.operation.TransferEngine;
+import com.revolut.akalikin.operation.TransferOperation;
+import com.revolut.akalikin.operation.TwoStepTransferOperation;
+import com.revolut.akalikin.operation.admission.AdmissionControl;
+import com.revolut.akalikin.operation.netting.NettingTransferOperation;
+import com.revolut.akalikin.operation.partitioned.HttpNodeClient;
+import com.revolut.akalikin.operation.partitioned.NodeClient;
+import com.revolut.akalikin.operation.partitioned.PartitionedTransferOperation;
+import com.revolut.akalikin.operation.sharded.ShardedTransferOperation;
+import com.sun.jersey.api.container.ContainerFactory;
 import com.sun.jersey.api.container.grizzly2.GrizzlyServerFactory;
 import com.sun.jersey.api.core.PackagesResourceConfig;
 import com.sun.jersey.api.core.ResourceConfig;
 import com.sun.jersey.core.spi.component.ioc.IoCComponentProviderFactory;
 import com.sun.jersey.guice.spi.container.GuiceComponentProviderFactory;
+import org.glassfish.grizzly.Transport;
+import org.glassfish.grizzly.TransportProbe;
+import org.glassfish.grizzly.http.server.HttpHandler;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.h2.jdbcx.JdbcConnectionPool;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 public class AccountTransferServiceLauncher {
 
     private static final String ENDPOINT = "http://localhost:8080/";
     private static final String PACKAGE = "com.revolut.akalikin.controller";
 
+    /**
+     * System property selecting the transfer engine: "locking" (default), "two-step", "optimistic",
+     * "sharded" or "netting"; "lock-free" is the former name of "two-step".
+     */
+    public static final String TRANSFER_ENGINE_PROPERTY = "transfer.engine";
+
+    /**
+     * System property selecting the store of the accounts: "in-memory" (default) or "off-heap".
+     */
+    public static final String STORE_PROPERTY = "store.type";
+
+    /**
+     * System property with the maximum number of accounts of the off-heap store.
+     */
+    public static final String STORE_CAPACITY_PROPERTY = "store.capacity";
+
+    /**
+     * System property enabling the {@link AdmissionControl} of the transfers, "true" (default) or "false".
+     */
+    public static final String ADMISSION_PROPERTY = "transfer.admission";
+
+    /**
+     * System property with the directory of the journal; when set, every mutation is made durable in the journal,
+     * and the accounts are recovered from it on startup.
+     */
+    public static final String JOURNAL_PROPERTY = "store.journal";
+
+    /**
+     * System property with the JDBC URL of an H2 database, such as jdbc:h2:file:./data/accounts; when set, every
+     * mutation is written to the database before returning, and the accounts are loaded from it on startup.
+     * Can't be combined with the journal.
+     */
+    public static final String JDBC_URL_PROPERTY = "store.jdbc";
+
+    /**
+     * System property with the maximum number of pooled connections to the database, by default twice the number
+     * of available processors.
+     */
+    public static final String JDBC_CONNECTIONS_PROPERTY = "store.jdbc.connections";
+
+    /**
+     * System property with the seconds between the snapshots of the journaled accounts, 0 to disable them.
+     */
+    public static final String SNAPSHOT_INTERVAL_PROPERTY = "store.snapshot.interval";
+
+    /**
+     * System property recording the transaction history of the accounts, "true" or "false" (default).
+     * The history isn't durable: it is kept on the heap only, with no bound, and starts empty on every startup,
+     * even with a journal.
+     */
+    public static final String HISTORY_PROPERTY = "store.history";
+
+    /**
+     * System property selecting the threads running the requests: "platform" (default), the pool of Grizzly worker
+     * threads, or "virtual", a new virtual thread per request, which requires Java 21 or later.
+     * With virtual threads, a request waiting for an account lock or for the journal parks without holding
+     * a platform thread, so requests waiting on hot accounts can't exhaust the threads of unrelated requests.
+     */
+    public static final String REQUEST_THREADS_PROPERTY = "server.threads";
+
+    /**
+     * System property with the port of the {@link BinaryTransferServer}, started alongside the REST API when set.
+     */
+    public static final String BINARY_PORT_PROPERTY = "binary.port";
+
+    /**
+     * System property with the number of threads running the requests of the binary protocol,
+     * defaults to twice the number of available processors.
+     */
+    public static final String BINARY_THREADS_PROPERTY = "binary.threads";
+
+    /**
+     * System property with the comma-separated base URIs of the REST APIs of the nodes of a partitioned cluster,
+     * the same on every node; unset for a single node at the default endpoint.
+     */
+    public static final String CLUSTER_NODES_PROPERTY = "cluster.nodes";
+
+    /**
+     * System property with the number of this node in the {@link #CLUSTER_NODES_PROPERTY nodes}, from 0.
+     */
+    public static final String CLUSTER_NODE_PROPERTY = "cluster.node";
+
+    /**
+     * System property with the file of the intent log of the transfers to the other nodes, by default
+     * intents.log in the directory of the journal. A partitioned node doesn't start without either, as the transfers
+     * in flight would be lost on a crash.
+     */
+    public static final String CLUSTER_INTENTS_PROPERTY = "cluster.intents";
+
+    /**
+     * System property with the port the primary listens to its followers on, on the host of the REST API;
+     * when set, every mutation is streamed to the followers connected.
+     */
+    public static final String REPLICATION_PORT_PROPERTY = "replication.port";
+
+    /**
+     * System property with the host:port the primary listens to its followers on; when set, this node is
+     * a follower, serving only the reads of the accounts replicated from the primary. A follower has no journal:
+     * it starts over from a snapshot of the primary on every connection.
+     */
+    public static final String REPLICATION_PRIMARY_PROPERTY = "replication.primary";
+
+    /**
+     * System property with the maximum milliseconds a read waits for the replication sequence it asks for,
+     * 1000 by default.
+     */
+    public static final String REPLICATION_WAIT_PROPERTY = "replication.wait";
+
     public static HttpServer startServer() throws IOException {
+        Cluster cluster = cluster();
+        if (cluster.isPartitioned() && System.getProperty(BINARY_PORT_PROPERTY) != null) {
+            throw new IllegalArgumentException("The binary protocol can't route requests between the nodes"
+                    + " of a partitioned cluster, unset " + BINARY_PORT_PROPERTY);
+        }
+        if (cluster.isPartitioned() && engineClass() == ShardedTransferOperation.class) {
+            throw new IllegalArgumentException("The shards must be the only writers of the balances, which the"
+                    + " transfers between the nodes of a partitioned cluster aren't, set " + TRANSFER_ENGINE_PROPERTY
+                    + " to another engine");
+        }
+        if (cluster.isPartitioned() && intentLog() == null) {
+            throw new IllegalArgumentException("The transfers between the nodes of a partitioned cluster need a durable"
+                    + " intent log, set " + CLUSTER_INTENTS_PROPERTY + " or " + JOURNAL_PROPERTY);
+        }
+        checkReplication(cluster);
+        URI endpoint = cluster.getNode(cluster.getSelf());
+        TransactionHistory history = new TransactionHistory();
+        ReplicatingStore replicating = Integer.getInteger(REPLICATION_PORT_PROPERTY) == null
+                ? null : new ReplicatingStore(accountStore());
+        Store store = createStore(history, replicating == null ? accountStore() : replicating);
+        Replication replication = replication(replicating, store);
         Injector injector = Guice.createInjector(new AbstractModule() {
             @Override
             protected void configure() {
-                bind(Store.class).to(InMemoryStore.class);
+                bind(Store.class).toInstance(store);
+                bind(TransactionHistory.class).toInstance(history);
+                bind(Cluster.class).toInstance(cluster);
+                bind(Replication.class).toInstance(replication);
+                bind(NodeClient.class).to(HttpNodeClient.class);
+            }
+
+            @Provides
+            @Singleton
+            PartitionedTransferOperation partitionedTransferOperation(Injector injector) {
+                try {
+                    return new PartitionedTransferOperation(injector.getInstance(engineClass()), store, cluster,
+                            injector.getInstance(NodeClient.class), intentLog(),
+                            Integer.getInteger(PartitionedTransferOperation.SLOTS_PROPERTY,
+                                    PartitionedTransferOperation.DEFAULT_SLOTS));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Can't recover the transfers to the other nodes", e);
+                }
+            }
+
+            @Provides
+            @Singleton
+            TransferEngine transferEngine(Injector injector) {
+                TransferEngine engine = cluster.isPartitioned()
+                        ? injector.getInstance(PartitionedTransferOperation.class)
+                        : injector.getInstance(engineClass());
+                if (!Boolean.parseBoolean(System.getProperty(ADMISSION_PROPERTY, "true"))) {
+                    return engine;
+                }
+                AdmissionControl admissionControl = new AdmissionControl(engine);
+                Metrics.gauge("admission.limit", admissionControl::getLimit);
+                Metrics.gauge("admission.inflight", admissionControl::getInFlight);
+                return admissionControl;
             }
         });
 
         ResourceConfig resourceConfig = new PackagesResourceConfig(PACKAGE);
+        resourceConfig.getProperties().put(ResourceConfig.PROPERTY_RESOURCE_FILTER_FACTORIES,
+                MetricsResourceFilterFactory.class.getName());
+        if (replication != Replication.NONE) {
+            resourceConfig.getResourceFilterFactories().add(new ReplicationResourceFilterFactory(replication,
+                    Long.getLong(REPLICATION_WAIT_PROPERTY, 1000)));
+        }
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            // The WADL of Jersey needs JAXB, which Java 11 and later don't include
+            resourceConfig.getFeatures().put(ResourceConfig.FEATURE_DISABLE_WADL, true);
+        }
+        PartitionedTransferOperation partitioned = null;
+        if (cluster.isPartitioned()) {
+            // HttpURLConnection keeps 5 idle connections per node by default, fewer than the credits in flight
+            if (System.getProperty("http.maxConnections") == null) {
+                System.setProperty("http.maxConnections", Integer.toString(Integer.getInteger(
+                        PartitionedTransferOperation.SLOTS_PROPERTY, PartitionedTransferOperation.DEFAULT_SLOTS)));
+            }
+            // Recovers the transfers left in flight before serving any request
+            partitioned = injector.getInstance(PartitionedTransferOperation.class);
+            Metrics.gauge("cluster.pending", partitioned::getPendingCount);
+        }
         IoCComponentProviderFactory ioc = new GuiceComponentProviderFactory(resourceConfig, injector);
-        return GrizzlyServerFactory.createHttpServer(URI.create(ENDPOINT).toString(), resourceConfig, ioc);
+        String threads = System.getProperty(REQUEST_THREADS_PROPERTY, "platform");
+        HttpServer server;
+        switch (threads) {
+            case "platform":
+                if (partitioned == null) {
+                    server = GrizzlyServerFactory.createHttpServer(endpoint.toString(), resourceConfig, ioc);
+                } else {
+                    server = createHttpServer(endpoint,
+                            ContainerFactory.createContainer(HttpHandler.class, resourceConfig, ioc),
+                            transport -> transport.setWorkerThreadPoolConfig(partitionedWorkers()));
+                }
+                break;
+            case "virtual":
+                ExecutorService workers = virtualThreadExecutor();
+                // Not managed by the transport, so not shut down with the server; it holds no threads when idle
+                server = createHttpServer(endpoint,
+                        ContainerFactory.createContainer(HttpHandler.class, resourceConfig, ioc),
+                        transport -> transport.setWorkerThreadPool(workers));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown request threads: " + threads);
+        }
+        if (partitioned != null) {
+            closeOnStop(partitioned, server);
+        }
+        if (replication instanceof Closeable) {
+            closeOnStop((Closeable) replication, server);
+        }
+        if (replicating != null) {
+            try {
+                startReplicationServer(new ReplicationServer(replicating), endpoint, server);
+            } catch (IOException | RuntimeException e) {
+                server.shutdownNow();
+                throw e;
+            }
+        }
+        Integer binaryPort = Integer.getInteger(BINARY_PORT_PROPERTY);
+        if (binaryPort != null) {
+            try {
+                startBinaryServer(injector.getInstance(BinaryTransferServer.class), endpoint, binaryPort, server);
+            } catch (IOException | RuntimeException e) {
+                server.shutdownNow();
+                throw e;
+            }
+        }
+        return server;
+    }
+
+    /**
+     * Starts the binary listener on the host of the REST API, to be stopped with the HTTP server.
+     */
+    private static void startBinaryServer(BinaryTransferServer binaryServer, URI endpoint, int port,
+            HttpServer server) throws IOException {
+        binaryServer.start(new InetSocketAddress(endpoint.getHost(), port),
+                Integer.getInteger(BINARY_THREADS_PROPERTY, 2 * Runtime.getRuntime().availableProcessors()));
+        server.getListener("grizzly").getTransport().getMonitoringConfig().addProbes(new TransportProbe.Adapter() {
+            @Override
+            public void onStopEvent(Transport transport) {
+                binaryServer.close();
+            }
+        });
+        Metrics.gauge("binary.connections", binaryServer::getConnectionCount);
+    }
+
+    /**
+     * Starts the listener of the followers on the host of the REST API, to be stopped with the HTTP server.
+     */
+    private static void startReplicationServer(ReplicationServer replicationServer, URI endpoint, HttpServer server)
+            throws IOException {
+        replicationServer.start(new InetSocketAddress(endpoint.getHost(), Integer.getInteger(REPLICATION_PORT_PROPERTY)));
+        closeOnStop(replicationServer, server);
+    }
+
+    /**
+     * Closes the component with the HTTP server, such as the retries of the transfers to the other nodes
+     * and their intent log, or the replication.
+     */
+    private static void closeOnStop(Closeable closeable, HttpServer server) {
+        server.getListener("grizzly").getTransport().getMonitoringConfig().addProbes(new TransportProbe.Adapter() {
+            @Override
+            public void onStopEvent(Transport transport) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates and starts the server as {@link GrizzlyServerFactory} does, with the given worker threads.
+     */
+    private static HttpServer createHttpServer(URI uri, HttpHandler handler, Consumer<TCPNIOTransport> workers)
+            throws IOException {
+        HttpServer server = new HttpServer();
+        NetworkListener listener = new NetworkListener("grizzly", uri.getHost(), uri.getPort());
+        workers.accept(listener.getTransport());
+        server.addListener(listener);
+        server.getServerConfiguration().addHttpHandler(handler, uri.getPath());
+        server.start();
+        return server;
+    }
+
+    /**
+     * Worker threads of a partitioned node: as many as Grizzly's default, plus one per slot, so that the threads
+     * waiting on other nodes, at most one per slot, never leave this node unable to serve their credits.
+     */
+    private static ThreadPoolConfig partitionedWorkers() {
+        int threads = 2 * Runtime.getRuntime().availableProcessors()
+                + Integer.getInteger(PartitionedTransferOperation.SLOTS_PROPERTY, PartitionedTransferOperation.DEFAULT_SLOTS);
+        return ThreadPoolConfig.defaultConfig().copy().setPoolName("grizzly-http-server")
+                .setCorePoolSize(threads).setMaxPoolSize(threads);
+    }
+
+    /**
+     * Looked up reflectively, so that the service still builds and runs on Java 8.
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later, running on "
+                    + System.getProperty("java.version"), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't create the virtual thread executor", e);
+        }
+    }
+
+    private static Cluster cluster() {
+        String nodes = System.getProperty(CLUSTER_NODES_PROPERTY);
+        if (nodes == null) {
+            return Cluster.single(URI.create(ENDPOINT));
+        }
+        List<URI> uris = new ArrayList<>();
+        for (String node : nodes.split(",")) {
+            String uri = node.trim();
+            // Relative paths of the API are resolved against the URIs
+            uris.add(URI.create(uri.endsWith("/") ? uri : uri + "/"));
+        }
+        return new Cluster(uris, Integer.getInteger(CLUSTER_NODE_PROPERTY, 0));
+    }
+
+    private static void checkReplication(Cluster cluster) {
+        boolean primary = System.getProperty(REPLICATION_PORT_PROPERTY) != null;
+        boolean follower = System.getProperty(REPLICATION_PRIMARY_PROPERTY) != null;
+        if (primary && follower) {
+            throw new IllegalArgumentException("A node is either a primary or a follower, set either "
+                    + REPLICATION_PORT_PROPERTY + " or " + REPLICATION_PRIMARY_PROPERTY);
+        }
+        if ((primary || follower) && cluster.isPartitioned()) {
+            throw new IllegalArgumentException("The nodes of a partitioned cluster can't be replicated, unset "
+                    + (primary ? REPLICATION_PORT_PROPERTY : REPLICATION_PRIMARY_PROPERTY));
+        }
+        String engine = System.getProperty(TRANSFER_ENGINE_PROPERTY, "locking");
+        if (primary && (engine.equals("two-step") || engine.equals("lock-free") || engine.equals("sharded"))) {
+            throw new IllegalArgumentException("A primary sequences every transfer while its accounts are held,"
+                    + " which the " + engine + " engine doesn't, set " + TRANSFER_ENGINE_PROPERTY
+                    + " to locking, optimistic or netting");
+        }
+        if (follower && System.getProperty(JOURNAL_PROPERTY) != null) {
+            throw new IllegalArgumentException("A follower recovers from its primary, unset " + JOURNAL_PROPERTY);
+        }
+        if (follower && System.getProperty(JDBC_URL_PROPERTY) != null) {
+            throw new IllegalArgumentException("A follower recovers from its primary, unset " + JDBC_URL_PROPERTY);
+        }
+        if (follower && System.getProperty(BINARY_PORT_PROPERTY) != null) {
+            throw new IllegalArgumentException("The binary protocol can't serve the writes of a follower, unset "
+                    + BINARY_PORT_PROPERTY);
+        }
+    }
+
+    /**
+     * Starts following the primary, if this node is a follower.
+     */
+    private static Replication replication(ReplicatingStore replicating, Store store) {
+        if (replicating != null) {
+            Metrics.gauge("replication.sequence", replicating::getSequence);
+            Metrics.gauge("replication.followers", () -> replicating.getStatus().getFollowers());
+            return replicating;
+        }
+        String primary = System.getProperty(REPLICATION_PRIMARY_PROPERTY);
+        if (primary == null) {
+            return Replication.NONE;
+        }
+        URI address = URI.create("tcp://" + primary.trim());
+        if (address.getHost() == null || address.getPort() < 0) {
+            throw new IllegalArgumentException("Expected host:port of the primary: " + primary);
+        }
+        ReplicationFollower follower = new ReplicationFollower(store,
+                new InetSocketAddress(address.getHost(), address.getPort()));
+        Metrics.gauge("replication.sequence", follower::getSequence);
+        Metrics.gauge("replication.lag", () -> follower.getStatus().getLag());
+        Metrics.gauge("replication.lag.ms", () -> follower.getStatus().getLagMillis());
+        follower.start();
+        return follower;
+    }
+
+    private static Path intentLog() {
+        String intents = System.getProperty(CLUSTER_INTENTS_PROPERTY);
+        if (intents != null) {
+            return Paths.get(intents);
+        }
+        String journal = System.getProperty(JOURNAL_PROPERTY);
+        return journal == null ? null : Paths.get(journal, "intents.log");
+    }
+
+    private static Store createStore(TransactionHistory history, Store accounts) throws IOException {
+        Store store = durableStore(accounts);
+        if (!Boolean.parseBoolean(System.getProperty(HISTORY_PROPERTY, "false"))) {
+            return store;
+        }
+        Metrics.gauge("history.entries", history::getEntryCount);
+        Metrics.gauge("history.bytes_per_entry", history::getBytesPerEntry);
+        return new HistoryStore(store, history);
+    }
+
+    private static Store durableStore(Store accounts) throws IOException {
+        String jdbcUrl = System.getProperty(JDBC_URL_PROPERTY);
+        String journal = System.getProperty(JOURNAL_PROPERTY);
+        if (jdbcUrl != null) {
+            if (journal != null) {
+                throw new IllegalArgumentException("The accounts are either journaled or in a database, unset "
+                        + JOURNAL_PROPERTY + " or " + JDBC_URL_PROPERTY);
+            }
+            return jdbcStore(accounts, jdbcUrl);
+        }
+        if (journal == null) {
+            return accounts;
+        }
+        JournalingStore store = new JournalingStore(accounts, Paths.get(journal),
+                Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, 300));
+        System.out.println("Recovered " + countAccounts(store) + " accounts in " + store.getRecoveryTime() + " ms.");
+        Metrics.gauge("store.recovery.ms", store::getRecoveryTime);
+        Metrics.gauge("store.snapshot.ms", store::getSnapshotTime);
+        Metrics.gauge("store.snapshot.interval", store::getSnapshotInterval);
+        return store;
+    }
+
+    private static Store jdbcStore(Store accounts, String url) {
+        JdbcConnectionPool pool = JdbcConnectionPool.create(url, "sa", "");
+        pool.setMaxConnections(Integer.getInteger(JDBC_CONNECTIONS_PROPERTY, 2 * Runtime.getRuntime().availableProcessors()));
+        JdbcStore store;
+        try {
+            store = new JdbcStore(accounts, pool);
+        } catch (SQLException e) {
+            pool.dispose();
+            throw new IllegalStateException("Can't load the accounts from " + url, e);
+        }
+        System.out.println("Loaded " + countAccounts(store) + " accounts in " + store.getRecoveryTime() + " ms.");
+        Metrics.gauge("store.recovery.ms", store::getRecoveryTime);
+        Metrics.gauge("store.jdbc.connections", pool::getActiveConnections);
+        return store;
+    }
+
+    /**
+     * Counts the accounts without copying them, as there may be more than the heap holds.
+     */
+    private static long countAccounts(Store store) {
+        long[] count = new long[1];
+        store.forEachAccount(0, Integer.MAX_VALUE, account -> count[0]++);
+        return count[0];
+    }
+
+    private static Store accountStore() {
+        String type = System.getProperty(STORE_PROPERTY, "in-memory");
+        switch (type) {
+            case "in-memory":
+                return new InMemoryStore();
+            case "off-heap":
+                OffHeapStore store = new OffHeapStore(Integer.getInteger(STORE_CAPACITY_PROPERTY, OffHeapStore.DEFAULT_CAPACITY));
+                Metrics.gauge("store.offheap.accounts", store::size);
+                Metrics.gauge("store.offheap.bytes_per_account", store::getBytesPerAccount);
+                return store;
+            default:
+                throw new IllegalArgumentException("Unknown store: " + type);
+        }
+    }
+
+    private static Class<? extends TransferEngine> engineClass() {
+        String engine = System.getProperty(TRANSFER_ENGINE_PROPERTY, "locking");
+        switch (engine) {
+            case "locking":
+                return TransferOperation.class;
+            case "two-step":
+            case "lock-free":
+                return TwoStepTransferOperation.class;
+            case "optimistic":
+                return OptimisticTransferOperation.class;
+            case "sharded":
+                return ShardedTransferOperation.class;
+            case "netting":
+                return NettingTransferOperation.class;
+            default:
+                throw new IllegalArgumentException("Unknown transfer engine: " + engine);
+        }
     }
 
     public static void main(String[] args) {
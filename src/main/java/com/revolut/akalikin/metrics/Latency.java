@@ -0,0 +1,55 @@
+package com.revolut.akalikin.metrics;
+
+import org.HdrHistogram.AtomicHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Histogram of durations in nanoseconds, with 2 significant digits.
+ * Recording is an atomic increment of a bucket, in one of several histograms picked by the recording thread,
+ * so that concurrent recordings rarely touch the same cache lines. Reading merges the stripes.
+ */
+public final class Latency {
+
+    static final long HIGHEST_TRACKABLE = TimeUnit.SECONDS.toNanos(60);
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final AtomicHistogram[] stripes;
+    private final int mask;
+
+    Latency(int stripeCount) {
+        this.stripes = new AtomicHistogram[stripeCount];
+        this.mask = stripeCount - 1;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicHistogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS);
+        }
+    }
+
+    /**
+     * @param nanos duration to record, capped to a minute
+     */
+    public void record(long nanos) {
+        stripes[(int) Thread.currentThread().getId() & mask].recordValue(Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE));
+    }
+
+    /**
+     * Records the time elapsed since the start.
+     *
+     * @param start result of {@link System#nanoTime()} at the start
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * @return copy of all the recorded durations
+     */
+    public Histogram snapshot() {
+        Histogram histogram = new Histogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS);
+        for (AtomicHistogram stripe : stripes) {
+            histogram.add(stripe);
+        }
+        return histogram;
+    }
+}
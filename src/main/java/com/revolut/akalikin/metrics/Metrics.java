@@ -0,0 +1,153 @@
+package com.revolut.akalikin.metrics;
+
+import org.HdrHistogram.Histogram;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of the metrics of the service, shared by the whole process.
+ * Components look their metrics up once, into constants, so that recording is only an increment.
+ *
+ * Metrics are named like "lock.wait", optionally followed by labels: "http.requests{endpoint="GET v1/accounts",status="200"}".
+ * Latencies are recorded in nanoseconds and reported in microseconds.
+ */
+public final class Metrics {
+
+    private static final int STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Latency> LATENCIES = new ConcurrentSkipListMap<>();
+    private static final Map<String, DoubleSupplier> GAUGES = new ConcurrentSkipListMap<>();
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private Metrics() {
+    }
+
+    /**
+     * @param labels label names and values, alternately
+     * @return counter of the name and labels, created on the first call
+     */
+    public static Counter counter(String name, String... labels) {
+        return COUNTERS.computeIfAbsent(key(name, labels), key -> new Counter());
+    }
+
+    /**
+     * @param labels label names and values, alternately
+     * @return latency histogram of the name and labels, created on the first call
+     */
+    public static Latency latency(String name, String... labels) {
+        return LATENCIES.computeIfAbsent(key(name, labels), key -> new Latency(STRIPES));
+    }
+
+    /**
+     * Registers a value read whenever the metrics are reported, replacing any previous gauge of the name.
+     */
+    public static void gauge(String name, DoubleSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * @return all the metrics, by kind and name, for serialization as JSON
+     */
+    public static Map<String, Object> report() {
+        Map<String, Object> counters = new LinkedHashMap<>();
+        COUNTERS.forEach((name, counter) -> counters.put(name, counter.get()));
+        Map<String, Object> gauges = new LinkedHashMap<>();
+        GAUGES.forEach((name, gauge) -> {
+            double value = gauge.getAsDouble();
+            // JSON has no NaN, which the gauges of ratios report until there's something to divide by
+            gauges.put(name, Double.isFinite(value) ? value : null);
+        });
+        Map<String, Object> latencies = new LinkedHashMap<>();
+        LATENCIES.forEach((name, latency) -> {
+            Histogram histogram = latency.snapshot();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", histogram.getTotalCount());
+            summary.put("mean_us", micros(histogram.getMean()));
+            for (double percentile : PERCENTILES) {
+                summary.put("p" + percentileName(percentile) + "_us", micros(histogram.getValueAtPercentile(percentile)));
+            }
+            summary.put("max_us", micros(histogram.getMaxValue()));
+            latencies.put(name, summary);
+        });
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("counters", counters);
+        report.put("gauges", gauges);
+        report.put("latencies", latencies);
+        return report;
+    }
+
+    /**
+     * @return all the metrics in the Prometheus text format, the latencies as summaries in seconds
+     */
+    public static String text() {
+        StringBuilder text = new StringBuilder();
+        COUNTERS.forEach((name, counter) -> line(text, name, "_total", null, counter.get()));
+        GAUGES.forEach((name, gauge) -> line(text, name, "", null, gauge.getAsDouble()));
+        LATENCIES.forEach((name, latency) -> {
+            Histogram histogram = latency.snapshot();
+            for (double percentile : PERCENTILES) {
+                line(text, name, "_seconds", "quantile=\"" + quantile(percentile) + "\"",
+                        histogram.getValueAtPercentile(percentile) / 1e9);
+            }
+            line(text, name, "_seconds_count", null, histogram.getTotalCount());
+            line(text, name, "_seconds_sum", null, histogram.getMean() * histogram.getTotalCount() / 1e9);
+        });
+        return text.toString();
+    }
+
+    private static void line(StringBuilder text, String key, String suffix, String extraLabel, double value) {
+        int labels = key.indexOf('{');
+        String name = labels < 0 ? key : key.substring(0, labels);
+        text.append(name.replace('.', '_')).append(suffix);
+        if (labels >= 0 || extraLabel != null) {
+            text.append('{');
+            if (labels >= 0) {
+                text.append(key, labels + 1, key.length() - 1);
+            }
+            if (extraLabel != null) {
+                text.append(labels >= 0 ? "," : "").append(extraLabel);
+            }
+            text.append('}');
+        }
+        text.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            text.append((long) value);
+        } else {
+            text.append(value);
+        }
+        text.append('\n');
+    }
+
+    private static String key(String name, String... labels) {
+        if (labels.length == 0) {
+            return name;
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+        StringBuilder key = new StringBuilder(name).append('{');
+        for (int i = 0; i < labels.length; i += 2) {
+            key.append(i == 0 ? "" : ",").append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return key.append('}').toString();
+    }
+
+    private static String percentileName(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile).replace(".", "");
+    }
+
+    private static String quantile(double percentile) {
+        return BigDecimal.valueOf(percentile).movePointLeft(2).stripTrailingZeros().toPlainString();
+    }
+
+    private static double micros(double nanos) {
+        return Math.round(nanos / 10.0) / 100.0;
+    }
+}
@@ -0,0 +1,91 @@
+package com.revolut.akalikin.metrics;
+
+import com.sun.jersey.api.model.AbstractMethod;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.api.model.AbstractSubResourceMethod;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.sun.jersey.spi.container.ResourceFilter;
+import com.sun.jersey.spi.container.ResourceFilterFactory;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the latency and the response statuses of every endpoint, as "http.latency" and "http.requests".
+ * The latency of a streamed response doesn't include writing the stream.
+ */
+public class MetricsResourceFilterFactory implements ResourceFilterFactory {
+
+    private static final String START = MetricsResourceFilterFactory.class.getName() + ".start";
+
+    @Override
+    public List<ResourceFilter> create(AbstractMethod method) {
+        if (!(method instanceof AbstractResourceMethod) || method.getResource().getPath() == null) {
+            // Resources added by Jersey, such as the WADL one, have no path
+            return null;
+        }
+        return Collections.singletonList(new EndpointFilter(endpoint((AbstractResourceMethod) method)));
+    }
+
+    private static String endpoint(AbstractResourceMethod method) {
+        String path = method.getResource().getPath().getValue();
+        if (method instanceof AbstractSubResourceMethod) {
+            path += "/" + ((AbstractSubResourceMethod) method).getPath().getValue();
+        }
+        return method.getHttpMethod() + " " + path;
+    }
+
+    private static final class EndpointFilter implements ResourceFilter, ContainerRequestFilter, ContainerResponseFilter {
+
+        private final String endpoint;
+        private final Latency latency;
+        private final Counter[] statuses = new Counter[600];
+
+        EndpointFilter(String endpoint) {
+            this.endpoint = endpoint;
+            this.latency = Metrics.latency("http.latency", "endpoint", endpoint);
+        }
+
+        @Override
+        public ContainerRequestFilter getRequestFilter() {
+            return this;
+        }
+
+        @Override
+        public ContainerResponseFilter getResponseFilter() {
+            return this;
+        }
+
+        @Override
+        public ContainerRequest filter(ContainerRequest request) {
+            request.getProperties().put(START, System.nanoTime());
+            return request;
+        }
+
+        @Override
+        public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+            Object start = request.getProperties().get(START);
+            if (start != null) {
+                latency.recordSince((Long) start);
+            }
+            status(response.getStatus()).increment();
+            return response;
+        }
+
+        private Counter status(int status) {
+            if (status < 0 || status >= statuses.length) {
+                return Metrics.counter("http.requests", "endpoint", endpoint, "status", Integer.toString(status));
+            }
+            Counter counter = statuses[status];
+            if (counter == null) {
+                // Racy but idempotent, the registry returns the same counter
+                counter = Metrics.counter("http.requests", "endpoint", endpoint, "status", Integer.toString(status));
+                statuses[status] = counter;
+            }
+            return counter;
+        }
+    }
+}
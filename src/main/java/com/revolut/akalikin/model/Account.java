@@ -1,17 +1,36 @@
 package com.revolut.akalikin.model;
 
+import com.owlike.genson.annotation.JsonIgnore;
 
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Account DTO.
  * For the sake of simplicity, assuming that all accounts operate in the same currency.
+ *
+ * The balance is versioned, so it can be modified without holding the account lock: the version is even while
+ * the account is stable, and a change holds it at the next odd value while the balance is written, then publishes
+ * it two above where it started. A transfer can read two accounts without locks and change them only if neither
+ * version has moved since, see {@link #beginChange(long)}.
+ *
+ * The first change of the account in every epoch of the {@link BalanceSnapshot} also keeps the balance it replaces,
+ * so that an open snapshot can still read the balance from the start of its epoch.
  */
 public class Account {
 
+    private static final AtomicLongFieldUpdater<Account> VERSION =
+            AtomicLongFieldUpdater.newUpdater(Account.class, "version");
+
     private final String accountId;
 
-    private Long accountBalance;
+    private volatile long accountBalance;
+
+    private volatile long version;
+
+    private volatile long changeEpoch;
+
+    private volatile long previousBalance;
 
     /**
      * Constructor.
@@ -22,6 +41,8 @@ public class Account {
     public Account(String accountId, Long accountBalance) {
         this.accountId = accountId;
         this.accountBalance = accountBalance;
+        // An open snapshot sees the accounts created after it with no balance
+        this.changeEpoch = BalanceSnapshot.currentEpoch();
     }
 
     /**
@@ -30,20 +51,41 @@ public class Account {
      * @param accountId unique Account ID
      */
     public Account(String accountId) {
-        this.accountId = accountId;
-        this.accountBalance = 0L;
+        this(accountId, 0L);
     }
 
+    /**
+     * Adds the amount, as a change of its own, waiting for the concurrent change of the account if there is one.
+     */
     public void addFunds(Long amount) {
-        accountBalance += amount;
+        beginChange();
+        commitChange(amount);
     }
 
     public void deductFunds(Long amount) {
-        accountBalance -= amount;
+        beginChange();
+        commitChange(-amount);
+    }
+
+    /**
+     * Atomically deducts the amount, if the balance is sufficient. Holds the account, through its version, while the
+     * balance is checked and changed, waiting for the concurrent change of the account if there is one.
+     *
+     * @param amount amount to deduct
+     * @return true if the funds were deducted, false if the balance was insufficient
+     */
+    public boolean tryDeductFunds(long amount) {
+        beginChange();
+        if (balance() < amount) {
+            cancelChange();
+            return false;
+        }
+        commitChange(-amount);
+        return true;
     }
 
     public boolean sufficientFunds(Long amount) {
-        return accountBalance >= amount;
+        return balance() >= amount;
     }
 
     public String getAccountId() {
@@ -51,9 +93,208 @@ public class Account {
     }
 
     public Long getBalance() {
+        return balance();
+    }
+
+    /**
+     * A balance read between two reads of the same even version is consistent with that version.
+     * Not part of the API, the version is internal to the concurrency control.
+     *
+     * @return version of the balance: even while the account is stable, odd while a change is being applied
+     */
+    @JsonIgnore
+    public long getVersion() {
+        return version();
+    }
+
+    /**
+     * Moves the amount between the accounts as one change, if the balance of the debited account is sufficient.
+     * Waits for the concurrent changes of either account.
+     *
+     * @return true if the amount was moved, false if the balance was insufficient
+     */
+    public static boolean transfer(Account from, Account to, long amount) {
+        while (!beginChanges(from, from.version(), to, to.version())) {
+            Thread.yield();
+        }
+        if (from.balance() < amount) {
+            from.cancelChange();
+            to.cancelChange();
+            return false;
+        }
+        commitChanges(from, -amount, to, amount);
+        return true;
+    }
+
+    /**
+     * Changes the balances of several accounts as one change, so that a snapshot sees either all of them or none.
+     * Waits for the concurrent changes of any of the accounts.
+     *
+     * @param accounts distinct accounts to change
+     * @param amounts  amounts to add to their balances, negative for debits
+     */
+    public static void change(Account[] accounts, long[] amounts) {
+        beginChanges(accounts);
+        long epoch = BalanceSnapshot.currentEpoch();
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i].apply(epoch, amounts[i]);
+        }
+        for (Account account : accounts) {
+            account.release();
+        }
+    }
+
+    /**
+     * Holds the account for a change, if it is still at the version. Nothing else can change the account
+     * until the change is committed or cancelled, so the holder must not block meanwhile.
+     *
+     * @param expectedVersion even version read before the change was computed
+     * @return true if the account is held, false if it has changed or is being changed
+     */
+    public boolean beginChange(long expectedVersion) {
+        return (expectedVersion & 1) == 0 && casVersion(expectedVersion, expectedVersion + 1);
+    }
+
+    /**
+     * Holds two accounts for a change, if both are still at their versions. Never waits, so the order doesn't matter.
+     *
+     * @return true if both accounts are held, false if either has changed, in which case neither is held
+     */
+    public static boolean beginChanges(Account first, long firstVersion, Account second, long secondVersion) {
+        if (!first.beginChange(firstVersion)) {
+            return false;
+        }
+        if (!second.beginChange(secondVersion)) {
+            first.cancelChange();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Applies a change to the held account, and publishes the next version.
+     *
+     * @param amount amount to add to the balance, negative for a debit
+     */
+    public void commitChange(long amount) {
+        apply(BalanceSnapshot.currentEpoch(), amount);
+        release();
+    }
+
+    /**
+     * Applies a change to two held accounts as one change, and publishes their next versions.
+     */
+    public static void commitChanges(Account first, long firstAmount, Account second, long secondAmount) {
+        // Read once both are held, and both are released only after both are changed,
+        // so a snapshot can't see one of them changed and the other not
+        long epoch = BalanceSnapshot.currentEpoch();
+        first.apply(epoch, firstAmount);
+        second.apply(epoch, secondAmount);
+        first.release();
+        second.release();
+    }
+
+    /**
+     * Releases the held account at the version it was held at, leaving the balance unchanged.
+     */
+    public void cancelChange() {
+        putVersion(version() - 1);
+    }
+
+    /**
+     * Holds the account for a change, waiting for the concurrent change if there is one.
+     */
+    protected void beginChange() {
+        while (!beginChange(version())) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Balance at the start of an epoch, valid while a snapshot of the epoch is open.
+     * Waits for the concurrent change if there is one.
+     */
+    long balanceAt(long epoch) {
+        while (true) {
+            long current = version();
+            if ((current & 1) == 0) {
+                long balance = changeEpoch() >= epoch ? previousBalance() : balance();
+                if (version() == current) {
+                    return balance;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    protected long balance() {
         return accountBalance;
     }
 
+    protected void putBalance(long balance) {
+        accountBalance = balance;
+    }
+
+    protected long version() {
+        return version;
+    }
+
+    protected boolean casVersion(long expected, long updated) {
+        return VERSION.compareAndSet(this, expected, updated);
+    }
+
+    protected void putVersion(long version) {
+        this.version = version;
+    }
+
+    protected long changeEpoch() {
+        return changeEpoch;
+    }
+
+    protected void putChangeEpoch(long epoch) {
+        changeEpoch = epoch;
+    }
+
+    protected long previousBalance() {
+        return previousBalance;
+    }
+
+    protected void putPreviousBalance(long balance) {
+        previousBalance = balance;
+    }
+
+    /**
+     * Holds all the accounts, waiting for their concurrent changes. Backs off from the ones already held
+     * when one is being changed, so that two of these can't wait for each other.
+     */
+    private static void beginChanges(Account[] accounts) {
+        int held = 0;
+        while (held < accounts.length) {
+            if (accounts[held].beginChange(accounts[held].version())) {
+                held++;
+            } else {
+                for (int i = 0; i < held; i++) {
+                    accounts[i].cancelChange();
+                }
+                held = 0;
+                Thread.yield();
+            }
+        }
+    }
+
+    private void apply(long epoch, long amount) {
+        long balance = balance();
+        if (changeEpoch() != epoch) {
+            putPreviousBalance(balance);
+            putChangeEpoch(epoch);
+        }
+        putBalance(balance + amount);
+    }
+
+    private void release() {
+        putVersion(version() + 1);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) { return false; }
@@ -61,6 +302,6 @@ public class Account {
         if (obj.getClass() != getClass()) { return false; }
         Account other = (Account) obj;
         return Objects.equals(accountId, other.accountId)
-                && Objects.equals(accountBalance, other.accountBalance);
+                && accountBalance == other.accountBalance;
     }
 }
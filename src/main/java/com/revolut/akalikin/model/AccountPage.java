@@ -0,0 +1,31 @@
+package com.revolut.akalikin.model;
+
+import java.util.List;
+
+/**
+ * Page of accounts, with the cursor of the next page.
+ */
+public class AccountPage {
+
+    private final List<Account> accounts;
+    private final String cursor;
+
+    /**
+     * Constructor.
+     *
+     * @param accounts accounts of the page
+     * @param cursor   cursor of the next page, null if this is the last one
+     */
+    public AccountPage(List<Account> accounts, String cursor) {
+        this.accounts = accounts;
+        this.cursor = cursor;
+    }
+
+    public List<Account> getAccounts() {
+        return accounts;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+}
@@ -0,0 +1,146 @@
+package com.revolut.akalikin.model;
+
+import com.revolut.akalikin.exception.SnapshotUnavailableException;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time view of the balances of all the accounts, taken without blocking or slowing down the changes.
+ *
+ * Opening a snapshot starts a new epoch of changes, unless other snapshots are open. The first change of an account
+ * in an epoch keeps the balance it replaces, so the balance of an account at the start of the epoch of the snapshot
+ * is the kept one if the account changed since, or else the current one. A change of several accounts holds all of
+ * them before it reads the epoch, and releases them only once all are changed, so a snapshot sees either the whole
+ * change or none of it.
+ *
+ * Every account keeps a single replaced balance, so a new epoch only starts once no snapshot is open: a snapshot
+ * opened while others are open joins their epoch, counted as one more reader of it, and has the balances of the
+ * instant the first of them was opened, see {@link #getInstant()}. Only an epoch started at most
+ * {@link #MAX_AGE_PROPERTY} ago is joined, so that overlapping snapshots can't keep the balances at an ever older
+ * instant: past that, a new snapshot waits for the open ones to be closed, to start a new epoch, and fails if they
+ * aren't within {@link #MAX_WAIT_PROPERTY}. A snapshot may be closed by any thread. Money is conserved in a snapshot
+ * as long as the transfers change both of their accounts as one change, which the two-step and the sharded engines
+ * don't.
+ */
+public final class BalanceSnapshot implements AutoCloseable {
+
+    /**
+     * System property with the milliseconds for which an epoch is joined by new snapshots, defaults to 1000.
+     */
+    public static final String MAX_AGE_PROPERTY = "snapshot.max.age";
+
+    /**
+     * System property with the milliseconds a new snapshot waits for the snapshots of an older epoch to be closed,
+     * defaults to 10000.
+     */
+    public static final String MAX_WAIT_PROPERTY = "snapshot.max.wait";
+
+    private static final long MAX_AGE = Long.getLong(MAX_AGE_PROPERTY, 1000);
+    private static final long MAX_WAIT = Long.getLong(MAX_WAIT_PROPERTY, 10_000);
+
+    private static volatile long currentEpoch;
+
+    /**
+     * Snapshots open on the current epoch, and when it started, guarded by the class.
+     */
+    private static int readers;
+    private static long epochStart;
+    private static long epochTime;
+
+    private final long epoch;
+    private final long time;
+    private boolean closed;
+
+    private BalanceSnapshot(long epoch, long time) {
+        this.epoch = epoch;
+        this.time = time;
+    }
+
+    /**
+     * Opens a snapshot of the balances at this instant, or at the instant the snapshots still open were opened,
+     * if it's recent enough.
+     *
+     * @throws SnapshotUnavailableException if older snapshots are still open after the wait
+     */
+    public static BalanceSnapshot open() throws SnapshotUnavailableException {
+        return open(MAX_AGE, MAX_WAIT);
+    }
+
+    /**
+     * @param maxAge  milliseconds for which an epoch is joined
+     * @param maxWait milliseconds to wait for the snapshots of an older epoch to be closed
+     */
+    static BalanceSnapshot open(long maxAge, long maxWait) throws SnapshotUnavailableException {
+        synchronized (BalanceSnapshot.class) {
+            long now = System.nanoTime();
+            long deadline = now + TimeUnit.MILLISECONDS.toNanos(maxWait);
+            boolean interrupted = false;
+            try {
+                while (readers > 0 && now - epochStart > TimeUnit.MILLISECONDS.toNanos(maxAge)) {
+                    if (now - deadline >= 0) {
+                        throw new SnapshotUnavailableException(maxAge, maxWait);
+                    }
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(BalanceSnapshot.class, deadline - now);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                    now = System.nanoTime();
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (readers == 0) {
+                currentEpoch = currentEpoch + 1;
+                epochStart = now;
+                epochTime = System.currentTimeMillis();
+            }
+            readers++;
+            return new BalanceSnapshot(currentEpoch, epochTime);
+        }
+    }
+
+    /**
+     * @return epoch of the changes made now
+     */
+    public static long currentEpoch() {
+        return currentEpoch;
+    }
+
+    /**
+     * @return balance of the account when the snapshot was opened, 0 if it was created after
+     */
+    public long balanceOf(Account account) {
+        return account.balanceAt(epoch);
+    }
+
+    /**
+     * @return detached copy of the account, with its balance when the snapshot was opened
+     */
+    public Account copyOf(Account account) {
+        return new Account(account.getAccountId(), balanceOf(account));
+    }
+
+    /**
+     * @return instant of the balances of the snapshot
+     */
+    public Instant getInstant() {
+        return Instant.ofEpochMilli(time);
+    }
+
+    @Override
+    public void close() {
+        synchronized (BalanceSnapshot.class) {
+            if (!closed) {
+                closed = true;
+                readers--;
+                if (readers == 0) {
+                    BalanceSnapshot.class.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.revolut.akalikin.model;
+
+/**
+ * Credit of a transfer debited on another node of the cluster, as sent by that node.
+ */
+public class CreditRequest {
+
+    private int source;
+
+    private int slot;
+
+    private long expected;
+
+    private String to;
+
+    private long amount;
+
+    /**
+     * Constructor for deserialization.
+     */
+    public CreditRequest() {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param source   number of the node sending the credit
+     * @param slot     slot of the sender holding the debited money
+     * @param expected balance of the mirror account of the slot on the receiving node before the credit
+     * @param to       ID of the account to credit
+     * @param amount   amount to credit
+     */
+    public CreditRequest(int source, int slot, long expected, String to, long amount) {
+        this.source = source;
+        this.slot = slot;
+        this.expected = expected;
+        this.to = to;
+        this.amount = amount;
+    }
+
+    public int getSource() {
+        return source;
+    }
+
+    public void setSource(int source) {
+        this.source = source;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    public long getExpected() {
+        return expected;
+    }
+
+    public void setExpected(long expected) {
+        this.expected = expected;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public void setTo(String to) {
+        this.to = to;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(long amount) {
+        this.amount = amount;
+    }
+}
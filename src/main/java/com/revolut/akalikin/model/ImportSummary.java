@@ -0,0 +1,53 @@
+package com.revolut.akalikin.model;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk import of accounts. The counts cover all the rows, the lists only the first ones.
+ */
+public class ImportSummary {
+
+    private final long imported;
+    private final long duplicates;
+    private final long invalid;
+    private final List<String> duplicateIds;
+    private final List<String> invalidRows;
+
+    /**
+     * Constructor.
+     *
+     * @param imported     number of accounts created
+     * @param duplicates   number of rows skipped because their account already existed
+     * @param invalid      number of rows rejected
+     * @param duplicateIds IDs of the first accounts that already existed
+     * @param invalidRows  line numbers and failures of the first rows rejected
+     */
+    public ImportSummary(long imported, long duplicates, long invalid, List<String> duplicateIds,
+            List<String> invalidRows) {
+        this.imported = imported;
+        this.duplicates = duplicates;
+        this.invalid = invalid;
+        this.duplicateIds = duplicateIds;
+        this.invalidRows = invalidRows;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+
+    public List<String> getDuplicateIds() {
+        return duplicateIds;
+    }
+
+    public List<String> getInvalidRows() {
+        return invalidRows;
+    }
+}
@@ -0,0 +1,86 @@
+package com.revolut.akalikin.model;
+
+/**
+ * Progress of the replication of a node.
+ */
+public class ReplicationStatus {
+
+    /**
+     * Role of the node.
+     */
+    public enum Role {
+        STANDALONE, PRIMARY, FOLLOWER
+    }
+
+    private final Role role;
+
+    private final long sequence;
+
+    private final long primarySequence;
+
+    private final long lagMillis;
+
+    private final int followers;
+
+    private final boolean connected;
+
+    private final String lastError;
+
+    /**
+     * Constructor.
+     *
+     * @param role            role of the node
+     * @param sequence        sequence published by a primary, applied by a follower
+     * @param primarySequence latest sequence of the primary known to the node
+     * @param lagMillis       milliseconds between the commit of a mutation on the primary and its application by
+     *                        a follower, as of the latest mutation applied; 0 when the follower is up to date
+     * @param followers       followers connected to a primary
+     * @param connected       whether a follower is connected to its primary
+     * @param lastError       latest failure of the connections to the primary or of the followers, null if none
+     */
+    public ReplicationStatus(Role role, long sequence, long primarySequence, long lagMillis, int followers,
+            boolean connected, String lastError) {
+        this.role = role;
+        this.sequence = sequence;
+        this.primarySequence = primarySequence;
+        this.lagMillis = lagMillis;
+        this.followers = followers;
+        this.connected = connected;
+        this.lastError = lastError;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getPrimarySequence() {
+        return primarySequence;
+    }
+
+    /**
+     * @return mutations of the primary not applied yet
+     */
+    public long getLag() {
+        return Math.max(0, primarySequence - sequence);
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public int getFollowers() {
+        return followers;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+}
@@ -0,0 +1,36 @@
+package com.revolut.akalikin.model;
+
+/**
+ * Leg of a transfer in the history of an account: the debit of the sending account, or the credit of the receiving one.
+ */
+public class Transaction {
+
+    private final long time;
+    private final String counterparty;
+    private final long amount;
+
+    /**
+     * Constructor.
+     *
+     * @param time         milliseconds since the epoch when the transfer was persisted
+     * @param counterparty ID of the other account of the transfer
+     * @param amount       change of the balance: negative for a debit, positive for a credit
+     */
+    public Transaction(long time, String counterparty, long amount) {
+        this.time = time;
+        this.counterparty = counterparty;
+        this.amount = amount;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getCounterparty() {
+        return counterparty;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+}
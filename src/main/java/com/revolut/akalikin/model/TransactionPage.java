@@ -0,0 +1,31 @@
+package com.revolut.akalikin.model;
+
+import java.util.List;
+
+/**
+ * Page of the history of an account, newest first, with the cursor of the next, older page.
+ */
+public class TransactionPage {
+
+    private final List<Transaction> transactions;
+    private final String cursor;
+
+    /**
+     * Constructor.
+     *
+     * @param transactions transactions of the page
+     * @param cursor       cursor of the next page, null if this is the last one
+     */
+    public TransactionPage(List<Transaction> transactions, String cursor) {
+        this.transactions = transactions;
+        this.cursor = cursor;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+}
@@ -0,0 +1,56 @@
+package com.revolut.akalikin.model;
+
+/**
+ * Single transfer of a batch, as received in the API.
+ */
+public class TransferRequest {
+
+    private String from;
+
+    private String to;
+
+    private Long amount;
+
+    /**
+     * Constructor for deserialization.
+     */
+    public TransferRequest() {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param from   ID of the account to debit
+     * @param to     ID of the account to credit
+     * @param amount amount to transfer
+     */
+    public TransferRequest(String from, String to, Long amount) {
+        this.from = from;
+        this.to = to;
+        this.amount = amount;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public void setFrom(String from) {
+        this.from = from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public void setTo(String to) {
+        this.to = to;
+    }
+
+    public Long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(Long amount) {
+        this.amount = amount;
+    }
+}
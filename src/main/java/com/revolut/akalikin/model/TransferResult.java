@@ -0,0 +1,43 @@
+package com.revolut.akalikin.model;
+
+/**
+ * Outcome of a single transfer of a batch.
+ */
+public class TransferResult {
+
+    /**
+     * Possible outcomes, matching the responses of the single transfer API.
+     */
+    public enum Status {
+        OK, INVALID_REQUEST, ACCOUNT_NOT_FOUND, INSUFFICIENT_FUNDS
+    }
+
+    private static final TransferResult OK = new TransferResult(Status.OK, null);
+
+    private final Status status;
+
+    private final String error;
+
+    /**
+     * Constructor.
+     *
+     * @param status outcome of the transfer
+     * @param error  description of the failure, null on success
+     */
+    public TransferResult(Status status, String error) {
+        this.status = status;
+        this.error = error;
+    }
+
+    public static TransferResult ok() {
+        return OK;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,148 @@
+package com.revolut.akalikin.operation;
+
+import com.google.inject.Inject;
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.BatchTooLargeException;
+import com.revolut.akalikin.exception.InvalidRequestException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.model.TransferResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateTransfer;
+
+/**
+ * Business logic for executing a batch of money transfers.
+ * The locks of all the distinct accounts in the batch are acquired once, in the global lock order,
+ * and the transfers are then applied in the order of the batch, each with its own result.
+ * The applied transfers are persisted together, before the locks are released.
+ * Every valid transfer is recorded in the {@link TransferMetrics} as if executed on its own, with the latency of the
+ * whole batch.
+ *
+ * Executed through {@link TransferEngine#executeMoneyTransfers}, so that the batches are admitted as the transfers are.
+ * Safe to run alongside the locking and two-step transfer engines, but not the sharded one,
+ * which requires to be the only writer of the balances, and rejects the batches.
+ */
+public class BatchTransferOperation {
+
+    public static final int MAX_BATCH_SIZE = 10000;
+
+    private final Store accountStore;
+    private final AccountLockHolder lockHolder;
+
+    @Inject
+    public BatchTransferOperation(Store accountStore, AccountLockHolder lockHolder) {
+        this.accountStore = accountStore;
+        this.lockHolder = lockHolder;
+    }
+
+    /**
+     * Executes the transfers of the batch.
+     *
+     * @param transfers transfers to execute, in order
+     * @return result for every transfer, in the order of the batch
+     * @throws InvalidRequestException if the batch is missing or too large
+     * @throws TransientException      if the account locks couldn't be acquired; none of the transfers was executed
+     */
+    public List<TransferResult> executeMoneyTransfers(List<TransferRequest> transfers)
+            throws InvalidRequestException, TransientException {
+        if (transfers == null) {
+            throw new InvalidRequestException("missing transfers");
+        }
+        if (transfers.size() > MAX_BATCH_SIZE) {
+            throw new BatchTooLargeException(transfers.size(), MAX_BATCH_SIZE);
+        }
+
+        TransferResult[] results = new TransferResult[transfers.size()];
+        Set<String> accountIds = new LinkedHashSet<>();
+        int valid = 0;
+        for (int i = 0; i < transfers.size(); i++) {
+            TransferRequest transfer = transfers.get(i);
+            try {
+                if (transfer == null) {
+                    throw new InvalidRequestException("missing transfer");
+                }
+                validateTransfer(transfer.getFrom(), transfer.getTo(), transfer.getAmount());
+                accountIds.add(transfer.getFrom());
+                accountIds.add(transfer.getTo());
+                valid++;
+            } catch (InvalidRequestException e) {
+                results[i] = new TransferResult(TransferResult.Status.INVALID_REQUEST, e.toString());
+            }
+        }
+
+        String[] lockedIds = accountIds.toArray(new String[0]);
+        long start = System.nanoTime();
+        try {
+            lockHolder.acquireLocks(lockedIds);
+            Map<String, Account> accounts = resolveAccounts(lockedIds);
+            List<TransferRequest> applied = new ArrayList<>(transfers.size());
+            for (int i = 0; i < transfers.size(); i++) {
+                if (results[i] == null) {
+                    results[i] = transfer(transfers.get(i), accounts);
+                    if (results[i].getStatus() == TransferResult.Status.OK) {
+                        applied.add(transfers.get(i));
+                    }
+                }
+            }
+            accountStore.storeTransfers(applied);
+            TransferMetrics.COMPLETED.add(applied.size());
+        } finally {
+            lockHolder.releaseLocks(lockedIds);
+            long latency = System.nanoTime() - start;
+            for (int i = 0; i < valid; i++) {
+                TransferMetrics.LATENCY.record(latency);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private Map<String, Account> resolveAccounts(String[] accountIds) {
+        Map<String, Account> accounts = new HashMap<>(accountIds.length * 2);
+        for (String accountId : accountIds) {
+            try {
+                accounts.put(accountId, accountStore.getAccount(accountId));
+            } catch (AccountNotFoundException e) {
+                // reported by every transfer referencing the account
+            }
+        }
+        return accounts;
+    }
+
+    private TransferResult transfer(TransferRequest transfer, Map<String, Account> accounts) {
+        try {
+            Account from = account(transfer.getFrom(), accounts);
+            Account to = account(transfer.getTo(), accounts);
+
+            if (!Account.transfer(from, to, transfer.getAmount())) {
+                throw new AccountInsufficientFundsException(from.getAccountId(), from.getBalance(), transfer.getAmount());
+            }
+            return TransferResult.ok();
+        } catch (AccountNotFoundException e) {
+            TransferMetrics.ACCOUNT_NOT_FOUND.increment();
+            return new TransferResult(TransferResult.Status.ACCOUNT_NOT_FOUND, e.toString());
+        } catch (AccountInsufficientFundsException e) {
+            TransferMetrics.INSUFFICIENT_FUNDS.increment();
+            return new TransferResult(TransferResult.Status.INSUFFICIENT_FUNDS, e.toString());
+        }
+    }
+
+    private static Account account(String accountId, Map<String, Account> accounts) throws AccountNotFoundException {
+        Account account = accounts.get(accountId);
+        if (account == null) {
+            throw new AccountNotFoundException(accountId);
+        }
+        return account;
+    }
+}
@@ -0,0 +1,337 @@
+package com.revolut.akalikin.operation;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.owlike.genson.Genson;
+import com.revolut.akalikin.cluster.Cluster;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountIdMalformedException;
+import com.revolut.akalikin.exception.AccountOnOtherNodeException;
+import com.revolut.akalikin.exception.ImportRowMalformedException;
+import com.revolut.akalikin.exception.InvalidRequestException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.ImportSummary;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateBalance;
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateId;
+
+/**
+ * Business logic for creating accounts in bulk, from newline-delimited JSON rows such as
+ * {"accountId":"foo","balance":100}, as streamed by the listing of the accounts, or from CSV rows such as foo,100,
+ * with an optional accountId,balance header. A missing balance is 0.
+ *
+ * The rows are parsed as they are read, and the valid ones are stored in chunks of {@link #CHUNK_SIZE} accounts,
+ * each with a single {@link Store#storeAccounts} call, so that the locks, journal syncs and database transactions
+ * of the store are paid per chunk rather than per account. No account lock is taken: an account that doesn't exist
+ * yet can't be in a transfer, and the store itself skips the IDs that already exist.
+ *
+ * The chunks are stored by a single thread by default, while the next ones are parsed: the in-memory and off-heap
+ * stores insert the accounts under one lock, so more threads wouldn't insert them any faster. A store whose chunks
+ * mostly wait, for the journal syncs, which the chunks then share, or for the database, can be given more threads
+ * with {@link #THREADS_PROPERTY}.
+ *
+ * At most two chunks per thread are parsed ahead of the storing threads, the lines are cut at {@link #MAX_LINE_LENGTH}
+ * characters, and only the first {@link #MAX_REPORTED} duplicates and invalid rows are listed in the summary,
+ * so the memory used doesn't grow with the size of the input.
+ *
+ * An import isn't atomic: the accounts stored before a failure of the store, or of the request, stay.
+ */
+@Singleton
+public class ImportOperation {
+
+    /**
+     * System property with the number of threads storing the chunks, defaults to 1.
+     */
+    public static final String THREADS_PROPERTY = "import.threads";
+
+    /**
+     * Formats of the rows.
+     */
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    static final int CHUNK_SIZE = 1000;
+    static final int MAX_LINE_LENGTH = 1 << 17;
+    static final int MAX_REPORTED = 100;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Genson GENSON = new Genson();
+
+    private final Store store;
+    private final Cluster cluster;
+    private final ExecutorService executor;
+    private final int maxPendingChunks;
+    private final int chunkSize;
+
+    @Inject
+    public ImportOperation(Store store, Cluster cluster) {
+        this(store, cluster, Integer.getInteger(THREADS_PROPERTY, 1), CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param store     store to create the accounts in
+     * @param cluster   cluster whose node owns the accounts created, see {@link Cluster#ownerOf}
+     * @param threads   number of threads storing the chunks
+     * @param chunkSize number of accounts stored at once
+     */
+    public ImportOperation(Store store, Cluster cluster, int threads, int chunkSize) {
+        this.store = store;
+        this.cluster = cluster;
+        this.maxPendingChunks = 2 * threads;
+        this.chunkSize = chunkSize;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "account-import-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates the accounts of the rows, skipping the ones that already exist and the invalid rows.
+     * Returns once all the accounts read are stored.
+     *
+     * @param input  rows, in UTF-8, one per line; blank lines are ignored
+     * @param format format of the rows
+     * @return counts of the accounts created, duplicated and invalid
+     * @throws IOException if the input can't be read
+     */
+    public ImportSummary importAccounts(InputStream input, Format format) throws IOException {
+        Summary summary = new Summary();
+        Semaphore pendingChunks = new Semaphore(maxPendingChunks);
+        Reader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), BUFFER_SIZE);
+        StringBuilder line = new StringBuilder();
+        List<Account> chunk = new ArrayList<>(chunkSize);
+        try {
+            long lineNumber = 0;
+            long length;
+            while (summary.failure == null && (length = readLine(reader, line)) >= 0) {
+                lineNumber++;
+                if (isBlank(line) || (format == Format.CSV && lineNumber == 1 && isCsvHeader(line))) {
+                    continue;
+                }
+                try {
+                    if (length > MAX_LINE_LENGTH) {
+                        throw new ImportRowMalformedException(line);
+                    }
+                    chunk.add(parse(line, format));
+                } catch (InvalidRequestException e) {
+                    summary.invalid(lineNumber, e);
+                    continue;
+                }
+                if (chunk.size() == chunkSize) {
+                    submit(chunk, summary, pendingChunks);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                submit(chunk, summary, pendingChunks);
+            }
+        } finally {
+            // Waits for the chunks already submitted
+            pendingChunks.acquireUninterruptibly(maxPendingChunks);
+        }
+        if (summary.failure != null) {
+            throw summary.failure;
+        }
+        return summary.toImportSummary();
+    }
+
+    private void submit(List<Account> chunk, Summary summary, Semaphore pendingChunks) {
+        pendingChunks.acquireUninterruptibly();
+        try {
+            executor.execute(() -> {
+                try {
+                    int[] duplicates = new int[1];
+                    store.storeAccounts(chunk, account -> {
+                        duplicates[0]++;
+                        summary.duplicate(account);
+                    });
+                    summary.imported(chunk.size() - duplicates[0]);
+                } catch (RuntimeException e) {
+                    summary.failure = e;
+                } finally {
+                    pendingChunks.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            pendingChunks.release();
+            throw e;
+        }
+    }
+
+    private Account parse(CharSequence line, Format format) throws InvalidRequestException {
+        String accountId;
+        Long balance;
+        if (format == Format.NDJSON) {
+            Map<?, ?> row;
+            try {
+                row = GENSON.deserialize(line.toString(), Map.class);
+            } catch (RuntimeException e) {
+                throw new ImportRowMalformedException(line);
+            }
+            Object id = row == null ? null : row.get("accountId");
+            Object amount = row == null ? null : row.get("balance");
+            if ((id != null && !(id instanceof String))
+                    || (amount != null && !(amount instanceof Long || amount instanceof Integer))) {
+                throw new ImportRowMalformedException(line);
+            }
+            accountId = (String) id;
+            balance = amount == null ? 0L : ((Number) amount).longValue();
+        } else {
+            List<String> fields = parseCsv(line);
+            if (fields.size() > 2) {
+                throw new ImportRowMalformedException(line);
+            }
+            accountId = fields.get(0);
+            try {
+                balance = fields.size() < 2 || fields.get(1).trim().isEmpty() ? 0L : Long.valueOf(fields.get(1).trim());
+            } catch (NumberFormatException e) {
+                throw new ImportRowMalformedException(line);
+            }
+        }
+        validateId(accountId);
+        validateBalance(balance);
+        if (cluster.isPartitioned()) {
+            if (Cluster.isInternal(accountId)) {
+                throw new AccountIdMalformedException(accountId);
+            }
+            int owner = cluster.ownerOf(accountId);
+            if (owner != cluster.getSelf()) {
+                throw new AccountOnOtherNodeException(accountId, cluster.getNode(owner));
+            }
+        }
+        return new Account(accountId, balance);
+    }
+
+    /**
+     * Splits a CSV line into its fields, which may be quoted, with "" for a quote.
+     */
+    static List<String> parseCsv(CharSequence line) throws ImportRowMalformedException {
+        List<String> fields = new ArrayList<>(2);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new ImportRowMalformedException(line);
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Reads the next line into the builder, without its terminator, keeping only its first {@link #MAX_LINE_LENGTH}
+     * characters.
+     *
+     * @return length of the whole line, or -1 at the end of the input
+     */
+    static long readLine(Reader reader, StringBuilder line) throws IOException {
+        line.setLength(0);
+        long length = 0;
+        int c;
+        while ((c = reader.read()) >= 0 && c != '\n') {
+            if (length++ < MAX_LINE_LENGTH) {
+                line.append((char) c);
+            }
+        }
+        if (c < 0 && length == 0) {
+            return -1;
+        }
+        if (length == line.length() && length > 0 && line.charAt(line.length() - 1) == '\r') {
+            line.setLength(line.length() - 1);
+            length--;
+        }
+        return length;
+    }
+
+    private static boolean isBlank(CharSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCsvHeader(CharSequence line) {
+        List<String> fields;
+        try {
+            fields = parseCsv(line);
+        } catch (ImportRowMalformedException e) {
+            return false;
+        }
+        return fields.get(0).trim().equalsIgnoreCase("accountId")
+                && (fields.size() == 1 || (fields.size() == 2 && fields.get(1).trim().equalsIgnoreCase("balance")));
+    }
+
+    /**
+     * Counts of an import in progress, updated by the threads storing its chunks.
+     */
+    private static final class Summary {
+
+        private long imported;
+        private long duplicates;
+        private long invalid;
+        private final List<String> duplicateIds = new ArrayList<>();
+        private final List<String> invalidRows = new ArrayList<>();
+        private volatile RuntimeException failure;
+
+        synchronized void imported(int count) {
+            imported += count;
+        }
+
+        synchronized void duplicate(Account account) {
+            duplicates++;
+            if (duplicateIds.size() < MAX_REPORTED) {
+                duplicateIds.add(account.getAccountId());
+            }
+        }
+
+        synchronized void invalid(long lineNumber, InvalidRequestException e) {
+            invalid++;
+            if (invalidRows.size() < MAX_REPORTED) {
+                invalidRows.add("line " + lineNumber + ": " + e);
+            }
+        }
+
+        synchronized ImportSummary toImportSummary() {
+            return new ImportSummary(imported, duplicates, invalid, duplicateIds, invalidRows);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.revolut.akalikin.operation;
+
+import com.google.inject.Inject;
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Metrics;
+import com.revolut.akalikin.model.Account;
+
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateTransfer;
+
+/**
+ * Business logic for executing money transfers with optimistic concurrency.
+ * Both accounts are read without locks, with their versions, and the transfer is committed by the store
+ * only if neither version has moved since; on a conflict it's read and tried again. After too many conflicts
+ * the transfer takes the account locks, which keeps out the other transfers that have fallen back and the batch
+ * transfers, and retries until it commits.
+ *
+ * Under low contention a transfer costs two compare-and-sets on the versions instead of the semaphores
+ * of the {@link AccountLockHolder}.
+ */
+public class OptimisticTransferOperation implements TransferEngine {
+
+    /**
+     * System property with the number of conflicts after which a transfer falls back to the account locks.
+     */
+    public static final String MAX_CONFLICTS_PROPERTY = "transfer.optimistic.conflicts";
+
+    private static final int DEFAULT_MAX_CONFLICTS = 8;
+
+    private static final Counter CONFLICTS = Metrics.counter("transfer.optimistic.conflicts");
+    private static final Counter FALLBACKS = Metrics.counter("transfer.optimistic.fallbacks");
+
+    private final Store accountStore;
+    private final AccountLockHolder lockHolder;
+    private final int maxConflicts;
+
+    @Inject
+    public OptimisticTransferOperation(Store accountStore, AccountLockHolder lockHolder) {
+        this(accountStore, lockHolder, Integer.getInteger(MAX_CONFLICTS_PROPERTY, DEFAULT_MAX_CONFLICTS));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param accountStore store of the accounts
+     * @param lockHolder   locks of the accounts
+     * @param maxConflicts number of conflicts after which a transfer falls back to the locks, 0 to always lock
+     */
+    public OptimisticTransferOperation(Store accountStore, AccountLockHolder lockHolder, int maxConflicts) {
+        this.accountStore = accountStore;
+        this.lockHolder = lockHolder;
+        this.maxConflicts = maxConflicts;
+    }
+
+    @Override
+    public void executeMoneyTransfer(String fromId, String toId, Long amount) throws PermanentException, TransientException {
+        validateTransfer(fromId, toId, amount);
+        long start = System.nanoTime();
+        try {
+            Account from = accountStore.getAccount(fromId);
+            Account to = accountStore.getAccount(toId);
+
+            for (int conflicts = 0; conflicts < maxConflicts; conflicts++) {
+                if (tryTransfer(from, to, amount)) {
+                    TransferMetrics.COMPLETED.increment();
+                    return;
+                }
+                CONFLICTS.increment();
+                Thread.yield();
+            }
+
+            FALLBACKS.increment();
+            lockHolder.acquireLocks(fromId, toId);
+            try {
+                // Only the transfers still in their optimistic attempts can conflict now
+                while (!tryTransfer(from, to, amount)) {
+                    CONFLICTS.increment();
+                    Thread.yield();
+                }
+            } finally {
+                lockHolder.releaseLocks(fromId, toId);
+            }
+            TransferMetrics.COMPLETED.increment();
+        } catch (AccountNotFoundException e) {
+            TransferMetrics.ACCOUNT_NOT_FOUND.increment();
+            throw e;
+        } finally {
+            TransferMetrics.LATENCY.recordSince(start);
+        }
+    }
+
+    /**
+     * @return true if the transfer was committed, false on a conflict
+     * @throws AccountInsufficientFundsException if a consistent read of the balance is insufficient
+     */
+    private boolean tryTransfer(Account from, Account to, long amount) throws AccountInsufficientFundsException {
+        long fromVersion = from.getVersion();
+        long toVersion = to.getVersion();
+        long balance = from.getBalance();
+        if (balance < amount) {
+            if ((fromVersion & 1) == 0 && from.getVersion() == fromVersion) {
+                TransferMetrics.INSUFFICIENT_FUNDS.increment();
+                throw new AccountInsufficientFundsException(from.getAccountId(), balance, amount);
+            }
+            return false;
+        }
+        return accountStore.storeTransfer(from, fromVersion, to, toVersion, amount);
+    }
+}
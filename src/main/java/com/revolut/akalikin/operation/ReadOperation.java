@@ -1,33 +1,183 @@
 package com.revolut.akalikin.operation;
 
 import com.google.inject.Inject;
+import com.revolut.akalikin.cluster.Cluster;
 import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.data.history.TransactionHistory;
 import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.InvalidCursorException;
+import com.revolut.akalikin.exception.InvalidPageSizeException;
 import com.revolut.akalikin.exception.InvalidRequestException;
+import com.revolut.akalikin.exception.SnapshotUnavailableException;
 import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.AccountPage;
+import com.revolut.akalikin.model.BalanceSnapshot;
+import com.revolut.akalikin.model.TransactionPage;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
 
 import static com.revolut.akalikin.operation.validation.ValidationUtils.validateId;
 
 /**
  * Business logic for retrieving accounts from the store.
+ * In a partitioned {@link Cluster}, the internal accounts the nodes keep the money in flight between them in
+ * aren't accounts of the clients, and are neither read nor listed: their balances go negative on the receiving nodes.
  */
 public class ReadOperation {
 
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+
     private final Store accountStore;
+    private final TransactionHistory history;
+    private final Cluster cluster;
 
     @Inject
-    public ReadOperation(Store accountStore) {
+    public ReadOperation(Store accountStore, TransactionHistory history, Cluster cluster) {
         this.accountStore = accountStore;
+        this.history = history;
+        this.cluster = cluster;
     }
 
     public Account readAccount(String accountId) throws AccountNotFoundException, InvalidRequestException {
         validateId(accountId);
+        requireVisible(accountId);
         return accountStore.getAccount(accountId);
     }
 
     public Collection<Account> readAccounts() {
-        return accountStore.getAccounts();
+        if (!cluster.isPartitioned()) {
+            return accountStore.getAccounts();
+        }
+        List<Account> accounts = new ArrayList<>();
+        streamAccounts(accounts::add);
+        return accounts;
+    }
+
+    /**
+     * Opens a snapshot of the balances at a single instant, to read the accounts from, and to close once read.
+     *
+     * @throws SnapshotUnavailableException if the older snapshots still open aren't closed in time
+     */
+    public BalanceSnapshot openSnapshot() throws SnapshotUnavailableException {
+        return BalanceSnapshot.open();
+    }
+
+    /**
+     * Reads all the accounts as of the instant of the snapshot, without blocking the transfers.
+     *
+     * @return detached copies of the accounts, with their balances at that instant
+     */
+    public List<Account> readAccounts(BalanceSnapshot snapshot) {
+        List<Account> accounts = new ArrayList<>();
+        streamAccounts(snapshot, accounts::add);
+        return accounts;
+    }
+
+    /**
+     * Reads a page of the accounts. In a partitioned cluster, a page may have fewer accounts than the limit
+     * although more follow, as the internal accounts walked aren't in it.
+     *
+     * @param cursor cursor returned with the previous page, or null for the first page
+     * @param limit  maximum number of accounts in the page, or null for {@link #DEFAULT_PAGE_SIZE}
+     * @return the page, with the cursor of the next one
+     * @throws InvalidRequestException if the cursor is malformed or the limit out of bounds
+     */
+    public AccountPage readAccounts(String cursor, Integer limit) throws InvalidRequestException {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new InvalidPageSizeException(pageSize, MAX_PAGE_SIZE);
+        }
+        List<Account> accounts = new ArrayList<>(pageSize);
+        long next = accountStore.forEachAccount(decodeCursor(cursor), pageSize, visible(accounts::add));
+        return new AccountPage(accounts, next < 0 ? null : encodeCursor(next));
+    }
+
+    /**
+     * Reads a page of the transactions of an account, newest first.
+     *
+     * @param cursor cursor returned with the previous page, or null for the newest page
+     * @param limit  maximum number of transactions in the page, or null for {@link #DEFAULT_PAGE_SIZE}
+     * @return the page, with the cursor of the next, older, one
+     * @throws InvalidRequestException if the cursor is malformed or the limit out of bounds
+     */
+    public TransactionPage readTransactions(String accountId, String cursor, Integer limit)
+            throws AccountNotFoundException, InvalidRequestException {
+        validateId(accountId);
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new InvalidPageSizeException(pageSize, MAX_PAGE_SIZE);
+        }
+        requireVisible(accountId);
+        accountStore.getAccount(accountId);
+        return history.read(accountId, cursor, pageSize);
+    }
+
+    /**
+     * Walks all the accounts without copying them.
+     *
+     * @param consumer receives the accounts
+     */
+    public void streamAccounts(Consumer<Account> consumer) {
+        accountStore.forEachAccount(0, Integer.MAX_VALUE, visible(consumer));
+    }
+
+    /**
+     * Walks all the accounts as of the instant of the snapshot, without blocking the transfers.
+     * The accounts created during the walk may be walked, with no balance.
+     *
+     * @param consumer receives detached copies of the accounts, with their balances at that instant
+     */
+    public void streamAccounts(BalanceSnapshot snapshot, Consumer<Account> consumer) {
+        accountStore.forEachAccount(0, Integer.MAX_VALUE,
+                visible(account -> consumer.accept(snapshot.copyOf(account))));
+    }
+
+    /**
+     * @return consumer passing on only the accounts of the clients
+     */
+    private Consumer<Account> visible(Consumer<Account> consumer) {
+        if (!cluster.isPartitioned()) {
+            return consumer;
+        }
+        return account -> {
+            if (!Cluster.isInternal(account.getAccountId())) {
+                consumer.accept(account);
+            }
+        };
+    }
+
+    private void requireVisible(String accountId) throws AccountNotFoundException {
+        if (cluster.isPartitioned() && Cluster.isInternal(accountId)) {
+            throw new AccountNotFoundException(accountId);
+        }
+    }
+
+    private static String encodeCursor(long position) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(ByteBuffer.allocate(Long.BYTES).putLong(position).array());
+    }
+
+    private static long decodeCursor(String cursor) throws InvalidCursorException {
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+            if (bytes.length == Long.BYTES) {
+                long position = ByteBuffer.wrap(bytes).getLong();
+                if (position >= 0) {
+                    return position;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // reported below
+        }
+        throw new InvalidCursorException(cursor);
     }
 }
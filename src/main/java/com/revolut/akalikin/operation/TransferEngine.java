@@ -0,0 +1,31 @@
+package com.revolut.akalikin.operation;
+
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.model.TransferResult;
+
+import java.util.List;
+
+/**
+ * Executes money transfers between accounts.
+ * The implementation is selected in the launcher.
+ */
+public interface TransferEngine {
+
+    public void executeMoneyTransfer(String fromId, String toId, Long amount) throws PermanentException, TransientException;
+
+    /**
+     * Executes a batch of transfers with the batch operation, which takes the locks of the accounts itself.
+     * Passes through the engine so that its decorators, such as the admission control, apply to the batches as well,
+     * and so that an engine which must be the only writer of the balances can reject them.
+     *
+     * @param batch     operation executing the batch
+     * @param transfers transfers to execute, in order
+     * @return result for every transfer, in the order of the batch
+     */
+    public default List<TransferResult> executeMoneyTransfers(BatchTransferOperation batch, List<TransferRequest> transfers)
+            throws PermanentException, TransientException {
+        return batch.executeMoneyTransfers(transfers);
+    }
+}
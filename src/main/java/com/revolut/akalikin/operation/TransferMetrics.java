@@ -0,0 +1,19 @@
+package com.revolut.akalikin.operation;
+
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Latency;
+import com.revolut.akalikin.metrics.Metrics;
+
+/**
+ * Metrics shared by the transfer engines: the latency of the transfers, and how many ended in each outcome.
+ */
+public final class TransferMetrics {
+
+    public static final Latency LATENCY = Metrics.latency("transfer.latency");
+    public static final Counter COMPLETED = Metrics.counter("transfer.outcomes", "outcome", "completed");
+    public static final Counter INSUFFICIENT_FUNDS = Metrics.counter("transfer.outcomes", "outcome", "insufficient_funds");
+    public static final Counter ACCOUNT_NOT_FOUND = Metrics.counter("transfer.outcomes", "outcome", "account_not_found");
+
+    private TransferMetrics() {
+    }
+}
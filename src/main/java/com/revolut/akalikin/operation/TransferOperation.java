@@ -4,20 +4,18 @@ import com.google.inject.Inject;
 import com.revolut.akalikin.data.AccountLockHolder;
 import com.revolut.akalikin.data.Store;
 import com.revolut.akalikin.exception.AccountInsufficientFundsException;
-import com.revolut.akalikin.exception.InvalidRequestException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
 import com.revolut.akalikin.exception.PermanentException;
-import com.revolut.akalikin.exception.TransferRequestForTheSameAccountException;
 import com.revolut.akalikin.exception.TransientException;
 import com.revolut.akalikin.model.Account;
 
-import static com.revolut.akalikin.operation.validation.ValidationUtils.validateAmount;
-import static com.revolut.akalikin.operation.validation.ValidationUtils.validateId;
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateTransfer;
 
 
 /**
  * Business logic for executing money transfers between accounts.
  */
-public class TransferOperation {
+public class TransferOperation implements TransferEngine {
 
     private final Store accountStore;
     private final AccountLockHolder lockHolder;
@@ -28,39 +26,33 @@ public class TransferOperation {
         this.lockHolder = lockHolder;
     }
 
+    @Override
     public void executeMoneyTransfer(String fromId, String toId, Long amount) throws PermanentException, TransientException {
-        validateRequest(fromId, toId, amount);
+        validateTransfer(fromId, toId, amount);
+        long start = System.nanoTime();
         try {
-            lockHolder.acquireLock(fromId);
-            lockHolder.acquireLock(toId);
+            lockHolder.acquireLocks(fromId, toId);
 
             Account from = accountStore.getAccount(fromId);
             Account to = accountStore.getAccount(toId);
 
-            if (!from.sufficientFunds(amount)) {
+            // Debited and credited as one change, so that a snapshot never sees the money in flight
+            if (!Account.transfer(from, to, amount)) {
+                TransferMetrics.INSUFFICIENT_FUNDS.increment();
                 throw new AccountInsufficientFundsException(fromId, from.getBalance(), amount);
             }
 
-            from.deductFunds(amount);
-            to.addFunds(amount);
-
-            accountStore.storeAccount(from, true);
-            accountStore.storeAccount(to, true);
+            accountStore.storeTransfer(from, to, amount);
+            TransferMetrics.COMPLETED.increment();
+        } catch (AccountNotFoundException e) {
+            TransferMetrics.ACCOUNT_NOT_FOUND.increment();
+            throw e;
         } finally {
-            lockHolder.releaseLock(fromId);
-            lockHolder.releaseLock(toId);
+            lockHolder.releaseLocks(fromId, toId);
+            TransferMetrics.LATENCY.recordSince(start);
         }
 
     }
 
-    private void validateRequest(String fromId, String toId, Long amount) throws InvalidRequestException {
-        if (fromId.equals(toId)) {
-            throw new TransferRequestForTheSameAccountException(fromId);
-        }
-        validateId(fromId);
-        validateId(toId);
-        validateAmount(amount);
-    }
-
 
 }
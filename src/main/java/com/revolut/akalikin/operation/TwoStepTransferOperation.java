@@ -0,0 +1,61 @@
+package com.revolut.akalikin.operation;
+
+import com.google.inject.Inject;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.model.Account;
+
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateTransfer;
+
+/**
+ * Business logic for executing money transfers without account locks, in two steps: the debit of the source account,
+ * only if its funds are sufficient, then the credit of the target account, each a change of a single account.
+ * Transfers between unrelated accounts never contend with each other, and a debited amount is always either credited
+ * or refunded, but a concurrent reader may see the money in flight between the two steps.
+ * The transfer is persisted between the steps, see {@link Store#storeDebitedTransfer}: the source account is refunded
+ * if that fails, and the target account is credited only once it succeeded.
+ *
+ * Not lock-free: a step holds its account through its version for the few instructions of the change, see
+ * {@link Account#tryDeductFunds}, and spins while another change of the same account holds it, so a thread preempted
+ * in the middle of a change holds up the other transfers of that account until it runs again.
+ */
+public class TwoStepTransferOperation implements TransferEngine {
+
+    private final Store accountStore;
+
+    @Inject
+    public TwoStepTransferOperation(Store accountStore) {
+        this.accountStore = accountStore;
+    }
+
+    @Override
+    public void executeMoneyTransfer(String fromId, String toId, Long amount) throws PermanentException, TransientException {
+        validateTransfer(fromId, toId, amount);
+        long start = System.nanoTime();
+        try {
+            Account from = accountStore.getAccount(fromId);
+            Account to = accountStore.getAccount(toId);
+
+            if (!from.tryDeductFunds(amount)) {
+                TransferMetrics.INSUFFICIENT_FUNDS.increment();
+                throw new AccountInsufficientFundsException(fromId, from.getBalance(), amount);
+            }
+            try {
+                accountStore.storeDebitedTransfer(from, to, amount);
+            } catch (RuntimeException e) {
+                from.addFunds(amount);
+                throw e;
+            }
+            to.addFunds(amount);
+            TransferMetrics.COMPLETED.increment();
+        } catch (AccountNotFoundException e) {
+            TransferMetrics.ACCOUNT_NOT_FOUND.increment();
+            throw e;
+        } finally {
+            TransferMetrics.LATENCY.recordSince(start);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.revolut.akalikin.operation.admission;
+
+import com.revolut.akalikin.exception.AccountBusyException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.ServiceOverloadedException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Latency;
+import com.revolut.akalikin.metrics.Metrics;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.model.TransferResult;
+import com.revolut.akalikin.operation.BatchTransferOperation;
+import com.revolut.akalikin.operation.TransferEngine;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateTransfer;
+
+/**
+ * Transfer engine admitting the transfers into another one only while it can execute them without long queues,
+ * and rejecting the others at once instead of letting them wait for the locks of their accounts.
+ *
+ * A transfer is rejected with an {@link AccountBusyException} while a fixed number of transfers of one of its
+ * accounts are in flight, and with a {@link ServiceOverloadedException} while the limit of transfers in flight
+ * overall is reached. The overall limit adapts to the queueing delay: applying a transfer takes microseconds,
+ * so the time an admitted transfer spends in the engine is mostly time queued for locks, shards or batches.
+ * When no transfer of an interval got through in less than the target delay, a queue is standing rather than
+ * absorbing a burst, and the limit is halved; after an interval without a standing queue, it grows by a quarter,
+ * up to its maximum. The engine then runs as many transfers as it completes at its peak throughput, and the
+ * excess is shed in microseconds.
+ *
+ * A batch counts as one transfer in flight overall, and as one in flight of each of its accounts.
+ */
+public class AdmissionControl implements TransferEngine {
+
+    /**
+     * System property with the maximum number of transfers in flight overall.
+     */
+    public static final String MAX_IN_FLIGHT_PROPERTY = "admission.max.inflight";
+
+    /**
+     * System property with the maximum number of transfers in flight per account.
+     */
+    public static final String MAX_ACCOUNT_IN_FLIGHT_PROPERTY = "admission.max.account.inflight";
+
+    /**
+     * System property with the target queueing delay in milliseconds.
+     */
+    public static final String TARGET_DELAY_PROPERTY = "admission.target.delay";
+
+    static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 256;
+    private static final int DEFAULT_MAX_ACCOUNT_IN_FLIGHT = 8;
+    private static final long DEFAULT_TARGET_DELAY = 5;
+    private static final int MIN_LIMIT = 1;
+    private static final int LOAD_STRIPES = 4096;
+
+    private static final Counter OVERLOADED = Metrics.counter("admission.rejections", "reason", "overloaded");
+    private static final Counter ACCOUNT_BUSY = Metrics.counter("admission.rejections", "reason", "account_busy");
+    private static final Latency DELAY = Metrics.latency("admission.delay");
+
+    private final TransferEngine delegate;
+    private final int maxInFlight;
+    private final int maxAccountInFlight;
+    private final long targetDelayNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicIntegerArray load = new AtomicIntegerArray(LOAD_STRIPES);
+    private final LongAccumulator minDelay = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final AtomicLong intervalEnd;
+    private volatile int limit;
+
+    public AdmissionControl(TransferEngine delegate) {
+        this(delegate, Integer.getInteger(MAX_IN_FLIGHT_PROPERTY, DEFAULT_MAX_IN_FLIGHT),
+                Integer.getInteger(MAX_ACCOUNT_IN_FLIGHT_PROPERTY, DEFAULT_MAX_ACCOUNT_IN_FLIGHT),
+                Long.getLong(TARGET_DELAY_PROPERTY, DEFAULT_TARGET_DELAY));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param delegate           engine executing the admitted transfers
+     * @param maxInFlight        maximum number of transfers in flight overall
+     * @param maxAccountInFlight maximum number of transfers in flight per account
+     * @param targetDelay        queueing delay in milliseconds above which the queues are standing
+     */
+    public AdmissionControl(TransferEngine delegate, int maxInFlight, int maxAccountInFlight, long targetDelay) {
+        this.delegate = delegate;
+        this.maxInFlight = maxInFlight;
+        this.maxAccountInFlight = maxAccountInFlight;
+        this.targetDelayNanos = TimeUnit.MILLISECONDS.toNanos(targetDelay);
+        this.limit = maxInFlight;
+        this.intervalEnd = new AtomicLong(System.nanoTime() + INTERVAL_NANOS);
+    }
+
+    @Override
+    public void executeMoneyTransfer(String fromId, String toId, Long amount) throws PermanentException, TransientException {
+        validateTransfer(fromId, toId, amount);
+        int currentLimit = limit;
+        if (inFlight.incrementAndGet() > currentLimit) {
+            inFlight.decrementAndGet();
+            OVERLOADED.increment();
+            throw new ServiceOverloadedException(currentLimit);
+        }
+        int fromStripe = loadStripe(fromId);
+        int toStripe = loadStripe(toId);
+        int fromLoad = load.incrementAndGet(fromStripe);
+        int toLoad = load.incrementAndGet(toStripe);
+        try {
+            if (fromLoad > maxAccountInFlight || toLoad > maxAccountInFlight) {
+                ACCOUNT_BUSY.increment();
+                throw new AccountBusyException(fromLoad >= toLoad ? fromId : toId);
+            }
+            long start = System.nanoTime();
+            try {
+                delegate.executeMoneyTransfer(fromId, toId, amount);
+            } finally {
+                long end = System.nanoTime();
+                DELAY.record(end - start);
+                recordDelay(end - start, end);
+            }
+        } finally {
+            load.decrementAndGet(fromStripe);
+            load.decrementAndGet(toStripe);
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Admits a batch as one transfer in flight overall, and as one transfer in flight of each of its accounts,
+     * the whole batch being rejected if one of them is busy. The time a batch spends in the engine grows with its size,
+     * so it isn't recorded as a queueing delay.
+     */
+    @Override
+    public List<TransferResult> executeMoneyTransfers(BatchTransferOperation batch, List<TransferRequest> transfers)
+            throws PermanentException, TransientException {
+        int currentLimit = limit;
+        if (inFlight.incrementAndGet() > currentLimit) {
+            inFlight.decrementAndGet();
+            OVERLOADED.increment();
+            throw new ServiceOverloadedException(currentLimit);
+        }
+        // First account of every stripe, the stripes shared by the accounts of the batch being loaded once
+        Map<Integer, String> stripes = new HashMap<>();
+        if (transfers != null) {
+            for (TransferRequest transfer : transfers) {
+                if (transfer != null && transfer.getFrom() != null && transfer.getTo() != null) {
+                    stripes.putIfAbsent(loadStripe(transfer.getFrom()), transfer.getFrom());
+                    stripes.putIfAbsent(loadStripe(transfer.getTo()), transfer.getTo());
+                }
+            }
+        }
+        String busyAccountId = null;
+        for (Map.Entry<Integer, String> stripe : stripes.entrySet()) {
+            if (load.incrementAndGet(stripe.getKey()) > maxAccountInFlight && busyAccountId == null) {
+                busyAccountId = stripe.getValue();
+            }
+        }
+        try {
+            if (busyAccountId != null) {
+                ACCOUNT_BUSY.increment();
+                throw new AccountBusyException(busyAccountId);
+            }
+            return delegate.executeMoneyTransfers(batch, transfers);
+        } finally {
+            for (Integer stripe : stripes.keySet()) {
+                load.decrementAndGet(stripe);
+            }
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return current limit of transfers in flight overall
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return number of transfers in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Records the time a transfer spent in the engine, and adapts the limit at the end of every interval.
+     *
+     * @param delay nanoseconds spent in the engine
+     * @param now   current {@link System#nanoTime()}
+     */
+    void recordDelay(long delay, long now) {
+        minDelay.accumulate(delay);
+        long end = intervalEnd.get();
+        if (now - end < 0 || !intervalEnd.compareAndSet(end, now + INTERVAL_NANOS)) {
+            return;
+        }
+        if (minDelay.getThenReset() > targetDelayNanos) {
+            limit = Math.max(MIN_LIMIT, limit / 2);
+        } else {
+            limit = Math.min(maxInFlight, limit + Math.max(1, limit / 4));
+        }
+    }
+
+    private static int loadStripe(String accountId) {
+        int hash = accountId.hashCode();
+        return (hash ^ (hash >>> 16)) & (LOAD_STRIPES - 1);
+    }
+}
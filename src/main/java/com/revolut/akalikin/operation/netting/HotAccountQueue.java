@@ -0,0 +1,92 @@
+package com.revolut.akalikin.operation.netting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Queue of the transfers of the hot accounts of a stripe, applied in batches by flat combining.
+ *
+ * Every transfer is queued by its thread. The thread that takes the free combiner role applies the queued transfers
+ * as batches until its own transfer is applied, and wakes up the threads of every batch. It then hands the role off
+ * to the thread of the transfer at the head of the queue, if any, so no transfer is ever left in the queue without
+ * a combiner. The other threads park until their transfer is applied or the role is handed to them.
+ */
+final class HotAccountQueue {
+
+    private final Queue<PendingTransfer> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean combining = new AtomicBoolean();
+    private final int maxBatchSize;
+    private final Consumer<List<PendingTransfer>> batchApplier;
+
+    /**
+     * Constructor.
+     *
+     * @param maxBatchSize maximum number of transfers applied together
+     * @param batchApplier applies a batch of transfers, completing every one of them
+     */
+    HotAccountQueue(int maxBatchSize, Consumer<List<PendingTransfer>> batchApplier) {
+        this.maxBatchSize = maxBatchSize;
+        this.batchApplier = batchApplier;
+    }
+
+    /**
+     * Queues the transfer and returns once it's completed, either by this thread or by another combiner.
+     * Must be called by the thread that created the transfer. Interrupts don't stop the wait, as the transfer
+     * can't be withdrawn from the queue, but are kept for the caller.
+     */
+    void execute(PendingTransfer transfer) {
+        pending.add(transfer);
+        boolean interrupted = false;
+        while (true) {
+            if (transfer.combiner || combining.compareAndSet(false, true)) {
+                // The transfer is in the queue until it's completed
+                while (!transfer.completion.isDone()) {
+                    combine();
+                }
+                handOff();
+                break;
+            }
+            if (transfer.completion.isDone()) {
+                break;
+            }
+            LockSupport.park(this);
+            interrupted |= Thread.interrupted();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void combine() {
+        List<PendingTransfer> batch = new ArrayList<>();
+        for (PendingTransfer transfer = pending.poll(); transfer != null; transfer = pending.poll()) {
+            batch.add(transfer);
+            if (batch.size() == maxBatchSize) {
+                break;
+            }
+        }
+        batchApplier.accept(batch);
+        Thread current = Thread.currentThread();
+        for (PendingTransfer transfer : batch) {
+            if (transfer.thread != current) {
+                LockSupport.unpark(transfer.thread);
+            }
+        }
+    }
+
+    private void handOff() {
+        combining.set(false);
+        // A transfer queued while the role was held has seen it taken and is parked: it's seen here
+        if (!pending.isEmpty() && combining.compareAndSet(false, true)) {
+            // Only the combiner takes transfers out of the queue, so the head stays there until its thread combines
+            PendingTransfer head = pending.peek();
+            head.combiner = true;
+            LockSupport.unpark(head.thread);
+        }
+    }
+}
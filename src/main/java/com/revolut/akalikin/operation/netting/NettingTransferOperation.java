@@ -0,0 +1,244 @@
+package com.revolut.akalikin.operation.netting;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Metrics;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.operation.TransferEngine;
+import com.revolut.akalikin.operation.TransferMetrics;
+import com.revolut.akalikin.operation.TransferOperation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateTransfer;
+
+/**
+ * Business logic for executing money transfers, netting the transfers of hot accounts.
+ *
+ * An account is hot while more than a threshold of transfers touching it are in flight. Transfers between accounts
+ * that aren't hot are executed as by the {@link TransferOperation}. The transfers touching a hot account are queued
+ * on it, and applied in micro-batches by one of their threads: it locks all the accounts of the batch once,
+ * checks every transfer in order against the running balances, applies a single net change to every account,
+ * and persists the batch together. Every transfer still gets its own result. While a batch is applied
+ * the next transfers queue up, so the batches grow with the contention.
+ *
+ * The accounts are counted, and queued, by a fixed number of stripes of their IDs rather than one by one, so the
+ * memory used doesn't grow with the number of accounts that were ever hot. The accounts sharing a stripe share
+ * its queue, and their transfers are batched together, which is harmless, as a batch locks all its accounts.
+ *
+ * Safe to run alongside the batch transfer operation, which takes the same account locks.
+ */
+@Singleton
+public class NettingTransferOperation implements TransferEngine {
+
+    /**
+     * System property with the number of transfers in flight on an account above which it's hot.
+     */
+    public static final String THRESHOLD_PROPERTY = "transfer.netting.threshold";
+
+    static final int MAX_BATCH_SIZE = 1024;
+
+    private static final int DEFAULT_THRESHOLD = 4;
+    private static final int LOAD_STRIPES = 4096;
+
+    private static final Counter BATCHES = Metrics.counter("transfer.netting.batches");
+    private static final Counter NETTED = Metrics.counter("transfer.netting.transfers");
+
+    private final Store accountStore;
+    private final AccountLockHolder lockHolder;
+    private final TransferOperation transferOperation;
+    private final int threshold;
+    private final AtomicIntegerArray load = new AtomicIntegerArray(LOAD_STRIPES);
+    private final AtomicReferenceArray<HotAccountQueue> queues = new AtomicReferenceArray<>(LOAD_STRIPES);
+
+    @Inject
+    public NettingTransferOperation(Store accountStore, AccountLockHolder lockHolder) {
+        this(accountStore, lockHolder, Integer.getInteger(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param accountStore store of the accounts
+     * @param lockHolder   locks of the accounts
+     * @param threshold    number of transfers in flight on an account above which it's hot, 0 to net all the transfers
+     */
+    public NettingTransferOperation(Store accountStore, AccountLockHolder lockHolder, int threshold) {
+        this.accountStore = accountStore;
+        this.lockHolder = lockHolder;
+        this.transferOperation = new TransferOperation(accountStore, lockHolder);
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void executeMoneyTransfer(String fromId, String toId, Long amount) throws PermanentException, TransientException {
+        validateTransfer(fromId, toId, amount);
+        int fromStripe = loadStripe(fromId);
+        int toStripe = loadStripe(toId);
+        int fromLoad = load.incrementAndGet(fromStripe);
+        int toLoad = load.incrementAndGet(toStripe);
+        try {
+            if (fromLoad <= threshold && toLoad <= threshold) {
+                transferOperation.executeMoneyTransfer(fromId, toId, amount);
+            } else {
+                executeNetted(new PendingTransfer(fromId, toId, amount), fromLoad >= toLoad ? fromStripe : toStripe);
+            }
+        } finally {
+            load.decrementAndGet(fromStripe);
+            load.decrementAndGet(toStripe);
+        }
+    }
+
+    private void executeNetted(PendingTransfer transfer, int hotStripe) throws PermanentException, TransientException {
+        long start = System.nanoTime();
+        try {
+            queue(hotStripe).execute(transfer);
+            await(transfer);
+            TransferMetrics.COMPLETED.increment();
+        } catch (AccountNotFoundException e) {
+            TransferMetrics.ACCOUNT_NOT_FOUND.increment();
+            throw e;
+        } catch (AccountInsufficientFundsException e) {
+            TransferMetrics.INSUFFICIENT_FUNDS.increment();
+            throw e;
+        } finally {
+            TransferMetrics.LATENCY.recordSince(start);
+        }
+    }
+
+    /**
+     * Applies a batch of transfers under a single acquisition of the locks of all its accounts,
+     * and completes every transfer with its result.
+     */
+    void apply(List<PendingTransfer> batch) {
+        BATCHES.increment();
+        NETTED.add(batch.size());
+        Set<String> accountIds = new LinkedHashSet<>();
+        for (PendingTransfer transfer : batch) {
+            accountIds.add(transfer.fromId);
+            accountIds.add(transfer.toId);
+        }
+        String[] lockedIds = accountIds.toArray(new String[0]);
+        try {
+            lockHolder.acquireLocks(lockedIds);
+        } catch (TransientException e) {
+            batch.forEach(transfer -> transfer.completion.completeExceptionally(e));
+            return;
+        }
+        try {
+            Map<String, NetBalance> balances = new HashMap<>(lockedIds.length * 2);
+            List<PendingTransfer> applied = new ArrayList<>(batch.size());
+            List<TransferRequest> requests = new ArrayList<>(batch.size());
+            for (PendingTransfer transfer : batch) {
+                try {
+                    NetBalance from = balance(transfer.fromId, balances);
+                    NetBalance to = balance(transfer.toId, balances);
+                    if (from.current() < transfer.amount) {
+                        throw new AccountInsufficientFundsException(transfer.fromId, from.current(), transfer.amount);
+                    }
+                    from.change -= transfer.amount;
+                    to.change += transfer.amount;
+                    applied.add(transfer);
+                    requests.add(new TransferRequest(transfer.fromId, transfer.toId, transfer.amount));
+                } catch (AccountNotFoundException | AccountInsufficientFundsException e) {
+                    transfer.completion.completeExceptionally(e);
+                }
+            }
+            // The net changes of the whole batch are applied as one, so that a snapshot sees all of them or none
+            Account[] accounts = new Account[balances.size()];
+            long[] changes = new long[balances.size()];
+            int changed = 0;
+            for (NetBalance balance : balances.values()) {
+                if (balance.change != 0) {
+                    accounts[changed] = balance.account;
+                    changes[changed++] = balance.change;
+                }
+            }
+            Account.change(Arrays.copyOf(accounts, changed), changes);
+            accountStore.storeTransfers(requests);
+            applied.forEach(transfer -> transfer.completion.complete(null));
+        } catch (RuntimeException e) {
+            batch.forEach(transfer -> transfer.completion.completeExceptionally(e));
+        } finally {
+            lockHolder.releaseLocks(lockedIds);
+        }
+    }
+
+    /**
+     * @return queue of the stripe, created the first time one of its accounts is hot
+     */
+    private HotAccountQueue queue(int stripe) {
+        HotAccountQueue queue = queues.get(stripe);
+        if (queue == null) {
+            queues.compareAndSet(stripe, null, new HotAccountQueue(MAX_BATCH_SIZE, this::apply));
+            queue = queues.get(stripe);
+        }
+        return queue;
+    }
+
+    private NetBalance balance(String accountId, Map<String, NetBalance> balances) throws AccountNotFoundException {
+        NetBalance balance = balances.get(accountId);
+        if (balance == null) {
+            balance = new NetBalance(accountStore.getAccount(accountId));
+            balances.put(accountId, balance);
+        }
+        return balance;
+    }
+
+    private int loadStripe(String accountId) {
+        int hash = accountId.hashCode();
+        return (hash ^ (hash >>> 16)) & (LOAD_STRIPES - 1);
+    }
+
+    /**
+     * @throws PermanentException or TransientException the transfer was completed with
+     */
+    private static void await(PendingTransfer transfer) throws PermanentException, TransientException {
+        try {
+            transfer.completion.getNow(null);
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof PermanentException) {
+                throw (PermanentException) cause;
+            }
+            if (cause instanceof TransientException) {
+                throw (TransientException) cause;
+            }
+            throw new TransientException("Transfer batch failed", cause);
+        }
+    }
+
+    /**
+     * Account of a batch, with the change the batch makes to its balance.
+     */
+    private static final class NetBalance {
+
+        private final Account account;
+        private long change;
+
+        private NetBalance(Account account) {
+            this.account = account;
+        }
+
+        private long current() {
+            return account.getBalance() + change;
+        }
+    }
+}
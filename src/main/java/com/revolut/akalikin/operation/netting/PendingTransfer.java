@@ -0,0 +1,26 @@
+package com.revolut.akalikin.operation.netting;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transfer queued on a hot account, completed by the combiner of the batch it's applied in.
+ */
+final class PendingTransfer {
+
+    final String fromId;
+    final String toId;
+    final long amount;
+    final CompletableFuture<Void> completion = new CompletableFuture<>();
+    final Thread thread = Thread.currentThread();
+
+    /**
+     * Set when the combiner role is handed off to the thread of this transfer.
+     */
+    volatile boolean combiner;
+
+    PendingTransfer(String fromId, String toId, long amount) {
+        this.fromId = fromId;
+        this.toId = toId;
+        this.amount = amount;
+    }
+}
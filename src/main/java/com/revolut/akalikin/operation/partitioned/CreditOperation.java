@@ -0,0 +1,106 @@
+package com.revolut.akalikin.operation.partitioned;
+
+import com.google.inject.Inject;
+import com.revolut.akalikin.cluster.Cluster;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountIdMalformedException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.CreditConflictException;
+import com.revolut.akalikin.exception.InvalidRequestException;
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Metrics;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.CreditRequest;
+
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateAmount;
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateId;
+
+/**
+ * Business logic for the credits of the transfers debited on other nodes of the cluster.
+ *
+ * Every slot of every other node has a mirror account here, which the credits of that slot are transferred from,
+ * so its balance goes negative by the money the slot has sent; a node and its mirror on another node always sum
+ * up to the money in flight between them. A credit names the balance of the mirror it expects, so a credit sent
+ * again, because its acknowledgement was lost, is recognised as already applied, and applied only once.
+ */
+public class CreditOperation {
+
+    private static final Counter APPLIED = Metrics.counter("cluster.credits", "outcome", "applied");
+    private static final Counter DUPLICATES = Metrics.counter("cluster.credits", "outcome", "duplicate");
+
+    private final Store accountStore;
+
+    @Inject
+    public CreditOperation(Store accountStore) {
+        this.accountStore = accountStore;
+    }
+
+    /**
+     * @return ID of the account mirroring the slot of the source node
+     */
+    static String mirrorId(int source, int slot) {
+        return Cluster.INTERNAL_PREFIX + "in-" + source + "-" + slot;
+    }
+
+    /**
+     * @return balance of the account mirroring the slot of the source node, 0 if it has never been credited
+     */
+    public long readMirrorBalance(int source, int slot) {
+        try {
+            return accountStore.getAccount(mirrorId(source, slot)).getBalance();
+        } catch (AccountNotFoundException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Applies the credit, unless it's already applied.
+     *
+     * @throws AccountNotFoundException if the credited account doesn't exist, in which case nothing was changed
+     * @throws CreditConflictException  if the mirror of the slot is neither at the expected balance, nor at the balance
+     *                                  after the credit
+     */
+    public void credit(CreditRequest request)
+            throws InvalidRequestException, AccountNotFoundException, CreditConflictException {
+        validateId(request.getTo());
+        validateAmount(request.getAmount());
+        if (Cluster.isInternal(request.getTo())) {
+            throw new AccountIdMalformedException(request.getTo());
+        }
+        Account to = accountStore.getAccount(request.getTo());
+        Account mirror = mirror(mirrorId(request.getSource(), request.getSlot()));
+        long expected = request.getExpected();
+        long amount = request.getAmount();
+        while (true) {
+            long mirrorVersion = mirror.getVersion();
+            long toVersion = to.getVersion();
+            long balance = mirror.getBalance();
+            if ((mirrorVersion & 1) == 0 && mirror.getVersion() == mirrorVersion) {
+                if (balance == expected - amount) {
+                    DUPLICATES.increment();
+                    return;
+                }
+                if (balance != expected) {
+                    throw new CreditConflictException(mirror.getAccountId(), balance, expected);
+                }
+                // The mirror may go negative: its debits were made on the sender
+                if (accountStore.storeTransfer(mirror, mirrorVersion, to, toVersion, amount)) {
+                    APPLIED.increment();
+                    return;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @return the mirror account, created if it doesn't exist yet
+     */
+    private Account mirror(String mirrorId) {
+        try {
+            return accountStore.getAccount(mirrorId);
+        } catch (AccountNotFoundException e) {
+            return PartitionedTransferOperation.createInternalAccount(accountStore, mirrorId);
+        }
+    }
+}
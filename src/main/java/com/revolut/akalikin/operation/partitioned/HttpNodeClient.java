@@ -0,0 +1,91 @@
+package com.revolut.akalikin.operation.partitioned;
+
+import com.google.common.io.ByteStreams;
+import com.google.inject.Inject;
+import com.owlike.genson.Genson;
+import com.revolut.akalikin.cluster.Cluster;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.CreditConflictException;
+import com.revolut.akalikin.model.CreditRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link NodeClient} over the internal REST API of the nodes, served by the
+ * {@link com.revolut.akalikin.controller.ClusterController}. Connections are kept alive between requests
+ * by {@link HttpURLConnection}, as long as every response is read to its end.
+ */
+public class HttpNodeClient implements NodeClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    private static final Genson GENSON = new Genson();
+
+    private final Cluster cluster;
+
+    @Inject
+    public HttpNodeClient(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    @Override
+    public long readMirrorBalance(int node, int source, int slot) throws IOException {
+        HttpURLConnection connection = connect(node, "v1/internal/mirrors/" + source + "/" + slot);
+        int status = connection.getResponseCode();
+        String body = readBody(connection, status);
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Unexpected response " + status + " from " + connection.getURL() + ": " + body);
+        }
+        return Long.parseLong(body.trim());
+    }
+
+    @Override
+    public void credit(int node, CreditRequest request)
+            throws IOException, AccountNotFoundException, CreditConflictException {
+        HttpURLConnection connection = connect(node, "v1/internal/credits");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(GENSON.serialize(request).getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        String body = readBody(connection, status);
+        switch (status) {
+            case HttpURLConnection.HTTP_OK:
+                return;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                throw new AccountNotFoundException(request.getTo());
+            case HttpURLConnection.HTTP_CONFLICT:
+                throw new CreditConflictException(CreditOperation.mirrorId(request.getSource(), request.getSlot()),
+                        Long.parseLong(body.trim()), request.getExpected());
+            default:
+                throw new IOException("Unexpected response " + status + " from " + connection.getURL() + ": " + body);
+        }
+    }
+
+    private HttpURLConnection connect(int node, String path) throws IOException {
+        URL url = cluster.getNode(node).resolve(path).toURL();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept", "application/json");
+        return connection;
+    }
+
+    private static String readBody(HttpURLConnection connection, int status) throws IOException {
+        InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (input == null) {
+            return "";
+        }
+        try (InputStream stream = input) {
+            return new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.revolut.akalikin.operation.partitioned;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Transfer to an account of another node, from the moment its slot is taken until its credit is confirmed
+ * or refunded. Records the balances its outcome is decided from after a crash: the slot account is at
+ * {@link #slotBefore} until the debit, and the mirror on the other node at {@link #mirrorBefore} until the credit.
+ */
+final class Intent {
+
+    final int slot;
+    final String fromId;
+    final String toId;
+    final long amount;
+    final int node;
+    final long slotBefore;
+    final long mirrorBefore;
+
+    /**
+     * Constructor.
+     *
+     * @param slot         slot holding the debited money
+     * @param fromId       ID of the debited account
+     * @param toId         ID of the credited account
+     * @param amount       amount to transfer
+     * @param node         number of the node owning the credited account
+     * @param slotBefore   balance of the slot account before the debit
+     * @param mirrorBefore balance of the mirror of the slot on the other node before the credit
+     */
+    Intent(int slot, String fromId, String toId, long amount, int node, long slotBefore, long mirrorBefore) {
+        this.slot = slot;
+        this.fromId = fromId;
+        this.toId = toId;
+        this.amount = amount;
+        this.node = node;
+        this.slotBefore = slotBefore;
+        this.mirrorBefore = mirrorBefore;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(slot).putInt(node).putLong(amount).putLong(slotBefore).putLong(mirrorBefore);
+        putString(buffer, fromId);
+        putString(buffer, toId);
+    }
+
+    static Intent readFrom(ByteBuffer buffer) {
+        int slot = buffer.getInt();
+        int node = buffer.getInt();
+        long amount = buffer.getLong();
+        long slotBefore = buffer.getLong();
+        long mirrorBefore = buffer.getLong();
+        String fromId = getString(buffer);
+        String toId = getString(buffer);
+        return new Intent(slot, fromId, toId, amount, node, slotBefore, mirrorBefore);
+    }
+
+    /**
+     * @return size of the intent written to a buffer
+     */
+    int size() {
+        return 2 * Integer.BYTES + 3 * Long.BYTES + 2 * Short.BYTES
+                + fromId.getBytes(StandardCharsets.UTF_8).length + toId.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,211 @@
+package com.revolut.akalikin.operation.partitioned;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the {@link Intent intents} of the cross-node transfers.
+ *
+ * Every record is [int length][int CRC32 of the payload][payload], the payload an opened intent, or the slot of
+ * a closed one. An intent is forced to disk before its debit, and the threads opening intents concurrently share
+ * a single fsync. Closing an intent isn't forced: the next intent opened is, and until then recovery finds out
+ * from the balance of the slot account whether the closed intent was completed or refunded.
+ *
+ * On startup the intact records are replayed, and the log is rewritten with only the intents still open, as it is
+ * whenever it outgrows {@link #COMPACTION_THRESHOLD}. Without a file, the log only tracks the open intents.
+ */
+final class IntentLog implements Closeable {
+
+    static final long COMPACTION_THRESHOLD = 16 * 1024 * 1024;
+
+    private static final byte OPEN = 1;
+    private static final byte CLOSE = 2;
+    private static final int HEADER = 2 * Integer.BYTES;
+
+    private final Path file;
+    private final Map<Integer, Intent> open = new HashMap<>();
+    private final Object forceLock = new Object();
+
+    private FileChannel channel;
+    private long fileSize;
+    private long written;
+    private volatile long durable;
+
+    /**
+     * Opens the log, after replaying it.
+     *
+     * @param file file of the log, created if missing, or null to keep nothing on disk
+     */
+    IntentLog(Path file) throws IOException {
+        this.file = file;
+        if (file != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            if (Files.exists(file)) {
+                replay(ByteBuffer.wrap(Files.readAllBytes(file)));
+            }
+            compact();
+        }
+    }
+
+    /**
+     * @return the intents opened and not closed yet, by slot
+     */
+    synchronized Map<Integer, Intent> getOpenIntents() {
+        return new HashMap<>(open);
+    }
+
+    /**
+     * Opens an intent, and waits until it is durable.
+     */
+    void open(Intent intent) throws IOException {
+        if (fileSize > COMPACTION_THRESHOLD) {
+            compact();
+        }
+        ByteBuffer payload = ByteBuffer.allocate(1 + intent.size());
+        payload.put(OPEN);
+        intent.writeTo(payload);
+        long position;
+        synchronized (this) {
+            open.put(intent.slot, intent);
+            position = write(payload);
+        }
+        awaitDurable(position);
+    }
+
+    /**
+     * Closes the intent of the slot, without waiting until it is durable.
+     */
+    synchronized void close(int slot) throws IOException {
+        open.remove(slot);
+        ByteBuffer payload = ByteBuffer.allocate(1 + Integer.BYTES);
+        payload.put(CLOSE).putInt(slot);
+        write(payload);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (forceLock) {
+            synchronized (this) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return position to wait for, for the record to be durable
+     */
+    private long write(ByteBuffer payload) throws IOException {
+        payload.flip();
+        ByteBuffer record = ByteBuffer.allocate(HEADER + payload.remaining());
+        record.putInt(payload.remaining()).putInt(crc(payload)).put(payload).flip();
+        if (channel != null) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+        fileSize += record.limit();
+        written += record.limit();
+        return written;
+    }
+
+    /**
+     * Forces the log up to the position, unless another thread has already forced past it.
+     */
+    private void awaitDurable(long position) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (durable >= position) {
+                return;
+            }
+            long target;
+            FileChannel toForce;
+            synchronized (this) {
+                target = written;
+                toForce = channel;
+            }
+            toForce.force(false);
+            durable = target;
+        }
+    }
+
+    /**
+     * Rewrites the log with only the open intents, replacing the file atomically.
+     */
+    private void compact() throws IOException {
+        synchronized (forceLock) {
+            synchronized (this) {
+                Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                FileChannel compacted = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                FileChannel previous = channel;
+                channel = compacted;
+                fileSize = 0;
+                try {
+                    for (Intent intent : open.values()) {
+                        ByteBuffer payload = ByteBuffer.allocate(1 + intent.size());
+                        payload.put(OPEN);
+                        intent.writeTo(payload);
+                        write(payload);
+                    }
+                    compacted.force(false);
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    compacted.close();
+                    channel = previous;
+                    throw e;
+                }
+                if (previous != null) {
+                    previous.close();
+                }
+                durable = written;
+            }
+        }
+    }
+
+    /**
+     * Replays the intact records; a torn or corrupt record, left by a crash, ends the log.
+     */
+    private void replay(ByteBuffer log) {
+        while (log.remaining() >= HEADER) {
+            int length = log.getInt();
+            int crc = log.getInt();
+            if (length < 1 || length > log.remaining()) {
+                return;
+            }
+            ByteBuffer payload = log.slice();
+            payload.limit(length);
+            if (crc(payload) != crc) {
+                return;
+            }
+            log.position(log.position() + length);
+            if (payload.get() == OPEN) {
+                Intent intent = Intent.readFrom(payload);
+                open.put(intent.slot, intent);
+            } else {
+                open.remove(payload.getInt());
+            }
+        }
+    }
+
+    /**
+     * @return CRC32 of the remaining bytes of the buffer, leaving its position unchanged
+     */
+    private static int crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+}
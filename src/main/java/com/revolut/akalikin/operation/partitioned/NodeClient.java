@@ -0,0 +1,27 @@
+package com.revolut.akalikin.operation.partitioned;
+
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.CreditConflictException;
+import com.revolut.akalikin.model.CreditRequest;
+
+import java.io.IOException;
+
+/**
+ * Requests from this node to the other nodes of the cluster.
+ */
+public interface NodeClient {
+
+    /**
+     * @return balance of the mirror of the slot of the source node on the node, see {@link CreditOperation}
+     * @throws IOException if the node can't be reached
+     */
+    public long readMirrorBalance(int node, int source, int slot) throws IOException;
+
+    /**
+     * Sends a credit to the node, see {@link CreditOperation#credit}.
+     *
+     * @throws IOException if the node can't be reached, in which case the credit may or may not have been applied
+     */
+    public void credit(int node, CreditRequest request)
+            throws IOException, AccountNotFoundException, CreditConflictException;
+}
@@ -0,0 +1,400 @@
+package com.revolut.akalikin.operation.partitioned;
+
+import com.revolut.akalikin.cluster.Cluster;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountIdMalformedException;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.AccountOnOtherNodeException;
+import com.revolut.akalikin.exception.CreditConflictException;
+import com.revolut.akalikin.exception.NodeUnavailableException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.ServiceOverloadedException;
+import com.revolut.akalikin.exception.TransferPendingException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.metrics.Counter;
+import com.revolut.akalikin.metrics.Metrics;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.CreditRequest;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.model.TransferResult;
+import com.revolut.akalikin.operation.BatchTransferOperation;
+import com.revolut.akalikin.operation.TransferEngine;
+import com.revolut.akalikin.operation.TransferMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateTransfer;
+
+/**
+ * Transfer engine of a node of a partitioned {@link Cluster}: transfers between two accounts of this node are
+ * executed by the local engine, and transfers to an account of another node in two phases, debit here, then credit
+ * there, so that no transfer holds accounts on two nodes at once.
+ *
+ * A transfer to another node takes one of the {@link #SLOTS_PROPERTY slots} of this node, each with an internal
+ * account here, and a mirror account on every other node, see {@link CreditOperation}. The transfer
+ * <ol>
+ * <li>durably opens an {@link Intent} in the {@link IntentLog}, with the balances of the slot and of its mirror,</li>
+ * <li>debits the sender into the slot account, after checking its funds,</li>
+ * <li>asks the other node to credit the receiver from the mirror, if the mirror is still at its balance,</li>
+ * <li>closes the intent, and frees the slot.</li>
+ * </ol>
+ * If the receiver doesn't exist, the slot refunds the sender. If the other node can't be reached, or disagrees
+ * on the balance of the mirror, the transfer is left pending with its slot, and its credit is sent again every
+ * {@link #RETRY_INTERVAL_MILLIS} until it's confirmed; the caller gets a {@link TransferPendingException}. Since
+ * a credit is applied only if the mirror is at the balance before it, a credit sent again is never applied twice.
+ * A transfer whose credit or refund fails otherwise, which sending it again wouldn't fix, is abandoned: it keeps its
+ * slot and its open intent until the next start decides it, and is counted, as are the intents that fail to close.
+ * After a crash, an open intent whose slot holds its amount is pending, and one whose slot doesn't was never
+ * debited, or was refunded.
+ *
+ * The slot accounts and the mirrors are never settled, their balances sum up to zero across the cluster.
+ *
+ * A transfer finding no free slot is rejected at once rather than queued, so that no more request threads than
+ * there are slots wait on other nodes, and the others are left to serve the credits of the other nodes: with every
+ * thread of two nodes waiting for the other, neither could serve a credit until the requests timed out.
+ */
+public class PartitionedTransferOperation implements TransferEngine, Closeable {
+
+    /**
+     * System property with the number of transfers to other nodes in flight at once.
+     */
+    public static final String SLOTS_PROPERTY = "cluster.slots";
+
+    public static final int DEFAULT_SLOTS = 64;
+
+    static final long RETRY_INTERVAL_MILLIS = 1000;
+
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    private static final Counter LOCAL = Metrics.counter("cluster.transfers", "kind", "local");
+    private static final Counter REMOTE = Metrics.counter("cluster.transfers", "kind", "remote");
+    private static final Counter PENDING = Metrics.counter("cluster.transfers", "kind", "pending");
+    private static final Counter ABANDONED = Metrics.counter("cluster.transfers", "kind", "abandoned");
+    private static final Counter CLOSE_FAILURES = Metrics.counter("cluster.intents.close_failures");
+
+    private final TransferEngine localEngine;
+    private final Store accountStore;
+    private final Cluster cluster;
+    private final NodeClient nodes;
+    private final IntentLog intentLog;
+    private final Account[] slotAccounts;
+    private final BlockingQueue<Integer> freeSlots;
+    // By slot, then node; only read and written by the holder of the slot
+    private final long[][] mirrorBalances;
+    private final Map<Integer, Intent> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService retrier;
+
+    /**
+     * Constructor, recovering the intents left open by the previous run.
+     *
+     * @param localEngine  engine of the transfers between accounts of this node
+     * @param accountStore store of the accounts of this node
+     * @param cluster      nodes of the cluster
+     * @param nodes        client of the other nodes
+     * @param intentLog    file of the intent log, or null to keep the intents in memory only
+     * @param slots        number of transfers to other nodes in flight at once
+     * @throws IOException if the intent log can't be opened, or doesn't match the slot accounts
+     */
+    public PartitionedTransferOperation(TransferEngine localEngine, Store accountStore, Cluster cluster,
+            NodeClient nodes, Path intentLog, int slots) throws IOException {
+        this.localEngine = localEngine;
+        this.accountStore = accountStore;
+        this.cluster = cluster;
+        this.nodes = nodes;
+        this.intentLog = new IntentLog(intentLog);
+        this.slotAccounts = new Account[slots];
+        this.freeSlots = new ArrayBlockingQueue<>(slots);
+        this.mirrorBalances = new long[slots][cluster.size()];
+        for (long[] balances : mirrorBalances) {
+            Arrays.fill(balances, UNKNOWN);
+        }
+        for (int slot = 0; slot < slots; slot++) {
+            slotAccounts[slot] = createInternalAccount(accountStore, slotId(slot));
+        }
+        recover(this.intentLog.getOpenIntents());
+        this.retrier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-retrier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        retrier.scheduleWithFixedDelay(this::retryPending, RETRY_INTERVAL_MILLIS, RETRY_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return ID of the account holding the money in flight of the slot
+     */
+    static String slotId(int slot) {
+        return Cluster.INTERNAL_PREFIX + "out-" + slot;
+    }
+
+    /**
+     * Creates an internal account with no funds, unless it already exists.
+     *
+     * @return the stored account
+     */
+    static Account createInternalAccount(Store accountStore, String accountId) {
+        try {
+            accountStore.storeAccount(new Account(accountId, 0L));
+        } catch (AccountAlreadyExistsException e) {
+            // Recovered, or created concurrently
+        }
+        try {
+            return accountStore.getAccount(accountId);
+        } catch (AccountNotFoundException e) {
+            throw new IllegalStateException("Account " + accountId + " not found after it was created", e);
+        }
+    }
+
+    @Override
+    public void executeMoneyTransfer(String fromId, String toId, Long amount) throws PermanentException, TransientException {
+        validateTransfer(fromId, toId, amount);
+        if (Cluster.isInternal(fromId) || Cluster.isInternal(toId)) {
+            throw new AccountIdMalformedException(Cluster.isInternal(fromId) ? fromId : toId);
+        }
+        if (!cluster.isLocal(fromId)) {
+            throw new AccountOnOtherNodeException(fromId, cluster.getNode(cluster.ownerOf(fromId)));
+        }
+        int node = cluster.ownerOf(toId);
+        if (node == cluster.getSelf()) {
+            LOCAL.increment();
+            localEngine.executeMoneyTransfer(fromId, toId, amount);
+            return;
+        }
+        REMOTE.increment();
+        long start = System.nanoTime();
+        try {
+            transferToNode(accountStore.getAccount(fromId), toId, amount, node);
+        } catch (AccountNotFoundException e) {
+            TransferMetrics.ACCOUNT_NOT_FOUND.increment();
+            throw e;
+        } finally {
+            TransferMetrics.LATENCY.recordSince(start);
+        }
+    }
+
+    /**
+     * Executes the batch with the local engine, the accounts of a batch all being on this node.
+     */
+    @Override
+    public List<TransferResult> executeMoneyTransfers(BatchTransferOperation batch, List<TransferRequest> transfers)
+            throws PermanentException, TransientException {
+        return localEngine.executeMoneyTransfers(batch, transfers);
+    }
+
+    /**
+     * @return number of transfers debited here, whose credit isn't confirmed yet
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Sends the credits of the pending transfers again, and abandons those that fail for another reason.
+     */
+    synchronized void retryPending() {
+        for (Intent intent : pending.values()) {
+            try {
+                complete(intent);
+            } catch (AccountNotFoundException e) {
+                // Refunded
+            } catch (IOException | CreditConflictException e) {
+                continue;
+            } catch (RuntimeException e) {
+                pending.remove(intent.slot);
+                ABANDONED.increment();
+                continue;
+            }
+            pending.remove(intent.slot);
+            freeSlots.add(intent.slot);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        retrier.shutdownNow();
+        try {
+            retrier.awaitTermination(RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        intentLog.close();
+    }
+
+    private void transferToNode(Account from, String toId, long amount, int node)
+            throws PermanentException, TransientException {
+        int slot = acquireSlot();
+        boolean release = true;
+        try {
+            Account slotAccount = slotAccounts[slot];
+            Intent intent = new Intent(slot, from.getAccountId(), toId, amount, node, slotAccount.getBalance(),
+                    mirrorBalance(slot, node));
+            open(intent);
+            long balance = debit(from, slotAccount, amount);
+            if (balance < amount) {
+                closeIntent(slot);
+                TransferMetrics.INSUFFICIENT_FUNDS.increment();
+                throw new AccountInsufficientFundsException(from.getAccountId(), balance, amount);
+            }
+            try {
+                complete(intent);
+            } catch (IOException | CreditConflictException e) {
+                PENDING.increment();
+                pending.put(slot, intent);
+                release = false;
+                throw new TransferPendingException(from.getAccountId(), toId, amount, e);
+            } catch (RuntimeException e) {
+                ABANDONED.increment();
+                release = false;
+                throw e;
+            }
+        } finally {
+            if (release) {
+                freeSlots.add(slot);
+            }
+        }
+    }
+
+    private int acquireSlot() throws ServiceOverloadedException {
+        Integer slot = freeSlots.poll();
+        if (slot == null) {
+            throw new ServiceOverloadedException(slotAccounts.length);
+        }
+        return slot;
+    }
+
+    /**
+     * @return balance of the mirror of the slot on the node, read from the node the first time
+     */
+    private long mirrorBalance(int slot, int node) throws NodeUnavailableException {
+        if (mirrorBalances[slot][node] == UNKNOWN) {
+            try {
+                mirrorBalances[slot][node] = nodes.readMirrorBalance(node, cluster.getSelf(), slot);
+            } catch (IOException e) {
+                throw new NodeUnavailableException(cluster.getNode(node), e);
+            }
+        }
+        return mirrorBalances[slot][node];
+    }
+
+    /**
+     * @throws UncheckedIOException if the intent log can't be written, before anything was changed
+     */
+    private void open(Intent intent) {
+        try {
+            intentLog.open(intent);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Intent log is not writable", e);
+        }
+    }
+
+    /**
+     * Debits the account into the slot account, if its balance is sufficient.
+     *
+     * @return balance of the account before the debit, which wasn't made if it's less than the amount
+     */
+    private long debit(Account from, Account slotAccount, long amount) {
+        while (true) {
+            long fromVersion = from.getVersion();
+            long slotVersion = slotAccount.getVersion();
+            long balance = from.getBalance();
+            if ((fromVersion & 1) == 0 && from.getVersion() == fromVersion) {
+                if (balance < amount) {
+                    return balance;
+                }
+                if (accountStore.storeTransfer(from, fromVersion, slotAccount, slotVersion, amount)) {
+                    return balance;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Credits the debited transfer on the other node, or refunds it if the receiver doesn't exist there,
+     * and closes its intent.
+     *
+     * @throws AccountNotFoundException if the transfer was refunded
+     * @throws IOException              if the other node can't be reached, the transfer is still pending
+     * @throws CreditConflictException  if the other node disagrees on the mirror, the transfer is still pending
+     */
+    private void complete(Intent intent) throws AccountNotFoundException, IOException, CreditConflictException {
+        try {
+            nodes.credit(intent.node, new CreditRequest(cluster.getSelf(), intent.slot, intent.mirrorBefore,
+                    intent.toId, intent.amount));
+        } catch (AccountNotFoundException e) {
+            refund(intent);
+            mirrorBalances[intent.slot][intent.node] = intent.mirrorBefore;
+            closeIntent(intent.slot);
+            throw e;
+        }
+        mirrorBalances[intent.slot][intent.node] = intent.mirrorBefore - intent.amount;
+        closeIntent(intent.slot);
+        TransferMetrics.COMPLETED.increment();
+    }
+
+    private void refund(Intent intent) {
+        Account slotAccount = slotAccounts[intent.slot];
+        Account from;
+        try {
+            from = accountStore.getAccount(intent.fromId);
+        } catch (AccountNotFoundException e) {
+            throw new IllegalStateException("Debited account " + intent.fromId + " not found", e);
+        }
+        // Nothing else changes the slot account, so only the debited account can conflict
+        while (!accountStore.storeTransfer(slotAccount, slotAccount.getVersion(), from, from.getVersion(),
+                intent.amount)) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Closes the intent; if that fails the intent stays open, and is decided on recovery.
+     */
+    private void closeIntent(int slot) {
+        try {
+            intentLog.close(slot);
+        } catch (IOException e) {
+            CLOSE_FAILURES.increment();
+        }
+    }
+
+    /**
+     * Decides the outcome of the intents left open, from the balances of their slot accounts.
+     */
+    private void recover(Map<Integer, Intent> openIntents) throws IOException {
+        for (int slot = 0; slot < slotAccounts.length; slot++) {
+            Intent intent = openIntents.remove(slot);
+            long balance = slotAccounts[slot].getBalance();
+            if (intent == null) {
+                freeSlots.add(slot);
+            } else if (balance == intent.slotBefore + intent.amount) {
+                pending.put(slot, intent);
+            } else if (balance == intent.slotBefore) {
+                intentLog.close(slot);
+                freeSlots.add(slot);
+            } else {
+                throw new IOException("Balance " + balance + " of " + slotId(slot) + " doesn't match its open intent,"
+                        + " expected " + intent.slotBefore + " or " + (intent.slotBefore + intent.amount));
+            }
+        }
+        if (!openIntents.isEmpty()) {
+            throw new IOException("Intents are open in slots " + openIntents.keySet()
+                    + ", only " + slotAccounts.length + " slots are configured");
+        }
+    }
+}
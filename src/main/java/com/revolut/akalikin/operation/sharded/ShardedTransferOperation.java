@@ -0,0 +1,169 @@
+package com.revolut.akalikin.operation.sharded;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.BatchNotSupportedException;
+import com.revolut.akalikin.exception.EngineStoppedException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.model.TransferResult;
+import com.revolut.akalikin.operation.BatchTransferOperation;
+import com.revolut.akalikin.operation.TransferEngine;
+import com.revolut.akalikin.operation.TransferMetrics;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.revolut.akalikin.operation.validation.ValidationUtils.validateTransfer;
+
+/**
+ * Business logic for executing money transfers on single-writer shards.
+ * Account IDs are hashed onto a fixed number of shard threads, and only the owning shard ever changes the balance
+ * of an account, so the transfer path takes no locks at all. A transfer is debited by the shard of the source account
+ * and then handed off to the shard of the target account for the credit; the caller is released after the credit.
+ *
+ * The store resolves the accounts and persists the completed transfers. No other write path may change the balances
+ * while this engine is in use: the launcher doesn't combine it with a partitioned cluster, whose transfers between
+ * the nodes debit and credit the accounts directly, nor with replication, and it rejects the batches.
+ * The debit still checks and deducts the funds atomically, so that a change of the account by another thread,
+ * such as the store reverting a transfer it failed to persist, can't make it overdraw the account. A transfer is only
+ * persisted after its credit, which may be spent by then, so the revert of a failed transfer may still overdraw its
+ * target, as with the optimistic engine, until the transfers that spent the credit fail to persist in turn.
+ *
+ * A caller waits at most {@link #AWAIT_TIMEOUT_SECONDS} for its shards, after which the transfer may still be applied,
+ * but won't be persisted. Once the engine is closed, the transfers not debited yet fail, as do the new ones.
+ */
+@Singleton
+public class ShardedTransferOperation implements TransferEngine, AutoCloseable {
+
+    /**
+     * System property with the number of shards, defaults to the number of available processors.
+     */
+    public static final String SHARDS_PROPERTY = "transfer.shards";
+
+    static final long AWAIT_TIMEOUT_SECONDS = 30;
+
+    private static final int RING_SIZE = 8192;
+
+    private final Store accountStore;
+    private final TransferShard[] shards;
+
+    @Inject
+    public ShardedTransferOperation(Store accountStore) {
+        this(accountStore, Integer.getInteger(SHARDS_PROPERTY, Runtime.getRuntime().availableProcessors()), RING_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param accountStore store to resolve the accounts from
+     * @param shardCount   number of shard threads
+     * @param ringSize     capacity of each shard's rings
+     */
+    public ShardedTransferOperation(Store accountStore, int shardCount, int ringSize) {
+        this.accountStore = accountStore;
+        this.shards = new TransferShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new TransferShard(ringSize);
+        }
+        for (int i = 0; i < shardCount; i++) {
+            shards[i].start(this, "transfer-shard-" + i);
+        }
+    }
+
+    @Override
+    public void executeMoneyTransfer(String fromId, String toId, Long amount) throws PermanentException, TransientException {
+        validateTransfer(fromId, toId, amount);
+        long start = System.nanoTime();
+        try {
+            Account from = accountStore.getAccount(fromId);
+            Account to = accountStore.getAccount(toId);
+
+            CompletableFuture<Void> completion = new CompletableFuture<>();
+            TransferShard shard = shardFor(fromId);
+            while (!shard.tryPublishRequest(from, to, amount, completion)) {
+                Thread.yield();
+            }
+            await(completion);
+            accountStore.storeTransfer(from, to, amount);
+            TransferMetrics.COMPLETED.increment();
+        } catch (AccountNotFoundException e) {
+            TransferMetrics.ACCOUNT_NOT_FOUND.increment();
+            throw e;
+        } catch (AccountInsufficientFundsException e) {
+            TransferMetrics.INSUFFICIENT_FUNDS.increment();
+            throw e;
+        } finally {
+            TransferMetrics.LATENCY.recordSince(start);
+        }
+    }
+
+    /**
+     * Rejects the batches, which would change the balances outside of the shards.
+     */
+    @Override
+    public List<TransferResult> executeMoneyTransfers(BatchTransferOperation batch, List<TransferRequest> transfers)
+            throws BatchNotSupportedException {
+        throw new BatchNotSupportedException("sharded");
+    }
+
+    /**
+     * Stops the shards, failing the transfers they haven't debited yet, and applying the credits of the others.
+     */
+    @Override
+    public void close() {
+        for (TransferShard shard : shards) {
+            shard.stopAccepting();
+        }
+        // Once no shard debits anymore, no credit is handed off anymore either
+        for (TransferShard shard : shards) {
+            while (!shard.isRejecting()) {
+                Thread.yield();
+            }
+        }
+        for (TransferShard shard : shards) {
+            shard.stop();
+        }
+        try {
+            for (TransferShard shard : shards) {
+                shard.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    TransferShard shardFor(String accountId) {
+        int hash = accountId.hashCode();
+        return shards[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private static void await(CompletableFuture<Void> completion) throws PermanentException, TransientException {
+        try {
+            completion.get(AWAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new TransientException("Transfer not applied by its shards within " + AWAIT_TIMEOUT_SECONDS
+                    + " seconds, it may still be applied", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransientException("Interrupted while waiting for the transfer, it may still be applied", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof PermanentException) {
+                throw (PermanentException) cause;
+            }
+            if (cause instanceof EngineStoppedException) {
+                throw (EngineStoppedException) cause;
+            }
+            throw new TransientException("Transfer failed on its shard", cause);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.revolut.akalikin.operation.sharded;
+
+import com.revolut.akalikin.model.Account;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded multi-producer, single-consumer ring of preallocated transfer slots, in the style of the Disruptor.
+ * Producers claim a sequence with a compare-and-set, fill the slot in place and publish it by writing its sequence;
+ * the single consumer reads the slots in sequence order and frees them by advancing its cursor.
+ * Nothing is allocated per transfer, and neither side ever takes a lock.
+ */
+class TransferRingBuffer {
+
+    /**
+     * Callback for the consumer, invoked for every published transfer in order.
+     */
+    interface Handler {
+
+        void onTransfer(Account from, Account to, long amount, CompletableFuture<Void> completion);
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity number of slots, rounded up to the next power of two
+     */
+    TransferRingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i - size);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Publishes a transfer if there is a free slot.
+     *
+     * @return false if the ring is full
+     */
+    boolean tryPublish(Account from, Account to, long amount, CompletableFuture<Void> completion) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= slots.length) {
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = slots[(int) sequence & mask];
+        slot.from = from;
+        slot.to = to;
+        slot.amount = amount;
+        slot.completion = completion;
+        slot.sequence = sequence;
+        return true;
+    }
+
+    /**
+     * Consumes up to the limit of published transfers. Must only be called by the consumer thread.
+     *
+     * @return number of transfers consumed
+     */
+    int drain(Handler handler, int limit) {
+        long next = consumed;
+        int count = 0;
+        while (count < limit) {
+            Slot slot = slots[(int) next & mask];
+            if (slot.sequence != next) {
+                break;
+            }
+            Account from = slot.from;
+            Account to = slot.to;
+            long amount = slot.amount;
+            CompletableFuture<Void> completion = slot.completion;
+            slot.from = null;
+            slot.to = null;
+            slot.completion = null;
+            consumed = ++next;
+            count++;
+            handler.onTransfer(from, to, amount, completion);
+        }
+        return count;
+    }
+
+    boolean isEmpty() {
+        return slots[(int) consumed & mask].sequence != consumed;
+    }
+
+    private static final class Slot {
+
+        private volatile long sequence;
+        private Account from;
+        private Account to;
+        private long amount;
+        private CompletableFuture<Void> completion;
+
+        private Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.revolut.akalikin.operation.sharded;
+
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.EngineStoppedException;
+import com.revolut.akalikin.model.Account;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single writer for the balances of the accounts hashed onto it.
+ *
+ * Transfers arrive on the request ring, are debited here and then handed off to the shard of the target account
+ * through its credit ring. Credits never publish anything further, and a shard keeps applying its own credits while
+ * waiting for space on another shard's credit ring, so two shards handing off to each other can't deadlock.
+ *
+ * A shard is stopped in two steps, see {@link ShardedTransferOperation#close()}: first it stops debiting, failing
+ * the requests instead, while still applying the credits of the transfers already debited; then, once no shard
+ * debits anymore, it applies the credits left, fails the requests left, and ends.
+ */
+class TransferShard implements Runnable {
+
+    private static final int BATCH_SIZE = 256;
+    private static final int SPINS_BEFORE_PARK = 1000;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final TransferRingBuffer requests;
+    private final TransferRingBuffer credits;
+    private final TransferRingBuffer.Handler debitHandler = this::debit;
+    private final TransferRingBuffer.Handler creditHandler = this::credit;
+    private final TransferRingBuffer.Handler rejectHandler = this::reject;
+
+    private ShardedTransferOperation engine;
+    private volatile Thread thread;
+    private volatile boolean sleeping;
+    private volatile boolean accepting = true;
+    private volatile boolean rejecting;
+    private volatile boolean running = true;
+
+    TransferShard(int ringSize) {
+        this.requests = new TransferRingBuffer(ringSize);
+        this.credits = new TransferRingBuffer(ringSize);
+    }
+
+    void start(ShardedTransferOperation engine, String name) {
+        this.engine = engine;
+        Thread shardThread = new Thread(this, name);
+        shardThread.setDaemon(true);
+        this.thread = shardThread;
+        shardThread.start();
+    }
+
+    /**
+     * Stops debiting: the requests still queued fail, and publishing new ones throws.
+     */
+    void stopAccepting() {
+        accepting = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return true once the shard has finished its last debit, after {@link #stopAccepting()}
+     */
+    boolean isRejecting() {
+        return rejecting;
+    }
+
+    /**
+     * Ends the shard once it has applied the credits and failed the requests left, to be called once no shard
+     * debits anymore.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    void join() throws InterruptedException {
+        thread.join();
+    }
+
+    /**
+     * @return false if the ring is full
+     * @throws EngineStoppedException if the shard no longer debits
+     */
+    boolean tryPublishRequest(Account from, Account to, long amount, CompletableFuture<Void> completion)
+            throws EngineStoppedException {
+        if (!accepting) {
+            throw new EngineStoppedException("sharded");
+        }
+        if (!requests.tryPublish(from, to, amount, completion)) {
+            return false;
+        }
+        wakeUp();
+        return true;
+    }
+
+    @Override
+    public void run() {
+        int idle = 0;
+        while (running) {
+            if (!accepting) {
+                // The debits of the previous drains are over, and their credits published
+                rejecting = true;
+            }
+            int work = credits.drain(creditHandler, BATCH_SIZE)
+                    + requests.drain(rejecting ? rejectHandler : debitHandler, BATCH_SIZE);
+            if (work > 0) {
+                idle = 0;
+            } else if (++idle > SPINS_BEFORE_PARK) {
+                sleeping = true;
+                if (credits.isEmpty() && requests.isEmpty()) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+        while (credits.drain(creditHandler, BATCH_SIZE) + requests.drain(rejectHandler, BATCH_SIZE) > 0) {
+            // Draining what was published before the stop
+        }
+    }
+
+    private void debit(Account from, Account to, long amount, CompletableFuture<Void> completion) {
+        // Atomic, as the store may still revert a transfer it failed to persist from another thread
+        if (!from.tryDeductFunds(amount)) {
+            completion.completeExceptionally(
+                    new AccountInsufficientFundsException(from.getAccountId(), from.getBalance(), amount));
+            return;
+        }
+
+        TransferShard target = engine.shardFor(to.getAccountId());
+        if (target == this) {
+            credit(from, to, amount, completion);
+            return;
+        }
+        while (!target.credits.tryPublish(from, to, amount, completion)) {
+            if (credits.drain(creditHandler, BATCH_SIZE) == 0) {
+                Thread.yield();
+            }
+        }
+        target.wakeUp();
+    }
+
+    private void credit(Account from, Account to, long amount, CompletableFuture<Void> completion) {
+        to.addFunds(amount);
+        completion.complete(null);
+    }
+
+    private void reject(Account from, Account to, long amount, CompletableFuture<Void> completion) {
+        completion.completeExceptionally(new EngineStoppedException("sharded"));
+    }
+
+    private void wakeUp() {
+        if (sleeping) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
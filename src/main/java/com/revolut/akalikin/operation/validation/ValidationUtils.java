@@ -5,6 +5,7 @@ import com.revolut.akalikin.exception.AccountIdMalformedException;
 import com.revolut.akalikin.exception.InvalidInitialBalanceException;
 import com.revolut.akalikin.exception.InvalidRequestException;
 import com.revolut.akalikin.exception.InvalidTransferAmountException;
+import com.revolut.akalikin.exception.TransferRequestForTheSameAccountException;
 
 public class ValidationUtils {
 
@@ -25,4 +26,13 @@ public class ValidationUtils {
             throw new InvalidInitialBalanceException(balance);
         }
     }
+
+    public static void validateTransfer(String fromId, String toId, Long amount) throws InvalidRequestException {
+        if (fromId != null && fromId.equals(toId)) {
+            throw new TransferRequestForTheSameAccountException(fromId);
+        }
+        validateId(fromId);
+        validateId(toId);
+        validateAmount(amount);
+    }
 }
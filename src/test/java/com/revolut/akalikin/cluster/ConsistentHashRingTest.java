@@ -0,0 +1,65 @@
+package com.revolut.akalikin.cluster;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 100_000;
+
+    @Test
+    public void keysAreSpreadEvenlyOverTheNodes() {
+        // Given
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a:1", "b:1", "c:1", "d:1"));
+        int[] keys = new int[4];
+
+        // When
+        for (int i = 0; i < KEYS; i++) {
+            keys[ring.nodeFor("account-" + i)]++;
+        }
+
+        // Then - within 25% of an even share, with 128 points per node
+        for (int count : keys) {
+            assertThat(Math.abs(count - KEYS / 4), lessThan(KEYS / 16));
+        }
+    }
+
+    @Test
+    public void addingANodeOnlyMovesKeysToIt() {
+        // Given
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a:1", "b:1", "c:1"));
+        ConsistentHashRing grown = new ConsistentHashRing(Arrays.asList("a:1", "b:1", "c:1", "d:1"));
+        int moved = 0;
+
+        // When
+        for (int i = 0; i < KEYS; i++) {
+            int before = ring.nodeFor("account-" + i);
+            int after = grown.nodeFor("account-" + i);
+            if (before != after) {
+                // Then
+                assertThat(after, equalTo(3));
+                moved++;
+            }
+        }
+
+        // Then - about a quarter of the keys
+        assertThat(Math.abs(moved - KEYS / 4), lessThan(KEYS / 16));
+    }
+
+    @Test
+    public void ownersDontDependOnTheOrderOfTheNodes() {
+        // Given
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a:1", "b:1"));
+        ConsistentHashRing reversed = new ConsistentHashRing(Arrays.asList("b:1", "a:1"));
+
+        // Then
+        for (int i = 0; i < 1000; i++) {
+            assertThat(reversed.nodeFor("account-" + i), equalTo(1 - ring.nodeFor("account-" + i)));
+        }
+    }
+}
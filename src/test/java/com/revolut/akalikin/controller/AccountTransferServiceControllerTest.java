@@ -1,14 +1,34 @@
 package com.revolut.akalikin.controller;
 
+import com.revolut.akalikin.cluster.Cluster;
 import com.revolut.akalikin.data.AccountLockHolder;
 import com.revolut.akalikin.data.InMemoryStore;
 import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.data.history.HistoryStore;
+import com.revolut.akalikin.data.history.TransactionHistory;
 import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountBusyException;
 import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountLockNotAcquiredException;
 import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.AccountOnOtherNodeException;
+import com.revolut.akalikin.exception.BatchNotSupportedException;
+import com.revolut.akalikin.exception.IdempotencyKeyReusedException;
+import com.revolut.akalikin.exception.InvalidCursorException;
 import com.revolut.akalikin.exception.InvalidTransferAmountException;
+import com.revolut.akalikin.exception.ServiceOverloadedException;
+import com.revolut.akalikin.exception.SnapshotNotPagedException;
+import com.revolut.akalikin.exception.TransferPendingException;
 import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.AccountPage;
+import com.revolut.akalikin.model.ImportSummary;
+import com.revolut.akalikin.model.TransactionPage;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.model.TransferResult;
+import com.revolut.akalikin.operation.BatchTransferOperation;
+import com.revolut.akalikin.operation.ImportOperation;
 import com.revolut.akalikin.operation.ReadOperation;
+import com.revolut.akalikin.operation.TransferEngine;
 import com.revolut.akalikin.operation.TransferOperation;
 import com.revolut.akalikin.operation.WriteOperation;
 import org.junit.Before;
@@ -17,12 +37,29 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class AccountTransferServiceControllerTest {
 
@@ -32,26 +69,32 @@ public class AccountTransferServiceControllerTest {
     private ReadOperation readOperation;
     private WriteOperation writeOperation;
     private TransferOperation transferOperation;
+    private BatchTransferOperation batchTransferOperation;
+    private IdempotencyCache idempotencyCache;
     private Store store;
+    private Cluster cluster;
 
     @Before
     public void before() {
         store = new InMemoryStore();
+        cluster = Cluster.single(URI.create("http://localhost:8080/"));
         AccountLockHolder lockHolder = new AccountLockHolder();
-        readOperation = new ReadOperation(store);
+        readOperation = new ReadOperation(store, new TransactionHistory(), cluster);
         writeOperation = new WriteOperation(store, lockHolder);
         transferOperation = new TransferOperation(store, lockHolder);
+        batchTransferOperation = new BatchTransferOperation(store, lockHolder);
+        idempotencyCache = new IdempotencyCache(100, 1, TimeUnit.HOURS);
     }
 
     @Test
     public void readOperationsReturnExpectedAccount() throws AccountAlreadyExistsException {
         //Given
-        AccountTransferServiceController controller = new AccountTransferServiceController(readOperation, transferOperation, writeOperation);
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
         Account foo = new Account("foo", 1337L);
         store.storeAccount(foo);
 
         //When
-        Response accountsResponse = controller.getAccounts();
+        Response accountsResponse = controller.getAccounts(null, null, false);
         Response accountResponse = controller.getAccount("foo");
 
         //Then
@@ -68,10 +111,10 @@ public class AccountTransferServiceControllerTest {
     @Test
     public void readOperationsWithNoAccounts() {
         //Given
-        AccountTransferServiceController controller = new AccountTransferServiceController(readOperation, transferOperation, writeOperation);
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
 
         //When
-        Response accountsResponse = controller.getAccounts();
+        Response accountsResponse = controller.getAccounts(null, null, false);
         Response accountResponse = controller.getAccount("foo");
 
         //Then
@@ -87,7 +130,7 @@ public class AccountTransferServiceControllerTest {
     @Test
     public void writeOperationStoresTheAccount() throws AccountNotFoundException {
         //Given
-        AccountTransferServiceController controller = new AccountTransferServiceController(readOperation, transferOperation, writeOperation);
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
 
         //When
         Response writeResponse = controller.createAccount("foo", 150L);
@@ -103,7 +146,7 @@ public class AccountTransferServiceControllerTest {
     @Test
     public void writeOperationConflictOnRepeatedWrite() throws AccountNotFoundException {
         //Given
-        AccountTransferServiceController controller = new AccountTransferServiceController(readOperation, transferOperation, writeOperation);
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
 
         //When
         Response firstResponse = controller.createAccount("foo", 150L);
@@ -128,14 +171,14 @@ public class AccountTransferServiceControllerTest {
     @Test
     public void transferOperationMovesMoneyCorrectly() throws AccountNotFoundException, AccountAlreadyExistsException {
         //Given
-        AccountTransferServiceController controller = new AccountTransferServiceController(readOperation, transferOperation, writeOperation);
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
         Account from = new Account("from", 1000L);
         Account to = new Account("to", 1000L);
         store.storeAccount(from);
         store.storeAccount(to);
 
         //When
-        Response transferResponse = controller.transfer("from", "to", 500L);
+        Response transferResponse = controller.transfer("from", "to", null, 500L);
 
         //Then
         assertThat(transferResponse.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
@@ -146,14 +189,14 @@ public class AccountTransferServiceControllerTest {
     @Test
     public void transferOperationInsufficientFunds() throws AccountNotFoundException, AccountAlreadyExistsException {
         //Given
-        AccountTransferServiceController controller = new AccountTransferServiceController(readOperation, transferOperation, writeOperation);
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
         Account from = new Account("from", 0L);
         Account to = new Account("to", 1000L);
         store.storeAccount(from);
         store.storeAccount(to);
 
         //When
-        Response transferResponse = controller.transfer("from", "to", 500L);
+        Response transferResponse = controller.transfer("from", "to", null, 500L);
 
         //Then
         assertThat(transferResponse.getStatus(), equalTo(Response.Status.PRECONDITION_FAILED.getStatusCode()));
@@ -166,14 +209,14 @@ public class AccountTransferServiceControllerTest {
     @Test
     public void transferOperationWrongAmount() throws AccountNotFoundException, AccountAlreadyExistsException {
         //Given
-        AccountTransferServiceController controller = new AccountTransferServiceController(readOperation, transferOperation, writeOperation);
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
         Account from = new Account("from", 0L);
         Account to = new Account("to", 1000L);
         store.storeAccount(from);
         store.storeAccount(to);
 
         //When
-        Response transferResponse = controller.transfer("from", "to", -1L);
+        Response transferResponse = controller.transfer("from", "to", null, -1L);
 
         //Then
         assertThat(transferResponse.getStatus(), equalTo(Response.Status.BAD_REQUEST.getStatusCode()));
@@ -183,4 +226,431 @@ public class AccountTransferServiceControllerTest {
         assertThat(store.getAccount("to").getBalance(), equalTo(1000L));
     }
 
+    @Test
+    public void retriedTransferWithIdempotencyKeyMovesMoneyOnce() throws AccountNotFoundException, AccountAlreadyExistsException {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+        store.storeAccount(new Account("from", 1000L));
+        store.storeAccount(new Account("to", 1000L));
+
+        //When
+        Response transferResponse = controller.transfer("from", "to", "key", 500L);
+        Response retryResponse = controller.transfer("from", "to", "key", 500L);
+
+        //Then
+        assertThat(transferResponse.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        assertThat(retryResponse.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        assertThat(store.getAccount("from").getBalance(), equalTo(500L));
+        assertThat(store.getAccount("to").getBalance(), equalTo(1500L));
+    }
+
+    @Test
+    public void retriedTransferWithIdempotencyKeyGetsTheOriginalFailure() throws AccountNotFoundException, AccountAlreadyExistsException {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+        store.storeAccount(new Account("from", 0L));
+        store.storeAccount(new Account("to", 1000L));
+        Response transferResponse = controller.transfer("from", "to", "key", 500L);
+        store.getAccount("from").addFunds(1000L);
+
+        //When
+        Response retryResponse = controller.transfer("from", "to", "key", 500L);
+
+        //Then
+        assertThat(retryResponse.getStatus(), equalTo(Response.Status.PRECONDITION_FAILED.getStatusCode()));
+        assertThat(retryResponse.getEntity(), equalTo(transferResponse.getEntity()));
+        assertThat(store.getAccount("from").getBalance(), equalTo(1000L));
+    }
+
+    @Test
+    public void idempotencyKeyReusedForDifferentTransfer() throws AccountNotFoundException, AccountAlreadyExistsException {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+        store.storeAccount(new Account("from", 1000L));
+        store.storeAccount(new Account("to", 1000L));
+        controller.transfer("from", "to", "key", 500L);
+
+        //When
+        Response transferResponse = controller.transfer("from", "to", "key", 400L);
+
+        //Then
+        assertThat(transferResponse.getStatus(), equalTo(Response.Status.BAD_REQUEST.getStatusCode()));
+        assertThat((String) transferResponse.getEntity(), containsString(IdempotencyKeyReusedException.class.getCanonicalName()));
+        assertThat(store.getAccount("from").getBalance(), equalTo(500L));
+    }
+
+    @Test
+    public void transferWithIdempotencyKeyIsExecutedAgainAfterTransientFailure() throws Throwable {
+        //Given
+        TransferEngine transferEngine = mock(TransferEngine.class);
+        doThrow(new AccountLockNotAcquiredException("from")).doNothing()
+                .when(transferEngine).executeMoneyTransfer("from", "to", 500L);
+        AccountTransferServiceController controller = controller(readOperation, transferEngine);
+
+        //When
+        Response transferResponse = controller.transfer("from", "to", "key", 500L);
+        Response retryResponse = controller.transfer("from", "to", "key", 500L);
+
+        //Then
+        assertThat(transferResponse.getStatus(), equalTo(Response.Status.SERVICE_UNAVAILABLE.getStatusCode()));
+        assertThat(retryResponse.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        verify(transferEngine, times(2)).executeMoneyTransfer("from", "to", 500L);
+    }
+
+    @Test
+    public void transferWithIdempotencyKeyIsNotExecutedAgainAfterServerError() throws Throwable {
+        //Given
+        TransferEngine transferEngine = mock(TransferEngine.class);
+        doThrow(new IllegalStateException("Journal failed")).doNothing()
+                .when(transferEngine).executeMoneyTransfer("from", "to", 500L);
+        AccountTransferServiceController controller = controller(readOperation, transferEngine);
+
+        //When
+        Response transferResponse = controller.transfer("from", "to", "key", 500L);
+        Response retryResponse = controller.transfer("from", "to", "key", 500L);
+
+        //Then
+        assertThat(transferResponse.getStatus(), equalTo(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode()));
+        assertThat(transferResponse.getMetadata().getFirst(AccountTransferServiceController.OUTCOME), equalTo((Object) "unknown"));
+        assertThat(retryResponse.getStatus(), equalTo(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode()));
+        assertThat(retryResponse.getMetadata().getFirst(AccountTransferServiceController.OUTCOME), equalTo((Object) "unknown"));
+        verify(transferEngine, times(1)).executeMoneyTransfer("from", "to", 500L);
+    }
+
+    @Test
+    public void transferBatchReturnsResultPerTransfer() throws AccountNotFoundException, AccountAlreadyExistsException {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+        store.storeAccount(new Account("from", 1000L));
+        store.storeAccount(new Account("to", 0L));
+
+        //When
+        Response batchResponse = controller.transferBatch(null, Arrays.asList(
+                new TransferRequest("from", "to", 600L),
+                new TransferRequest("from", "to", 600L),
+                new TransferRequest("from", "missing", 1L)));
+
+        //Then
+        assertThat(batchResponse.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        List<TransferResult> results = (List<TransferResult>) batchResponse.getEntity();
+        assertThat(results.get(0).getStatus(), equalTo(TransferResult.Status.OK));
+        assertThat(results.get(1).getStatus(), equalTo(TransferResult.Status.INSUFFICIENT_FUNDS));
+        assertThat(results.get(2).getStatus(), equalTo(TransferResult.Status.ACCOUNT_NOT_FOUND));
+        assertThat(store.getAccount("from").getBalance(), equalTo(400L));
+        assertThat(store.getAccount("to").getBalance(), equalTo(600L));
+    }
+
+    @Test
+    public void transferBatchRetriedWithTheSameKeyIsExecutedOnce() throws Throwable {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+        store.storeAccount(new Account("from", 1000L));
+        store.storeAccount(new Account("to", 0L));
+
+        //When
+        Response batchResponse = controller.transferBatch("key", Arrays.asList(new TransferRequest("from", "to", 600L)));
+        Response retryResponse = controller.transferBatch("key", Arrays.asList(new TransferRequest("from", "to", 600L)));
+        Response reusedResponse = controller.transferBatch("key", Arrays.asList(new TransferRequest("from", "to", 1L)));
+
+        //Then
+        assertThat(retryResponse.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        assertThat(retryResponse.getEntity(), equalTo(batchResponse.getEntity()));
+        assertThat(((List<TransferResult>) retryResponse.getEntity()).get(0).getStatus(), equalTo(TransferResult.Status.OK));
+        assertThat(reusedResponse.getStatus(), equalTo(Response.Status.BAD_REQUEST.getStatusCode()));
+        assertThat((String) reusedResponse.getEntity(), containsString(IdempotencyKeyReusedException.class.getName()));
+        assertThat(store.getAccount("from").getBalance(), equalTo(400L));
+    }
+
+    @Test
+    public void transferBatchNotSupportedByTheEngine() throws Throwable {
+        //Given
+        TransferEngine transferEngine = mock(TransferEngine.class);
+        AccountTransferServiceController controller = controller(readOperation, transferEngine);
+        List<TransferRequest> transfers = Arrays.asList(new TransferRequest("from", "to", 1L));
+        doThrow(new BatchNotSupportedException("sharded")).when(transferEngine).executeMoneyTransfers(batchTransferOperation, transfers);
+
+        //When
+        Response batchResponse = controller.transferBatch(null, transfers);
+
+        //Then
+        assertThat(batchResponse.getStatus(), equalTo(AccountTransferServiceController.NOT_IMPLEMENTED));
+        assertThat((String) batchResponse.getEntity(), containsString(BatchNotSupportedException.class.getName()));
+    }
+
+    @Test
+    public void transferBatchRejectedUnderLoadMayBeRetried() throws Throwable {
+        //Given
+        TransferEngine transferEngine = mock(TransferEngine.class);
+        AccountTransferServiceController controller = controller(readOperation, transferEngine);
+        List<TransferRequest> transfers = Arrays.asList(new TransferRequest("from", "to", 1L));
+        doThrow(new AccountBusyException("from")).when(transferEngine).executeMoneyTransfers(batchTransferOperation, transfers);
+
+        //When
+        Response batchResponse = controller.transferBatch("key", transfers);
+        Response retryResponse = controller.transferBatch("key", transfers);
+
+        //Then
+        assertThat(batchResponse.getStatus(), equalTo(AccountTransferServiceController.TOO_MANY_REQUESTS));
+        assertThat(batchResponse.getMetadata().getFirst("Retry-After"), equalTo((Object) "1"));
+        verify(transferEngine, times(2)).executeMoneyTransfers(batchTransferOperation, transfers);
+    }
+
+    @Test
+    public void transferBatchMissingBody() {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+
+        //When
+        Response batchResponse = controller.transferBatch(null, null);
+
+        //Then
+        assertThat(batchResponse.getStatus(), equalTo(Response.Status.BAD_REQUEST.getStatusCode()));
+    }
+
+    @Test
+    public void readsAccountsPageByPage() throws AccountAlreadyExistsException {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar", 50L));
+
+        //When
+        Response firstResponse = controller.getAccounts(1, null, false);
+        AccountPage first = (AccountPage) firstResponse.getEntity();
+        Response lastResponse = controller.getAccounts(null, first.getCursor(), false);
+        AccountPage last = (AccountPage) lastResponse.getEntity();
+
+        //Then
+        assertThat(firstResponse.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        assertThat(first.getAccounts(), contains(new Account("foo", 100L)));
+        assertThat(lastResponse.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        assertThat(last.getAccounts(), contains(new Account("bar", 50L)));
+        assertThat(last.getCursor(), nullValue());
+    }
+
+    @Test
+    public void readAccountsPageWithMalformedCursorIsBadRequest() {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+
+        //When
+        Response response = controller.getAccounts(10, "???", false);
+
+        //Then
+        assertThat(response.getStatus(), equalTo(Response.Status.BAD_REQUEST.getStatusCode()));
+        assertThat((String) response.getEntity(), containsString(InvalidCursorException.class.getCanonicalName()));
+    }
+
+    @Test
+    public void streamsAccountsAsNewlineDelimitedJson() throws AccountAlreadyExistsException, IOException {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar", 50L));
+
+        //When
+        Response response = controller.streamAccounts(false);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+
+        //Then
+        assertThat(response.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        assertThat(new String(output.toByteArray(), StandardCharsets.UTF_8),
+                equalTo("{\"accountId\":\"foo\",\"balance\":100}\n{\"accountId\":\"bar\",\"balance\":50}\n"));
+    }
+
+    @Test
+    public void consistentListingIsNotPaged() {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+
+        //When
+        Response response = controller.getAccounts(10, null, true);
+
+        //Then
+        assertThat(response.getStatus(), equalTo(Response.Status.BAD_REQUEST.getStatusCode()));
+        assertThat((String) response.getEntity(), containsString(SnapshotNotPagedException.class.getCanonicalName()));
+    }
+
+    @Test
+    public void streamsConsistentAccountsAsNewlineDelimitedJson() throws AccountAlreadyExistsException, IOException {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar", 50L));
+
+        //When
+        Instant before = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        Response response = controller.streamAccounts(true);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+
+        //Then
+        assertThat(response.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        assertThat(new String(output.toByteArray(), StandardCharsets.UTF_8),
+                equalTo("{\"accountId\":\"foo\",\"balance\":100}\n{\"accountId\":\"bar\",\"balance\":50}\n"));
+        Instant instant = Instant.parse((String) response.getMetadata().getFirst(AccountTransferServiceController.SNAPSHOT_TIME));
+        assertThat(instant.isBefore(before), equalTo(false));
+    }
+
+    @Test
+    public void consistentListingCarriesTheInstantOfItsBalances() throws AccountAlreadyExistsException {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+        store.storeAccount(new Account("foo", 100L));
+        Instant before = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+        //When
+        Response response = controller.getAccounts(null, null, true);
+
+        //Then
+        assertThat(response.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        assertThat((Collection<?>) response.getEntity(), contains(new Account("foo", 100L)));
+        Instant instant = Instant.parse((String) response.getMetadata().getFirst(AccountTransferServiceController.SNAPSHOT_TIME));
+        assertThat(instant.isBefore(before), equalTo(false));
+    }
+
+    @Test
+    public void readsTransactionsOfAnAccountPageByPage() throws AccountAlreadyExistsException {
+        //Given
+        TransactionHistory history = new TransactionHistory();
+        Store historyStore = new HistoryStore(store, history);
+        AccountLockHolder lockHolder = new AccountLockHolder();
+        AccountTransferServiceController controller = controller(
+                new ReadOperation(historyStore, history, cluster), new TransferOperation(historyStore, lockHolder));
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar", 50L));
+        controller.transfer("foo", "bar", null, 10L);
+        controller.transfer("bar", "foo", null, 20L);
+
+        //When
+        Response firstResponse = controller.getTransactions("foo", 1, null);
+        TransactionPage first = (TransactionPage) firstResponse.getEntity();
+        Response lastResponse = controller.getTransactions("foo", null, first.getCursor());
+        TransactionPage last = (TransactionPage) lastResponse.getEntity();
+
+        //Then
+        assertThat(firstResponse.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        assertThat(first.getTransactions().get(0).getAmount(), equalTo(20L));
+        assertThat(lastResponse.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        assertThat(last.getTransactions().get(0).getAmount(), equalTo(-10L));
+        assertThat(last.getTransactions().get(0).getCounterparty(), equalTo("bar"));
+        assertThat(last.getCursor(), nullValue());
+    }
+
+    @Test
+    public void readTransactionsOfMissingAccountIsNotFound() {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+
+        //When
+        Response response = controller.getTransactions("foo", null, null);
+
+        //Then
+        assertThat(response.getStatus(), equalTo(Response.Status.NOT_FOUND.getStatusCode()));
+        assertThat((String) response.getEntity(), containsString(AccountNotFoundException.class.getCanonicalName()));
+    }
+
+    @Test
+    public void transferOfABusyAccountIsRejectedWithRetryAfterAndNotRemembered() throws Throwable {
+        //Given
+        TransferEngine transferEngine = mock(TransferEngine.class);
+        doThrow(new AccountBusyException("foo")).when(transferEngine).executeMoneyTransfer("foo", "bar", 10L);
+        AccountTransferServiceController controller = controller(readOperation, transferEngine);
+
+        //When
+        Response response = controller.transfer("foo", "bar", "key", 10L);
+        controller.transfer("foo", "bar", "key", 10L);
+
+        //Then
+        assertThat(response.getStatus(), equalTo(AccountTransferServiceController.TOO_MANY_REQUESTS));
+        assertThat(response.getMetadata().getFirst("Retry-After"), equalTo((Object) "1"));
+        assertThat((String) response.getEntity(), containsString(AccountBusyException.class.getCanonicalName()));
+        verify(transferEngine, times(2)).executeMoneyTransfer("foo", "bar", 10L);
+    }
+
+    @Test
+    public void transferRejectedUnderOverloadIsServiceUnavailable() throws Throwable {
+        //Given
+        TransferEngine transferEngine = mock(TransferEngine.class);
+        doThrow(new ServiceOverloadedException(64)).when(transferEngine).executeMoneyTransfer("foo", "bar", 10L);
+        AccountTransferServiceController controller = controller(readOperation, transferEngine);
+
+        //When
+        Response response = controller.transfer("foo", "bar", null, 10L);
+
+        //Then
+        assertThat(response.getStatus(), equalTo(Response.Status.SERVICE_UNAVAILABLE.getStatusCode()));
+        assertThat(response.getMetadata().getFirst("Retry-After"), equalTo((Object) "1"));
+    }
+
+    @Test
+    public void importsAccountsOnASingleNode() throws AccountAlreadyExistsException, AccountNotFoundException {
+        //Given
+        AccountTransferServiceController controller = controller(readOperation, transferOperation);
+        store.storeAccount(new Account("foo", 1L));
+
+        //When
+        Response response = controller.importCsvAccounts(
+                new ByteArrayInputStream("foo,10\nbar,20\nbaz,30".getBytes(StandardCharsets.UTF_8)));
+
+        //Then
+        assertThat(response.getStatus(), equalTo(Response.Status.OK.getStatusCode()));
+        assertThat(((ImportSummary) response.getEntity()).getImported(), equalTo(2L));
+        assertThat(((ImportSummary) response.getEntity()).getDuplicateIds(), contains("foo"));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(20L));
+        assertThat(store.getAccount("baz").getBalance(), equalTo(30L));
+    }
+
+    @Test
+    public void requestsForAnAccountOfAnotherNodeAreRedirectedToIt() {
+        //Given
+        Cluster cluster = new Cluster(Arrays.asList(URI.create("http://node-0:8080/"), URI.create("http://node-1:8080/")), 0);
+        String remote = "account-0";
+        for (int i = 1; cluster.isLocal(remote); i++) {
+            remote = "account-" + i;
+        }
+        AccountTransferServiceController controller = new AccountTransferServiceController(readOperation, transferOperation, writeOperation, batchTransferOperation, idempotencyCache, cluster, new ImportOperation(store, cluster));
+
+        //When
+        Response accountResponse = controller.getAccount(remote);
+        Response transferResponse = controller.transfer(remote, "foo", null, 10L);
+        Response batchResponse = controller.transferBatch(null, Arrays.asList(new TransferRequest("foo", remote, 10L)));
+        Response importResponse = controller.importCsvAccounts(new ByteArrayInputStream((remote + ",10").getBytes(StandardCharsets.UTF_8)));
+
+        //Then
+        assertThat(accountResponse.getStatus(), equalTo(Response.Status.TEMPORARY_REDIRECT.getStatusCode()));
+        assertThat(accountResponse.getMetadata().getFirst("Location").toString(), equalTo("http://node-1:8080/v1/accounts/" + remote));
+        assertThat(transferResponse.getStatus(), equalTo(Response.Status.TEMPORARY_REDIRECT.getStatusCode()));
+        assertThat(transferResponse.getMetadata().getFirst("Location").toString(), equalTo("http://node-1:8080/v1/accounts/from/" + remote + "/to/foo"));
+        assertThat(batchResponse.getStatus(), equalTo(Response.Status.BAD_REQUEST.getStatusCode()));
+        assertThat((String) batchResponse.getEntity(), containsString(AccountOnOtherNodeException.class.getCanonicalName()));
+        assertThat(((ImportSummary) importResponse.getEntity()).getInvalid(), equalTo(1L));
+        assertThat(((ImportSummary) importResponse.getEntity()).getInvalidRows().get(0), containsString(AccountOnOtherNodeException.class.getCanonicalName()));
+    }
+
+    @Test
+    public void pendingTransferIsAcceptedAndRemembered() throws Throwable {
+        //Given
+        TransferEngine transferEngine = mock(TransferEngine.class);
+        doThrow(new TransferPendingException("foo", "bar", 10L, new IOException())).when(transferEngine).executeMoneyTransfer("foo", "bar", 10L);
+        AccountTransferServiceController controller = controller(readOperation, transferEngine);
+
+        //When
+        Response response = controller.transfer("foo", "bar", "key", 10L);
+        Response retried = controller.transfer("foo", "bar", "key", 10L);
+
+        //Then
+        assertThat(response.getStatus(), equalTo(Response.Status.ACCEPTED.getStatusCode()));
+        assertThat(retried.getStatus(), equalTo(Response.Status.ACCEPTED.getStatusCode()));
+        verify(transferEngine, times(1)).executeMoneyTransfer("foo", "bar", 10L);
+    }
+
+    /**
+     * @return controller of a single node
+     */
+    private AccountTransferServiceController controller(ReadOperation readOperation, TransferEngine transferEngine) {
+        return new AccountTransferServiceController(readOperation, transferEngine, writeOperation,
+                batchTransferOperation, idempotencyCache, cluster, new ImportOperation(store, cluster));
+    }
 }
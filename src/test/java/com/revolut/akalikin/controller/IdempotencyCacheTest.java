@@ -0,0 +1,159 @@
+package com.revolut.akalikin.controller;
+
+import com.revolut.akalikin.exception.InvalidRequestException;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class IdempotencyCacheTest {
+
+    private static final Object[] REQUEST = {"from", "to", 100L};
+    private static final IdempotencyCache.Outcome OK = new IdempotencyCache.Outcome(200, null);
+
+    @Test
+    public void retryArrivingDuringTheExecutionWaitsForItsOutcome() throws Throwable {
+        // Given
+        IdempotencyCache cache = new IdempotencyCache(100, 1, TimeUnit.HOURS);
+        CountDownLatch executing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        Future<IdempotencyCache.Outcome> original = executorService.submit(() -> execute(cache, () -> {
+            executions.incrementAndGet();
+            executing.countDown();
+            awaitUninterruptibly(release);
+            return OK;
+        }));
+        executing.await();
+
+        // When
+        Future<IdempotencyCache.Outcome> retry = executorService.submit(() -> execute(cache, () -> {
+            executions.incrementAndGet();
+            return OK;
+        }));
+        release.countDown();
+
+        // Then
+        assertThat(original.get(10, TimeUnit.SECONDS), sameInstance(OK));
+        assertThat(retry.get(10, TimeUnit.SECONDS), sameInstance(OK));
+        assertThat(executions.get(), equalTo(1));
+        executorService.shutdown();
+    }
+
+    @Test
+    public void remembersServerErrorsAndForgetsRejections() throws Throwable {
+        // Given
+        IdempotencyCache cache = new IdempotencyCache(100, 1, TimeUnit.HOURS);
+        IdempotencyCache.Outcome serverError = new IdempotencyCache.Outcome(500, "failed");
+        AtomicInteger executions = new AtomicInteger();
+        cache.execute("failed", REQUEST, () -> serverError);
+        cache.execute("busy", REQUEST, () -> new IdempotencyCache.Outcome(429, "busy"));
+        cache.execute("overloaded", REQUEST, () -> new IdempotencyCache.Outcome(503, "overloaded"));
+
+        // When
+        IdempotencyCache.Outcome retried = cache.execute("failed", REQUEST, () -> {
+            executions.incrementAndGet();
+            return OK;
+        });
+        cache.execute("busy", REQUEST, () -> {
+            executions.incrementAndGet();
+            return OK;
+        });
+        cache.execute("overloaded", REQUEST, () -> {
+            executions.incrementAndGet();
+            return OK;
+        });
+
+        // Then
+        assertThat(retried, sameInstance(serverError));
+        assertThat(executions.get(), equalTo(2));
+    }
+
+    @Test
+    public void remembersExecutionsThatThrew() throws Throwable {
+        // Given
+        IdempotencyCache cache = new IdempotencyCache(100, 1, TimeUnit.HOURS);
+        AtomicInteger executions = new AtomicInteger();
+        Throwable failure = null;
+        try {
+            cache.execute("key", REQUEST, () -> {
+                throw new IllegalStateException("failed after the transfer");
+            });
+        } catch (IllegalStateException e) {
+            failure = e;
+        }
+
+        // When
+        IdempotencyCache.Outcome retried = cache.execute("key", REQUEST, () -> {
+            executions.incrementAndGet();
+            return OK;
+        });
+
+        // Then
+        assertThat(failure.getMessage(), equalTo("failed after the transfer"));
+        assertThat(retried.getStatus(), equalTo(500));
+        assertThat(executions.get(), equalTo(0));
+    }
+
+    @Test
+    public void forgetsKeysBeyondTheMaximumSize() throws Throwable {
+        // Given
+        IdempotencyCache cache = new IdempotencyCache(1, 1, TimeUnit.HOURS);
+        AtomicInteger executions = new AtomicInteger();
+        cache.execute("first", REQUEST, () -> OK);
+        cache.execute("second", REQUEST, () -> OK);
+
+        // When
+        cache.execute("first", REQUEST, () -> {
+            executions.incrementAndGet();
+            return OK;
+        });
+
+        // Then
+        assertThat(executions.get(), equalTo(1));
+    }
+
+    @Test
+    public void forgetsKeysAfterTheirTimeToLive() throws Throwable {
+        // Given
+        IdempotencyCache cache = new IdempotencyCache(100, 1, TimeUnit.MILLISECONDS);
+        AtomicInteger executions = new AtomicInteger();
+        cache.execute("key", REQUEST, () -> OK);
+        Thread.sleep(10);
+
+        // When
+        cache.execute("key", REQUEST, () -> {
+            executions.incrementAndGet();
+            return OK;
+        });
+
+        // Then
+        assertThat(executions.get(), equalTo(1));
+    }
+
+    private static IdempotencyCache.Outcome execute(IdempotencyCache cache, Supplier<IdempotencyCache.Outcome> execution) {
+        try {
+            return cache.execute("key", REQUEST, execution);
+        } catch (InvalidRequestException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
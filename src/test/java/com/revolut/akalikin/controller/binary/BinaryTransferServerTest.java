@@ -0,0 +1,174 @@
+package com.revolut.akalikin.controller.binary;
+
+import com.revolut.akalikin.cluster.Cluster;
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.data.history.TransactionHistory;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.operation.ReadOperation;
+import com.revolut.akalikin.operation.TransferOperation;
+import com.revolut.akalikin.operation.WriteOperation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BinaryTransferServerTest {
+
+    private BinaryTransferServer server;
+    private BinaryTransferClient client;
+
+    @Before
+    public void before() throws Throwable {
+        Store store = new InMemoryStore();
+        AccountLockHolder lockHolder = new AccountLockHolder();
+        server = new BinaryTransferServer(
+                new ReadOperation(store, new TransactionHistory(), Cluster.single(URI.create("http://localhost:8080/"))),
+                new WriteOperation(store, lockHolder),
+                new TransferOperation(store, lockHolder));
+        server.start(new InetSocketAddress("localhost", 0), 2);
+        client = new BinaryTransferClient(address());
+    }
+
+    @After
+    public void after() throws Throwable {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void pipelinedRequestsAreAnsweredInOrder() throws Throwable {
+        // Given
+        client.create("foo", 100L);
+        client.create("bar", 0L);
+
+        // When
+        client.transfer("foo", "bar", 30L);
+        client.get("foo");
+        client.get("bar");
+
+        // Then
+        assertThat(client.receive(), equalTo(BinaryProtocol.OK));
+        assertThat(client.getBalance(), equalTo(100L));
+        assertThat(client.receive(), equalTo(BinaryProtocol.OK));
+        assertThat(client.getBalance(), equalTo(0L));
+        assertThat(client.receive(), equalTo(BinaryProtocol.OK));
+        assertThat(client.receive(), equalTo(BinaryProtocol.OK));
+        assertThat(client.getBalance(), equalTo(70L));
+        assertThat(client.receive(), equalTo(BinaryProtocol.OK));
+        assertThat(client.getBalance(), equalTo(30L));
+    }
+
+    @Test
+    public void failuresAreReportedWithTheMessagesOfTheRestApi() throws Throwable {
+        // Given
+        client.create("foo", 100L);
+        client.create("bar", 0L);
+
+        // When
+        client.transfer("foo", "bar", 101L);
+        client.get("baz");
+        client.create("foo", 0L);
+        client.transfer("foo", "bar", 0L);
+
+        // Then
+        client.receive();
+        client.receive();
+        assertThat(client.receive(), equalTo(BinaryProtocol.INSUFFICIENT_FUNDS));
+        assertThat(client.getMessage(), equalTo(new AccountInsufficientFundsException("foo", 100L, 101L).toString()));
+        assertThat(client.receive(), equalTo(BinaryProtocol.NOT_FOUND));
+        assertThat(client.getMessage(), equalTo(new AccountNotFoundException("baz").toString()));
+        assertThat(client.receive(), equalTo(BinaryProtocol.ALREADY_EXISTS));
+        assertThat(client.receive(), equalTo(BinaryProtocol.INVALID_REQUEST));
+    }
+
+    @Test
+    public void responsesOverflowingTheBuffersAreAllWritten() throws Throwable {
+        // Given
+        client.create("foo", 20000L);
+        client.create("bar", 0L);
+        client.receive();
+        client.receive();
+
+        // When - far more responses than the output buffer of the connection holds
+        for (int i = 0; i < 20000; i++) {
+            client.transfer("foo", "bar", 1L);
+            if (i % 1000 == 999) {
+                client.flush();
+            }
+        }
+        client.get("bar");
+
+        // Then
+        for (int i = 0; i < 20000; i++) {
+            assertThat(client.receive(), equalTo(BinaryProtocol.OK));
+        }
+        assertThat(client.receive(), equalTo(BinaryProtocol.OK));
+        assertThat(client.getBalance(), equalTo(20000L));
+    }
+
+    @Test
+    public void storeFailureIsReportedAndKeepsTheConnection() throws Throwable {
+        // Given
+        Store store = new InMemoryStore() {
+            @Override
+            public void storeTransfer(Account from, Account to, long amount) {
+                throw new UncheckedIOException("Journal is not writable", new IOException("Disk full"));
+            }
+        };
+        AccountLockHolder lockHolder = new AccountLockHolder();
+        BinaryTransferServer failing = new BinaryTransferServer(
+                new ReadOperation(store, new TransactionHistory(), Cluster.single(URI.create("http://localhost:8080/"))),
+                new WriteOperation(store, lockHolder),
+                new TransferOperation(store, lockHolder));
+        failing.start(new InetSocketAddress("localhost", 0), 2);
+        try (BinaryTransferClient failingClient = new BinaryTransferClient(
+                new InetSocketAddress("localhost", failing.getPort()))) {
+            failingClient.create("foo", 100L);
+            failingClient.create("bar", 0L);
+
+            // When
+            failingClient.transfer("foo", "bar", 10L);
+            failingClient.get("foo");
+
+            // Then
+            failingClient.receive();
+            failingClient.receive();
+            assertThat(failingClient.receive(), equalTo(BinaryProtocol.FAILED));
+            assertThat(failingClient.receive(), equalTo(BinaryProtocol.OK));
+        } finally {
+            failing.close();
+        }
+    }
+
+    @Test
+    public void malformedRequestClosesTheConnection() throws Throwable {
+        // Given
+        try (SocketChannel channel = SocketChannel.open(address())) {
+            ByteBuffer request = ByteBuffer.allocate(5);
+            request.putInt(1).put((byte) 42).flip();
+
+            // When
+            channel.write(request);
+
+            // Then
+            assertThat(channel.read(ByteBuffer.allocate(16)), equalTo(-1));
+        }
+    }
+
+    private InetSocketAddress address() {
+        return new InetSocketAddress("localhost", server.getPort());
+    }
+}
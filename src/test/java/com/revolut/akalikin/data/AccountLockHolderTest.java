@@ -6,6 +6,12 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
 public class AccountLockHolderTest {
 
     @Rule
@@ -48,4 +54,133 @@ public class AccountLockHolderTest {
         lockHolder.acquireLock("foo");
     }
 
+    @Test
+    public void acquiresLocksForAccountsSharingTheStripe() throws TransientException {
+        // Given
+        AccountLockHolder lockHolder = new AccountLockHolder(1);
+
+        // When
+        lockHolder.acquireLocks("foo", "bar");
+        lockHolder.releaseLocks("foo", "bar");
+
+        // Then
+        lockHolder.acquireLock("bar");
+    }
+
+    @Test
+    public void releaseByNonOwnerIsIgnored() throws Throwable {
+        // Given
+        AccountLockHolder lockHolder = new AccountLockHolder();
+        lockHolder.acquireLock("foo");
+
+        // When
+        CompletableFuture.runAsync(() -> lockHolder.releaseLock("foo")).get(1, TimeUnit.SECONDS);
+
+        // Then - still held by the owner
+        CompletableFuture<Boolean> acquiredByOther = CompletableFuture.supplyAsync(() -> {
+            try {
+                lockHolder.acquireLock("foo");
+                return true;
+            } catch (TransientException e) {
+                return false;
+            }
+        });
+        lockHolder.releaseLock("foo");
+        assertThat(acquiredByOther.get(10, TimeUnit.SECONDS), equalTo(true));
+    }
+
+    @Test
+    public void oppositeLockOrderDoesntDeadlock() throws Throwable {
+        // Given
+        AccountLockHolder lockHolder = new AccountLockHolder();
+
+        // When
+        CompletableFuture<Void> forward = CompletableFuture.runAsync(() -> lockRepeatedly(lockHolder, "foo", "bar"));
+        CompletableFuture<Void> backward = CompletableFuture.runAsync(() -> lockRepeatedly(lockHolder, "bar", "foo"));
+
+        // Then - both complete well before the lock timeout
+        CompletableFuture.allOf(forward, backward).get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void oppositeTransferLocksDontDeadlock() throws Throwable {
+        // Given
+        AccountLockHolder lockHolder = new AccountLockHolder();
+
+        // When
+        CompletableFuture<Void> forward = CompletableFuture.runAsync(() -> lockTransferRepeatedly(lockHolder, "foo", "bar"));
+        CompletableFuture<Void> backward = CompletableFuture.runAsync(() -> lockTransferRepeatedly(lockHolder, "bar", "foo"));
+
+        // Then - both complete well before the lock timeout, and both locks are free again
+        CompletableFuture.allOf(forward, backward).get(2, TimeUnit.SECONDS);
+        lockHolder.acquireLocks("foo", "bar");
+    }
+
+    @Test
+    public void failedTransferLockAcquisitionReportsTheBusyAccount() throws Throwable {
+        // Given
+        AccountLockHolder lockHolder = new AccountLockHolder(1024);
+        lockHolder.acquireLock("bar");
+
+        // When
+        CompletableFuture<Throwable> failure = CompletableFuture.supplyAsync(() -> {
+            try {
+                lockHolder.acquireLocks("foo", "bar");
+                return null;
+            } catch (TransientException e) {
+                return e;
+            }
+        });
+
+        // Then
+        assertThat(failure.get(10, TimeUnit.SECONDS).getMessage(),
+                equalTo(new AccountLockNotAcquiredException("bar").getMessage()));
+        lockHolder.acquireLock("foo");
+    }
+
+    @Test
+    public void failedAcquisitionReleasesAlreadyAcquiredLocks() throws Throwable {
+        // Given
+        AccountLockHolder lockHolder = new AccountLockHolder();
+        lockHolder.acquireLock("bar");
+
+        // When
+        CompletableFuture<Boolean> acquiredBoth = CompletableFuture.supplyAsync(() -> {
+            try {
+                lockHolder.acquireLocks("foo", "bar");
+                return true;
+            } catch (TransientException e) {
+                return false;
+            }
+        });
+
+        // Then - timed out, and "foo" is free again
+        assertThat(acquiredBoth.get(10, TimeUnit.SECONDS), equalTo(false));
+        lockHolder.acquireLock("foo");
+    }
+
+    private static void lockTransferRepeatedly(AccountLockHolder lockHolder, String fromId, String toId) {
+        for (int i = 0; i < 1000; i++) {
+            try {
+                lockHolder.acquireLocks(fromId, toId);
+            } catch (TransientException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                lockHolder.releaseLocks(fromId, toId);
+            }
+        }
+    }
+
+    private static void lockRepeatedly(AccountLockHolder lockHolder, String... accountIds) {
+        for (int i = 0; i < 1000; i++) {
+            try {
+                lockHolder.acquireLocks(accountIds);
+            } catch (TransientException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                lockHolder.releaseLocks(accountIds);
+            }
+        }
+    }
+
 }
@@ -7,8 +7,16 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 
 public class InMemoryStoreTest {
@@ -90,6 +98,76 @@ public class InMemoryStoreTest {
         store.getAccount("foo");
     }
 
+    @Test
+    public void walksAccountsInCreationOrder() throws AccountAlreadyExistsException {
+        // Given
+        Store store = new InMemoryStore();
+        for (int i = 0; i < 3; i++) {
+            store.storeAccount(new Account("account-" + i, 100L));
+        }
+        store.storeAccount(new Account("account-0", 50L), true);
+        List<Account> walked = new ArrayList<>();
 
+        // When
+        long next = store.forEachAccount(0, 2, walked::add);
+        long end = store.forEachAccount(next, 2, walked::add);
 
+        // Then
+        assertThat(next, equalTo(2L));
+        assertThat(end, equalTo(-1L));
+        assertThat(walked, contains(new Account("account-0", 50L), new Account("account-1", 100L),
+                new Account("account-2", 100L)));
+    }
+
+    @Test
+    public void findsEveryAccountAfterTheIndexGrows() throws AccountNotFoundException, AccountAlreadyExistsException {
+        // Given
+        Store store = new InMemoryStore();
+
+        // When
+        for (int i = 0; i < 100000; i++) {
+            store.storeAccount(new Account("account-" + i, (long) i));
+        }
+
+        // Then
+        for (int i = 0; i < 100000; i++) {
+            assertThat(store.getAccount("account-" + i).getBalance(), equalTo((long) i));
+        }
+        assertThat(store.getAccounts().size(), equalTo(100000));
+    }
+
+    @Test
+    public void findsAccountsCreatedConcurrently() throws Throwable {
+        // Given
+        Store store = new InMemoryStore();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<?>> creations = new ArrayList<>();
+
+        // When
+        for (int thread = 0; thread < 4; thread++) {
+            int first = thread * 10000;
+            creations.add(executorService.submit(() -> {
+                for (int i = first; i < first + 10000; i++) {
+                    try {
+                        store.storeAccount(new Account("account-" + i, (long) i));
+                        // Every account is found as soon as it's stored, even while the index grows
+                        assertThat(store.getAccount("account-" + i).getBalance(), equalTo((long) i));
+                    } catch (AccountAlreadyExistsException | AccountNotFoundException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> creation : creations) {
+            creation.get(10, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        // Then
+        for (int i = 0; i < 40000; i++) {
+            assertThat(store.getAccount("account-" + i).getBalance(), equalTo((long) i));
+        }
+        assertThat(store.getAccounts().size(), equalTo(40000));
+    }
 }
@@ -0,0 +1,141 @@
+package com.revolut.akalikin.data.history;
+
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.InvalidCursorException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.Transaction;
+import com.revolut.akalikin.model.TransactionPage;
+import com.revolut.akalikin.model.TransferRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class TransactionHistoryTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void bothLegsOfATransferAreRecordedNewestFirst() throws Throwable {
+        // Given
+        TransactionHistory history = new TransactionHistory();
+        long before = System.currentTimeMillis();
+
+        // When
+        history.recordTransfer("foo", "bar", 30L);
+        history.recordTransfer("bar", "foo", 5L);
+
+        // Then
+        TransactionPage foo = history.read("foo", null, 10);
+        assertThat(foo.getTransactions().size(), equalTo(2));
+        assertTransaction(foo.getTransactions().get(0), "bar", 5L);
+        assertTransaction(foo.getTransactions().get(1), "bar", -30L);
+        assertThat(foo.getTransactions().get(1).getTime(), greaterThanOrEqualTo(before));
+        assertThat(foo.getTransactions().get(1).getTime(), lessThanOrEqualTo(foo.getTransactions().get(0).getTime()));
+        assertThat(foo.getCursor(), nullValue());
+        TransactionPage bar = history.read("bar", null, 10);
+        assertTransaction(bar.getTransactions().get(0), "foo", -5L);
+        assertTransaction(bar.getTransactions().get(1), "foo", 30L);
+    }
+
+    @Test
+    public void historyIsPagedAcrossItsStoragePages() throws Throwable {
+        // Given - enough entries to fill several pages of the log
+        TransactionHistory history = new TransactionHistory();
+        int transfers = 3 * AccountHistory.PAGE_SIZE;
+        for (int i = 1; i <= transfers; i++) {
+            history.recordTransfer("foo", "bar-" + (i % 7), i);
+        }
+
+        // When
+        long expected = transfers;
+        int pages = 0;
+        String cursor = null;
+        do {
+            TransactionPage page = history.read("foo", cursor, 1000);
+            for (Transaction transaction : page.getTransactions()) {
+                assertTransaction(transaction, "bar-" + (expected % 7), -expected);
+                expected--;
+            }
+            cursor = page.getCursor();
+            pages++;
+        } while (cursor != null);
+
+        // Then
+        assertThat(expected, equalTo(0L));
+        assertThat(pages, equalTo(13));
+    }
+
+    @Test
+    public void entriesAreCompact() {
+        // Given
+        TransactionHistory history = new TransactionHistory();
+
+        // When
+        for (int i = 0; i < 10000; i++) {
+            history.recordTransfer("foo-" + (i % 100), "bar-" + (i % 100), 1000L + i);
+        }
+
+        // Then
+        assertThat(history.getEntryCount(), equalTo(20000L));
+        assertThat(history.getBytesPerEntry(), lessThan(8.0));
+        // The logs grow by doubling, so up to half of them may be unused
+        assertThat(history.getAllocatedBytes(), lessThan(20000L * 16));
+    }
+
+    @Test
+    public void cursorOfAnotherAccountIsRejected() throws Throwable {
+        // Given
+        TransactionHistory history = new TransactionHistory();
+        history.recordTransfer("foo", "bar", 1L);
+        history.recordTransfer("foo", "bar", 2L);
+        history.recordTransfer("baz", "bar", 3L);
+        String cursor = history.read("foo", null, 1).getCursor();
+        assertThat(cursor, notNullValue());
+
+        // Then
+        expectedException.expect(InvalidCursorException.class);
+
+        // When
+        history.read("baz", cursor, 1);
+    }
+
+    @Test
+    public void storeRecordsOnlyPersistedTransfers() throws Throwable {
+        // Given
+        TransactionHistory history = new TransactionHistory();
+        Store store = new HistoryStore(new InMemoryStore(), history);
+        Account foo = new Account("foo", 100L);
+        Account bar = new Account("bar", 100L);
+        store.storeAccount(foo);
+        store.storeAccount(bar);
+
+        // When
+        store.storeTransfer(foo, bar, 10L);
+        boolean stale = store.storeTransfer(foo, foo.getVersion() + 1, bar, bar.getVersion(), 20L);
+        store.storeTransfers(Arrays.asList(new TransferRequest("bar", "foo", 30L)));
+
+        // Then
+        assertThat(stale, equalTo(false));
+        TransactionPage page = history.read("foo", null, 10);
+        assertThat(page.getTransactions().size(), equalTo(2));
+        assertTransaction(page.getTransactions().get(0), "bar", 30L);
+        assertTransaction(page.getTransactions().get(1), "bar", -10L);
+    }
+
+    private static void assertTransaction(Transaction transaction, String counterparty, long amount) {
+        assertThat(transaction.getCounterparty(), equalTo(counterparty));
+        assertThat(transaction.getAmount(), equalTo(amount));
+    }
+}
@@ -0,0 +1,232 @@
+package com.revolut.akalikin.data.jdbc;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.operation.OptimisticTransferOperation;
+import com.revolut.akalikin.operation.TransferOperation;
+import com.revolut.akalikin.operation.TwoStepTransferOperation;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class JdbcStoreTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String url;
+    private JdbcConnectionPool pool;
+
+    @Before
+    public void before() {
+        url = "jdbc:h2:file:" + folder.getRoot().toPath().resolve("accounts").toAbsolutePath();
+        pool = JdbcConnectionPool.create(url, "sa", "");
+    }
+
+    @After
+    public void after() {
+        pool.dispose();
+    }
+
+    @Test
+    public void loadsAccountsAndTransfersAfterRestart() throws Throwable {
+        // Given
+        JdbcStore store = new JdbcStore(new InMemoryStore(), pool);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+        store.storeAccount(new Account("baz", 10L));
+        new TwoStepTransferOperation(store).executeMoneyTransfer("foo", "bar", 200L);
+        new OptimisticTransferOperation(store, new AccountLockHolder()).executeMoneyTransfer("bar", "baz", 40L);
+        store.getAccount("bar").deductFunds(50L);
+        store.getAccount("baz").addFunds(50L);
+        store.storeTransfers(Arrays.asList(new TransferRequest("bar", "baz", 50L)));
+        store.storeAccount(new Account("foo", 1000L), true);
+        pool.dispose();
+
+        // When
+        pool = JdbcConnectionPool.create(url, "sa", "");
+        JdbcStore loaded = new JdbcStore(new InMemoryStore(), pool);
+
+        // Then
+        assertThat(loaded.getAccounts().size(), equalTo(3));
+        assertThat(loaded.getAccount("foo").getBalance(), equalTo(1000L));
+        assertThat(loaded.getAccount("bar").getBalance(), equalTo(110L));
+        assertThat(loaded.getAccount("baz").getBalance(), equalTo(100L));
+    }
+
+    @Test
+    public void rejectsExistingAccount() throws Throwable {
+        // Given
+        JdbcStore store = new JdbcStore(new InMemoryStore(), pool);
+        store.storeAccount(new Account("foo", 500L));
+
+        // Then
+        expectedException.expect(AccountAlreadyExistsException.class);
+
+        // When
+        store.storeAccount(new Account("foo", 100L));
+    }
+
+    @Test
+    public void storesNewAccountsOfAChunkSkippingExistingOnes() throws Throwable {
+        // Given
+        JdbcStore store = new JdbcStore(new InMemoryStore(), pool);
+        store.storeAccount(new Account("foo", 500L));
+        List<Account> duplicates = new ArrayList<>();
+
+        // When
+        store.storeAccounts(Arrays.asList(new Account("bar", 10L), new Account("foo", 20L), new Account("baz")),
+                duplicates::add);
+        store.storeAccounts(Arrays.asList(new Account("qux", 30L)), duplicates::add);
+        JdbcStore loaded = new JdbcStore(new InMemoryStore(), pool);
+
+        // Then
+        assertThat(duplicates.size(), equalTo(1));
+        assertThat(duplicates.get(0).getBalance(), equalTo(20L));
+        assertThat(loaded.getAccounts().size(), equalTo(4));
+        assertThat(loaded.getAccount("foo").getBalance(), equalTo(500L));
+        assertThat(loaded.getAccount("bar").getBalance(), equalTo(10L));
+        assertThat(loaded.getAccount("qux").getBalance(), equalTo(30L));
+        assertThat(store.getAccount("baz").getBalance(), equalTo(0L));
+    }
+
+    @Test
+    public void revertsTransfersTheDatabaseFailedToStore() throws Throwable {
+        // Given
+        AtomicInteger delegated = new AtomicInteger();
+        JdbcStore store = new JdbcStore(new InMemoryStore() {
+            @Override
+            public void storeTransfer(Account from, Account to, long amount) {
+                delegated.incrementAndGet();
+            }
+
+            @Override
+            public void storeTransfers(List<TransferRequest> transfers) {
+                delegated.incrementAndGet();
+            }
+        }, pool);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE " + JdbcStore.TABLE);
+        }
+        Throwable transferFailure = null;
+        Throwable batchFailure = null;
+
+        // When
+        try {
+            new TransferOperation(store, new AccountLockHolder()).executeMoneyTransfer("foo", "bar", 200L);
+        } catch (UncheckedIOException e) {
+            transferFailure = e;
+        }
+        store.getAccount("foo").deductFunds(50L);
+        store.getAccount("bar").addFunds(50L);
+        try {
+            store.storeTransfers(Arrays.asList(new TransferRequest("foo", "bar", 30L), new TransferRequest("bar", "foo", 10L),
+                    new TransferRequest("foo", "bar", 30L)));
+        } catch (UncheckedIOException e) {
+            batchFailure = e;
+        }
+
+        // Then
+        assertThat(transferFailure, instanceOf(UncheckedIOException.class));
+        assertThat(batchFailure, instanceOf(UncheckedIOException.class));
+        assertThat(store.getAccount("foo").getBalance(), equalTo(500L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(0L));
+        assertThat(delegated.get(), equalTo(0));
+    }
+
+    @Test
+    public void releasesHeldAccountsUnchangedWhenTheDatabaseFailsToStore() throws Throwable {
+        // Given
+        JdbcStore store = new JdbcStore(new InMemoryStore(), pool);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+        Account from = store.getAccount("foo");
+        Account to = store.getAccount("bar");
+        long fromVersion = from.getVersion();
+        long toVersion = to.getVersion();
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE " + JdbcStore.TABLE);
+        }
+        Throwable failure = null;
+
+        // When
+        try {
+            store.storeTransfer(from, fromVersion, to, toVersion, 200L);
+        } catch (UncheckedIOException e) {
+            failure = e;
+        }
+
+        // Then
+        assertThat(failure, instanceOf(UncheckedIOException.class));
+        assertThat(from.getBalance(), equalTo(500L));
+        assertThat(to.getBalance(), equalTo(0L));
+        assertThat(from.getVersion(), equalTo(fromVersion));
+        assertThat(to.getVersion(), equalTo(toVersion));
+    }
+
+    @Test
+    public void concurrentTransfersConserveMoneyInTheDatabase() throws Throwable {
+        // Given
+        JdbcStore store = new JdbcStore(new InMemoryStore(), pool);
+        int accountCount = 10;
+        for (int i = 0; i < accountCount; i++) {
+            store.storeAccount(new Account("account-" + i, 1000L));
+        }
+        TransferOperation transferOperation = new TransferOperation(store, new AccountLockHolder());
+
+        // When
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int from = random.nextInt(accountCount);
+                int to = (from + 1 + random.nextInt(accountCount - 1)) % accountCount;
+                try {
+                    transferOperation.executeMoneyTransfer("account-" + from, "account-" + to, 1L);
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        JdbcStore loaded = new JdbcStore(new InMemoryStore(), pool);
+
+        // Then
+        long total = 0;
+        for (int i = 0; i < accountCount; i++) {
+            String accountId = "account-" + i;
+            assertThat(loaded.getAccount(accountId).getBalance(), equalTo(store.getAccount(accountId).getBalance()));
+            total += loaded.getAccount(accountId).getBalance();
+        }
+        assertThat(total, equalTo(1000L * accountCount));
+    }
+}
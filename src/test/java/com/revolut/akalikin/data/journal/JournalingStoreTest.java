@@ -0,0 +1,381 @@
+package com.revolut.akalikin.data.journal;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.operation.BatchTransferOperation;
+import com.revolut.akalikin.operation.OptimisticTransferOperation;
+import com.revolut.akalikin.operation.TransferOperation;
+import com.revolut.akalikin.operation.TwoStepTransferOperation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItemInArray;
+
+public class JournalingStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversAccountsAndTransfersAfterRestart() throws IOException, TransientException, PermanentException {
+        // Given
+        Path journal = folder.getRoot().toPath().resolve("journal");
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), journal)) {
+            store.storeAccount(new Account("foo", 500L));
+            store.storeAccount(new Account("bar"));
+            store.storeAccount(new Account("baz", 10L));
+            new TwoStepTransferOperation(store).executeMoneyTransfer("foo", "bar", 200L);
+            store.getAccount("bar").deductFunds(50L);
+            store.getAccount("baz").addFunds(50L);
+            store.storeTransfers(Arrays.asList(new TransferRequest("bar", "baz", 50L)));
+            store.storeAccount(new Account("baz", 1000L), true);
+        }
+
+        // When
+        try (JournalingStore recovered = new JournalingStore(new InMemoryStore(), journal)) {
+
+            // Then
+            assertThat(recovered.getAccounts().size(), equalTo(3));
+            assertThat(recovered.getAccount("foo").getBalance(), equalTo(300L));
+            assertThat(recovered.getAccount("bar").getBalance(), equalTo(150L));
+            assertThat(recovered.getAccount("baz").getBalance(), equalTo(1000L));
+        }
+    }
+
+    @Test
+    public void doesntJournalRejectedCreation() throws IOException, PermanentException {
+        // Given
+        Path journal = folder.getRoot().toPath().resolve("journal");
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), journal)) {
+            store.storeAccount(new Account("foo", 500L));
+            try {
+                store.storeAccount(new Account("foo", 100L));
+            } catch (AccountAlreadyExistsException e) {
+                // expected
+            }
+        }
+
+        // When
+        try (JournalingStore recovered = new JournalingStore(new InMemoryStore(), journal)) {
+
+            // Then
+            assertThat(recovered.getAccount("foo").getBalance(), equalTo(500L));
+        }
+    }
+
+    @Test
+    public void journalsOnlyCommittedVersionedTransfers() throws IOException, PermanentException {
+        // Given
+        Path journal = folder.getRoot().toPath().resolve("journal");
+        boolean committed;
+        boolean stale;
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), journal)) {
+            store.storeAccount(new Account("foo", 500L));
+            store.storeAccount(new Account("bar"));
+            Account foo = store.getAccount("foo");
+            Account bar = store.getAccount("bar");
+            long fooVersion = foo.getVersion();
+            long barVersion = bar.getVersion();
+            committed = store.storeTransfer(foo, fooVersion, bar, barVersion, 200L);
+            stale = store.storeTransfer(foo, fooVersion, bar, barVersion, 200L);
+        }
+
+        // When
+        try (JournalingStore recovered = new JournalingStore(new InMemoryStore(), journal)) {
+
+            // Then
+            assertThat(committed, equalTo(true));
+            assertThat(stale, equalTo(false));
+            assertThat(recovered.getAccount("foo").getBalance(), equalTo(300L));
+            assertThat(recovered.getAccount("bar").getBalance(), equalTo(200L));
+        }
+    }
+
+    @Test
+    public void truncatesTornRecordAndKeepsAppending() throws IOException, PermanentException {
+        // Given - a crash in the middle of writing a record
+        Path journal = folder.getRoot().toPath().resolve("journal");
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), journal)) {
+            store.storeAccount(new Account("foo", 500L));
+        }
+        try (FileChannel channel = FileChannel.open(Journal.segmentPath(journal, 0),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 30, 1, 2, 3, 4, 5}));
+        }
+
+        // When
+        try (JournalingStore recovered = new JournalingStore(new InMemoryStore(), journal)) {
+            recovered.storeAccount(new Account("bar", 100L));
+        }
+
+        // Then
+        try (JournalingStore recovered = new JournalingStore(new InMemoryStore(), journal)) {
+            assertThat(recovered.getAccounts().size(), equalTo(2));
+            assertThat(recovered.getAccount("foo").getBalance(), equalTo(500L));
+            assertThat(recovered.getAccount("bar").getBalance(), equalTo(100L));
+        }
+    }
+
+    @Test
+    public void recoversBalancesOfConcurrentTransfers() throws IOException, PermanentException, InterruptedException {
+        // Given
+        Path journal = folder.getRoot().toPath().resolve("journal");
+        int accountCount = 20;
+        long[] balances = new long[accountCount];
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), journal)) {
+            for (int i = 0; i < accountCount; i++) {
+                store.storeAccount(new Account("account-" + i, 1000L));
+            }
+            TwoStepTransferOperation transferOperation = new TwoStepTransferOperation(store);
+            ExecutorService executorService = Executors.newFixedThreadPool(16);
+            for (int i = 0; i < 2000; i++) {
+                executorService.execute(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    int from = random.nextInt(accountCount);
+                    int to = (from + 1 + random.nextInt(accountCount - 1)) % accountCount;
+                    try {
+                        transferOperation.executeMoneyTransfer("account-" + from, "account-" + to, 1L + random.nextInt(100));
+                    } catch (Throwable e) {
+                        // ignore - failed transactions are not journaled
+                    }
+                });
+            }
+            executorService.shutdown();
+            assertThat(executorService.awaitTermination(30, TimeUnit.SECONDS), equalTo(true));
+            for (int i = 0; i < accountCount; i++) {
+                balances[i] = store.getAccount("account-" + i).getBalance();
+            }
+        }
+
+        // When
+        try (JournalingStore recovered = new JournalingStore(new InMemoryStore(), journal)) {
+
+            // Then
+            for (int i = 0; i < accountCount; i++) {
+                assertThat(recovered.getAccount("account-" + i).getBalance(), equalTo(balances[i]));
+            }
+        }
+    }
+
+    @Test
+    public void recoversFromSnapshotAndJournalTail() throws IOException, TransientException, PermanentException {
+        // Given
+        Path directory = folder.getRoot().toPath().resolve("journal");
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), directory)) {
+            for (int i = 0; i < 100; i++) {
+                store.storeAccount(new Account("account-" + i, 100L));
+            }
+            TwoStepTransferOperation transferOperation = new TwoStepTransferOperation(store);
+            transferOperation.executeMoneyTransfer("account-0", "account-1", 30L);
+            store.snapshot();
+            transferOperation.executeMoneyTransfer("account-1", "account-2", 50L);
+            store.snapshot();
+            store.storeAccount(new Account("foo", 7L));
+            transferOperation.executeMoneyTransfer("account-2", "foo", 10L);
+        }
+
+        // When
+        try (JournalingStore recovered = new JournalingStore(new InMemoryStore(), directory)) {
+
+            // Then
+            assertThat(recovered.getAccounts().size(), equalTo(101));
+            assertThat(recovered.getAccount("account-0").getBalance(), equalTo(70L));
+            assertThat(recovered.getAccount("account-1").getBalance(), equalTo(80L));
+            assertThat(recovered.getAccount("account-2").getBalance(), equalTo(140L));
+            assertThat(recovered.getAccount("foo").getBalance(), equalTo(17L));
+            assertThat(recovered.getAccount("account-3").getBalance(), equalTo(100L));
+        }
+    }
+
+    @Test
+    public void revertsTransfersTheJournalFailsToPersist() throws Throwable {
+        // Given
+        Path directory = folder.getRoot().toPath().resolve("journal");
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), directory)) {
+            store.storeAccount(new Account("foo", 500L));
+            store.storeAccount(new Account("bar", 100L));
+            // The rotation can't create the next segment, which fails the journal for good
+            Files.createDirectories(Journal.segmentPath(directory, 1));
+            Throwable snapshotFailure = null;
+            try {
+                store.snapshot();
+            } catch (UncheckedIOException e) {
+                snapshotFailure = e;
+            }
+            AccountLockHolder lockHolder = new AccountLockHolder();
+
+            // When
+            Throwable[] failures = new Throwable[4];
+            try {
+                new TransferOperation(store, lockHolder).executeMoneyTransfer("foo", "bar", 10L);
+            } catch (UncheckedIOException e) {
+                failures[0] = e;
+            }
+            try {
+                new TwoStepTransferOperation(store).executeMoneyTransfer("foo", "bar", 20L);
+            } catch (UncheckedIOException e) {
+                failures[1] = e;
+            }
+            try {
+                new OptimisticTransferOperation(store, lockHolder).executeMoneyTransfer("bar", "foo", 30L);
+            } catch (UncheckedIOException e) {
+                failures[2] = e;
+            }
+            try {
+                new BatchTransferOperation(store, lockHolder).executeMoneyTransfers(
+                        Arrays.asList(new TransferRequest("foo", "bar", 40L), new TransferRequest("bar", "foo", 5L)));
+            } catch (UncheckedIOException e) {
+                failures[3] = e;
+            }
+
+            // Then
+            assertThat(snapshotFailure, notNullValue());
+            assertThat(failures, not(hasItemInArray(nullValue())));
+            assertThat(store.getAccount("foo").getBalance(), equalTo(500L));
+            assertThat(store.getAccount("bar").getBalance(), equalTo(100L));
+        }
+    }
+
+    @Test
+    public void keepsTransfersWhoseSyncFailedAndRefusesLaterMutations() throws Throwable {
+        // Given
+        Path directory = folder.getRoot().toPath().resolve("journal");
+        long total = 1_000_000_000L;
+        long liveFoo;
+        Throwable[] failures = new Throwable[2];
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), directory)) {
+            store.storeAccount(new Account("foo", total));
+            store.storeAccount(new Account("bar", 0L));
+            Account foo = store.getAccount("foo");
+            Account bar = store.getAccount("bar");
+            CountDownLatch started = new CountDownLatch(1);
+            Thread transfers = new Thread(() -> {
+                try {
+                    while (true) {
+                        store.storeTransfer(foo, foo.getVersion(), bar, bar.getVersion(), 1L);
+                        started.countDown();
+                    }
+                } catch (UncheckedIOException e) {
+                    failures[0] = e;
+                }
+            });
+            transfers.start();
+            started.await();
+
+            // When
+            // The rotation can't create the next segment, failing the sync of the records appended meanwhile
+            Files.createDirectories(Journal.segmentPath(directory, 1));
+            try {
+                store.snapshot();
+            } catch (UncheckedIOException e) {
+                // expected
+            }
+            transfers.join();
+            try {
+                store.storeAccount(new Account("baz", 1L));
+            } catch (UncheckedIOException e) {
+                failures[1] = e;
+            }
+            liveFoo = store.getAccount("foo").getBalance();
+            assertThat(liveFoo + store.getAccount("bar").getBalance(), equalTo(total));
+        }
+        Files.delete(Journal.segmentPath(directory, 1));
+
+        // Then
+        assertThat(failures, not(hasItemInArray(nullValue())));
+        try (JournalingStore recovered = new JournalingStore(new InMemoryStore(), directory)) {
+            // Whatever reached the disk was never undone in memory
+            long recoveredFoo = recovered.getAccount("foo").getBalance();
+            assertThat(recoveredFoo >= liveFoo, equalTo(true));
+            assertThat(recoveredFoo + recovered.getAccount("bar").getBalance(), equalTo(total));
+        }
+    }
+
+    @Test
+    public void snapshotReplacesCompactedSegments() throws IOException, PermanentException {
+        // Given
+        Path directory = folder.getRoot().toPath().resolve("journal");
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), directory)) {
+            store.storeAccount(new Account("foo", 500L));
+            store.snapshot();
+            store.storeAccount(new Account("bar", 100L));
+
+            // When
+            store.snapshot();
+
+            // Then
+            assertThat(Snapshot.latest(directory), equalTo(2L));
+            assertThat(Journal.segments(directory, 0), equalTo(Arrays.asList(2L)));
+            assertThat(Files.exists(Snapshot.path(directory, 1)), equalTo(false));
+        }
+    }
+
+    @Test
+    public void snapshotsConcurrentlyWithTransfers() throws IOException, PermanentException, InterruptedException {
+        // Given
+        Path directory = folder.getRoot().toPath().resolve("journal");
+        int accountCount = 20;
+        long[] balances = new long[accountCount];
+        try (JournalingStore store = new JournalingStore(new InMemoryStore(), directory)) {
+            for (int i = 0; i < accountCount; i++) {
+                store.storeAccount(new Account("account-" + i, 1000L));
+            }
+            TwoStepTransferOperation transferOperation = new TwoStepTransferOperation(store);
+            ExecutorService executorService = Executors.newFixedThreadPool(8);
+            for (int i = 0; i < 2000; i++) {
+                executorService.execute(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    int from = random.nextInt(accountCount);
+                    int to = (from + 1 + random.nextInt(accountCount - 1)) % accountCount;
+                    try {
+                        transferOperation.executeMoneyTransfer("account-" + from, "account-" + to, 1L + random.nextInt(100));
+                    } catch (Throwable e) {
+                        // ignore - failed transactions are not journaled
+                    }
+                });
+            }
+
+            // When
+            for (int i = 0; i < 5; i++) {
+                store.snapshot();
+            }
+            executorService.shutdown();
+            assertThat(executorService.awaitTermination(30, TimeUnit.SECONDS), equalTo(true));
+            for (int i = 0; i < accountCount; i++) {
+                balances[i] = store.getAccount("account-" + i).getBalance();
+            }
+        }
+
+        // Then
+        try (JournalingStore recovered = new JournalingStore(new InMemoryStore(), directory)) {
+            for (int i = 0; i < accountCount; i++) {
+                assertThat(recovered.getAccount("account-" + i).getBalance(), equalTo(balances[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.revolut.akalikin.data.journal;
+
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.model.Account;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    @Test
+    public void loadsWrittenAccounts() throws IOException {
+        // Given
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < Snapshot.CHUNK_SIZE * 2 + 1; i++) {
+            accounts.add(new Account("account-" + i, (long) i));
+        }
+        InMemoryStore store = new InMemoryStore();
+        store.storeAccounts(accounts, duplicate -> { });
+        Path file = Snapshot.path(folder.getRoot().toPath(), 3);
+        Snapshot.write(file, store.size(), store);
+
+        // When
+        Map<String, Long> loaded = new ConcurrentHashMap<>();
+        long count = Snapshot.load(file, loaded::put);
+
+        // Then
+        assertThat(count, equalTo((long) accounts.size()));
+        assertThat(loaded.size(), equalTo(accounts.size()));
+        for (Account account : accounts) {
+            assertThat(loaded.get(account.getAccountId()), equalTo(account.getBalance()));
+        }
+        assertThat(Snapshot.latest(folder.getRoot().toPath()), equalTo(3L));
+    }
+
+    @Test
+    public void throwsOnCorruptChunk() throws IOException {
+        // Given
+        List<Account> accounts = new ArrayList<>();
+        accounts.add(new Account("foo", 100L));
+        InMemoryStore store = new InMemoryStore();
+        store.storeAccounts(accounts, duplicate -> { });
+        Path file = Snapshot.path(folder.getRoot().toPath(), 1);
+        Snapshot.write(file, store.size(), store);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {42}), channel.size() - 1);
+        }
+
+        // Then
+        exception.expect(IOException.class);
+
+        // When
+        Snapshot.load(file, (accountId, balance) -> { });
+    }
+
+    @Test
+    public void noSnapshotInEmptyDirectory() throws IOException {
+        // When
+        long latest = Snapshot.latest(folder.getRoot().toPath());
+
+        // Then
+        assertThat(latest, equalTo(-1L));
+    }
+}
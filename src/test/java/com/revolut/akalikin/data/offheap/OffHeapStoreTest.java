@@ -0,0 +1,210 @@
+package com.revolut.akalikin.data.offheap;
+
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.BalanceSnapshot;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.lessThan;
+
+public class OffHeapStoreTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private final OffHeapStore store = new OffHeapStore(1000);
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void storesMultipleAccounts() throws AccountNotFoundException, AccountAlreadyExistsException {
+        // Given
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar", 50L));
+        store.storeAccount(new Account("škoda", 7L));
+
+        // When
+        List<Account> accounts = store.getAccounts();
+
+        // Then
+        assertThat(store.size(), equalTo(3));
+        assertThat(accounts.stream().map(Account::getAccountId).collect(Collectors.toList()),
+                containsInAnyOrder("foo", "bar", "škoda"));
+        assertThat(store.getAccount("foo").getBalance(), equalTo(100L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(50L));
+        assertThat(store.getAccount("škoda").getBalance(), equalTo(7L));
+    }
+
+    @Test
+    public void changesBalanceInPlace() throws AccountNotFoundException, AccountAlreadyExistsException {
+        // Given
+        store.storeAccount(new Account("foo", 100L));
+
+        // When
+        store.getAccount("foo").deductFunds(30L);
+        store.getAccount("foo").addFunds(5L);
+        boolean deducted = store.getAccount("foo").tryDeductFunds(80L);
+
+        // Then
+        assertThat(deducted, equalTo(false));
+        assertThat(store.getAccount("foo").getBalance(), equalTo(75L));
+        assertThat(((OffHeapAccount) store.getAccount("foo")).getVersion(), equalTo(4L));
+    }
+
+    @Test
+    public void transfersWithoutViewsOfTheAccounts() throws AccountNotFoundException, AccountAlreadyExistsException {
+        // Given
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar", 50L));
+
+        // When
+        boolean moved = store.transfer("foo", "bar", 70L);
+        boolean overdrawn = store.transfer("foo", "bar", 31L);
+
+        // Then
+        assertThat(moved, equalTo(true));
+        assertThat(overdrawn, equalTo(false));
+        assertThat(store.getBalance("foo"), equalTo(30L));
+        assertThat(store.getBalance("bar"), equalTo(120L));
+        assertThat(((OffHeapAccount) store.getAccount("foo")).getVersion(), equalTo(2L));
+    }
+
+    @Test
+    public void snapshotReadsTheBalanceKeptInTheRecord() throws Throwable {
+        // Given
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar", 0L));
+
+        // When
+        long fooBalance;
+        long barBalance;
+        try (BalanceSnapshot snapshot = BalanceSnapshot.open()) {
+            Account.transfer(store.getAccount("foo"), store.getAccount("bar"), 30L);
+            store.storeAccount(new Account("baz", 20L));
+            fooBalance = snapshot.balanceOf(store.getAccount("foo"));
+            barBalance = snapshot.balanceOf(store.getAccount("bar"));
+        }
+
+        // Then
+        assertThat(fooBalance, equalTo(100L));
+        assertThat(barBalance, equalTo(0L));
+        assertThat(store.getAccount("foo").getBalance(), equalTo(70L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(30L));
+    }
+
+    @Test
+    public void throwsWhenAccountAlreadyExists() throws AccountAlreadyExistsException {
+        // Given
+        store.storeAccount(new Account("foo", 100L));
+
+        // Then
+        expectedException.expect(AccountAlreadyExistsException.class);
+
+        // When
+        store.storeAccount(new Account("foo", 105L));
+    }
+
+    @Test
+    public void updatesAccountWhenFlagIsProvided() throws AccountNotFoundException, AccountAlreadyExistsException {
+        // Given
+        store.storeAccount(new Account("foo", 100L));
+
+        // When
+        store.storeAccount(new Account("foo", 105L), true);
+
+        // Then
+        assertThat(store.getAccount("foo").getBalance(), equalTo(105L));
+        assertThat(store.size(), equalTo(1));
+    }
+
+    @Test
+    public void throwsWhenAccountNotFound() throws AccountNotFoundException {
+        // Then
+        expectedException.expect(AccountNotFoundException.class);
+
+        // When
+        store.getAccount("foo");
+    }
+
+    @Test
+    public void throwsWhenFull() throws AccountAlreadyExistsException {
+        // Given
+        OffHeapStore small = new OffHeapStore(1);
+        try {
+            small.storeAccount(new Account("foo", 100L));
+
+            // Then
+            expectedException.expect(IllegalStateException.class);
+
+            // When
+            small.storeAccount(new Account("bar", 100L));
+        } finally {
+            small.close();
+        }
+    }
+
+    @Test
+    public void storesEachAccountOnceUnderConcurrentCreation() throws Exception {
+        // Given
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        AtomicInteger rejected = new AtomicInteger();
+
+        // When
+        for (int i = 0; i < 800; i++) {
+            String accountId = "account-" + (i % 400);
+            executorService.execute(() -> {
+                try {
+                    store.storeAccount(new Account(accountId, 100L));
+                } catch (AccountAlreadyExistsException e) {
+                    rejected.incrementAndGet();
+                }
+            });
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+
+        // Then
+        assertThat(store.size(), equalTo(400));
+        assertThat(rejected.get(), equalTo(400));
+        assertThat(store.getAccounts().size(), equalTo(400));
+        assertThat(store.getBytesPerAccount(), lessThan(200.0));
+    }
+
+    @Test
+    public void walksEveryAccountOnceAcrossCalls() throws AccountAlreadyExistsException {
+        // Given
+        for (int i = 0; i < 100; i++) {
+            store.storeAccount(new Account("account-" + i, 100L));
+        }
+        List<String> walked = new ArrayList<>();
+
+        // When
+        long position = 0;
+        do {
+            position = store.forEachAccount(position, 7, account -> walked.add(account.getAccountId()));
+        } while (position >= 0);
+
+        // Then
+        assertThat(walked.size(), equalTo(100));
+        assertThat(new HashSet<>(walked).size(), equalTo(100));
+    }
+}
@@ -0,0 +1,178 @@
+package com.revolut.akalikin.data.replication;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.operation.OptimisticTransferOperation;
+import com.revolut.akalikin.operation.TransferEngine;
+import com.revolut.akalikin.operation.TransferOperation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.everyItem;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ReplicationTest {
+
+    private final ReplicatingStore primary = new ReplicatingStore(new InMemoryStore());
+    private final ReplicationServer server = new ReplicationServer(primary);
+    private final Store replica = new InMemoryStore();
+    private ReplicationFollower follower;
+
+    @Before
+    public void before() throws Throwable {
+        server.start(new InetSocketAddress("localhost", 0));
+        follower = new ReplicationFollower(replica, new InetSocketAddress("localhost", server.getPort()));
+    }
+
+    @After
+    public void after() {
+        follower.close();
+        server.close();
+    }
+
+    @Test
+    public void followerStartsFromTheSnapshotAndAppliesTheMutationsAfterIt() throws Throwable {
+        // Given
+        primary.storeAccount(new Account("foo", 500L));
+        primary.storeAccount(new Account("bar"));
+        new TransferOperation(primary, new AccountLockHolder()).executeMoneyTransfer("foo", "bar", 200L);
+
+        // When
+        follower.start();
+        primary.storeAccount(new Account("baz", 10L));
+        new OptimisticTransferOperation(primary, new AccountLockHolder()).executeMoneyTransfer("bar", "baz", 50L);
+        new TransferOperation(primary, new AccountLockHolder()).executeMoneyTransfer("foo", "baz", 100L);
+        primary.getAccount("baz").deductFunds(60L);
+        primary.getAccount("foo").addFunds(60L);
+        primary.storeTransfers(Arrays.asList(new TransferRequest("baz", "foo", 60L)));
+        primary.storeAccount(new Account("bar", 1000L), true);
+
+        // Then
+        assertThat(follower.awaitSequence(primary.getSequence(), 10_000), equalTo(true));
+        assertThat(replica.getAccounts().size(), equalTo(3));
+        assertThat(replica.getAccount("foo").getBalance(), equalTo(260L));
+        assertThat(replica.getAccount("bar").getBalance(), equalTo(1000L));
+        assertThat(replica.getAccount("baz").getBalance(), equalTo(100L));
+        assertThat(follower.getStatus().getLag(), equalTo(0L));
+    }
+
+    @Test
+    public void followerCatchesUpAfterThePrimaryIsBack() throws Throwable {
+        // Given
+        primary.storeAccount(new Account("foo", 500L));
+        primary.storeAccount(new Account("bar"));
+        follower.start();
+        assertThat(follower.awaitSequence(primary.getSequence(), 10_000), equalTo(true));
+        int port = server.getPort();
+        server.close();
+
+        // When
+        new TransferOperation(primary, new AccountLockHolder()).executeMoneyTransfer("foo", "bar", 200L);
+        ReplicationServer restarted = new ReplicationServer(primary);
+        restarted.start(new InetSocketAddress("localhost", port));
+
+        // Then
+        try {
+            assertThat(follower.awaitSequence(primary.getSequence(), 10_000), equalTo(true));
+            assertThat(replica.getAccount("foo").getBalance(), equalTo(300L));
+            assertThat(replica.getAccount("bar").getBalance(), equalTo(200L));
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void followerConnectingDuringTransfersConvergesWithThePrimary() throws Throwable {
+        // Given
+        int accounts = 20;
+        for (int i = 0; i < accounts; i++) {
+            primary.storeAccount(new Account("account-" + i, 1000L));
+        }
+        AccountLockHolder lockHolder = new AccountLockHolder();
+        TransferEngine[] engines = {
+                new TransferOperation(primary, lockHolder), new OptimisticTransferOperation(primary, lockHolder)};
+        Thread[] threads = new Thread[4];
+        Throwable[] failures = new Throwable[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(thread);
+                try {
+                    for (int i = 0; i < 20_000; i++) {
+                        int from = random.nextInt(accounts);
+                        int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+                        try {
+                            engines[thread % engines.length].executeMoneyTransfer(
+                                    "account-" + from, "account-" + to, (long) random.nextInt(100) + 1);
+                        } catch (AccountInsufficientFundsException e) {
+                            // Other transfers go on
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures[thread] = e;
+                }
+            });
+            threads[t].start();
+        }
+
+        // When
+        Thread.sleep(20);
+        follower.start();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Then
+        assertThat(Arrays.asList(failures), everyItem(nullValue(Throwable.class)));
+        assertThat(follower.awaitSequence(primary.getSequence(), 10_000), equalTo(true));
+        for (int i = 0; i < accounts; i++) {
+            assertThat(replica.getAccount("account-" + i).getBalance(),
+                    equalTo(primary.getAccount("account-" + i).getBalance()));
+        }
+    }
+
+    @Test
+    public void sequenceNotReplicatedInTimeIsNotAwaited() throws Throwable {
+        // Given
+        server.close();
+        primary.storeAccount(new Account("foo", 500L));
+
+        // When
+        follower.start();
+
+        // Then
+        assertThat(follower.awaitSequence(primary.getSequence(), 100), equalTo(false));
+        assertThat(follower.getStatus().isConnected(), equalTo(false));
+    }
+
+    @Test
+    public void followerReportsItsLatestFailureInItsStatus() throws Throwable {
+        // Given
+        server.close();
+        long errors = ReplicatingStore.ERRORS.get();
+
+        // When
+        follower.start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (follower.getStatus().getLastError() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Then
+        assertThat(follower.getStatus().getLastError().startsWith(ConnectException.class.getName()), equalTo(true));
+        assertThat(ReplicatingStore.ERRORS.get() > errors, equalTo(true));
+        assertThat(primary.getStatus().getLastError(), nullValue());
+    }
+}
@@ -0,0 +1,118 @@
+package com.revolut.akalikin.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MetricsTest {
+
+    @Test
+    public void returnsTheSameCounterForTheSameNameAndLabels() {
+        // Given
+        Counter counter = Metrics.counter("test.same", "kind", "a");
+
+        // When
+        Counter again = Metrics.counter("test.same", "kind", "a");
+
+        // Then
+        assertThat(again, sameInstance(counter));
+    }
+
+    @Test
+    public void reportsCounters() {
+        // Given
+        Counter counter = Metrics.counter("test.counter", "kind", "report");
+        long before = counter.get();
+
+        // When
+        counter.increment();
+        counter.increment();
+
+        // Then
+        assertThat(counters().get("test.counter{kind=\"report\"}"), equalTo(before + 2));
+    }
+
+    @Test
+    public void reportsUndefinedGaugesAsNull() {
+        // Given
+        Metrics.gauge("test.gauge.ratio", () -> Double.NaN);
+
+        // When
+        Map<?, ?> gauges = (Map<?, ?>) Metrics.report().get("gauges");
+
+        // Then
+        assertThat(gauges.containsKey("test.gauge.ratio"), equalTo(true));
+        assertThat(gauges.get("test.gauge.ratio"), nullValue());
+    }
+
+    @Test
+    public void reportsLatenciesInMicroseconds() {
+        // Given
+        Latency latency = Metrics.latency("test.latency.report");
+
+        // When
+        latency.record(TimeUnit.MILLISECONDS.toNanos(2));
+
+        // Then
+        Map<?, ?> summary = (Map<?, ?>) latencies().get("test.latency.report");
+        assertThat(summary.get("count"), equalTo(1L));
+        assertThat(Math.round((Double) summary.get("p99_us") / 100), equalTo(20L));
+    }
+
+    @Test
+    public void mergesLatenciesRecordedByDifferentThreads() throws InterruptedException {
+        // Given
+        Latency latency = Metrics.latency("test.latency.threads");
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    latency.record(1000);
+                }
+            });
+        }
+
+        // When
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Then
+        assertThat(latency.snapshot().getTotalCount(), equalTo(8000L));
+    }
+
+    @Test
+    public void writesPrometheusText() {
+        // Given
+        Metrics.counter("test.text", "status", "200").increment();
+        Metrics.latency("test.text.latency").record(TimeUnit.MILLISECONDS.toNanos(1));
+        Metrics.gauge("test.text.gauge", () -> 42);
+
+        // When
+        String text = Metrics.text();
+
+        // Then
+        assertThat(text, containsString("test_text_total{status=\"200\"} "));
+        assertThat(text, containsString("test_text_gauge 42\n"));
+        assertThat(text, containsString("test_text_latency_seconds{quantile=\"0.999\"} 0.001"));
+        assertThat(text, containsString("test_text_latency_seconds_count 1\n"));
+    }
+
+    private static Map<?, ?> counters() {
+        return (Map<?, ?>) Metrics.report().get("counters");
+    }
+
+    private static Map<?, ?> latencies() {
+        return (Map<?, ?>) Metrics.report().get("latencies");
+    }
+}
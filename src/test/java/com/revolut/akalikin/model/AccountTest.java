@@ -87,4 +87,70 @@ public class AccountTest {
         assertThat(account.getBalance(), equalTo(-400L));
     }
 
+    @Test
+    public void tryDeductFundsChangesTheBalanceWhenSufficient() {
+        // Given
+        Account account = new Account(
+                UUID.randomUUID().toString(), 500L);
+
+        // When
+        boolean deducted = account.tryDeductFunds(500L);
+
+        // Then
+        assertThat(deducted, equalTo(true));
+        assertThat(account.getBalance(), equalTo(0L));
+    }
+
+    @Test
+    public void tryDeductFundsKeepsTheBalanceWhenInsufficient() {
+        // Given
+        Account account = new Account(
+                UUID.randomUUID().toString(), 100L);
+
+        // When
+        boolean deducted = account.tryDeductFunds(500L);
+
+        // Then
+        assertThat(deducted, equalTo(false));
+        assertThat(account.getBalance(), equalTo(100L));
+    }
+
+    @Test
+    public void everyChangeAdvancesTheVersionByTwo() {
+        // Given
+        Account account = new Account(
+                UUID.randomUUID().toString(), 500L);
+
+        // When
+        account.addFunds(100L);
+        account.tryDeductFunds(1000L);
+        account.deductFunds(100L);
+
+        // Then
+        assertThat(account.getVersion(), equalTo(4L));
+    }
+
+    @Test
+    public void changesBothAccountsOnlyIfNeitherVersionMoved() {
+        // Given
+        Account from = new Account(UUID.randomUUID().toString(), 500L);
+        Account to = new Account(UUID.randomUUID().toString(), 0L);
+        long fromVersion = from.getVersion();
+        long toVersion = to.getVersion();
+        to.addFunds(1L);
+
+        // When
+        boolean stale = Account.beginChanges(from, fromVersion, to, toVersion);
+        boolean held = Account.beginChanges(from, fromVersion, to, to.getVersion());
+        from.commitChange(-100L);
+        to.commitChange(100L);
+
+        // Then
+        assertThat(stale, equalTo(false));
+        assertThat(held, equalTo(true));
+        assertThat(from.getBalance(), equalTo(400L));
+        assertThat(to.getBalance(), equalTo(101L));
+        assertThat(from.getVersion(), equalTo(2L));
+        assertThat(to.getVersion(), equalTo(4L));
+    }
 }
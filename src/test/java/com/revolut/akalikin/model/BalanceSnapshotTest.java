@@ -0,0 +1,259 @@
+package com.revolut.akalikin.model;
+
+import com.google.common.collect.ImmutableList;
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.SnapshotUnavailableException;
+import com.revolut.akalikin.operation.TransferOperation;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.everyItem;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BalanceSnapshotTest {
+
+    @Test
+    public void readsTheBalancesFromWhenItWasOpened() throws Throwable {
+        // Given
+        Account foo = new Account("foo", 500L);
+        Account bar = new Account("bar", 100L);
+        Account baz = new Account("baz", 10L);
+
+        // When
+        long fooBalance;
+        long barBalance;
+        long bazBalance;
+        long newBalance;
+        try (BalanceSnapshot snapshot = BalanceSnapshot.open()) {
+            Account.transfer(foo, bar, 200L);
+            Account.transfer(bar, foo, 50L);
+            Account created = new Account("new", 70L);
+            created.addFunds(5L);
+            fooBalance = snapshot.balanceOf(foo);
+            barBalance = snapshot.balanceOf(bar);
+            bazBalance = snapshot.balanceOf(baz);
+            newBalance = snapshot.balanceOf(created);
+        }
+
+        // Then
+        assertThat(fooBalance, equalTo(500L));
+        assertThat(barBalance, equalTo(100L));
+        assertThat(bazBalance, equalTo(10L));
+        assertThat(newBalance, equalTo(0L));
+        assertThat(foo.getBalance(), equalTo(350L));
+        assertThat(bar.getBalance(), equalTo(250L));
+    }
+
+    @Test
+    public void snapshotOpenedWhileAnotherIsOpenSharesItsInstantWithoutWaiting() throws Throwable {
+        // Given
+        Account foo = new Account("foo", 500L);
+        Account bar = new Account("bar", 100L);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        BalanceSnapshot first = BalanceSnapshot.open();
+        Account.transfer(foo, bar, 200L);
+
+        // When
+        long[] balances = executorService.submit(() -> {
+            try (BalanceSnapshot second = open(1000, 0)) {
+                Account.transfer(bar, foo, 50L);
+                return new long[]{second.balanceOf(foo), second.balanceOf(bar)};
+            }
+        }).get(10, TimeUnit.SECONDS);
+        long fooBalance = first.balanceOf(foo);
+        executorService.submit(first::close).get(10, TimeUnit.SECONDS);
+        executorService.shutdown();
+        long[] latest;
+        try (BalanceSnapshot third = BalanceSnapshot.open()) {
+            latest = new long[]{third.balanceOf(foo), third.balanceOf(bar)};
+        }
+
+        // Then
+        assertThat(balances[0], equalTo(500L));
+        assertThat(balances[1], equalTo(100L));
+        assertThat(fooBalance, equalTo(500L));
+        assertThat(latest[0], equalTo(350L));
+        assertThat(latest[1], equalTo(250L));
+    }
+
+    @Test
+    public void snapshotOpenedWhileAnOlderOneIsOpenWaitsForItAndHasTheLatestBalances() throws Throwable {
+        // Given
+        Account foo = new Account("foo", 500L);
+        Account bar = new Account("bar", 100L);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        BalanceSnapshot first = BalanceSnapshot.open();
+        Future<long[]> balances;
+        boolean waited;
+        try {
+            Account.transfer(foo, bar, 200L);
+
+            // When
+            balances = executorService.submit(() -> {
+                try (BalanceSnapshot second = open(0, 10_000)) {
+                    return new long[]{second.balanceOf(foo), second.balanceOf(bar)};
+                }
+            });
+            Thread.sleep(100);
+            waited = !balances.isDone();
+        } finally {
+            first.close();
+        }
+        long[] latest = balances.get(10, TimeUnit.SECONDS);
+        executorService.shutdown();
+
+        // Then
+        assertThat(waited, equalTo(true));
+        assertThat(latest[0], equalTo(300L));
+        assertThat(latest[1], equalTo(300L));
+    }
+
+    @Test
+    public void snapshotFailsWhenAnOlderOneStaysOpen() throws Throwable {
+        // Given
+        Throwable failure = null;
+        Instant instant;
+        try (BalanceSnapshot first = BalanceSnapshot.open()) {
+            instant = first.getInstant();
+
+            // When
+            try (BalanceSnapshot second = BalanceSnapshot.open(0, 10)) {
+                instant = second.getInstant();
+            } catch (SnapshotUnavailableException e) {
+                failure = e;
+            }
+        }
+
+        // Then
+        assertThat(failure, instanceOf(SnapshotUnavailableException.class));
+        assertThat(instant.isAfter(Instant.now()), equalTo(false));
+    }
+
+    @Test
+    public void everySnapshotConservesMoneyWhileTransfersRun() throws Throwable {
+        // Given
+        Store store = new InMemoryStore();
+        TransferOperation transferOperation = new TransferOperation(store, new AccountLockHolder());
+        List<String> accountIds = ImmutableList.of("a", "b", "c", "d", "e");
+        for (String id : accountIds) {
+            store.storeAccount(new Account(id, 50L));
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    String from = accountIds.get(random.nextInt(accountIds.size()));
+                    String to = accountIds.get(random.nextInt(accountIds.size()));
+                    try {
+                        transferOperation.executeMoneyTransfer(from, to, 1L + random.nextInt(20));
+                    } catch (Throwable e) {
+                        // ignore - failed transactions should not affect the total
+                    }
+                }
+            });
+        }
+
+        // When
+        List<Long> totals = new ArrayList<>();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                try (BalanceSnapshot snapshot = BalanceSnapshot.open()) {
+                    totals.add(store.getAccounts().stream().mapToLong(snapshot::balanceOf).sum());
+                }
+            }
+        } finally {
+            running.set(false);
+            executorService.shutdown();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        // Then
+        assertThat(totals, everyItem(equalTo(250L)));
+    }
+
+    @Test
+    public void overlappingSnapshotsConserveMoneyWhileTransfersRun() throws Throwable {
+        // Given
+        Store store = new InMemoryStore();
+        TransferOperation transferOperation = new TransferOperation(store, new AccountLockHolder());
+        List<String> accountIds = ImmutableList.of("a", "b", "c", "d", "e");
+        for (String id : accountIds) {
+            store.storeAccount(new Account(id, 50L));
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 2; i++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    String from = accountIds.get(random.nextInt(accountIds.size()));
+                    String to = accountIds.get(random.nextInt(accountIds.size()));
+                    try {
+                        transferOperation.executeMoneyTransfer(from, to, 1L + random.nextInt(20));
+                    } catch (Throwable e) {
+                        // ignore - failed transactions should not affect the total
+                    }
+                }
+            });
+        }
+
+        // When - two readers whose snapshots overlap, each reading the accounts one at a time
+        List<Future<List<Long>>> readers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            readers.add(executorService.submit(() -> {
+                List<Long> totals = new ArrayList<>();
+                for (int j = 0; j < 500; j++) {
+                    try (BalanceSnapshot snapshot = open(1000, 10_000)) {
+                        long total = 0;
+                        for (Account account : store.getAccounts()) {
+                            total += snapshot.balanceOf(account);
+                            Thread.yield();
+                        }
+                        totals.add(total);
+                    }
+                }
+                return totals;
+            }));
+        }
+        List<Long> totals = new ArrayList<>();
+        try {
+            for (Future<List<Long>> reader : readers) {
+                totals.addAll(reader.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            running.set(false);
+            executorService.shutdown();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        // Then
+        assertThat(totals.size(), equalTo(1000));
+        assertThat(totals, everyItem(equalTo(250L)));
+    }
+
+    /**
+     * Opens a snapshot in a task, which can't throw a checked {@link Throwable}.
+     */
+    private static BalanceSnapshot open(long maxAge, long maxWait) {
+        try {
+            return BalanceSnapshot.open(maxAge, maxWait);
+        } catch (SnapshotUnavailableException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
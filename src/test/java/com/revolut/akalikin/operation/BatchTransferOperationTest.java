@@ -0,0 +1,160 @@
+package com.revolut.akalikin.operation;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountLockNotAcquiredException;
+import com.revolut.akalikin.exception.BatchTooLargeException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.model.TransferResult;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class BatchTransferOperationTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Mock
+    AccountLockHolder accountLockHolder;
+
+    @Before
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void batchAppliesTransfersInOrderAndLocksOnce() throws TransientException, PermanentException {
+        // Given
+        Store store = new InMemoryStore();
+        BatchTransferOperation batchTransferOperation = new BatchTransferOperation(store, accountLockHolder);
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar"));
+        store.storeAccount(new Account("baz"));
+
+        // When
+        List<TransferResult> results = batchTransferOperation.executeMoneyTransfers(Arrays.asList(
+                new TransferRequest("foo", "bar", 100L),
+                new TransferRequest("bar", "baz", 60L),
+                new TransferRequest("bar", "baz", 60L)));
+
+        // Then
+        assertThat(results.get(0).getStatus(), equalTo(TransferResult.Status.OK));
+        assertThat(results.get(1).getStatus(), equalTo(TransferResult.Status.OK));
+        assertThat(results.get(2).getStatus(), equalTo(TransferResult.Status.INSUFFICIENT_FUNDS));
+        assertThat(store.getAccount("foo").getBalance(), equalTo(0L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(40L));
+        assertThat(store.getAccount("baz").getBalance(), equalTo(60L));
+        verify(accountLockHolder, times(1)).acquireLocks("foo", "bar", "baz");
+        verify(accountLockHolder, times(1)).releaseLocks("foo", "bar", "baz");
+    }
+
+    @Test
+    public void batchReportsInvalidTransfersWithoutFailingTheBatch() throws TransientException, PermanentException {
+        // Given
+        Store store = new InMemoryStore();
+        BatchTransferOperation batchTransferOperation = new BatchTransferOperation(store, accountLockHolder);
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar"));
+
+        // When
+        List<TransferResult> results = batchTransferOperation.executeMoneyTransfers(Arrays.asList(
+                new TransferRequest("foo", "foo", 10L),
+                new TransferRequest("foo", "bar", -10L),
+                null,
+                new TransferRequest("foo", "missing", 10L),
+                new TransferRequest("foo", "bar", 10L)));
+
+        // Then
+        assertThat(results.get(0).getStatus(), equalTo(TransferResult.Status.INVALID_REQUEST));
+        assertThat(results.get(1).getStatus(), equalTo(TransferResult.Status.INVALID_REQUEST));
+        assertThat(results.get(2).getStatus(), equalTo(TransferResult.Status.INVALID_REQUEST));
+        assertThat(results.get(3).getStatus(), equalTo(TransferResult.Status.ACCOUNT_NOT_FOUND));
+        assertThat(results.get(4).getStatus(), equalTo(TransferResult.Status.OK));
+        assertThat(store.getAccount("foo").getBalance(), equalTo(90L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(10L));
+    }
+
+    @Test
+    public void batchCountsOutcomesAndRecordsLatenciesPerTransfer() throws TransientException, PermanentException {
+        // Given
+        Store store = new InMemoryStore();
+        BatchTransferOperation batchTransferOperation = new BatchTransferOperation(store, accountLockHolder);
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar"));
+        long completed = TransferMetrics.COMPLETED.get();
+        long insufficientFunds = TransferMetrics.INSUFFICIENT_FUNDS.get();
+        long accountNotFound = TransferMetrics.ACCOUNT_NOT_FOUND.get();
+        long latencies = TransferMetrics.LATENCY.snapshot().getTotalCount();
+
+        // When
+        batchTransferOperation.executeMoneyTransfers(Arrays.asList(
+                new TransferRequest("foo", "bar", 60L),
+                new TransferRequest("foo", "bar", 60L),
+                new TransferRequest("foo", "qux", 10L),
+                new TransferRequest("bar", "foo", 10L),
+                new TransferRequest("foo", "bar", -1L)));
+
+        // Then
+        assertThat(TransferMetrics.COMPLETED.get(), equalTo(completed + 2));
+        assertThat(TransferMetrics.INSUFFICIENT_FUNDS.get(), equalTo(insufficientFunds + 1));
+        assertThat(TransferMetrics.ACCOUNT_NOT_FOUND.get(), equalTo(accountNotFound + 1));
+        assertThat(TransferMetrics.LATENCY.snapshot().getTotalCount(), equalTo(latencies + 4));
+    }
+
+    @Test
+    public void batchThrowsWhenLockNotAcquiredAndDoesntMoveMoney() throws TransientException, PermanentException {
+        // Given
+        Store store = new InMemoryStore();
+        BatchTransferOperation batchTransferOperation = new BatchTransferOperation(store, accountLockHolder);
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar"));
+        doThrow(AccountLockNotAcquiredException.class).when(accountLockHolder).acquireLocks((String[]) anyVararg());
+
+        // When
+        try {
+            batchTransferOperation.executeMoneyTransfers(Collections.singletonList(new TransferRequest("foo", "bar", 100L)));
+        } catch (AccountLockNotAcquiredException e) {
+            // Then
+            assertThat(store.getAccount("foo").getBalance(), equalTo(100L));
+            assertThat(store.getAccount("bar").getBalance(), equalTo(0L));
+            return;
+        }
+        throw new AssertionError("Expected " + AccountLockNotAcquiredException.class.getSimpleName());
+    }
+
+    @Test
+    public void batchThrowsWhenTooLarge() throws TransientException, PermanentException {
+        // Given
+        BatchTransferOperation batchTransferOperation = new BatchTransferOperation(new InMemoryStore(), new AccountLockHolder());
+        List<TransferRequest> transfers = new ArrayList<>();
+        for (int i = 0; i <= BatchTransferOperation.MAX_BATCH_SIZE; i++) {
+            transfers.add(new TransferRequest("foo", "bar", 1L));
+        }
+
+        // Then - expected exception
+        expectedException.expect(BatchTooLargeException.class);
+
+        // When
+        batchTransferOperation.executeMoneyTransfers(transfers);
+    }
+}
@@ -0,0 +1,172 @@
+package com.revolut.akalikin.operation;
+
+import com.revolut.akalikin.cluster.Cluster;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.ImportRowMalformedException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.ImportSummary;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class ImportOperationTest {
+
+    private static final Cluster CLUSTER = Cluster.single(URI.create("http://localhost:8080/"));
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void importsNdjsonSkippingDuplicatesAndInvalidRows() throws Throwable {
+        // Given
+        Store store = new InMemoryStore();
+        store.storeAccount(new Account("existing", 5L));
+        ImportOperation importOperation = new ImportOperation(store, CLUSTER, 1, 2);
+        String rows = "{\"accountId\":\"foo\",\"balance\":100}\n"
+                + "{\"accountId\":\"bar\"}\r\n"
+                + "\n"
+                + "{\"accountId\":\"existing\",\"balance\":1}\n"
+                + "{\"accountId\":\"baz\",\"balance\":-1}\n"
+                + "not json\n"
+                + "{\"accountId\":\"foo\",\"balance\":7}\n"
+                + "{\"balance\":7}";
+
+        // When
+        ImportSummary summary = importOperation.importAccounts(input(rows), ImportOperation.Format.NDJSON);
+
+        // Then
+        assertThat(summary.getImported(), equalTo(2L));
+        assertThat(summary.getDuplicates(), equalTo(2L));
+        assertThat(summary.getInvalid(), equalTo(3L));
+        assertThat(summary.getInvalidRows().get(0), startsWith("line 5: "));
+        assertThat(summary.getInvalidRows().get(1), containsString(ImportRowMalformedException.class.getName()));
+        assertThat(summary.getInvalidRows().get(2), startsWith("line 8: "));
+        assertThat(store.getAccount("foo").getBalance(), equalTo(100L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(0L));
+        assertThat(store.getAccount("existing").getBalance(), equalTo(5L));
+    }
+
+    @Test
+    public void importsCsvWithHeaderAndQuotedIds() throws Throwable {
+        // Given
+        Store store = new InMemoryStore();
+        ImportOperation importOperation = new ImportOperation(store, CLUSTER, 2, 2);
+        String rows = "accountId,balance\n"
+                + "foo,10\n"
+                + "\"bar, \"\"quoted\"\"\",20\n"
+                + "baz\n"
+                + "qux,ten\n"
+                + "foo,1,2\n";
+
+        // When
+        ImportSummary summary = importOperation.importAccounts(input(rows), ImportOperation.Format.CSV);
+
+        // Then
+        assertThat(summary.getImported(), equalTo(3L));
+        assertThat(summary.getInvalid(), equalTo(2L));
+        assertThat(store.getAccount("foo").getBalance(), equalTo(10L));
+        assertThat(store.getAccount("bar, \"quoted\"").getBalance(), equalTo(20L));
+        assertThat(store.getAccount("baz").getBalance(), equalTo(0L));
+    }
+
+    @Test
+    public void importsALargeStreamReportingOnlyTheFirstFailures() throws Throwable {
+        // Given
+        Store store = new InMemoryStore();
+        ImportOperation importOperation = new ImportOperation(store, CLUSTER, 4, ImportOperation.CHUNK_SIZE);
+        int rowCount = 200_000;
+        InputStream rows = new InputStream() {
+            private int row;
+            private byte[] line = new byte[0];
+            private int position;
+
+            @Override
+            public int read() {
+                if (position == line.length) {
+                    if (row == rowCount) {
+                        return -1;
+                    }
+                    // Every tenth row is invalid, and every hundredth a duplicate of the previous one
+                    int id = row % 100 == 99 ? row - 1 : row;
+                    line = (row % 10 == 5 ? "account-" + id + ",-1\n" : "account-" + id + "," + row + "\n")
+                            .getBytes(StandardCharsets.UTF_8);
+                    position = 0;
+                    row++;
+                }
+                return line[position++];
+            }
+        };
+
+        // When
+        ImportSummary summary = importOperation.importAccounts(rows, ImportOperation.Format.CSV);
+
+        // Then
+        assertThat(summary.getImported(), equalTo(178_000L));
+        assertThat(summary.getDuplicates(), equalTo(2_000L));
+        assertThat(summary.getInvalid(), equalTo(20_000L));
+        assertThat(summary.getDuplicateIds(), hasSize(ImportOperation.MAX_REPORTED));
+        assertThat(summary.getInvalidRows(), hasSize(ImportOperation.MAX_REPORTED));
+        assertThat(store.getAccounts(), hasSize(178_000));
+    }
+
+    @Test
+    public void cutsLongLines() throws Throwable {
+        // Given
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i <= ImportOperation.MAX_LINE_LENGTH; i++) {
+            rows.append('x');
+        }
+        rows.append("\nfoo,1");
+        Store store = new InMemoryStore();
+        ImportOperation importOperation = new ImportOperation(store, CLUSTER, 1, 10);
+
+        // When
+        ImportSummary summary = importOperation.importAccounts(input(rows.toString()), ImportOperation.Format.CSV);
+
+        // Then
+        assertThat(summary.getImported(), equalTo(1L));
+        assertThat(summary.getInvalid(), equalTo(1L));
+        assertThat(summary.getInvalidRows().get(0), startsWith("line 1: "));
+        assertThat(store.getAccounts(), contains(store.getAccount("foo")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failsWhenTheStoreFails() throws Throwable {
+        // Given
+        Store store = mock(Store.class);
+        UncheckedIOException failure = new UncheckedIOException(new IOException("Disk full"));
+        doThrow(failure).when(store).storeAccounts(anyListOf(Account.class), any(Consumer.class));
+        ImportOperation importOperation = new ImportOperation(store, CLUSTER, 2, 1);
+
+        // Then
+        expectedException.expect(equalTo(failure));
+
+        // When
+        importOperation.importAccounts(input("foo,1\nbar,2\nbaz,3\n"), ImportOperation.Format.CSV);
+    }
+
+    private static InputStream input(String rows) {
+        return new ByteArrayInputStream(rows.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,138 @@
+package com.revolut.akalikin.operation;
+
+import com.google.common.collect.ImmutableList;
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.metrics.Metrics;
+import com.revolut.akalikin.model.Account;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class OptimisticTransferOperationTest {
+
+    @Test
+    public void transferOperationMovesMoneyAndAdvancesTheVersions() throws TransientException, PermanentException {
+        // Given
+        Store store = new InMemoryStore();
+        OptimisticTransferOperation transferOperation = new OptimisticTransferOperation(store, new AccountLockHolder());
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "bar", 500L);
+
+        // Then
+        assertThat(store.getAccount("foo").getBalance(), equalTo(0L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(500L));
+        assertThat(store.getAccount("foo").getVersion(), equalTo(2L));
+        assertThat(store.getAccount("bar").getVersion(), equalTo(2L));
+    }
+
+    @Test
+    public void transferOperationThrowsWhenNotEnoughFundsAndDoesntMoveMoney() throws TransientException, PermanentException {
+        // Given
+        Store store = new InMemoryStore();
+        OptimisticTransferOperation transferOperation = new OptimisticTransferOperation(store, new AccountLockHolder());
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+
+        // When
+        try {
+            transferOperation.executeMoneyTransfer("foo", "bar", 501L);
+        } catch (AccountInsufficientFundsException e) {
+            // Then
+            assertThat(store.getAccount("foo").getBalance(), equalTo(500L));
+            assertThat(store.getAccount("bar").getBalance(), equalTo(0L));
+            assertThat(store.getAccount("foo").getVersion(), equalTo(0L));
+            return;
+        }
+        throw new AssertionError("Expected " + AccountInsufficientFundsException.class.getSimpleName());
+    }
+
+    @Test
+    public void transferOperationRetriesOnConflictAndFallsBackToTheLocks() throws Throwable {
+        // Given
+        Store store = spy(new InMemoryStore());
+        AccountLockHolder lockHolder = spy(new AccountLockHolder());
+        OptimisticTransferOperation transferOperation = new OptimisticTransferOperation(store, lockHolder, 2);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+        Account foo = store.getAccount("foo");
+        // The optimistic commits race with concurrent changes of the debited account
+        doAnswer(invocation -> {
+            foo.addFunds(1L);
+            return false;
+        }).doAnswer(invocation -> {
+            foo.addFunds(1L);
+            return false;
+        }).doCallRealMethod().when(store).storeTransfer(any(Account.class), anyLong(), any(Account.class), anyLong(), anyLong());
+        long conflicts = Metrics.counter("transfer.optimistic.conflicts").get();
+        long fallbacks = Metrics.counter("transfer.optimistic.fallbacks").get();
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "bar", 100L);
+
+        // Then
+        assertThat(store.getAccount("foo").getBalance(), equalTo(402L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(100L));
+        verify(store, times(3)).storeTransfer(any(Account.class), anyLong(), any(Account.class), anyLong(), anyLong());
+        verify(lockHolder).acquireLocks("foo", "bar");
+        verify(lockHolder).releaseLocks("foo", "bar");
+        assertThat(Metrics.counter("transfer.optimistic.conflicts").get() - conflicts, equalTo(2L));
+        assertThat(Metrics.counter("transfer.optimistic.fallbacks").get() - fallbacks, equalTo(1L));
+    }
+
+    @Test
+    public void totalBalanceStaysConstantAndNeverNegativeWhenTransactionsExecutedConcurrently()
+            throws AccountAlreadyExistsException, InterruptedException {
+        // Given
+        Store store = new InMemoryStore();
+        OptimisticTransferOperation transferOperation = new OptimisticTransferOperation(store, new AccountLockHolder(), 1);
+        List<String> accountIds = ImmutableList.of("a", "b", "c", "d", "e");
+        for (String id : accountIds) {
+            store.storeAccount(new Account(id, 50L));
+        }
+
+        // When
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 10000; i++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                String from = accountIds.get(random.nextInt(accountIds.size()));
+                String to = accountIds.get(random.nextInt(accountIds.size()));
+                try {
+                    transferOperation.executeMoneyTransfer(from, to, 1L + random.nextInt(20));
+                } catch (Throwable e) {
+                    // ignore - failed transactions should not affect the total
+                }
+            });
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+
+        // Then
+        long total = store.getAccounts().stream().mapToLong(Account::getBalance).sum();
+        assertThat(total, equalTo(250L));
+        assertThat(store.getAccounts().stream().allMatch(account -> account.getBalance() >= 0), equalTo(true));
+        assertThat(store.getAccounts().stream().allMatch(account -> account.getVersion() % 2 == 0), equalTo(true));
+    }
+}
@@ -1,20 +1,32 @@
 package com.revolut.akalikin.operation;
 
+import com.revolut.akalikin.cluster.Cluster;
 import com.revolut.akalikin.data.InMemoryStore;
 import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.data.history.TransactionHistory;
 import com.revolut.akalikin.exception.AccountAlreadyExistsException;
 import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.InvalidCursorException;
+import com.revolut.akalikin.exception.InvalidPageSizeException;
 import com.revolut.akalikin.exception.InvalidRequestException;
 import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.AccountPage;
+import com.revolut.akalikin.model.BalanceSnapshot;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.nullValue;
 
 public class ReadOperationTest {
 
@@ -25,7 +37,7 @@ public class ReadOperationTest {
     public void readAllAccountsOperationReturnsAccountsAsExpected() throws AccountAlreadyExistsException {
         // Given
         Store store = new InMemoryStore();
-        ReadOperation readOperation = new ReadOperation(store);
+        ReadOperation readOperation = readOperation(store);
         Account fooAcc = new Account("foo");
         Account barAcc = new Account("bar", 100L);
         store.storeAccount(fooAcc);
@@ -39,11 +51,39 @@ public class ReadOperationTest {
         assertThat(accounts, containsInAnyOrder(fooAcc, barAcc));
     }
 
+    @Test
+    public void internalAccountsOfAPartitionedClusterAreNeitherListedNorRead() throws Throwable {
+        // Given
+        Store store = new InMemoryStore();
+        Cluster cluster = new Cluster(Arrays.asList(URI.create("http://localhost:9100/"),
+                URI.create("http://localhost:9101/")), 0);
+        ReadOperation readOperation = new ReadOperation(store, new TransactionHistory(), cluster);
+        Account fooAcc = new Account("foo", 100L);
+        store.storeAccount(fooAcc);
+        store.storeAccount(new Account(Cluster.INTERNAL_PREFIX + "in-1-0", -50L));
+        List<Account> streamed = new ArrayList<>();
+
+        // When
+        Collection<Account> accounts = readOperation.readAccounts();
+        AccountPage page = readOperation.readAccounts(null, 10);
+        try (BalanceSnapshot snapshot = readOperation.openSnapshot()) {
+            readOperation.streamAccounts(snapshot, streamed::add);
+        }
+
+        // Then
+        assertThat(accounts, contains(fooAcc));
+        assertThat(page.getAccounts(), contains(fooAcc));
+        assertThat(streamed.size(), equalTo(1));
+        assertThat(streamed.get(0).getAccountId(), equalTo("foo"));
+        expectedException.expect(AccountNotFoundException.class);
+        readOperation.readAccount(Cluster.INTERNAL_PREFIX + "in-1-0");
+    }
+
     @Test
     public void readAllAccountsOperationReturnsEmptyWhenNoAccountsAdded() {
         // Given
         Store store = new InMemoryStore();
-        ReadOperation readOperation = new ReadOperation(store);
+        ReadOperation readOperation = readOperation(store);
 
         // When
         Collection<Account> accounts = readOperation.readAccounts();
@@ -56,7 +96,7 @@ public class ReadOperationTest {
     public void readAccountReturnsTheCorrectAccount() throws InvalidRequestException, AccountNotFoundException, AccountAlreadyExistsException {
         // Given
         Store store = new InMemoryStore();
-        ReadOperation readOperation = new ReadOperation(store);
+        ReadOperation readOperation = readOperation(store);
         Account fooAcc = new Account("foo");
         Account barAcc = new Account("bar", 100L);
         store.storeAccount(fooAcc);
@@ -75,7 +115,7 @@ public class ReadOperationTest {
     public void readAccountThrowsWhenAccountNotFound() throws InvalidRequestException, AccountNotFoundException {
         // Given
         Store store = new InMemoryStore();
-        ReadOperation readOperation = new ReadOperation(store);
+        ReadOperation readOperation = readOperation(store);
 
         // Then - expected exception
         expectedException.expect(AccountNotFoundException.class);
@@ -88,7 +128,7 @@ public class ReadOperationTest {
     public void readAccountThrowsWhenEmptyAccountIdRequested() throws InvalidRequestException, AccountNotFoundException {
         // Given
         Store store = new InMemoryStore();
-        ReadOperation readOperation = new ReadOperation(store);
+        ReadOperation readOperation = readOperation(store);
 
         // Then - expected exception
         expectedException.expect(InvalidRequestException.class);
@@ -101,7 +141,7 @@ public class ReadOperationTest {
     public void readAccountThrowsWhenNullAccountIdRequested() throws InvalidRequestException, AccountNotFoundException {
         // Given
         Store store = new InMemoryStore();
-        ReadOperation readOperation = new ReadOperation(store);
+        ReadOperation readOperation = readOperation(store);
 
         // Then - expected exception
         expectedException.expect(InvalidRequestException.class);
@@ -109,4 +149,59 @@ public class ReadOperationTest {
         // When
         Account fooStored = readOperation.readAccount(null);
     }
+
+    @Test
+    public void readAccountPagesResumeFromTheCursor() throws InvalidRequestException, AccountAlreadyExistsException {
+        // Given
+        Store store = new InMemoryStore();
+        ReadOperation readOperation = readOperation(store);
+        for (int i = 0; i < 5; i++) {
+            store.storeAccount(new Account("account-" + i, 100L));
+        }
+
+        // When
+        AccountPage first = readOperation.readAccounts(null, 2);
+        AccountPage second = readOperation.readAccounts(first.getCursor(), 2);
+        AccountPage last = readOperation.readAccounts(second.getCursor(), 2);
+
+        // Then
+        List<String> accountIds = new ArrayList<>();
+        for (AccountPage page : Arrays.asList(first, second, last)) {
+            page.getAccounts().forEach(account -> accountIds.add(account.getAccountId()));
+        }
+        assertThat(accountIds, contains("account-0", "account-1", "account-2", "account-3", "account-4"));
+        assertThat(last.getAccounts().size(), equalTo(1));
+        assertThat(last.getCursor(), nullValue());
+    }
+
+    @Test
+    public void readAccountPageThrowsOnMalformedCursor() throws InvalidRequestException {
+        // Given
+        ReadOperation readOperation = readOperation(new InMemoryStore());
+
+        // Then - expected exception
+        expectedException.expect(InvalidCursorException.class);
+
+        // When
+        readOperation.readAccounts("not a cursor", 10);
+    }
+
+    @Test
+    public void readAccountPageThrowsOnTooLargePage() throws InvalidRequestException {
+        // Given
+        ReadOperation readOperation = readOperation(new InMemoryStore());
+
+        // Then - expected exception
+        expectedException.expect(InvalidPageSizeException.class);
+
+        // When
+        readOperation.readAccounts(null, ReadOperation.MAX_PAGE_SIZE + 1);
+    }
+
+    /**
+     * @return reads of a single node
+     */
+    private static ReadOperation readOperation(Store store) {
+        return new ReadOperation(store, new TransactionHistory(), Cluster.single(URI.create("http://localhost:8080/")));
+    }
 }
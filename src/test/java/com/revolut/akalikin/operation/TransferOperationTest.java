@@ -62,8 +62,7 @@ public class TransferOperationTest {
         // Then
         assertThat(store.getAccount("foo").getBalance(), equalTo(0L));
         assertThat(store.getAccount("bar").getBalance(), equalTo(500L));
-        verify(accountLockHolder).releaseLock("foo");
-        verify(accountLockHolder).releaseLock("bar");
+        verify(accountLockHolder).releaseLocks("foo", "bar");
     }
 
     @Test
@@ -83,8 +82,55 @@ public class TransferOperationTest {
         // Then
         assertThat(store.getAccount("foo").getBalance(), equalTo(500L));
         assertThat(store.getAccount("bar").getBalance(), equalTo(0L));
-        verify(accountLockHolder).releaseLock("foo");
-        verify(accountLockHolder).releaseLock("bar");
+        verify(accountLockHolder).releaseLocks("foo", "bar");
+    }
+
+    @Test
+    public void insufficientFundsAreReportedWithoutStackTrace() throws Throwable {
+        // Given
+        Store store = new InMemoryStore();
+        TransferOperation transferOperation = new TransferOperation(store, accountLockHolder);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+
+        // When
+        AccountInsufficientFundsException exception = null;
+        try {
+            transferOperation.executeMoneyTransfer("foo", "bar", 501L);
+        } catch (AccountInsufficientFundsException e) {
+            exception = e;
+        }
+
+        // Then
+        assertThat(exception.getStackTrace().length, equalTo(0));
+        assertThat(exception.getMessage(), equalTo(String.format(PermanentException.MESSAGE,
+                String.format(AccountInsufficientFundsException.MESSAGE, "foo", 500L, 501L))));
+    }
+
+
+    @Test
+    public void transferOperationCountsOutcomesAndRecordsLatencies() throws TransientException, PermanentException {
+        // Given
+        Store store = new InMemoryStore();
+        TransferOperation transferOperation = new TransferOperation(store, accountLockHolder);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+        long completed = TransferMetrics.COMPLETED.get();
+        long insufficientFunds = TransferMetrics.INSUFFICIENT_FUNDS.get();
+        long latencies = TransferMetrics.LATENCY.snapshot().getTotalCount();
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "bar", 300L);
+        try {
+            transferOperation.executeMoneyTransfer("foo", "bar", 300L);
+        } catch (AccountInsufficientFundsException e) {
+            // expected
+        }
+
+        // Then
+        assertThat(TransferMetrics.COMPLETED.get(), equalTo(completed + 1));
+        assertThat(TransferMetrics.INSUFFICIENT_FUNDS.get(), equalTo(insufficientFunds + 1));
+        assertThat(TransferMetrics.LATENCY.snapshot().getTotalCount(), equalTo(latencies + 2));
     }
 
 
@@ -95,7 +141,7 @@ public class TransferOperationTest {
         TransferOperation transferOperation = new TransferOperation(store, accountLockHolder);
         store.storeAccount(new Account("foo", 500L));
         store.storeAccount(new Account("bar"));
-        doThrow(AccountLockNotAcquiredException.class).when(accountLockHolder).acquireLock("bar");
+        doThrow(AccountLockNotAcquiredException.class).when(accountLockHolder).acquireLocks("foo", "bar");
 
 
         // Then - expected exception
@@ -107,8 +153,7 @@ public class TransferOperationTest {
         // Then
         assertThat(store.getAccount("foo").getBalance(), equalTo(500L));
         assertThat(store.getAccount("bar").getBalance(), equalTo(0L));
-        verify(accountLockHolder).releaseLock("foo");
-        verify(accountLockHolder).releaseLock("bar");
+        verify(accountLockHolder).releaseLocks("foo", "bar");
     }
 
     @Test
@@ -118,7 +163,7 @@ public class TransferOperationTest {
         TransferOperation transferOperation = new TransferOperation(store, accountLockHolder);
         store.storeAccount(new Account("foo", 500L));
         store.storeAccount(new Account("bar"));
-        doThrow(AccountLockNotAcquiredException.class).when(accountLockHolder).acquireLock("bar");
+        doThrow(AccountLockNotAcquiredException.class).when(accountLockHolder).acquireLocks("foo", "bar");
 
 
         // Then - expected exception
@@ -130,8 +175,7 @@ public class TransferOperationTest {
         // Then
         assertThat(store.getAccount("foo").getBalance(), equalTo(500L));
         assertThat(store.getAccount("bar").getBalance(), equalTo(0L));
-        verify(accountLockHolder).releaseLock("foo");
-        verify(accountLockHolder).releaseLock("bar");
+        verify(accountLockHolder).releaseLocks("foo", "bar");
     }
 
     @Test
@@ -141,7 +185,7 @@ public class TransferOperationTest {
         TransferOperation transferOperation = new TransferOperation(store, accountLockHolder);
         store.storeAccount(new Account("foo", 500L));
         store.storeAccount(new Account("bar"));
-        doThrow(AccountLockNotAcquiredException.class).when(accountLockHolder).acquireLock("bar");
+        doThrow(AccountLockNotAcquiredException.class).when(accountLockHolder).acquireLocks("foo", "bar");
 
 
         // Then - expected exception
@@ -153,8 +197,7 @@ public class TransferOperationTest {
         // Then 
         assertThat(store.getAccount("foo").getBalance(), equalTo(500L));
         assertThat(store.getAccount("bar").getBalance(), equalTo(0L));
-        verify(accountLockHolder).releaseLock("foo");
-        verify(accountLockHolder).releaseLock("bar");
+        verify(accountLockHolder).releaseLocks("foo", "bar");
     }
 
     @Test
@@ -251,4 +294,44 @@ public class TransferOperationTest {
         assertThat(total, equalTo(2500L));
     }
 
+    @Test
+    public void oppositeTransfersRequestedConcurrentlyDontDeadlock() throws AccountAlreadyExistsException, InterruptedException, AccountNotFoundException {
+        // Given
+        Store store = new InMemoryStore();
+        AccountLockHolder accountLockHolder = new AccountLockHolder();
+        TransferOperation transferOperation = new TransferOperation(store, accountLockHolder);
+        store.storeAccount(new Account("a", 1000L));
+        store.storeAccount(new Account("b", 1000L));
+
+        // When
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<Throwable>> futures = new LinkedList<>();
+        for (int i = 0; i < 200; i++) {
+            String from = i % 2 == 0 ? "a" : "b";
+            String to = i % 2 == 0 ? "b" : "a";
+            futures.add(executorService.submit(() -> {
+                try {
+                    transferOperation.executeMoneyTransfer(from, to, 1L);
+                    return null;
+                } catch (Throwable e) {
+                    return e;
+                }
+            }));
+        }
+        executorService.shutdown();
+
+        // Then - all transfers complete well before the lock timeout, none of them fail
+        assertThat(executorService.awaitTermination(2, TimeUnit.SECONDS), equalTo(true));
+        long failedCount = futures.stream().map(f -> {
+            try {
+                return f.get();
+            } catch (Exception e) {
+                return e;
+            }
+        }).filter(Objects::nonNull).count();
+        assertThat(failedCount, equalTo(0L));
+        assertThat(store.getAccount("a").getBalance(), equalTo(1000L));
+        assertThat(store.getAccount("b").getBalance(), equalTo(1000L));
+    }
+
 }
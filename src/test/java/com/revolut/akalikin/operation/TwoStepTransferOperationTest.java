@@ -0,0 +1,163 @@
+package com.revolut.akalikin.operation;
+
+import com.google.common.collect.ImmutableList;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransferRequestForTheSameAccountException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.model.Account;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TwoStepTransferOperationTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void transferOperationMovesMoneyBetweenAccounts() throws TransientException, PermanentException {
+        // Given
+        Store store = new InMemoryStore();
+        TwoStepTransferOperation transferOperation = new TwoStepTransferOperation(store);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "bar", 500L);
+
+        // Then
+        assertThat(store.getAccount("foo").getBalance(), equalTo(0L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(500L));
+    }
+
+    @Test
+    public void transferOperationThrowsWhenNotEnoughFundsAndDoesntMoveMoney() throws TransientException, PermanentException {
+        // Given
+        Store store = new InMemoryStore();
+        TwoStepTransferOperation transferOperation = new TwoStepTransferOperation(store);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+
+        // When
+        try {
+            transferOperation.executeMoneyTransfer("foo", "bar", 501L);
+        } catch (AccountInsufficientFundsException e) {
+            // Then
+            assertThat(store.getAccount("foo").getBalance(), equalTo(500L));
+            assertThat(store.getAccount("bar").getBalance(), equalTo(0L));
+            return;
+        }
+        throw new AssertionError("Expected " + AccountInsufficientFundsException.class.getSimpleName());
+    }
+
+    @Test
+    public void transferOperationThrowsWhenTargetAccountNotFoundAndDoesntMoveMoney() throws TransientException, PermanentException {
+        // Given
+        Store store = new InMemoryStore();
+        TwoStepTransferOperation transferOperation = new TwoStepTransferOperation(store);
+        store.storeAccount(new Account("foo", 500L));
+
+        // When
+        try {
+            transferOperation.executeMoneyTransfer("foo", "bar", 100L);
+        } catch (AccountNotFoundException e) {
+            // Then
+            assertThat(store.getAccount("foo").getBalance(), equalTo(500L));
+            return;
+        }
+        throw new AssertionError("Expected " + AccountNotFoundException.class.getSimpleName());
+    }
+
+    @Test
+    public void transferOperationRefundsTheDebitWhenTheStoreFailsAndDoesntCredit() throws TransientException, PermanentException {
+        // Given
+        AtomicLong creditedBalance = new AtomicLong(-1L);
+        Store store = new InMemoryStore() {
+            @Override
+            public void storeDebitedTransfer(Account from, Account to, long amount) {
+                creditedBalance.set(to.getBalance());
+                throw new UncheckedIOException(new IOException("Disk full"));
+            }
+        };
+        TwoStepTransferOperation transferOperation = new TwoStepTransferOperation(store);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar", 100L));
+
+        // When
+        try {
+            transferOperation.executeMoneyTransfer("foo", "bar", 200L);
+        } catch (UncheckedIOException e) {
+            // Then
+            assertThat(creditedBalance.get(), equalTo(100L));
+            assertThat(store.getAccount("foo").getBalance(), equalTo(500L));
+            assertThat(store.getAccount("bar").getBalance(), equalTo(100L));
+            return;
+        }
+        throw new AssertionError("Expected " + UncheckedIOException.class.getSimpleName());
+    }
+
+    @Test
+    public void transferOperationThrowsWhenToAndFromAreTheSame() throws TransientException, PermanentException {
+        // Given
+        Store store = new InMemoryStore();
+        TwoStepTransferOperation transferOperation = new TwoStepTransferOperation(store);
+        store.storeAccount(new Account("foo", 500L));
+
+        // Then - expected exception
+        expectedException.expect(TransferRequestForTheSameAccountException.class);
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "foo", 500L);
+    }
+
+    @Test
+    public void totalBalanceStaysConstantAndNeverNegativeWhenTransactionsExecutedConcurrently()
+            throws AccountAlreadyExistsException, InterruptedException {
+        // Given
+        Store store = new InMemoryStore();
+        TwoStepTransferOperation transferOperation = new TwoStepTransferOperation(store);
+        List<String> accountIds = ImmutableList.of("a", "b", "c", "d", "e");
+        for (String id : accountIds) {
+            store.storeAccount(new Account(id, 50L));
+        }
+
+        // When
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 10000; i++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                String from = accountIds.get(random.nextInt(accountIds.size()));
+                String to = accountIds.get(random.nextInt(accountIds.size()));
+                try {
+                    transferOperation.executeMoneyTransfer(from, to, 1L + random.nextInt(20));
+                } catch (Throwable e) {
+                    // ignore - failed transactions should not affect the total
+                }
+            });
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+
+        // Then
+        long total = store.getAccounts().stream().mapToLong(Account::getBalance).sum();
+        assertThat(total, equalTo(250L));
+        assertThat(store.getAccounts().stream().allMatch(account -> account.getBalance() >= 0), equalTo(true));
+    }
+}
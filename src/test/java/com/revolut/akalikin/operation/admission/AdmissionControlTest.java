@@ -0,0 +1,170 @@
+package com.revolut.akalikin.operation.admission;
+
+import com.revolut.akalikin.exception.AccountBusyException;
+import com.revolut.akalikin.exception.ServiceOverloadedException;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.operation.BatchTransferOperation;
+import com.revolut.akalikin.operation.TransferEngine;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class AdmissionControlTest {
+
+    private static final long TARGET_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch started = new CountDownLatch(2);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /**
+     * Holds the transfers in flight until released.
+     */
+    private final TransferEngine blockingEngine = (fromId, toId, amount) -> {
+        started.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    };
+
+    @After
+    public void after() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void admittedTransferIsExecutedByTheEngine() throws Throwable {
+        // Given
+        TransferEngine engine = mock(TransferEngine.class);
+        AdmissionControl admissionControl = new AdmissionControl(engine, 2, 2, 5);
+
+        // When
+        admissionControl.executeMoneyTransfer("foo", "bar", 10L);
+
+        // Then
+        verify(engine).executeMoneyTransfer("foo", "bar", 10L);
+        assertThat(admissionControl.getInFlight(), equalTo(0));
+    }
+
+    @Test
+    public void transferOfABusyAccountIsRejected() throws Throwable {
+        // Given
+        AdmissionControl admissionControl = new AdmissionControl(blockingEngine, 16, 2, 5);
+        inFlight(admissionControl, "foo", "bar");
+        inFlight(admissionControl, "foo", "baz");
+        started.await();
+
+        // Then
+        expectedException.expect(AccountBusyException.class);
+
+        // When
+        admissionControl.executeMoneyTransfer("foo", "qux", 10L);
+    }
+
+    @Test
+    public void transferBeyondTheLimitIsRejected() throws Throwable {
+        // Given
+        AdmissionControl admissionControl = new AdmissionControl(blockingEngine, 2, 16, 5);
+        inFlight(admissionControl, "foo", "bar");
+        inFlight(admissionControl, "baz", "qux");
+        started.await();
+
+        // Then
+        expectedException.expect(ServiceOverloadedException.class);
+
+        // When
+        admissionControl.executeMoneyTransfer("quux", "corge", 10L);
+    }
+
+    @Test
+    public void batchWithABusyAccountIsRejectedAsAWhole() throws Throwable {
+        // Given
+        AdmissionControl admissionControl = new AdmissionControl(blockingEngine, 16, 2, 5);
+        BatchTransferOperation batch = mock(BatchTransferOperation.class);
+        inFlight(admissionControl, "foo", "bar");
+        inFlight(admissionControl, "foo", "baz");
+        started.await();
+        Throwable rejection = null;
+
+        // When
+        try {
+            admissionControl.executeMoneyTransfers(batch, Arrays.asList(
+                    new TransferRequest("qux", "quux", 10L), new TransferRequest("quux", "foo", 10L)));
+        } catch (AccountBusyException e) {
+            rejection = e;
+        }
+
+        // Then
+        assertThat(rejection, instanceOf(AccountBusyException.class));
+        verify(batch, never()).executeMoneyTransfers(anyListOf(TransferRequest.class));
+        release.countDown();
+    }
+
+    @Test
+    public void batchCountsAsOneTransferInFlightOfEachOfItsAccounts() throws Throwable {
+        // Given
+        TransferEngine engine = mock(TransferEngine.class);
+        AdmissionControl admissionControl = new AdmissionControl(engine, 1, 1, 5);
+        BatchTransferOperation batch = mock(BatchTransferOperation.class);
+        List<TransferRequest> transfers = Arrays.asList(
+                new TransferRequest("foo", "bar", 10L), new TransferRequest("bar", "foo", 10L));
+
+        // When
+        admissionControl.executeMoneyTransfers(batch, transfers);
+
+        // Then
+        verify(engine).executeMoneyTransfers(batch, transfers);
+        assertThat(admissionControl.getInFlight(), equalTo(0));
+    }
+
+    @Test
+    public void limitShrinksWhileAQueueStandsAndGrowsBackAfter() {
+        // Given
+        AdmissionControl admissionControl = new AdmissionControl(mock(TransferEngine.class), 64, 8, 5);
+        long now = System.nanoTime();
+
+        // When - two intervals in which no transfer was faster than the target
+        admissionControl.recordDelay(2 * TARGET_DELAY_NANOS, now + AdmissionControl.INTERVAL_NANOS);
+        admissionControl.recordDelay(2 * TARGET_DELAY_NANOS, now + 2 * AdmissionControl.INTERVAL_NANOS);
+        int shrunk = admissionControl.getLimit();
+        // then one in which a transfer was
+        admissionControl.recordDelay(2 * TARGET_DELAY_NANOS, now + 2 * AdmissionControl.INTERVAL_NANOS + 1);
+        admissionControl.recordDelay(TARGET_DELAY_NANOS / 2, now + 3 * AdmissionControl.INTERVAL_NANOS);
+
+        // Then
+        assertThat(shrunk, equalTo(16));
+        assertThat(admissionControl.getLimit(), equalTo(20));
+    }
+
+    private void inFlight(AdmissionControl admissionControl, String fromId, String toId) {
+        executor.execute(() -> {
+            try {
+                admissionControl.executeMoneyTransfer(fromId, toId, 10L);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,212 @@
+package com.revolut.akalikin.operation.netting;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class NettingTransferOperationTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private final Store store = new InMemoryStore();
+
+    @Test
+    public void transferOperationMovesMoneyBetweenAccountsThatArentHot() throws TransientException, PermanentException {
+        // Given
+        NettingTransferOperation transferOperation = new NettingTransferOperation(store, new AccountLockHolder(), 4);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "bar", 500L);
+
+        // Then
+        assertThat(store.getAccount("foo").getBalance(), equalTo(0L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(500L));
+    }
+
+    @Test
+    public void transferOperationMovesMoneyBetweenNettedAccounts() throws TransientException, PermanentException {
+        // Given
+        NettingTransferOperation transferOperation = new NettingTransferOperation(store, new AccountLockHolder(), 0);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "bar", 200L);
+
+        // Then
+        assertThat(store.getAccount("foo").getBalance(), equalTo(300L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(200L));
+    }
+
+    @Test
+    public void transferOperationThrowsWhenNotEnoughFundsInNettedAccount() throws TransientException, PermanentException {
+        // Given
+        NettingTransferOperation transferOperation = new NettingTransferOperation(store, new AccountLockHolder(), 0);
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+
+        // Then - expected exception
+        expectedException.expect(AccountInsufficientFundsException.class);
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "bar", 501L);
+    }
+
+    @Test
+    public void transferOperationThrowsWhenNettedAccountNotFound() throws TransientException, PermanentException {
+        // Given
+        NettingTransferOperation transferOperation = new NettingTransferOperation(store, new AccountLockHolder(), 0);
+        store.storeAccount(new Account("foo", 500L));
+
+        // Then - expected exception
+        expectedException.expect(AccountNotFoundException.class);
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "bar", 100L);
+    }
+
+    @Test
+    public void batchChecksEveryTransferAgainstTheRunningBalancesAndPersistsThemTogether() throws Throwable {
+        // Given
+        store.storeAccount(new Account("foo", 100L));
+        store.storeAccount(new Account("bar", 50L));
+        store.storeAccount(new Account("baz"));
+        Store spiedStore = spy(store);
+        NettingTransferOperation transferOperation = new NettingTransferOperation(spiedStore, new AccountLockHolder(), 0);
+        PendingTransfer fooToBar = new PendingTransfer("foo", "bar", 100L);
+        PendingTransfer barToBaz = new PendingTransfer("bar", "baz", 150L);
+        PendingTransfer fooToBaz = new PendingTransfer("foo", "baz", 1L);
+        PendingTransfer fooToQux = new PendingTransfer("foo", "qux", 1L);
+
+        // When
+        transferOperation.apply(Arrays.asList(fooToBar, barToBaz, fooToBaz, fooToQux));
+
+        // Then
+        assertThat(fooToBar.completion.isCompletedExceptionally(), equalTo(false));
+        assertThat(barToBaz.completion.isCompletedExceptionally(), equalTo(false));
+        assertThat(failure(fooToBaz), instanceOf(AccountInsufficientFundsException.class));
+        assertThat(failure(fooToQux), instanceOf(AccountNotFoundException.class));
+        assertThat(store.getAccount("foo").getBalance(), equalTo(0L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(0L));
+        assertThat(store.getAccount("baz").getBalance(), equalTo(150L));
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<TransferRequest>> persisted = ArgumentCaptor.forClass((Class) List.class);
+        verify(spiedStore, times(1)).storeTransfers(persisted.capture());
+        assertThat(persisted.getValue().size(), equalTo(2));
+    }
+
+    @Test
+    public void totalBalanceStaysConstantWithConcurrentTransfersOfAHotAccount() throws Throwable {
+        // Given
+        NettingTransferOperation transferOperation = new NettingTransferOperation(store, new AccountLockHolder(), 2);
+        int accountCount = 16;
+        store.storeAccount(new Account("hot", 100L));
+        for (int i = 0; i < accountCount; i++) {
+            store.storeAccount(new Account("account-" + i, 100L));
+        }
+        AtomicLong hotBalance = new AtomicLong(100L);
+        AtomicInteger unexpectedFailures = new AtomicInteger();
+
+        // When
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < 20000; i++) {
+            boolean fromHot = i % 2 == 0;
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                String other = "account-" + random.nextInt(accountCount);
+                long amount = 1L + random.nextInt(50);
+                try {
+                    if (fromHot) {
+                        transferOperation.executeMoneyTransfer("hot", other, amount);
+                        hotBalance.addAndGet(-amount);
+                    } else {
+                        transferOperation.executeMoneyTransfer(other, "hot", amount);
+                        hotBalance.addAndGet(amount);
+                    }
+                } catch (AccountInsufficientFundsException e) {
+                    // expected for some of the transfers
+                } catch (Throwable e) {
+                    unexpectedFailures.incrementAndGet();
+                }
+            });
+        }
+        executorService.shutdown();
+
+        // Then
+        assertThat(executorService.awaitTermination(30, TimeUnit.SECONDS), equalTo(true));
+        assertThat(unexpectedFailures.get(), equalTo(0));
+        long total = store.getAccounts().stream().mapToLong(Account::getBalance).sum();
+        assertThat(total, equalTo((accountCount + 1) * 100L));
+        assertThat(store.getAccounts().stream().allMatch(account -> account.getBalance() >= 0), equalTo(true));
+        assertThat(store.getAccount("hot").getBalance(), equalTo(hotBalance.get()));
+    }
+
+    @Test
+    public void accountsSharingAStripeAreNettedTogether() throws Throwable {
+        // Given - more accounts than stripes, all of them netted
+        NettingTransferOperation transferOperation = new NettingTransferOperation(store, new AccountLockHolder(), 0);
+        int accountCount = 10000;
+        for (int i = 0; i < accountCount; i++) {
+            store.storeAccount(new Account("account-" + i, 10L));
+        }
+        AtomicInteger unexpectedFailures = new AtomicInteger();
+
+        // When - every account sends 1 to the next one
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < accountCount; i++) {
+            int from = i;
+            executorService.execute(() -> {
+                try {
+                    transferOperation.executeMoneyTransfer("account-" + from, "account-" + (from + 1) % accountCount, 1L);
+                } catch (Throwable e) {
+                    unexpectedFailures.incrementAndGet();
+                }
+            });
+        }
+        executorService.shutdown();
+
+        // Then
+        assertThat(executorService.awaitTermination(30, TimeUnit.SECONDS), equalTo(true));
+        assertThat(unexpectedFailures.get(), equalTo(0));
+        assertThat(store.getAccounts().stream().allMatch(account -> account.getBalance() == 10L), equalTo(true));
+    }
+
+    private static Throwable failure(PendingTransfer transfer) throws InterruptedException {
+        try {
+            transfer.completion.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.revolut.akalikin.operation.partitioned;
+
+import com.revolut.akalikin.cluster.Cluster;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.AccountOnOtherNodeException;
+import com.revolut.akalikin.exception.CreditConflictException;
+import com.revolut.akalikin.exception.NodeUnavailableException;
+import com.revolut.akalikin.exception.TransferPendingException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.CreditRequest;
+import com.revolut.akalikin.operation.TwoStepTransferOperation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+
+public class PartitionedTransferOperationTest {
+
+    private static final List<URI> NODES = Arrays.asList(URI.create("http://node-0:8080/"), URI.create("http://node-1:8080/"));
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Cluster cluster = new Cluster(NODES, 0);
+    private final Store senderStore = new InMemoryStore();
+    private final Store receiverStore = new InMemoryStore();
+    private final InProcessNodes nodes = new InProcessNodes(new CreditOperation(receiverStore));
+    private String foo;
+    private String bar;
+    private PartitionedTransferOperation operation;
+
+    /**
+     * Node 1, in this process, unless it's made unreachable, fails between a credit and its response,
+     * or fails to credit for good.
+     */
+    private static class InProcessNodes implements NodeClient {
+
+        private final CreditOperation receiver;
+        private boolean reachable = true;
+        private boolean crediting = true;
+        private boolean acknowledged = true;
+        private boolean broken;
+
+        InProcessNodes(CreditOperation receiver) {
+            this.receiver = receiver;
+        }
+
+        @Override
+        public long readMirrorBalance(int node, int source, int slot) throws IOException {
+            if (!reachable) {
+                throw new IOException("Unreachable");
+            }
+            return receiver.readMirrorBalance(source, slot);
+        }
+
+        @Override
+        public void credit(int node, CreditRequest request)
+                throws IOException, AccountNotFoundException, CreditConflictException {
+            if (!reachable || !crediting) {
+                throw new IOException("Unreachable");
+            }
+            if (broken) {
+                throw new IllegalStateException("Broken");
+            }
+            try {
+                receiver.credit(request);
+            } catch (AccountNotFoundException | CreditConflictException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+            if (!acknowledged) {
+                throw new IOException("Acknowledgement lost");
+            }
+        }
+    }
+
+    @Before
+    public void before() throws Throwable {
+        foo = accountOfNode(0);
+        bar = accountOfNode(1);
+        senderStore.storeAccount(new Account(foo, 100L));
+        receiverStore.storeAccount(new Account(bar, 0L));
+        operation = start(null);
+    }
+
+    @After
+    public void after() throws IOException {
+        operation.close();
+    }
+
+    @Test
+    public void transferToAnotherNodeIsDebitedHereAndCreditedThere() throws Throwable {
+        // When
+        operation.executeMoneyTransfer(foo, bar, 30L);
+        operation.executeMoneyTransfer(foo, bar, 20L);
+
+        // Then
+        assertThat(senderStore.getAccount(foo).getBalance(), equalTo(50L));
+        assertThat(receiverStore.getAccount(bar).getBalance(), equalTo(50L));
+        assertThat(total(senderStore) + total(receiverStore), equalTo(100L));
+    }
+
+    @Test
+    public void transferToAMissingAccountOfAnotherNodeIsRefunded() throws Throwable {
+        // Given
+        String missing = accountOfNode(1, bar);
+
+        // When
+        Throwable failure = null;
+        try {
+            operation.executeMoneyTransfer(foo, missing, 30L);
+        } catch (AccountNotFoundException e) {
+            failure = e;
+        }
+
+        // Then
+        assertThat(failure, instanceOf(AccountNotFoundException.class));
+        assertThat(senderStore.getAccount(foo).getBalance(), equalTo(100L));
+        assertThat(total(senderStore) + total(receiverStore), equalTo(100L));
+    }
+
+    @Test
+    public void transferToAnUnreachableNodeIsCreditedOnceWhenItIsBack() throws Throwable {
+        // Given
+        operation.executeMoneyTransfer(foo, bar, 10L);
+        nodes.crediting = false;
+
+        // When
+        Throwable failure = null;
+        try {
+            operation.executeMoneyTransfer(foo, bar, 30L);
+        } catch (TransferPendingException e) {
+            failure = e;
+        }
+
+        // Then
+        assertThat(failure, instanceOf(TransferPendingException.class));
+        assertThat(senderStore.getAccount(foo).getBalance(), equalTo(60L));
+        assertThat(receiverStore.getAccount(bar).getBalance(), equalTo(10L));
+        assertThat(operation.getPendingCount(), equalTo(1));
+
+        // When
+        nodes.crediting = true;
+        operation.retryPending();
+        operation.retryPending();
+
+        // Then
+        assertThat(receiverStore.getAccount(bar).getBalance(), equalTo(40L));
+        assertThat(operation.getPendingCount(), equalTo(0));
+        assertThat(total(senderStore) + total(receiverStore), equalTo(100L));
+    }
+
+    @Test
+    public void pendingTransferFailingForGoodIsAbandonedWithItsSlot() throws Throwable {
+        // Given
+        nodes.crediting = false;
+        try {
+            operation.executeMoneyTransfer(foo, bar, 30L);
+        } catch (TransferPendingException e) {
+            // expected
+        }
+        nodes.crediting = true;
+        nodes.broken = true;
+
+        // When
+        operation.retryPending();
+        nodes.broken = false;
+        operation.retryPending();
+
+        // Then
+        assertThat(operation.getPendingCount(), equalTo(0));
+        assertThat(senderStore.getAccount(foo).getBalance(), equalTo(70L));
+        assertThat(senderStore.getAccount(PartitionedTransferOperation.slotId(0)).getBalance(), equalTo(30L));
+        assertThat(receiverStore.getAccount(bar).getBalance(), equalTo(0L));
+    }
+
+    @Test
+    public void creditWithALostAcknowledgementIsNotAppliedAgainAfterRecovery() throws Throwable {
+        // Given
+        Path intents = folder.getRoot().toPath().resolve("intents.log");
+        operation.close();
+        operation = start(intents);
+        nodes.acknowledged = false;
+        try {
+            operation.executeMoneyTransfer(foo, bar, 30L);
+        } catch (TransferPendingException e) {
+            // Credited, but not confirmed
+        }
+        operation.close();
+        nodes.acknowledged = true;
+
+        // When
+        operation = start(intents);
+        assertThat(operation.getPendingCount(), equalTo(1));
+        operation.retryPending();
+
+        // Then
+        assertThat(operation.getPendingCount(), equalTo(0));
+        assertThat(senderStore.getAccount(foo).getBalance(), equalTo(70L));
+        assertThat(receiverStore.getAccount(bar).getBalance(), equalTo(30L));
+        assertThat(total(senderStore) + total(receiverStore), equalTo(100L));
+    }
+
+    @Test
+    public void intentOpenedBeforeACrashWithoutADebitIsClosedOnRecovery() throws Throwable {
+        // Given
+        Path intents = folder.getRoot().toPath().resolve("intents.log");
+        try (IntentLog intentLog = new IntentLog(intents)) {
+            intentLog.open(new Intent(0, foo, bar, 30L, 1, 0L, 0L));
+        }
+
+        // When
+        operation.close();
+        operation = start(intents);
+        operation.executeMoneyTransfer(foo, bar, 30L);
+
+        // Then
+        assertThat(operation.getPendingCount(), equalTo(0));
+        assertThat(receiverStore.getAccount(bar).getBalance(), equalTo(30L));
+        try (IntentLog intentLog = new IntentLog(intents)) {
+            assertThat(intentLog.getOpenIntents().size(), equalTo(0));
+        }
+    }
+
+    @Test
+    public void transferToAnUnreachableNodeIsRejectedBeforeTheDebit() throws Throwable {
+        // Given
+        nodes.reachable = false;
+
+        // Then
+        expectedException.expect(NodeUnavailableException.class);
+
+        // When
+        try {
+            operation.executeMoneyTransfer(foo, bar, 30L);
+        } finally {
+            assertThat(senderStore.getAccount(foo).getBalance(), equalTo(100L));
+        }
+    }
+
+    @Test
+    public void transferFromAnAccountOfAnotherNodeIsRejected() throws Throwable {
+        // Then
+        expectedException.expect(AccountOnOtherNodeException.class);
+
+        // When
+        operation.executeMoneyTransfer(bar, foo, 30L);
+    }
+
+    private PartitionedTransferOperation start(Path intents) throws IOException {
+        return new PartitionedTransferOperation(new TwoStepTransferOperation(senderStore), senderStore, cluster,
+                nodes, intents, 4);
+    }
+
+    /**
+     * @return an account ID owned by the node, other than the excluded one
+     */
+    private String accountOfNode(int node, String... excluded) {
+        for (int i = 0; ; i++) {
+            String accountId = "account-" + i;
+            if (cluster.ownerOf(accountId) == node && !Arrays.asList(excluded).contains(accountId)) {
+                return accountId;
+            }
+        }
+    }
+
+    private static long total(Store store) {
+        return store.getAccounts().stream().mapToLong(Account::getBalance).sum();
+    }
+}
@@ -0,0 +1,241 @@
+package com.revolut.akalikin.operation.sharded;
+
+import com.revolut.akalikin.data.AccountLockHolder;
+import com.revolut.akalikin.data.InMemoryStore;
+import com.revolut.akalikin.data.Store;
+import com.revolut.akalikin.exception.AccountAlreadyExistsException;
+import com.revolut.akalikin.exception.AccountInsufficientFundsException;
+import com.revolut.akalikin.exception.AccountNotFoundException;
+import com.revolut.akalikin.exception.BatchNotSupportedException;
+import com.revolut.akalikin.exception.EngineStoppedException;
+import com.revolut.akalikin.exception.PermanentException;
+import com.revolut.akalikin.exception.TransientException;
+import com.revolut.akalikin.model.Account;
+import com.revolut.akalikin.model.TransferRequest;
+import com.revolut.akalikin.operation.BatchTransferOperation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ShardedTransferOperationTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private Store store;
+    private ShardedTransferOperation transferOperation;
+
+    @Before
+    public void before() {
+        store = new InMemoryStore();
+        transferOperation = new ShardedTransferOperation(store, 4, 16);
+    }
+
+    @After
+    public void after() {
+        transferOperation.close();
+    }
+
+    @Test
+    public void transferOperationMovesMoneyBetweenAccounts() throws TransientException, PermanentException {
+        // Given
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "bar", 500L);
+
+        // Then
+        assertThat(store.getAccount("foo").getBalance(), equalTo(0L));
+        assertThat(store.getAccount("bar").getBalance(), equalTo(500L));
+    }
+
+    @Test
+    public void transferOperationThrowsWhenNotEnoughFunds() throws TransientException, PermanentException {
+        // Given
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+
+        // Then - expected exception
+        expectedException.expect(AccountInsufficientFundsException.class);
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "bar", 501L);
+    }
+
+    @Test
+    public void batchesAreRejected() throws TransientException, PermanentException {
+        // Given
+        store.storeAccount(new Account("foo", 500L));
+        store.storeAccount(new Account("bar"));
+        BatchTransferOperation batch = new BatchTransferOperation(store, new AccountLockHolder());
+
+        // Then - expected exception
+        expectedException.expect(BatchNotSupportedException.class);
+
+        // When
+        transferOperation.executeMoneyTransfers(batch, Collections.singletonList(new TransferRequest("foo", "bar", 100L)));
+    }
+
+    @Test
+    public void transferOperationThrowsWhenAccountNotFound() throws TransientException, PermanentException {
+        // Given
+        store.storeAccount(new Account("foo", 500L));
+
+        // Then - expected exception
+        expectedException.expect(AccountNotFoundException.class);
+
+        // When
+        transferOperation.executeMoneyTransfer("foo", "bar", 100L);
+    }
+
+    @Test
+    public void totalBalanceStaysConstantWhenRingsOverflowConcurrently() throws AccountAlreadyExistsException, InterruptedException {
+        // Given - small rings, so cross-shard handoffs regularly find the target ring full
+        int accountCount = 64;
+        for (int i = 0; i < accountCount; i++) {
+            store.storeAccount(new Account("account-" + i, 100L));
+        }
+        AtomicInteger unexpectedFailures = new AtomicInteger();
+
+        // When
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < 20000; i++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int from = random.nextInt(accountCount);
+                int to = (from + 1 + random.nextInt(accountCount - 1)) % accountCount;
+                try {
+                    transferOperation.executeMoneyTransfer("account-" + from, "account-" + to, 1L + random.nextInt(50));
+                } catch (AccountInsufficientFundsException e) {
+                    // expected for some of the transfers
+                } catch (Throwable e) {
+                    unexpectedFailures.incrementAndGet();
+                }
+            });
+        }
+        executorService.shutdown();
+
+        // Then
+        assertThat(executorService.awaitTermination(30, TimeUnit.SECONDS), equalTo(true));
+        assertThat(unexpectedFailures.get(), equalTo(0));
+        long total = store.getAccounts().stream().mapToLong(Account::getBalance).sum();
+        assertThat(total, equalTo(accountCount * 100L));
+        assertThat(store.getAccounts().stream().allMatch(account -> account.getBalance() >= 0), equalTo(true));
+    }
+
+    @Test
+    public void neverOverdrawsAnAccountChangedOutsideTheShards() throws Throwable {
+        // Given - accounts also taken from and given back to by other threads, as a failed transfer is reverted
+        int accountCount = 8;
+        for (int i = 0; i < accountCount; i++) {
+            store.storeAccount(new Account("account-" + i, 10L));
+        }
+        AtomicBoolean transferring = new AtomicBoolean(true);
+        AtomicInteger unexpectedFailures = new AtomicInteger();
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            writers.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (transferring.get()) {
+                    try {
+                        Account account = store.getAccount("account-" + random.nextInt(accountCount));
+                        long amount = account.getBalance();
+                        if (amount > 0 && account.tryDeductFunds(amount)) {
+                            Thread.yield();
+                            account.addFunds(amount);
+                        }
+                    } catch (Throwable e) {
+                        unexpectedFailures.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        // When
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < 20000; i++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int from = random.nextInt(accountCount);
+                int to = (from + 1 + random.nextInt(accountCount - 1)) % accountCount;
+                try {
+                    transferOperation.executeMoneyTransfer("account-" + from, "account-" + to, 1L + random.nextInt(10));
+                } catch (AccountInsufficientFundsException e) {
+                    // expected for some of the transfers
+                } catch (Throwable e) {
+                    unexpectedFailures.incrementAndGet();
+                }
+                for (Account account : store.getAccounts()) {
+                    if (account.getBalance() < 0) {
+                        unexpectedFailures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executorService.shutdown();
+        boolean terminated = executorService.awaitTermination(30, TimeUnit.SECONDS);
+        transferring.set(false);
+        writers.shutdown();
+
+        // Then
+        assertThat(terminated, equalTo(true));
+        assertThat(writers.awaitTermination(10, TimeUnit.SECONDS), equalTo(true));
+        assertThat(unexpectedFailures.get(), equalTo(0));
+        long total = store.getAccounts().stream().mapToLong(Account::getBalance).sum();
+        assertThat(total, equalTo(accountCount * 10L));
+    }
+
+    @Test
+    public void stoppingFailsTheTransfersNotDebitedYetAndKeepsTheOthers() throws Throwable {
+        // Given
+        int accountCount = 64;
+        for (int i = 0; i < accountCount; i++) {
+            store.storeAccount(new Account("account-" + i, 100L));
+        }
+        AtomicInteger stopped = new AtomicInteger();
+        AtomicInteger unexpectedFailures = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < 20000; i++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int from = random.nextInt(accountCount);
+                int to = (from + 1 + random.nextInt(accountCount - 1)) % accountCount;
+                try {
+                    transferOperation.executeMoneyTransfer("account-" + from, "account-" + to, 1L + random.nextInt(50));
+                } catch (AccountInsufficientFundsException e) {
+                    // expected for some of the transfers
+                } catch (EngineStoppedException e) {
+                    stopped.incrementAndGet();
+                } catch (Throwable e) {
+                    unexpectedFailures.incrementAndGet();
+                }
+            });
+        }
+        executorService.shutdown();
+
+        // When
+        Thread.sleep(10);
+        transferOperation.close();
+
+        // Then
+        assertThat(executorService.awaitTermination(10, TimeUnit.SECONDS), equalTo(true));
+        assertThat(stopped.get() > 0, equalTo(true));
+        assertThat(unexpectedFailures.get(), equalTo(0));
+        long total = store.getAccounts().stream().mapToLong(Account::getBalance).sum();
+        assertThat(total, equalTo(accountCount * 100L));
+    }
+}
@@ -0,0 +1,51 @@
+package com.revolut.akalikin.operation.sharded;
+
+import com.revolut.akalikin.model.Account;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TransferRingBufferTest {
+
+    private final Account foo = new Account("foo");
+    private final Account bar = new Account("bar");
+
+    @Test
+    public void consumesPublishedTransfersInOrder() {
+        // Given
+        TransferRingBuffer ring = new TransferRingBuffer(4);
+        ring.tryPublish(foo, bar, 1L, null);
+        ring.tryPublish(bar, foo, 2L, null);
+
+        // When
+        List<Long> amounts = new ArrayList<>();
+        int consumed = ring.drain((from, to, amount, completion) -> amounts.add(amount), 10);
+
+        // Then
+        assertThat(consumed, equalTo(2));
+        assertThat(amounts.get(0), equalTo(1L));
+        assertThat(amounts.get(1), equalTo(2L));
+        assertThat(ring.isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void rejectsPublishingWhenFullUntilConsumed() {
+        // Given
+        TransferRingBuffer ring = new TransferRingBuffer(2);
+        ring.tryPublish(foo, bar, 1L, null);
+        ring.tryPublish(foo, bar, 2L, null);
+
+        // When
+        boolean publishedWhenFull = ring.tryPublish(foo, bar, 3L, null);
+        ring.drain((from, to, amount, completion) -> { }, 1);
+        boolean publishedAfterConsuming = ring.tryPublish(foo, bar, 3L, null);
+
+        // Then
+        assertThat(publishedWhenFull, equalTo(false));
+        assertThat(publishedAfterConsuming, equalTo(true));
+    }
+}
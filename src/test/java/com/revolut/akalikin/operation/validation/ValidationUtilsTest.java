@@ -4,6 +4,7 @@ import com.revolut.akalikin.exception.AccountIdMalformedException;
 import com.revolut.akalikin.exception.InvalidInitialBalanceException;
 import com.revolut.akalikin.exception.InvalidRequestException;
 import com.revolut.akalikin.exception.InvalidTransferAmountException;
+import com.revolut.akalikin.exception.TransferRequestForTheSameAccountException;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -94,4 +95,13 @@ public class ValidationUtilsTest {
         // When
         ValidationUtils.validateAmount(0L);
     }
+
+    @Test
+    public void throwsOnTransferToTheSameAccount() throws InvalidRequestException {
+        // Then - expected exception
+        expectedException.expect(TransferRequestForTheSameAccountException.class);
+
+        // When
+        ValidationUtils.validateTransfer("foo", "foo", 100L);
+    }
 }